@@ -0,0 +1,121 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.qpid.server.qmf2;
+
+// Misc Imports
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class limits the rate at which the QmfManagementAgent raises lifecycle Events (clientConnect, queueDeclare,
+ * bind, subscribe etc.) on a per Event class basis.
+ * <p>
+ * When something like a connection storm occurs the broker model calls childAdded()/childRemoved() at a very high
+ * rate and raising a QMF2 Event for each call floods the QMF topic and every Console listening to it. The limiter
+ * uses a simple fixed window: each Event class with a configured limit may raise at most that many Events per
+ * window and any further Events of that class are counted rather than raised. The QmfManagementAgent calls
+ * endWindow() periodically to start a new window and raises an aggregate eventBurstSummary Event for each class
+ * that had Events suppressed, so Consoles lose the detail of a burst but can still account for its size.
+ * <p>
+ * Event classes without a configured limit are never suppressed. All methods are safe to call concurrently, the
+ * counts are only approximate where acquire() races with endWindow() but that doesn't matter for this purpose.
+ */
+final class EventRateLimiter
+{
+    /**
+     * The maximum number of Events per window keyed by QMF schema Event class name, e.g. "clientConnect".
+     */
+    private final Map<String, Long> _limits;
+
+    /**
+     * The number of Events raised and suppressed in the current window, keyed by QMF schema Event class name.
+     */
+    private final ConcurrentMap<String, AtomicLong> _raised = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> _suppressed = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Construct an EventRateLimiter.
+     * @param limits the maximum number of Events per window keyed by QMF schema Event class name.
+     */
+    EventRateLimiter(final Map<String, Long> limits)
+    {
+        _limits = new HashMap<String, Long>(limits);
+        for (String eventClass : _limits.keySet())
+        {
+            _raised.put(eventClass, new AtomicLong());
+            _suppressed.put(eventClass, new AtomicLong());
+        }
+    }
+
+    /**
+     * Returns whether any Event class has a limit configured, if not there is no need to call endWindow().
+     * @return true if any Event class has a limit configured.
+     */
+    boolean isEnabled()
+    {
+        return !_limits.isEmpty();
+    }
+
+    /**
+     * Called before raising an Event of the given class to find out whether it should be raised or suppressed.
+     * @param eventClass the QMF schema Event class name of the Event about to be raised.
+     * @return true if the Event should be raised, false if it has been counted as suppressed.
+     */
+    boolean acquire(final String eventClass)
+    {
+        Long limit = _limits.get(eventClass);
+        if (limit == null || _raised.get(eventClass).incrementAndGet() <= limit)
+        {
+            return true;
+        }
+
+        _suppressed.get(eventClass).incrementAndGet();
+        return false;
+    }
+
+    /**
+     * End the current window and start a new one.
+     * @return the number of Events suppressed during the window that has just ended keyed by QMF schema Event
+     * class name, Event classes that had no Events suppressed are omitted.
+     */
+    Map<String, Long> endWindow()
+    {
+        Map<String, Long> suppressed = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : _suppressed.entrySet())
+        {
+            long count = entry.getValue().getAndSet(0);
+            if (count > 0)
+            {
+                suppressed.put(entry.getKey(), count);
+            }
+        }
+
+        for (AtomicLong raised : _raised.values())
+        {
+            raised.set(0);
+        }
+        return suppressed;
+    }
+}
@@ -25,7 +25,10 @@ package org.apache.qpid.server.qmf2;
 
 import static org.apache.qpid.qmf2.common.WorkItem.WorkItemType.METHOD_CALL;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
@@ -36,6 +39,7 @@ import org.apache.qpid.qmf2.agent.MethodCallParams;
 import org.apache.qpid.qmf2.agent.MethodCallWorkItem;
 import org.apache.qpid.qmf2.agent.QmfAgentData;
 import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfEvent;
 import org.apache.qpid.qmf2.common.QmfEventListener;
 import org.apache.qpid.qmf2.common.QmfException;
 import org.apache.qpid.qmf2.common.WorkItem;
@@ -52,6 +56,7 @@ import org.apache.qpid.server.model.Session;
 import org.apache.qpid.server.model.State;
 import org.apache.qpid.server.model.VirtualHost;
 import org.apache.qpid.server.model.VirtualHostNode;
+import org.apache.qpid.server.qmf2.agentdata.SampledAgentData;
 
 // Simple Logging Facade 4 Java
 // QMF2 Imports
@@ -81,8 +86,66 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
     // Set heartbeat interval to 10 seconds. TODO Should probably be config driven, but I *think* that this is
     // different than "heartbeat.delay" and "heartbeat.timeoutFactor" currently present in the config?
     private static final int HEARTBEAT_INTERVAL = 10;
+
+    // The interval in milliseconds between statistics snapshots. Objects are only actually re-sampled in a snapshot
+    // once the sampling interval configured for their class has elapsed, so this is the finest sampling granularity.
+    private static final long SNAPSHOT_INTERVAL = 1000;
+
+    // The length in seconds of the window that the eventRateLimits apply to, eventBurstSummary Events are raised
+    // at the end of each window for any Event classes that had Events suppressed during the window.
+    private static final long EVENT_RATE_WINDOW = 1;
+
     private Agent _agent = null;
 
+    // Used to schedule the StatisticsSnapshot and EventBurstSummary TimerTasks.
+    private Timer _timer = null;
+
+    /**
+     * This TimerTask takes a snapshot of the statistics of every managed object in a single pass, see SampledAgentData.
+     * Queries and Subscriptions are then served from the snapshots rather than by reading the live broker statistics.
+     */
+    private final class StatisticsSnapshot extends TimerTask
+    {
+        public void run()
+        {
+            long now = System.currentTimeMillis();
+            for (QmfAgentData object : _objects.values())
+            {
+                if (object instanceof SampledAgentData)
+                {
+                    try
+                    {
+                        ((SampledAgentData)object).snapshot(now);
+                    }
+                    catch (RuntimeException re)
+                    { // The peer ConfiguredObject may be being deleted, don't let that stop the other snapshots.
+                        _log.debug("Exception caught taking statistics snapshot", re);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This TimerTask ends the current event rate limiting window and raises an eventBurstSummary Event for each
+     * Event class that had Events suppressed during the window, see EventRateLimiter.
+     */
+    private final class EventBurstSummary extends TimerTask
+    {
+        public void run()
+        {
+            Map<String, Long> suppressed = _eventRateLimiter.endWindow();
+            if (_brokerData != null)
+            {
+                for (Map.Entry<String, Long> entry : suppressed.entrySet())
+                {
+                    _agent.raiseEvent(_brokerData.createEventBurstSummaryEvent(entry.getKey(), entry.getValue(),
+                                                                               EVENT_RATE_WINDOW));
+                }
+            }
+        }
+    }
+
     // The first Connection Object relates to the QmfManagementAgent, we use this flag to avoid mapping that Connection
     // to a QMF Object thus hiding it from Consoles. This is done to provide consistency with the C++ Broker which
     // also "hides" its own private AMQP Connections, Queues & Bindings.
@@ -91,6 +154,16 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
     private final Broker<?> _broker;          // Passed in by Plugin bootstrapping.
     private final String _defaultVirtualHost; // Pulled from the broker attributes.
 
+    // The QmfAgentData Broker Object, retained so that its name resolution cache can be kept in step with the
+    // broker model as Exchanges, Queues and Bindings are added and removed.
+    private org.apache.qpid.server.qmf2.agentdata.Broker _brokerData = null;
+
+    // The statistics sampling interval in seconds keyed by QMF schema class name, e.g. "queue".
+    private final Map<String, Long> _samplingIntervals;
+
+    // Limits the rate at which lifecycle Events are raised, keyed by QMF schema Event class name.
+    private final EventRateLimiter _eventRateLimiter;
+
     /**
      * A Map of QmfAgentData keyed by ConfiguredObject. This is mainly used for Management Object "lifecycle management".
      * In an ideal world the Agent class could retain all information, but I want to track ConfiguredObject state and
@@ -114,6 +187,10 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
     /**
      * Constructor. Creates the AMQP Connection to the Broker and starts the QMF2 Agent.
      * @param url the Connection URL to be used to construct the AMQP Connection.
+     * @param samplingIntervals the statistics sampling intervals as a comma separated list of
+     * {@literal <class-name>=<seconds>}, may be null or empty.
+     * @param eventRateLimits the maximum lifecycle Events per second as a comma separated list of
+     * {@literal <event-class-name>=<events>}, may be null or empty.
      * @param broker the root Broker Management Object from which the other Management Objects may be obtained.
      * to work without explicitly setting a Virtual Host, which I think is necessary because the C++ Broker and
      * the python command line tools aren't currently Virtual Host aware (are they?). The intention is to mark
@@ -121,10 +198,13 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
      * the non-default Virtual Host prefix their names with {@literal [vhost:<vhost-name>/]}. This approach *ought* to allow
      * non-Virtual Host aware command line tools the ability to add queues/exchanges to a particular vhost.
      */
-    public QmfManagementAgent(final String url, final Broker broker)
+    public QmfManagementAgent(final String url, final String samplingIntervals, final String eventRateLimits,
+                              final Broker broker)
     {
         _broker = broker;
         _defaultVirtualHost = broker.getDefaultVirtualHost();
+        _samplingIntervals = parseClassSettings(samplingIntervals, "samplingIntervals");
+        _eventRateLimiter = new EventRateLimiter(parseClassSettings(eventRateLimits, "eventRateLimits"));
 
         try
         {
@@ -146,6 +226,7 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
                 // Register the schema for the Management Objects. These don't have to be completely populated
                 // the minimum is to register package name and class name for the QmfAgentData.
                 _agent.registerObjectClass(org.apache.qpid.server.qmf2.agentdata.Broker.getSchema());
+                _agent.registerEventClass(org.apache.qpid.server.qmf2.agentdata.Broker.getEventBurstSummarySchema());
                 _agent.registerObjectClass(org.apache.qpid.server.qmf2.agentdata.Connection.getSchema());
                 _agent.registerEventClass(org.apache.qpid.server.qmf2.agentdata.Connection.getClientConnectSchema());
                 _agent.registerEventClass(org.apache.qpid.server.qmf2.agentdata.Connection.getClientDisconnectSchema());
@@ -170,6 +251,16 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
 
                 // Initialise QmfAgentData Objects and track changes to the broker Management Objects.
                 registerConfigurationChangeListeners();
+
+                // Periodically snapshot the statistics of the QmfAgentData Objects.
+                _timer = new Timer(true);
+                _timer.scheduleAtFixedRate(new StatisticsSnapshot(), SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL);
+
+                // If any lifecycle Events are rate limited periodically summarise those that have been suppressed.
+                if (_eventRateLimiter.isEnabled())
+                {
+                    _timer.scheduleAtFixedRate(new EventBurstSummary(), EVENT_RATE_WINDOW*1000, EVENT_RATE_WINDOW*1000);
+                }
             }
         }
         catch (QmfException qmfe)
@@ -184,11 +275,55 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
         }
     }
 
+    /**
+     * Parse a per class Plugin attribute, which is a comma separated list of {@literal <class-name>=<value>}
+     * e.g. "queue=1,binding=60,session=60" for samplingIntervals or "clientConnect=50,subscribe=100" for
+     * eventRateLimits. Malformed entries are logged and ignored.
+     * @param setting the Plugin attribute value, may be null or empty.
+     * @param attributeName the name of the Plugin attribute, used when logging malformed entries.
+     * @return a Map of the values keyed by QMF schema class name.
+     */
+    private static Map<String, Long> parseClassSettings(final String setting, final String attributeName)
+    {
+        Map<String, Long> values = new HashMap<String, Long>();
+        if (setting != null)
+        {
+            for (String entry : setting.split(","))
+            {
+                entry = entry.trim();
+                if (entry.length() == 0)
+                {
+                    continue;
+                }
+
+                String[] pair = entry.split("=");
+                try
+                {
+                    if (pair.length != 2)
+                    {
+                        throw new NumberFormatException();
+                    }
+                    values.put(pair[0].trim(), Long.parseLong(pair[1].trim()));
+                }
+                catch (NumberFormatException nfe)
+                {
+                    _log.info("Ignoring malformed {} entry {}", attributeName, entry);
+                }
+            }
+        }
+        return values;
+    }
+
     /**
      * Close the QmfManagementAgent clearing the QMF2 Agent and freeing its resources.
      */
     public void close()
     {
+        if (_timer != null)
+        {
+            _timer.cancel();
+        }
+
         if (isConnected())
         {
             _agent.destroy();
@@ -389,7 +524,8 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
 
         if (child instanceof Broker)
         {
-            data = new org.apache.qpid.server.qmf2.agentdata.Broker((Broker)child);
+            _brokerData = new org.apache.qpid.server.qmf2.agentdata.Broker((Broker)child);
+            data = _brokerData;
         }
         else if (child instanceof Connection)
         {
@@ -401,7 +537,7 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
                 _objects.put(child, data);
 
                 // Raise a Client Connect Event.
-                _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Connection)data).createClientConnectEvent());
+                raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Connection)data).createClientConnectEvent());
             }
             agentConnection = false; // Only ignore the first Connection, which is the one from the Agent. 
         }
@@ -427,7 +563,7 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
                 _objects.put(child, data);
 
                 // Raise an Exchange Declare Event.
-                _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Exchange)data).createExchangeDeclareEvent());
+                raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Exchange)data).createExchangeDeclareEvent());
 
             }
         }
@@ -441,7 +577,7 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
                 _objects.put(child, data);
 
                 // Raise a Queue Declare Event.
-                _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Queue)data).createQueueDeclareEvent());
+                raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Queue)data).createQueueDeclareEvent());
             }
         }
         else if (child instanceof Binding)
@@ -459,7 +595,7 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
                 if (!eName.equals("<<default>>")) // Don't send Event for Binding to default direct.
                 {
                     // Raise a Bind Event.
-                    _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Binding)data).createBindEvent());
+                    raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Binding)data).createBindEvent());
                 }
             }
 
@@ -501,7 +637,7 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
                 {
                     subscription.setQueueRef(ref.getObjectId(), (Queue)object);
                     // Raise a Subscribe Event - N.B. Need to do it *after* we've set the queueRef.
-                    _agent.raiseEvent(subscription.createSubscribeEvent());
+                    raiseEvent(subscription.createSubscribeEvent());
                 }
                 else if (object instanceof Session)
                 {
@@ -515,6 +651,14 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
             // If we've created new QmfAgentData we register it with the Agent.
             if (data != null)
             {
+                if (data instanceof SampledAgentData)
+                { // Set the statistics sampling interval configured for the QMF schema class, if any.
+                    Long samplingInterval = _samplingIntervals.get(data.getSchemaClassId().getClassName());
+                    if (samplingInterval != null)
+                    {
+                        ((SampledAgentData)data).setSamplingInterval(samplingInterval*1000);
+                    }
+                }
                 _agent.addObject(data);
             }
         }
@@ -523,6 +667,11 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
             _log.error("QmfException caught in QmfManagementAgent.addObject()", qmfe);
         }
 
+        if (_brokerData != null)
+        {
+            _brokerData.addToNameCache(object, child);
+        }
+
         child.addChangeListener(this);
     }
 
@@ -548,6 +697,11 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
 
         child.removeChangeListener(this);
 
+        if (_brokerData != null)
+        {
+            _brokerData.removeFromNameCache(child);
+        }
+
         // Look up the associated QmfAgentData and mark it for deletion by the Agent.
         QmfAgentData data = _objects.get(child);
 
@@ -556,7 +710,7 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
             if (child instanceof Connection)
             {
                 // Raise a Client Disconnect Event.
-                _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Connection)data).createClientDisconnectEvent());
+                raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Connection)data).createClientDisconnectEvent());
             }
             else if (child instanceof Session)
             {
@@ -565,12 +719,12 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
             else if (child instanceof Exchange)
             {
                 // Raise an Exchange Delete Event.
-                _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Exchange)data).createExchangeDeleteEvent());
+                raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Exchange)data).createExchangeDeleteEvent());
             }
             else if (child instanceof Queue)
             {
                 // Raise a Queue Delete Event.
-                _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Queue)data).createQueueDeleteEvent());
+                raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Queue)data).createQueueDeleteEvent());
             }
             else if (child instanceof Binding)
             {
@@ -578,13 +732,13 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
                 if (!eName.equals("<<default>>")) // Don't send Event for Unbinding from default direct.
                 {
                     // Raise an Unbind Event.
-                    _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Binding)data).createUnbindEvent());
+                    raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Binding)data).createUnbindEvent());
                 }
             }
             else if (child instanceof Consumer)
             {
                 // Raise an Unsubscribe Event.
-                _agent.raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Subscription)data).createUnsubscribeEvent());
+                raiseEvent(((org.apache.qpid.server.qmf2.agentdata.Subscription)data).createUnsubscribeEvent());
             }
 
             data.destroy();
@@ -594,6 +748,19 @@ public class QmfManagementAgent implements ConfigurationChangeListener, QmfEvent
         _objects.remove(child);
     }
 
+    /**
+     * Raise a lifecycle Event unless its Event class is currently being rate limited, in which case the Event
+     * is just counted and will be included in the next eventBurstSummary Event, see EventRateLimiter.
+     * @param event the lifecycle Event to raise.
+     */
+    private void raiseEvent(final QmfEvent event)
+    {
+        if (_eventRateLimiter.acquire(event.getSchemaClassId().getClassName()))
+        {
+            _agent.raiseEvent(event);
+        }
+    }
+
     // ******************************* QmfEventListener implementation method *******************************
 
     /**
@@ -30,7 +30,25 @@ public interface QmfManagementPlugin<X extends QmfManagementPlugin<X>> extends P
 
     // attributes
     String CONNECTION_URL = "connectionURL";
+    String SAMPLING_INTERVALS = "samplingIntervals";
+    String EVENT_RATE_LIMITS = "eventRateLimits";
 
     @ManagedAttribute(defaultValue = "amqp://guest:guest@/?brokerlist='tcp://0.0.0.0:5672'")
     String getConnectionURL();
+
+    /**
+     * The statistics sampling interval for each QMF schema class as a comma separated list of
+     * {@literal <class-name>=<seconds>} e.g. "queue=1,binding=60,session=60". Classes not listed are
+     * sampled every second.
+     */
+    @ManagedAttribute(defaultValue = "")
+    String getSamplingIntervals();
+
+    /**
+     * The maximum number of lifecycle Events raised per second for each QMF Event class as a comma separated list
+     * of {@literal <event-class-name>=<events>}, e.g. "clientConnect=50,clientDisconnect=50". Events over the limit
+     * are summarised by eventBurstSummary Events, Event classes that aren't listed are not limited.
+     */
+    @ManagedAttribute(defaultValue = "")
+    String getEventRateLimits();
 }
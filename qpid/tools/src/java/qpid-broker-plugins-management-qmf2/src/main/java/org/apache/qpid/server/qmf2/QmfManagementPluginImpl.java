@@ -77,9 +77,20 @@ import org.apache.qpid.server.model.adapter.AbstractPluginAdapter;
  *    "id" : "26887211-842c-3c4a-ab09-b1a1f64de369",
  *    "name" : "qmf2Management",
  *    "pluginType" : "MANAGEMENT-QMF2",
- *    "connectionURL" : "amqp://guest:guest@/?brokerlist='tcp://0.0.0.0:5672'"
+ *    "connectionURL" : "amqp://guest:guest@/?brokerlist='tcp://0.0.0.0:5672'",
+ *    "samplingIntervals" : "queue=1,connection=10,exchange=10,subscription=60,binding=60,session=60",
+ *    "eventRateLimits" : "clientConnect=50,clientDisconnect=50,subscribe=100,unsubscribe=100"
  * }]
  * </pre>
+ * The optional "samplingIntervals" attribute sets how often (in seconds) the statistics of each QMF schema class
+ * are read from the broker model, classes that aren't listed have their statistics read every second. Queries and
+ * subscriptions are served from the most recently read statistics rather than reading the broker model directly.
+ * <p>
+ * The optional "eventRateLimits" attribute sets the maximum number of lifecycle Events of each QMF Event class
+ * raised per second, Events over the limit are not raised individually but are counted and reported by an
+ * eventBurstSummary Event at the end of the second. Event classes that aren't listed are not limited. Consoles
+ * that maintain state from Events (ConnectionAudit's topology for example) can't replay the suppressed Events, so
+ * on receipt of an eventBurstSummary they must resynchronise that state by querying the broker's objects.
  * @author Fraser Adams
  */
 public class QmfManagementPluginImpl extends AbstractPluginAdapter<QmfManagementPluginImpl> implements QmfManagementPlugin<QmfManagementPluginImpl>
@@ -102,6 +113,12 @@ public class QmfManagementPluginImpl extends AbstractPluginAdapter<QmfManagement
 
     @ManagedAttributeField
     private String _connectionURL;      // Pulled from the Plugin config.
+
+    @ManagedAttributeField
+    private String _samplingIntervals;  // Pulled from the Plugin config.
+
+    @ManagedAttributeField
+    private String _eventRateLimits;    // Pulled from the Plugin config.
     private QmfManagementAgent _agent;
 
     /**
@@ -181,7 +198,7 @@ public class QmfManagementPluginImpl extends AbstractPluginAdapter<QmfManagement
                     }
 
                     // Now create the *real* Agent which maps Broker Management Objects to QmdAgentData Objects.
-                    _agent = new QmfManagementAgent(_connectionURL, _broker);
+                    _agent = new QmfManagementAgent(_connectionURL, _samplingIntervals, _eventRateLimits, _broker);
                 }
 
 
@@ -239,4 +256,22 @@ public class QmfManagementPluginImpl extends AbstractPluginAdapter<QmfManagement
     {
         return _connectionURL;
     }
+
+    /**
+     * Accessor to retrieve the samplingIntervals attribute.
+     * @return the per schema class statistics sampling intervals of the Plugin.
+     */
+    public String getSamplingIntervals()
+    {
+        return _samplingIntervals;
+    }
+
+    /**
+     * Accessor to retrieve the eventRateLimits attribute.
+     * @return the per Event class lifecycle Event rate limits of the Plugin.
+     */
+    public String getEventRateLimits()
+    {
+        return _eventRateLimits;
+    }
 }
@@ -30,7 +30,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.agent.QmfAgentData;
 import org.apache.qpid.qmf2.common.QmfEvent;
 import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfEvent;
@@ -50,7 +49,7 @@ import org.apache.qpid.qmf2.common.SchemaObjectClass;
  *
  * @author Fraser Adams
  */
-public class Binding extends QmfAgentData
+public class Binding extends SampledAgentData
 {
     private static final Logger _log = LoggerFactory.getLogger(Binding.class);
 
@@ -186,19 +185,13 @@ public class Binding extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Binding to QMF2 broker properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Binding statistics to QMF2 binding statistics where possible.
+     * This method is called by snapshot() in SampledAgentData at most once per sampling interval.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics(final Map<String, Object> statistics)
     {
         // Statistics 
-        setValue("msgMatched", _binding.getMatches());
-
-        update(); // TODO only set update if a statistic has actually changed value.
-        return super.mapEncode();
+        statistics.put("msgMatched", _binding.getMatches());
     }
 }
@@ -23,9 +23,14 @@ package org.apache.qpid.server.qmf2.agentdata;
 
 // Misc Imports
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,8 +40,11 @@ import org.apache.qpid.qmf2.agent.QmfAgentData;
 import org.apache.qpid.qmf2.common.Handle;
 import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.common.QmfEvent;
+import org.apache.qpid.qmf2.common.SchemaEventClass;
 import org.apache.qpid.qmf2.common.SchemaObjectClass;
 import org.apache.qpid.server.model.Binding;
+import org.apache.qpid.server.model.ConfiguredObject;
 import org.apache.qpid.server.model.Exchange;
 import org.apache.qpid.server.model.LifetimePolicy;
 import org.apache.qpid.server.model.Port;
@@ -49,8 +57,7 @@ import org.apache.qpid.server.model.VirtualHostNode;
 
 // Simple Logging Facade 4 Java
 // QMF2 Imports
-/*import org.apache.qpid.qmf2.common.QmfEvent;
-import org.apache.qpid.qmf2.common.QmfEventListener;
+/*import org.apache.qpid.qmf2.common.QmfEventListener;
 import org.apache.qpid.qmf2.common.QmfException;
 import org.apache.qpid.qmf2.common.QmfType;*/
 // Java Broker model Imports
@@ -75,11 +82,21 @@ public class Broker extends QmfAgentData
      * QmfAgentData Objects of a given type.
      */
     private static final SchemaObjectClass _schema;
+    private static final SchemaEventClass _eventBurstSummarySchema;
     public static SchemaObjectClass getSchema()
     {
         return _schema;
     }
 
+    /**
+     * Returns the schema for the Event Burst Summary Event.
+     * @return the SchemaEventClass for the Event Burst Summary Event.
+     */
+    public static SchemaEventClass getEventBurstSummarySchema()
+    {
+        return _eventBurstSummarySchema;
+    }
+
     static
     {
         // Declare the schema for the QMF2 broker class.
@@ -87,11 +104,39 @@ public class Broker extends QmfAgentData
 
         // TODO
         //_schema.addProperty(new SchemaProperty("whatHappened", QmfType.TYPE_STRING));
+
+        // Declare the schema for the QMF2 eventBurstSummary Event class. This isn't part of the C++ broker's
+        // Management Schema, it's raised in place of lifecycle Events suppressed by the QmfManagementAgent's
+        // event rate limiting so that Consoles can still account for what happened during a burst.
+        _eventBurstSummarySchema = new SchemaEventClass("org.apache.qpid.broker", "eventBurstSummary");
     }
 
     private final org.apache.qpid.server.model.Broker<?> _broker; // Passed in by Plugin bootstrapping.
     private final String _defaultVirtualHost; // Pulled from the broker attributes.
 
+    /**
+     * These Maps cache the Exchange, Queue and Binding ConfiguredObjects looked up by NameParser so that bulk
+     * provisioning doesn't have to walk the broker model for every name that it resolves. Exchanges and Queues are
+     * keyed by the List {@literal [<vhost-name>, <name>]} and Bindings by the List
+     * {@literal [<vhost-name>, <exchange-name>, <queue-name>, <binding-key>]}. Lists are used rather than joining the
+     * names with a separator as queue names and binding keys may themselves contain any separator we might choose.
+     * The caches are maintained by the QmfManagementAgent's childAdded() and childRemoved() listeners via
+     * addToNameCache() and removeFromNameCache(), they are deliberately never populated by the NameParser itself
+     * as that could race with a concurrent childRemoved() and leave a deleted object in the cache. A cache miss
+     * simply falls back to walking the broker model. Virtual Hosts aren't cached as there are only ever a handful
+     * of them and the QmfManagementAgent doesn't listen for Virtual Hosts being added or removed.
+     */
+    private final ConcurrentMap<List<String>, Exchange> _exchangeCache =
+        new ConcurrentHashMap<List<String>, Exchange>();
+    private final ConcurrentMap<List<String>, Queue> _queueCache = new ConcurrentHashMap<List<String>, Queue>();
+    private final ConcurrentMap<List<String>, Binding> _bindingCache = new ConcurrentHashMap<List<String>, Binding>();
+
+    /**
+     * The reverse mapping from cached ConfiguredObject to its cache key, used to invalidate on childRemoved().
+     */
+    private final Map<ConfiguredObject, List<String>> _cacheKeys =
+        new ConcurrentHashMap<ConfiguredObject, List<String>>();
+
     /**
      * This inner class parses the name String that was passed in as a QMF method argument.
      * There are a few quirks with this name. In the first instance it may be prefixed with Virtual Host information
@@ -102,7 +147,8 @@ public class Broker extends QmfAgentData
      * <p>
      * N.B. the parsing that takes place in this class makes an assumption that there are no valid exchange or queue
      * names that contain a "/". This is probably a reasonable assumption given the way that a binding name is
-     * constructed, but it's worth recording the restriction here in case such a beast crops up.
+     * constructed, but it's worth recording the restriction here in case such a beast crops up. Binding keys are
+     * less constrained, so the binding key is taken to be everything after the queue name and may contain "/".
      * <p>
      * This class also provides accessors that allow the Exchange, Queue and Binding ConfiguredObjects for the
      * name parsed in the Constructor to be retrieved. This is generally useful because although in QMF the create
@@ -215,10 +261,18 @@ public class Broker extends QmfAgentData
                     i++;
                 }
 
-                if (i < splitName.length) // Extract the binding key if present (it's optional).
+                // Extract the binding key if present (it's optional). It's the remainder of the name following the
+                // i'th "/" rather than splitName[i] as binding keys may themselves contain a "/".
+                int start = 0;
+                for (int separators = 0; separators < i && start >= 0; separators++)
                 {
-                    _bindingKey = splitName[i];
-                    i++;
+                    start = name.indexOf('/', start);
+                    start = (start < 0) ? -1 : start + 1;
+                }
+
+                if (start >= 0)
+                {
+                    _bindingKey = name.substring(start);
                 }
             } // End of binding name parse.
         }
@@ -259,7 +313,13 @@ public class Broker extends QmfAgentData
         public Exchange getExchange()
         {
             // If we've not previously cached the _exchange and the previously parsed Virtual Host isn't null we do a 
-            // look up for the actual Exchange with the name _exchangeName and cache it.
+            // look up for the actual Exchange with the name _exchangeName and cache it. The Broker's name cache is
+            // tried first and we only walk the Virtual Host's Exchanges if it's not found there.
+            if (_exchange == null && _vhost != null)
+            {
+                _exchange = _exchangeCache.get(cacheKey(_vhostName, _exchangeName));
+            }
+
             if (_exchange == null && _vhost != null)
             {
                 for (Exchange exchange : _vhost.getExchanges())
@@ -291,7 +351,13 @@ public class Broker extends QmfAgentData
         public Queue getQueue()
         {
             // If we've not previously cached the _queue and the previously parsed Virtual Host isn't null we do a 
-            // look up for the actual Queue with the name _queueName and cache it.
+            // look up for the actual Queue with the name _queueName and cache it. The Broker's name cache is
+            // tried first and we only walk the Virtual Host's Queues if it's not found there.
+            if (_queue == null && _vhost != null)
+            {
+                _queue = _queueCache.get(cacheKey(_vhostName, _queueName));
+            }
+
             if (_queue == null && _vhost != null)
             {
                 for (Queue queue : _vhost.getQueues())
@@ -326,12 +392,18 @@ public class Broker extends QmfAgentData
             _exchange = getExchange(); // Need to get it via the accessor as it's initialised by lazy evaluation.
 
             // If we've not previously cached the _binding and the previously retrieved Exchange isn't null we do a 
-            // look up for the actual Binding with the name _bindingKey and cache it.
+            // look up for the actual Binding with the name _bindingKey to the Queue _queueName and cache it.
+            // The Broker's name cache is tried first and we only walk the Exchange's Bindings if it's not found there.
+            if (_binding == null && _exchange != null)
+            {
+                _binding = _bindingCache.get(cacheKey(_vhostName, _exchangeName, _queueName, _bindingKey));
+            }
+
             if (_binding == null && _exchange != null)
             {
                 for (Binding binding : _exchange.getBindings())
                 {
-                    if (binding.getName().equals(_bindingKey))
+                    if (binding.getName().equals(_bindingKey) && binding.getQueue().getName().equals(_queueName))
                     {
                         _binding = binding;
                         break;
@@ -432,6 +504,102 @@ public class Broker extends QmfAgentData
         setObjectId(new ObjectId("", "org.apache.qpid.broker:broker:amqp-broker", 0));
     }
 
+    /**
+     * Factory method to create an Event Burst Summary Event Object with timestamp of now.
+     * @param eventClass the class name of the Events that were suppressed, e.g. "clientConnect".
+     * @param suppressed the number of Events of that class suppressed during the interval.
+     * @param interval the length in seconds of the interval that the summary covers.
+     * @return the newly created Event Burst Summary Event Object.
+     */
+    public QmfEvent createEventBurstSummaryEvent(final String eventClass, final long suppressed, final long interval)
+    {
+        QmfEvent eventBurstSummary = new QmfEvent(_eventBurstSummarySchema);
+        eventBurstSummary.setSeverity("warn");
+        eventBurstSummary.setValue("eventClass", eventClass);
+        eventBurstSummary.setValue("suppressed", suppressed);
+        eventBurstSummary.setValue("interval", interval);
+        return eventBurstSummary;
+    }
+
+    /**
+     * Adds an Exchange, Queue or Binding ConfiguredObject to the name resolution cache used by NameParser. This is
+     * called by the QmfManagementAgent's childAdded() listener, other types of ConfiguredObject are ignored.
+     * <p>
+     * Bindings are keyed using the cache key of their Exchange so a Binding whose Exchange isn't cached doesn't get
+     * cached either, which is fine as it will still be found by NameParser walking the broker model.
+     *
+     * @param parent the parent object that the child is being added to.
+     * @param child the child object being added.
+     */
+    public void addToNameCache(final ConfiguredObject parent, final ConfiguredObject child)
+    {
+        List<String> key = null;
+        if (child instanceof Exchange && parent instanceof VirtualHost)
+        {
+            key = cacheKey(parent.getName(), child.getName());
+            _exchangeCache.put(key, (Exchange)child);
+        }
+        else if (child instanceof Queue && parent instanceof VirtualHost)
+        {
+            key = cacheKey(parent.getName(), child.getName());
+            _queueCache.put(key, (Queue)child);
+        }
+        else if (child instanceof Binding)
+        {
+            // Bindings are added to both their Exchange and their Queue, so this may already be cached.
+            Binding binding = (Binding)child;
+            List<String> exchangeKey = _cacheKeys.get(binding.getExchange());
+            if (exchangeKey != null && binding.getQueue() != null)
+            {
+                key = cacheKey(exchangeKey.get(0), exchangeKey.get(1), binding.getQueue().getName(), binding.getName());
+                _bindingCache.put(key, binding);
+            }
+        }
+
+        if (key != null)
+        {
+            _cacheKeys.put(child, key);
+        }
+    }
+
+    /**
+     * Returns the key used by the name resolution caches for the given names.
+     *
+     * @param names the Virtual Host name followed by the names identifying the object.
+     * @return the cache key.
+     */
+    private static List<String> cacheKey(final String... names)
+    {
+        return Arrays.asList(names);
+    }
+
+    /**
+     * Removes an Exchange, Queue or Binding ConfiguredObject from the name resolution cache used by NameParser.
+     * This is called by the QmfManagementAgent's childRemoved() listener. The entry is only removed if it still
+     * refers to the child being removed, so a new object that has reused the name isn't evicted.
+     *
+     * @param child the child object being removed.
+     */
+    public void removeFromNameCache(final ConfiguredObject child)
+    {
+        List<String> key = _cacheKeys.remove(child);
+        if (key != null)
+        {
+            if (child instanceof Exchange)
+            {
+                _exchangeCache.remove(key, child);
+            }
+            else if (child instanceof Queue)
+            {
+                _queueCache.remove(key, child);
+            }
+            else if (child instanceof Binding)
+            {
+                _bindingCache.remove(key, child);
+            }
+        }
+    }
+
     /**
      * This helper method checks the supplied properties Map for the "alternate-exchange" property, if it is present
      * the property is removed from the map and the alternate exchange is parsed to recover the Virtual Host name
@@ -472,6 +640,15 @@ public class Broker extends QmfAgentData
 
     /**
      * This method acts as a single entry point for QMF methods invoked on the Broker Object.
+     * <p>
+     * In addition to the standard create and delete methods used by qpid-config this Agent supports bulkCreate
+     * and bulkDelete, which take an "entries" argument comprising a List of Maps each containing the "type",
+     * "name" and (for bulkCreate) "properties" that would otherwise have been passed to create or delete. This
+     * allows large numbers of exchanges, queues and bindings to be provisioned in a single request/response round
+     * trip. The entries are applied in order and a failure of one entry doesn't prevent the remaining entries from
+     * being applied, instead the "results" output argument contains a Map for each entry recording the "type" and
+     * "name" along with "success" and, if the entry failed, "error_text". The "failures" output argument records
+     * the number of entries that failed.
      *
      * @param agent the org.apache.qpid.qmf2.agent.Agent instance that we call methodResponse() and raiseException() on.
      * @param handle the reply handle used by methodResponse() and raiseException().
@@ -483,11 +660,95 @@ public class Broker extends QmfAgentData
     {
         if (methodName.equals("create") || methodName.equals("delete"))
         {
-            QmfData outArgs = new QmfData();
-
             String name = inArgs.getStringValue("name");
             String type = inArgs.getStringValue("type");
+            Map<String, Object> properties = inArgs.getValue("properties");
+
+            String error = applyMethod(agent, methodName, name, type, properties);
+            if (error == null)
+            {
+                agent.methodResponse(methodName, handle, new QmfData(), null);
+            }
+            else
+            {
+                agent.raiseException(handle, error);
+            }
+        }
+        else if (methodName.equals("bulkCreate") || methodName.equals("bulkDelete"))
+        {
+            Object entries = inArgs.getValue("entries");
+            if (!(entries instanceof List))
+            {
+                agent.raiseException(handle, methodName + " requires an entries argument containing a List.");
+                return;
+            }
+
+            String entryMethodName = methodName.equals("bulkCreate") ? "create" : "delete";
+            List<Object> entryList = (List<Object>)entries;
+            List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(entryList.size());
+            int failures = 0;
+
+            for (Object entry : entryList)
+            {
+                Map<String, Object> result = new HashMap<String, Object>();
+                String error = null;
+                if (entry instanceof Map)
+                {
+                    QmfData entryArgs = new QmfData((Map)entry);
+                    String name = entryArgs.getStringValue("name");
+                    String type = entryArgs.getStringValue("type");
+                    Map<String, Object> properties = entryArgs.getValue("properties");
+
+                    result.put("name", name);
+                    result.put("type", type);
+                    error = applyMethod(agent, entryMethodName, name, type, properties);
+                }
+                else
+                {
+                    error = "Entry must be a Map containing type and name.";
+                }
+
+                result.put("success", error == null);
+                if (error != null)
+                {
+                    result.put("error_text", error);
+                    failures++;
+                }
+                results.add(result);
+            }
 
+            QmfData outArgs = new QmfData();
+            outArgs.setValue("results", results);
+            outArgs.setValue("failures", failures);
+            agent.methodResponse(methodName, handle, outArgs, null);
+        }
+        else // If methodName is not create, delete, bulkCreate or bulkDelete.
+        {
+            agent.raiseException(handle, methodName + " not yet implemented on Broker.");
+        }
+    } // End of invokeMethod.
+
+    /**
+     * Applies a single create or delete to the broker model. This is shared by the create/delete and the
+     * bulkCreate/bulkDelete methods so rather than raising an exception on the Agent it returns the error text.
+     *
+     * @param agent the org.apache.qpid.qmf2.agent.Agent instance, used to look up alternate exchanges.
+     * @param methodName the name of the operation, either "create" or "delete".
+     * @param name the name of the exchange, queue or binding being created or deleted.
+     * @param type the type of the object being created or deleted, "exchange", "queue" or "binding".
+     * @param properties the create properties, may be null.
+     * @return null if the operation succeeded otherwise the error text describing why it failed.
+     */
+    private String applyMethod(final Agent agent, final String methodName, final String name,
+                               final String type, final Map<String, Object> properties)
+    {
+        if (name == null || type == null)
+        {
+            return "Both type and name must be specified.";
+        }
+
+        try
+        { // NameParser is constructed in the try block so a malformed name is reported as a failure of this entry.
             NameParser nameParser = new NameParser(name, type);
             String vhostName = nameParser.getVirtualHostName();
             VirtualHost vhost = nameParser.getVirtualHost();
@@ -496,187 +757,178 @@ public class Broker extends QmfAgentData
             {
                 if (vhostName == null)
                 {
-                    agent.raiseException(handle, "VirtualHost names for exchange and queue must match.");
+                    return "VirtualHost names for exchange and queue must match.";
                 }
                 else
                 {
-                    agent.raiseException(handle, "VirtualHost " + vhostName + " not found.");
+                    return "VirtualHost " + vhostName + " not found.";
                 }
             }
+
+            if (methodName.equals("create"))
+            {
+                return create(agent, nameParser, type,
+                              (properties == null) ? new HashMap<String, Object>() : properties);
+            }
             else
             {
-                if (methodName.equals("create")) // method = create
-                {
-                    try
-                    {
-                        //boolean strict = inArgs.getBooleanValue("strict");
-                        Map<String, Object> properties = inArgs.getValue("properties");
-
-                        boolean durable = false;
-                        Object property = properties.get("durable");
-                        if (property != null && property instanceof Boolean)
-                        {
-                            Boolean durableProperty = (Boolean)property;
-                            durable = durableProperty.booleanValue();
-                            properties.remove("durable");
-                        }
-
-                        if (type.equals("exchange")) // create exchange.
-                        {
-/*
-System.out.println("Create Exchange");
-System.out.println("vhostName = " + vhostName);
-System.out.println("exchange name = " + nameParser.getExchangeName());
-System.out.println("properties = " + properties);
-*/
-                            String exchangeType = "";
-                            property = properties.get("exchange-type");
-                            if (property != null && property instanceof String)
-                            {
-                                exchangeType = property.toString();
-                                properties.remove("exchange-type");
-                            }
-
-                            String alternateExchange = parseAlternateExchange(vhostName, properties);
-                            if (alternateExchange != null && alternateExchange.equals("invalid"))
-                            {
-                                agent.raiseException(handle, "Alternate Exchange must belong to the same Virtual Host as the Exchange being added.");
-                                return;
-                            }
-
-                            // Note that for Qpid 0.20 the "qpid.msg_sequence=1" and "qpid.ive=1" properties are
-                            // not suppored, indeed no exchange properties seem to be supported yet.
-                            Map<String,Object> attributes = new HashMap<>();
-                            attributes.put(Exchange.NAME, nameParser.getExchangeName());
-                            attributes.put(Exchange.STATE, State.ACTIVE);
-                            attributes.put(Exchange.DURABLE, durable);
-                            attributes.put(Exchange.LIFETIME_POLICY, LifetimePolicy.PERMANENT);
-                            attributes.put(Exchange.TYPE, exchangeType);
-                            attributes.put(Exchange.ALTERNATE_EXCHANGE, alternateExchange);
-
-
-                            vhost.createExchange(attributes);
-
-                        } // End of create exchange.
-                        else if (type.equals("queue")) // create queue.
-                        {
-/*
-System.out.println("Create Queue");
-System.out.println("vhostName = " + vhostName);
-System.out.println("queue name = " + nameParser.getQueueName());
-System.out.println("properties = " + properties);
-*/
-
-                            // TODO Try to map from the QMF create queue properties to the closest equivalents on
-                            // the Java Broker. Unfortunately there are a *lot* of frustrating little differences.
-
-
-                            String alternateExchange = parseAlternateExchange(vhostName, properties);
-                            if (alternateExchange != null && alternateExchange.equals("invalid"))
-                            {
-                                agent.raiseException(handle, "Alternate Exchange must belong to the same Virtual Host as the Queue being added.");
-                                return;
-                            }
-
-                            // I don't *think* that it make sense to allow setting exclusive or autoDelete to
-                            // a queue created from config.
-                            Map<String,Object> attributes = new HashMap<String,Object>(properties);
-                            attributes.put(Queue.NAME, nameParser.getQueueName());
-                            attributes.put(Queue.DURABLE, durable);
-                            attributes.put(Queue.LIFETIME_POLICY, LifetimePolicy.PERMANENT);
-
-
-                            // Set the queue's alternateExchange, which is just a little bit involved......
-                            // The queue.setAttribute() method needs an org.apache.qpid.server.model.Exchange instance
-                            // not just a name, so we look up org.apache.qpid.server.qmf2.agentdata.Exchange by ID
-                            // and get its associated org.apache.qpid.server.model.Exchange. We can do a look up by ID
-                            // because we needed to use ObjectIds that were based on names in order to allow qpid-config
-                            // to work, so we may as well make use of this convenience here too.
-                            if (alternateExchange != null)
-                            {
-                                ObjectId objectId =
-                                        new ObjectId("", "org.apache.qpid.broker:exchange:" + alternateExchange, 0);
-
-                                // Look up Exchange QmfAgentData by ObjectId from the Agent's internal Object store.
-                                QmfAgentData object = agent.getObject(objectId);
-                                if (object != null)
-                                {
-                                    org.apache.qpid.server.qmf2.agentdata.Exchange ex =
-                                        (org.apache.qpid.server.qmf2.agentdata.Exchange)object;
-
-                                    Exchange altEx = ex.getExchange();
-                                    attributes.put(Queue.ALTERNATE_EXCHANGE, altEx.getId());
-                                }
-                            }
-                            Queue queue = vhost.createQueue(attributes);
-                        }
-                        else if (type.equals("binding")) // create binding.
-                        {
-                            Exchange exchange = nameParser.getExchange();
-                            if (exchange == null)
-                            {
-                                agent.raiseException(handle, "Cannot create binding on Exchange " +
-                                                     nameParser.getExchangeName());
-                                return;
-                            }
-                            else
-                            {
-                                Map<String, Object> attributes = Collections.emptyMap();
-                                exchange.createBinding(nameParser.getBindingKey(), nameParser.getQueue(),
-                                                       properties, attributes);
-                            }
-                        }
-
-                        agent.methodResponse(methodName, handle, outArgs, null);
-                    }
-                    catch (Exception e)
-                    {
-                        agent.raiseException(handle, e.getMessage());
-                    }
-                }
-                else // method = delete
+                delete(nameParser, type);
+                return null;
+            }
+        }
+        catch (Exception e)
+        { // Some broker exceptions have no message, fall back to toString() so the failure is still reported.
+            return (e.getMessage() == null) ? e.toString() : e.getMessage();
+        }
+    }
+
+    /**
+     * Creates the exchange, queue or binding described by the supplied NameParser.
+     *
+     * @param agent the org.apache.qpid.qmf2.agent.Agent instance, used to look up alternate exchanges.
+     * @param nameParser the NameParser holding the parsed name, which must have a valid Virtual Host.
+     * @param type the type of the object being created, "exchange", "queue" or "binding".
+     * @param properties the create properties, note that recognised properties are removed from this Map.
+     * @return null if the create succeeded otherwise the error text describing why it failed.
+     */
+    private String create(final Agent agent, final NameParser nameParser, final String type,
+                          final Map<String, Object> properties)
+    {
+        String vhostName = nameParser.getVirtualHostName();
+        VirtualHost vhost = nameParser.getVirtualHost();
+
+        //boolean strict = inArgs.getBooleanValue("strict");
+        boolean durable = false;
+        Object property = properties.get("durable");
+        if (property != null && property instanceof Boolean)
+        {
+            Boolean durableProperty = (Boolean)property;
+            durable = durableProperty.booleanValue();
+            properties.remove("durable");
+        }
+
+        if (type.equals("exchange")) // create exchange.
+        {
+            String exchangeType = "";
+            property = properties.get("exchange-type");
+            if (property != null && property instanceof String)
+            {
+                exchangeType = property.toString();
+                properties.remove("exchange-type");
+            }
+
+            String alternateExchange = parseAlternateExchange(vhostName, properties);
+            if (alternateExchange != null && alternateExchange.equals("invalid"))
+            {
+                return "Alternate Exchange must belong to the same Virtual Host as the Exchange being added.";
+            }
+
+            // Note that for Qpid 0.20 the "qpid.msg_sequence=1" and "qpid.ive=1" properties are
+            // not suppored, indeed no exchange properties seem to be supported yet.
+            Map<String,Object> attributes = new HashMap<>();
+            attributes.put(Exchange.NAME, nameParser.getExchangeName());
+            attributes.put(Exchange.STATE, State.ACTIVE);
+            attributes.put(Exchange.DURABLE, durable);
+            attributes.put(Exchange.LIFETIME_POLICY, LifetimePolicy.PERMANENT);
+            attributes.put(Exchange.TYPE, exchangeType);
+            attributes.put(Exchange.ALTERNATE_EXCHANGE, alternateExchange);
+
+            vhost.createExchange(attributes);
+        } // End of create exchange.
+        else if (type.equals("queue")) // create queue.
+        {
+            // TODO Try to map from the QMF create queue properties to the closest equivalents on
+            // the Java Broker. Unfortunately there are a *lot* of frustrating little differences.
+
+            String alternateExchange = parseAlternateExchange(vhostName, properties);
+            if (alternateExchange != null && alternateExchange.equals("invalid"))
+            {
+                return "Alternate Exchange must belong to the same Virtual Host as the Queue being added.";
+            }
+
+            // I don't *think* that it make sense to allow setting exclusive or autoDelete to
+            // a queue created from config.
+            Map<String,Object> attributes = new HashMap<String,Object>(properties);
+            attributes.put(Queue.NAME, nameParser.getQueueName());
+            attributes.put(Queue.DURABLE, durable);
+            attributes.put(Queue.LIFETIME_POLICY, LifetimePolicy.PERMANENT);
+
+            // Set the queue's alternateExchange, which is just a little bit involved......
+            // The queue.setAttribute() method needs an org.apache.qpid.server.model.Exchange instance
+            // not just a name, so we look up org.apache.qpid.server.qmf2.agentdata.Exchange by ID
+            // and get its associated org.apache.qpid.server.model.Exchange. We can do a look up by ID
+            // because we needed to use ObjectIds that were based on names in order to allow qpid-config
+            // to work, so we may as well make use of this convenience here too.
+            if (alternateExchange != null)
+            {
+                ObjectId objectId =
+                        new ObjectId("", "org.apache.qpid.broker:exchange:" + alternateExchange, 0);
+
+                // Look up Exchange QmfAgentData by ObjectId from the Agent's internal Object store.
+                QmfAgentData object = agent.getObject(objectId);
+                if (object != null)
                 {
-                    try
-                    {
-                        if (type.equals("exchange")) // delete exchange.
-                        {
-                            Exchange exchange = nameParser.getExchange();
-                            if (exchange != null)
-                            {
-                                exchange.delete();
-                            }
-                        }
-                        else if (type.equals("queue")) // delete queue.
-                        {
-                            Queue queue = nameParser.getQueue();
-                            if (queue != null)
-                            {
-                                queue.deleteAndReturnCount();
-                            }
-                        }
-                        else if (type.equals("binding")) // delete binding.
-                        {
-                            Binding binding = nameParser.getBinding();
-                            if (binding != null)
-                            {
-                                binding.delete();
-                            }
-                        }
-
-                        agent.methodResponse(methodName, handle, outArgs, null);
-                    }
-                    catch (Exception e)
-                    {
-                        agent.raiseException(handle, e.getMessage());
-                    }
+                    org.apache.qpid.server.qmf2.agentdata.Exchange ex =
+                        (org.apache.qpid.server.qmf2.agentdata.Exchange)object;
+
+                    Exchange altEx = ex.getExchange();
+                    attributes.put(Queue.ALTERNATE_EXCHANGE, altEx.getId());
                 }
             }
+            vhost.createQueue(attributes);
         }
-        else // If methodName is not create or delete.
+        else if (type.equals("binding")) // create binding.
         {
-            agent.raiseException(handle, methodName + " not yet implemented on Broker.");
+            Exchange exchange = nameParser.getExchange();
+            if (exchange == null)
+            {
+                return "Cannot create binding on Exchange " + nameParser.getExchangeName();
+            }
+            else
+            {
+                Map<String, Object> attributes = Collections.emptyMap();
+                exchange.createBinding(nameParser.getBindingKey(), nameParser.getQueue(),
+                                       properties, attributes);
+            }
         }
-    } // End of invokeMethod.
+
+        return null;
+    }
+
+    /**
+     * Deletes the exchange, queue or binding described by the supplied NameParser. Deleting an object that
+     * doesn't exist is not treated as an error, which is consistent with the previous behaviour of delete.
+     *
+     * @param nameParser the NameParser holding the parsed name, which must have a valid Virtual Host.
+     * @param type the type of the object being deleted, "exchange", "queue" or "binding".
+     */
+    private void delete(final NameParser nameParser, final String type)
+    {
+        if (type.equals("exchange")) // delete exchange.
+        {
+            Exchange exchange = nameParser.getExchange();
+            if (exchange != null)
+            {
+                exchange.delete();
+            }
+        }
+        else if (type.equals("queue")) // delete queue.
+        {
+            Queue queue = nameParser.getQueue();
+            if (queue != null)
+            {
+                queue.deleteAndReturnCount();
+            }
+        }
+        else if (type.equals("binding")) // delete binding.
+        {
+            Binding binding = nameParser.getBinding();
+            if (binding != null)
+            {
+                binding.delete();
+            }
+        }
+    }
 
     /**
      * This method maps the org.apache.qpid.server.model.Broker to QMF2 broker properties where possible then
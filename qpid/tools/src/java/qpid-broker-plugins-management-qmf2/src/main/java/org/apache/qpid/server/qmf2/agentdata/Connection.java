@@ -29,7 +29,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.agent.QmfAgentData;
 import org.apache.qpid.qmf2.common.QmfEvent;
 import org.apache.qpid.qmf2.common.SchemaEventClass;
 //import org.apache.qpid.qmf2.common.SchemaMethod;
@@ -47,7 +46,7 @@ import org.apache.qpid.qmf2.common.SchemaObjectClass;
  *
  * @author Fraser Adams
  */
-public class Connection extends QmfAgentData
+public class Connection extends SampledAgentData
 {
     private static final Logger _log = LoggerFactory.getLogger(Connection.class);
 
@@ -168,25 +167,19 @@ public class Connection extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Connection to QMF2 connection properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Connection statistics to QMF2 connection statistics where possible.
+     * This method is called by snapshot() in SampledAgentData at most once per sampling interval.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics(final Map<String, Object> statistics)
     {
         // Statistics
         // closing Not implemented in Java Broker
-        setValue("framesFromClient", 0); // framesFromClient Not implemented in Java Broker
-        setValue("framesToClient", 0); // framesToClient Not implemented in Java Broker
-        setValue("bytesFromClient", _connection.getBytesIn());
-        setValue("bytesToClient", _connection.getBytesOut()); 
-        setValue("msgsFromClient", _connection.getMessagesIn());
-        setValue("msgsToClient", _connection.getMessagesOut());
-
-        update(); // TODO only set update if statistics change.
-        return super.mapEncode();
+        statistics.put("framesFromClient", 0); // framesFromClient Not implemented in Java Broker
+        statistics.put("framesToClient", 0); // framesToClient Not implemented in Java Broker
+        statistics.put("bytesFromClient", _connection.getBytesIn());
+        statistics.put("bytesToClient", _connection.getBytesOut()); 
+        statistics.put("msgsFromClient", _connection.getMessagesIn());
+        statistics.put("msgsToClient", _connection.getMessagesOut());
     }
 }
@@ -30,7 +30,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.agent.QmfAgentData;
 import org.apache.qpid.qmf2.common.QmfEvent;
 import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.SchemaEventClass;
@@ -51,7 +50,7 @@ import org.apache.qpid.server.model.LifetimePolicy;
  *
  * @author Fraser Adams
  */
-public class Exchange extends QmfAgentData
+public class Exchange extends SampledAgentData
 {
     private static final Logger _log = LoggerFactory.getLogger(Exchange.class);
 
@@ -205,14 +204,11 @@ public class Exchange extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Exchange to QMF2 broker properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Exchange statistics to QMF2 exchange statistics where possible.
+     * This method is called by snapshot() in SampledAgentData at most once per sampling interval.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics(final Map<String, Object> statistics)
     {
         // Statistics
         long msgReceives = _exchange.getMessagesIn();
@@ -223,7 +219,7 @@ public class Exchange extends QmfAgentData
         long byteDrops = _exchange.getBytesDropped();
         long byteRoutes = byteReceives - byteDrops;
 
-        setValue("producerCount", _exchange.getPublishers().size());
+        statistics.put("producerCount", _exchange.getPublishers().size());
 
         // We have to modify the value of bindingCount for Exchange because the QmfManagementAgent "hides" the
         // QMF Objects that relate to its own AMQP Connection/Queues/Bindings so the bindingCount for default direct
@@ -241,16 +237,13 @@ public class Exchange extends QmfAgentData
         {
             bindingCount -= 1;
         }
-        setValue("bindingCount", bindingCount);
-
-        setValue("msgReceives", msgReceives);
-        setValue("msgDrops", msgDrops);
-        setValue("msgRoutes", msgRoutes);
-        setValue("byteReceives", byteReceives);
-        setValue("byteDrops", byteDrops);
-        setValue("byteRoutes", byteRoutes);
-
-        update(); // TODO only set update if a statistic has actually changed value.
-        return super.mapEncode();
+        statistics.put("bindingCount", bindingCount);
+
+        statistics.put("msgReceives", msgReceives);
+        statistics.put("msgDrops", msgDrops);
+        statistics.put("msgRoutes", msgRoutes);
+        statistics.put("byteReceives", byteReceives);
+        statistics.put("byteDrops", byteDrops);
+        statistics.put("byteRoutes", byteRoutes);
     }
 }
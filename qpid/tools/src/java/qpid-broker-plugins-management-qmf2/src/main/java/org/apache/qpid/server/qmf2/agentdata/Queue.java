@@ -31,7 +31,6 @@ import org.slf4j.LoggerFactory;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.agent.Agent;
-import org.apache.qpid.qmf2.agent.QmfAgentData;
 import org.apache.qpid.qmf2.common.QmfEvent;
 import org.apache.qpid.qmf2.common.Handle;
 import org.apache.qpid.qmf2.common.ObjectId;
@@ -56,7 +55,7 @@ import org.apache.qpid.server.model.LifetimePolicy;
  *
  * @author Fraser Adams
  */
-public class Queue extends QmfAgentData
+public class Queue extends SampledAgentData
 {
     private static final Logger _log = LoggerFactory.getLogger(Queue.class);
 
@@ -257,21 +256,31 @@ public class Queue extends QmfAgentData
             }
         }
 
+        return super.mapEncode();
+    }
+
+    /**
+     * This method maps the org.apache.qpid.server.model.Queue statistics to QMF2 queue statistics where possible.
+     * This method is called by snapshot() in SampledAgentData at most once per sampling interval.
+     */
+    @Override
+    protected void sampleStatistics(final Map<String, Object> statistics)
+    {
         // Statistics
-        setValue("msgTotalEnqueues", _queue.getTotalEnqueuedMessages());
-        setValue("msgTotalDequeues", _queue.getTotalDequeuedMessages());
+        statistics.put("msgTotalEnqueues", _queue.getTotalEnqueuedMessages());
+        statistics.put("msgTotalDequeues", _queue.getTotalDequeuedMessages());
         // msgTxnEnqueues not implemented in Java Broker
         // msgTxnDequeues not implemented in Java Broker
-        setValue("msgPersistEnqueues", _queue.getPersistentEnqueuedMessages());
-        setValue("msgPersistDequeues", _queue.getPersistentDequeuedMessages());
-        setValue("msgDepth", _queue.getQueueDepthMessages());
-        setValue("byteDepth", _queue.getQueueDepthBytes());
-        setValue("byteTotalEnqueues", _queue.getTotalEnqueuedBytes());
-        setValue("byteTotalDequeues", _queue.getTotalDequeuedBytes());
+        statistics.put("msgPersistEnqueues", _queue.getPersistentEnqueuedMessages());
+        statistics.put("msgPersistDequeues", _queue.getPersistentDequeuedMessages());
+        statistics.put("msgDepth", _queue.getQueueDepthMessages());
+        statistics.put("byteDepth", _queue.getQueueDepthBytes());
+        statistics.put("byteTotalEnqueues", _queue.getTotalEnqueuedBytes());
+        statistics.put("byteTotalDequeues", _queue.getTotalDequeuedBytes());
         // byteTxnEnqueues not implemented in Java Broker
         // byteTxnDequeues not implemented in Java Broker
-        setValue("bytePersistEnqueues", _queue.getPersistentEnqueuedBytes());
-        setValue("bytePersistDequeues", _queue.getPersistentDequeuedBytes());
+        statistics.put("bytePersistEnqueues", _queue.getPersistentEnqueuedBytes());
+        statistics.put("bytePersistDequeues", _queue.getPersistentDequeuedBytes());
 
         // Flow-to-disk Statistics not implemented in Java Broker
         // releases & acquires not implemented in Java Broker
@@ -283,15 +292,12 @@ public class Queue extends QmfAgentData
         // discardsPurge not implemented in Java Broker
         // reroutes not implemented in Java Broker
 
-        setValue("consumerCount", _queue.getConsumerCount());
-        setValue("bindingCount", _queue.getBindingCount());
-        setValue("unackedMessages", _queue.getUnacknowledgedMessages());
+        statistics.put("consumerCount", _queue.getConsumerCount());
+        statistics.put("bindingCount", _queue.getBindingCount());
+        statistics.put("unackedMessages", _queue.getUnacknowledgedMessages());
 
-        setValue("messageLatency", "Not yet implemented");
+        statistics.put("messageLatency", "Not yet implemented");
         // flowStopped not implemented in Java Broker
         // flowStoppedCount not implemented in Java Broker
-
-        update(); // TODO only update if statistics have actually changed.
-        return super.mapEncode();
     }
 }
@@ -0,0 +1,176 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.qpid.server.qmf2.agentdata;
+
+// Misc Imports
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.agent.QmfAgentData;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+
+/**
+ * This class is the base class for the QmfAgentData Management Objects whose statistics are read from their peer
+ * org.apache.qpid.server.model.ConfiguredObject.
+ * <p>
+ * Rather than reading the live broker statistics on whichever thread happens to be serving a query or subscription,
+ * the QmfManagementAgent periodically calls snapshot() on every managed object in a single pass. This copies the
+ * statistics into an immutable Map which is published by a single volatile write, so the sampling thread never
+ * modifies the object's underlying property Map which is written by other threads. mapEncode() merges in the
+ * statistics from the most recent snapshot and getValue() and hasValue() consult them too, so they are also seen
+ * by QmfQuery predicates evaluated by the Agent. The number of reads of the broker's counters is therefore bounded
+ * no matter how many Consoles are querying and every Console sees a consistent view of an object's statistics.
+ * <p>
+ * An object is only re-sampled by snapshot() once its sampling interval has elapsed, the sampling interval may be
+ * configured per schema class via the QmfManagementPlugin "samplingIntervals" attribute. This allows for example
+ * queue statistics to be sampled every second whilst binding and session statistics, which are rarely interesting,
+ * are sampled every minute.
+ * <p>
+ * Note that update() is only called when a snapshot finds that the statistics have actually changed, so
+ * Subscriptions only republish objects whose statistics have changed.
+ */
+public abstract class SampledAgentData extends QmfAgentData
+{
+    private long _samplingInterval = 0; // The sampling interval in milliseconds, zero means sample on every snapshot.
+    private long _lastSampleTime = 0;   // The time in milliseconds that the statistics were last sampled.
+
+    /**
+     * The most recent immutable snapshot of the statistics, null until the first snapshot has been taken.
+     */
+    private volatile Map<String, Object> _statistics = null;
+
+    /**
+     * Construct a SampledAgentData object of the type described by the given SchemaObjectClass.
+     *
+     * @param schema the schema describing the type of this QmfAgentData object.
+     */
+    public SampledAgentData(final SchemaObjectClass schema)
+    {
+        super(schema);
+    }
+
+    /**
+     * Set the interval between successive samples of the statistics.
+     * @param samplingInterval the sampling interval in milliseconds, zero means sample on every snapshot.
+     */
+    public final synchronized void setSamplingInterval(final long samplingInterval)
+    {
+        _samplingInterval = samplingInterval;
+    }
+
+    /**
+     * Return the interval between successive samples of the statistics.
+     * @return the sampling interval in milliseconds, zero means sample on every snapshot.
+     */
+    public final synchronized long getSamplingInterval()
+    {
+        return _samplingInterval;
+    }
+
+    /**
+     * Read the statistics from the peer org.apache.qpid.server.model.ConfiguredObject into the supplied Map.
+     * Subclasses should not call setValue() or update() as that is handled by this class.
+     *
+     * @param statistics the Map that the statistics should be put into, keyed by QMF property name.
+     */
+    protected abstract void sampleStatistics(Map<String, Object> statistics);
+
+    /**
+     * Take a new snapshot of the statistics if the sampling interval has elapsed since they were last sampled.
+     * If the statistics have changed since the previous snapshot update() is called.
+     *
+     * @param now the current time in milliseconds, passed in so a single pass over all objects uses the same time.
+     */
+    public final synchronized void snapshot(final long now)
+    {
+        if (_statistics == null || now - _lastSampleTime >= _samplingInterval)
+        {
+            Map<String, Object> statistics = new HashMap<String, Object>();
+            sampleStatistics(statistics);
+            _lastSampleTime = now;
+
+            if (!statistics.equals(_statistics))
+            {
+                _statistics = Collections.unmodifiableMap(statistics);
+                update();
+            }
+        }
+    }
+
+    /**
+     * Serialise the underlying Map for transmission via AMQP, using the statistics from the most recent snapshot.
+     * The properties are copied so that concurrent callers never see partially modified state.
+     *
+     * @return the underlying map.
+     */
+    @Override
+    public Map<String, Object> mapEncode()
+    {
+        Map<String, Object> statistics = _statistics;
+        if (statistics == null)
+        { // The object hasn't been through a snapshot yet (e.g. it has only just been added) so take one now.
+            snapshot(System.currentTimeMillis());
+            statistics = _statistics;
+        }
+
+        Map<String, Object> map = super.mapEncode();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> values = new HashMap<String, Object>((Map<String, Object>)map.get("_values"));
+        values.putAll(statistics);
+        map.put("_values", values);
+        return map;
+    }
+
+    /**
+     * Determines if the named property exists, either as a statistic from the most recent snapshot or as one of
+     * the object's other properties.
+     *
+     * @param name of the property to check.
+     * @return true if the property exists otherwise false.
+     */
+    @Override
+    public boolean hasValue(final String name)
+    {
+        Map<String, Object> statistics = _statistics;
+        return (statistics != null && statistics.containsKey(name)) || super.hasValue(name);
+    }
+
+    /**
+     * Return a named property, statistics are returned from the most recent snapshot.
+     *
+     * @param name of the property to return.
+     * @return value of property.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T getValue(final String name)
+    {
+        Map<String, Object> statistics = _statistics;
+        if (statistics != null && statistics.containsKey(name))
+        {
+            return (T)statistics.get(name);
+        }
+        return super.getValue(name);
+    }
+}
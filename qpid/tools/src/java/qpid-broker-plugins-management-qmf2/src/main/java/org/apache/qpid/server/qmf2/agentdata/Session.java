@@ -30,7 +30,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.agent.QmfAgentData;
 import org.apache.qpid.qmf2.common.ObjectId;
 //import org.apache.qpid.qmf2.common.SchemaEventClass;
 //import org.apache.qpid.qmf2.common.SchemaMethod;
@@ -48,7 +47,7 @@ import org.apache.qpid.qmf2.common.SchemaObjectClass;
  *
  * @author Fraser Adams
  */
-public class Session extends QmfAgentData
+public class Session extends SampledAgentData
 {
     private static final Logger _log = LoggerFactory.getLogger(Session.class);
 
@@ -95,22 +94,15 @@ public class Session extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Session to QMF2 subscribe properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Session statistics to QMF2 session statistics where possible.
+     * This method is called by snapshot() in SampledAgentData at most once per sampling interval.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics(final Map<String, Object> statistics)
     {
         // Statistics
-        setValue("unackedMessages", _session.getUnacknowledgedMessages());
-        setValue("TxnStarts", _session.getLocalTransactionBegins());
-        setValue("TxnRejects", _session.getLocalTransactionRollbacks());
-
-        update(); // TODO Only Update if statistics have changes.
-
-        return super.mapEncode();
+        statistics.put("unackedMessages", _session.getUnacknowledgedMessages());
+        statistics.put("TxnStarts", _session.getLocalTransactionBegins());
+        statistics.put("TxnRejects", _session.getLocalTransactionRollbacks());
     }
 }
@@ -30,7 +30,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.agent.QmfAgentData;
 import org.apache.qpid.qmf2.common.QmfEvent;
 import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfEvent;
@@ -53,7 +52,7 @@ import org.apache.qpid.server.model.Queue;
  *
  * @author Fraser Adams
  */
-public class Subscription extends QmfAgentData
+public class Subscription extends SampledAgentData
 {
     private static final Logger _log = LoggerFactory.getLogger(Subscription.class);
 
@@ -191,21 +190,15 @@ public class Subscription extends QmfAgentData
     }
 
     /**
-     * This method maps the org.apache.qpid.server.model.Consumer to QMF2 subscribe properties where possible then
-     * serialises into the underlying Map for transmission via AMQP. This method is called by handleQueryRequest()
-     * in the org.apache.qpid.qmf2.agent.Agent class implementing the main QMF2 Agent behaviour.
-     * 
-     * @return the underlying map. 
+     * This method maps the org.apache.qpid.server.model.Consumer statistics to QMF2 subscription statistics where possible.
+     * This method is called by snapshot() in SampledAgentData at most once per sampling interval.
      */
     @Override
-    public Map<String, Object> mapEncode()
+    protected void sampleStatistics(final Map<String, Object> statistics)
     {
         // Statistics 
-        setValue("delivered", _subscription.getMessagesOut());
+        statistics.put("delivered", _subscription.getMessagesOut());
 
-        setValue("exclusive", _exclusive);
-
-        update(); // TODO Only Update if statistics have changes.
-        return super.mapEncode();
+        statistics.put("exclusive", _exclusive);
     }
 }
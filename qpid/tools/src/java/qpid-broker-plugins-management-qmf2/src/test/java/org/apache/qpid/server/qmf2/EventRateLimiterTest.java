@@ -0,0 +1,106 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.qpid.server.qmf2;
+
+// Misc Imports
+import java.util.HashMap;
+import java.util.Map;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for EventRateLimiter.
+ *
+ * @author Fraser Adams
+ */
+public class EventRateLimiterTest extends TestCase
+{
+    private EventRateLimiter _limiter;
+
+    @Override
+    protected void setUp()
+    {
+        Map<String, Long> limits = new HashMap<String, Long>();
+        limits.put("clientConnect", 3l);
+        limits.put("subscribe", 1l);
+        _limiter = new EventRateLimiter(limits);
+    }
+
+    public void testIsEnabled()
+    {
+        assertTrue(_limiter.isEnabled());
+        assertFalse(new EventRateLimiter(new HashMap<String, Long>()).isEnabled());
+    }
+
+    public void testEventsUpToTheLimitAreRaised()
+    {
+        assertTrue(_limiter.acquire("clientConnect"));
+        assertTrue(_limiter.acquire("clientConnect"));
+        assertTrue(_limiter.acquire("clientConnect"));
+        assertFalse(_limiter.acquire("clientConnect"));
+        assertFalse(_limiter.acquire("clientConnect"));
+    }
+
+    public void testUnlimitedClassesAreNeverSuppressed()
+    {
+        for (int i = 0; i < 1000; i++)
+        {
+            assertTrue(_limiter.acquire("queueDeclare"));
+        }
+        assertTrue(_limiter.endWindow().isEmpty());
+    }
+
+    public void testClassesAreLimitedIndependently()
+    {
+        assertTrue(_limiter.acquire("subscribe"));
+        assertFalse(_limiter.acquire("subscribe"));
+        assertTrue(_limiter.acquire("clientConnect"));
+    }
+
+    public void testEndWindowReportsSuppressedCounts()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            _limiter.acquire("clientConnect");
+        }
+        _limiter.acquire("subscribe");
+
+        Map<String, Long> suppressed = _limiter.endWindow();
+        assertEquals(1, suppressed.size());
+        assertEquals(Long.valueOf(2), suppressed.get("clientConnect"));
+    }
+
+    public void testEndWindowStartsANewWindow()
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            _limiter.acquire("clientConnect");
+        }
+        assertEquals(Long.valueOf(1), _limiter.endWindow().get("clientConnect"));
+
+        assertTrue(_limiter.acquire("clientConnect"));
+        assertTrue(_limiter.acquire("clientConnect"));
+        assertTrue(_limiter.acquire("clientConnect"));
+        assertTrue(_limiter.endWindow().isEmpty());
+    }
+}
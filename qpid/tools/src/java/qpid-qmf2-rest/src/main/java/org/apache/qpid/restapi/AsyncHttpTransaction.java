@@ -0,0 +1,50 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+/**
+ * An AsyncHttpTransaction is an HttpTransaction whose response need not be sent by the thread that called the
+ * Server's doGet/doPost/doPut/doDelete method.
+ * <p>
+ * This is mainly intended for "long poll" requests such as console/nextWorkItem, which would otherwise block a Web
+ * Server thread until something interesting happens. A Server that receives an AsyncHttpTransaction may call
+ * suspend() and return immediately, then send the response later by calling one of the sendResponse() methods from
+ * whatever thread the interesting event happens to be delivered on. Web Server implementations that can't do this
+ * (e.g. the com.sun.net.httpserver.HttpServer based HttpExchangeTransaction) simply implement HttpTransaction so
+ * Servers should test "tx instanceof AsyncHttpTransaction" and fall back to blocking behaviour if it isn't.
+ *
+ * @author Fraser Adams
+ */
+public interface AsyncHttpTransaction extends HttpTransaction
+{
+    /**
+     * Suspend the transaction, allowing the Server's doXXX method to return without sending a response. The response
+     * must subsequently be sent by calling one of the sendResponse() methods, which may be called from any thread.
+     * <p>
+     * If no response has been sent after timeout milliseconds the timeoutHandler is run, which should itself send a
+     * response. Note that the timeoutHandler may race with another thread that is sending a response, so Servers
+     * should arrange that only one of them actually sends the response.
+     *
+     * @param timeout the time in milliseconds to wait for a response to be sent before running timeoutHandler.
+     * @param timeoutHandler run if no response has been sent before timeout expires.
+     */
+    public void suspend(final long timeout, final Runnable timeoutHandler);
+}
@@ -0,0 +1,316 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class provides the HTTP response compression used by the HttpTransaction implementations.
+ * <p>
+ * Responses are compressed using gzip or deflate if the client's Accept-Encoding request header allows it and the
+ * content is of a compressible MIME type (text, JSON, JavaScript and XML), but only if the content is at least
+ * THRESHOLD bytes long as compressing small responses costs more than it saves. Large JSON responses such as lists
+ * of queues typically compress by a factor of ten or so, which matters a great deal to remote clients.
+ * <p>
+ * Content of unknown length, such as that written to HttpTransaction.getResponseStream(), is handled by a
+ * ThresholdOutputStream which buffers the first THRESHOLD bytes before deciding whether or not to compress, so
+ * short responses are sent uncompressed with a Content-Length and long ones are compressed as they are written.
+ * Flushing a ThresholdOutputStream doesn't force that decision, as writers such as OutputStreamWriter flush before
+ * closing, so streamed content that must be sent as soon as it is flushed, such as Server-Sent Events, bypasses the
+ * ThresholdOutputStream altogether.
+ *
+ * @author Fraser Adams
+ */
+public final class Compression
+{
+    /**
+     * Responses shorter than this are not compressed.
+     */
+    public static final int THRESHOLD = 1024;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * A ResponseStreamFactory is supplied by an HttpTransaction implementation to a ThresholdOutputStream to send
+     * the response headers and obtain the stream that the response content should be written to once the
+     * ThresholdOutputStream has decided whether or not to compress.
+     */
+    public interface ResponseStreamFactory
+    {
+        /**
+         * Send the response headers and return the stream the response content should be written to.
+         * @param contentEncoding the Content-Encoding of the response or null if it isn't compressed.
+         * @param length the length of the (possibly compressed) content or -1 if it's unknown.
+         * @return the stream the response content should be written to, closing it completes the response.
+         */
+        public OutputStream open(final String contentEncoding, final long length) throws IOException;
+    }
+
+    /**
+     * Make the constructor private as this class only has static methods.
+     */
+    private Compression()
+    {
+    }
+
+    /**
+     * Returns whether content of the specified MIME type is worth compressing.
+     * @param mimeType the MIME type of the content e.g. text/plain.
+     * @return true if content of the specified MIME type is worth compressing.
+     */
+    public static boolean isCompressible(final String mimeType)
+    {
+        if (mimeType == null)
+        {
+            return false;
+        }
+        return mimeType.startsWith("text/") || mimeType.contains("json") || mimeType.contains("javascript") ||
+               mimeType.contains("xml");
+    }
+
+    /**
+     * Returns whether content of the specified MIME type is streamed, in other words it must be sent to the client
+     * as soon as it is flushed rather than being buffered, as is the case for Server-Sent Events.
+     * @param mimeType the MIME type of the content e.g. text/event-stream.
+     * @return true if content of the specified MIME type is streamed.
+     */
+    public static boolean isStreamed(final String mimeType)
+    {
+        return mimeType != null && mimeType.startsWith("text/event-stream");
+    }
+
+    /**
+     * Choose the Content-Encoding to use for a response from the request's Accept-Encoding header, honouring any
+     * q-values and preferring gzip when gzip and deflate are equally acceptable.
+     * @param tx the HttpTransaction containing the request.
+     * @param mimeType the MIME type of the response content.
+     * @return "gzip" or "deflate" if the response should be compressed, otherwise null.
+     */
+    public static String negotiate(final HttpTransaction tx, final String mimeType)
+    {
+        String acceptEncoding = tx.getHeader("Accept-Encoding");
+        if (acceptEncoding == null || !isCompressible(mimeType))
+        {
+            return null;
+        }
+
+        float gzip = -1.0f;
+        float deflate = -1.0f;
+        float any = 0.0f;
+        for (String coding : acceptEncoding.split(","))
+        {
+            String[] params = coding.split(";");
+            String name = params[0].trim().toLowerCase();
+            float q = 1.0f;
+            for (int i = 1; i < params.length; i++)
+            {
+                String param = params[i].trim();
+                if (param.startsWith("q="))
+                {
+                    try
+                    {
+                        q = Float.parseFloat(param.substring(2));
+                    }
+                    catch (NumberFormatException nfe)
+                    { // Ignore malformed q values.
+                    }
+                }
+            }
+
+            if (name.equals("gzip") || name.equals("x-gzip"))
+            {
+                gzip = q;
+            }
+            else if (name.equals("deflate"))
+            {
+                deflate = q;
+            }
+            else if (name.equals("*"))
+            {
+                any = q;
+            }
+        }
+
+        // A "*" only applies to the codings that weren't explicitly listed.
+        gzip = (gzip < 0.0f) ? any : gzip;
+        deflate = (deflate < 0.0f) ? any : deflate;
+
+        if (gzip > 0.0f && gzip >= deflate)
+        {
+            return "gzip";
+        }
+        return (deflate > 0.0f) ? "deflate" : null;
+    }
+
+    /**
+     * Wrap an OutputStream so that content written to it is compressed. The returned stream uses SYNC_FLUSH so that
+     * flush() sends all of the content written so far, which matters for streamed responses such as Server-Sent
+     * Events.
+     * @param os the OutputStream to write the compressed content to.
+     * @param encoding the Content-Encoding, either "gzip" or "deflate".
+     * @return an OutputStream that compresses content written to it and writes it to os.
+     */
+    public static OutputStream compressingStream(final OutputStream os, final String encoding) throws IOException
+    {
+        if (encoding.equals("gzip"))
+        {
+            return new GZIPOutputStream(os, BUFFER_SIZE, true);
+        }
+        else
+        {
+            return new DeflaterOutputStream(os, new Deflater(), BUFFER_SIZE, true)
+            {
+                @Override
+                public void close() throws IOException
+                { // DeflaterOutputStream doesn't end a Deflater that it didn't create, so do that here.
+                    try
+                    {
+                        super.close();
+                    }
+                    finally
+                    {
+                        def.end();
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Compress content held in a byte[].
+     * @param content the content to compress.
+     * @param encoding the Content-Encoding, either "gzip" or "deflate".
+     * @return the compressed content.
+     */
+    public static byte[] compress(final byte[] content, final String encoding) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length/4 + 64);
+        OutputStream os = compressingStream(bos, encoding);
+        os.write(content);
+        os.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * A ThresholdOutputStream buffers content until more than THRESHOLD bytes have been written or it is closed.
+     * If it is closed first the buffered content is sent uncompressed with a known length, otherwise the content is
+     * compressed (if the client accepts a compressed encoding) and streamed. Calling flush() while the content is
+     * still being buffered does nothing, so the length of the content alone decides how it is sent.
+     */
+    public static final class ThresholdOutputStream extends OutputStream
+    {
+        private final String _encoding;
+        private final ResponseStreamFactory _factory;
+        private byte[] _buffer = new byte[THRESHOLD];
+        private int _count = 0;
+        private OutputStream _os = null;
+        private boolean _closed = false;
+
+        /**
+         * Construct a ThresholdOutputStream.
+         * @param encoding the Content-Encoding to use if the content is long enough, null to never compress.
+         * @param factory the ResponseStreamFactory used to send the response headers once the decision to compress
+         *        or not has been made.
+         */
+        public ThresholdOutputStream(final String encoding, final ResponseStreamFactory factory)
+        {
+            _encoding = encoding;
+            _factory = factory;
+        }
+
+        /**
+         * Open the underlying stream for content of unknown length, compressing it if an encoding was negotiated.
+         */
+        private void openStream() throws IOException
+        {
+            OutputStream os = _factory.open(_encoding, -1);
+            _os = (_encoding == null) ? os : compressingStream(os, _encoding);
+            _os.write(_buffer, 0, _count);
+            _buffer = null;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (_closed)
+            {
+                throw new IOException("ThresholdOutputStream is closed");
+            }
+
+            if (_os == null)
+            {
+                if (_count + len <= THRESHOLD)
+                {
+                    System.arraycopy(b, off, _buffer, _count, len);
+                    _count += len;
+                    return;
+                }
+                openStream();
+            }
+            _os.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (_closed)
+            {
+                return;
+            }
+
+            if (_os == null)
+            { // Still buffering, the content will be sent when THRESHOLD is exceeded or the stream is closed.
+                return;
+            }
+            _os.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (_closed)
+            {
+                return;
+            }
+            _closed = true;
+
+            if (_os == null)
+            { // The content was shorter than THRESHOLD so send it uncompressed with a known length.
+                _os = _factory.open(null, _count);
+                _os.write(_buffer, 0, _count);
+                _buffer = null;
+            }
+            _os.close();
+        }
+    }
+}
@@ -21,7 +21,12 @@
 package org.apache.qpid.restapi;
 
 // Misc Imports
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 // JMS Imports
 import javax.jms.Connection;
@@ -33,11 +38,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.common.BlockingNotifier;
+import org.apache.qpid.qmf2.common.Notifier;
 import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.console.Console;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
 import org.apache.qpid.qmf2.util.ConnectionHelper;
 
+import static java.net.HttpURLConnection.HTTP_OK;
+
 /**
  * Contains a Connection object under a "leasehold agreement" whereby the Connection (and associated Sessions and QMF 
  * Consoles) will expire after a period of time.
@@ -55,6 +64,9 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
 
     private static final int MAX_WORKITEM_QUEUE_SIZE = 20; // Maximum number of items allowed on WorkItem queue.
 
+    // Suspended nextWorkItem requests are answered with an empty response if no WorkItem arrives within 30 seconds.
+    private static final long WORKITEM_REQUEST_TIMEOUT = 30000;
+
     // Connections expire after 20 minutes of no use.
     private static final int TIMEOUT_THRESHOLD = (20*60000)/ConnectionStore.PING_PERIOD; 
 
@@ -70,6 +82,29 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
     private final String _url;
     private final String _connectionOptions;
     private final boolean _disableEvents;
+    private final ObjectCache _objectCache;
+
+    /**
+     * Suspended console/nextWorkItem requests waiting for a WorkItem, in the order that they were received.
+     */
+    private final Queue<AsyncHttpTransaction> _workItemRequests = new LinkedList<AsyncHttpTransaction>();
+
+    /**
+     * Clients receiving WorkItems via console/workItems Server-Sent Events streams.
+     */
+    private final List<WorkItemStream> _workItemStreams = new CopyOnWriteArrayList<WorkItemStream>();
+
+    /**
+     * The Notifier passed to the Console, this passes WorkItems to any suspended nextWorkItem requests and to any
+     * console/workItems streams.
+     */
+    private final class WorkItemNotifier implements Notifier
+    {
+        public void indication()
+        {
+            dispatchWorkItems();
+        }
+    }
 
     /**
      * Actually create the Qpid Connection and QMF2 Console specified in the Constructor.
@@ -96,8 +131,7 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
                 }
                 else
                 {
-                    BlockingNotifier notifier = new BlockingNotifier();
-                    _console = new Console(_name, null, notifier, null);
+                    _console = new Console(_name, null, new WorkItemNotifier(), null);
                 }
                 _console.addConnection(_connection);
                 _connected = true;
@@ -153,9 +187,12 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
      * @param connectionOptions A set of connection options in the form supported by {@link org.apache.qpid.qmf2.util.ConnectionHelper}.
      * @param disableEvents if true create a QMF Console Connection that can only perform synchronous
      * operations like getObjects() and cannot do asynchronous things like Agent discovery or receive Events.
+     * @param staleness the maximum age in milliseconds of cached getObjects() results served to clients, zero
+     * disables caching.
      */
     public ConnectionProxy(final ConnectionStore store, final String name,
-                           final String url, final String connectionOptions, final boolean disableEvents)
+                           final String url, final String connectionOptions, final boolean disableEvents,
+                           final long staleness)
     {
         _connected = false;
         _store = store;
@@ -163,6 +200,7 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
         _url = url;
         _connectionOptions = connectionOptions;
         _disableEvents = disableEvents;
+        _objectCache = new ObjectCache(staleness);
     }
 
     /**
@@ -184,7 +222,9 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
      * of housekeeping tasks. It checks if the Qpid Connection is still connected and if not it attempts to reconnect
      * it also checks whether the Connection "lease" has run out and if it has it tidies up the Connection. Finally
      * it restricts the size of the QMF2 WorkItem queue as the REST API has no control over whether a client is or
-     * is not interested in being notified of QMF2 Events.
+     * is not interested in being notified of QMF2 Events. The lease doesn't run out while any clients are receiving
+     * WorkItems via console/workItems streams, and those streams are sent heartbeats from here. Unused ObjectCache
+     * entries are also discarded.
      */
     public void run()
     {
@@ -192,11 +232,27 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
         {
             //System.out.println("ConnectionProxy name: " + _name + ", thread: " + Thread.currentThread().getId() + ", WorkItem count = " + _console.getWorkitemCount());
 
+            dispatchWorkItems();
             while (_console.getWorkitemCount() > MAX_WORKITEM_QUEUE_SIZE)
             {
                 _console.getNextWorkitem();
             }
 
+            long now = System.currentTimeMillis();
+            _objectCache.expire(now);
+            for (WorkItemStream stream : _workItemStreams)
+            {
+                if (!stream.heartbeat(now))
+                {
+                    _workItemStreams.remove(stream);
+                }
+            }
+
+            if (!_workItemStreams.isEmpty())
+            {
+                _expireCount = TIMEOUT_THRESHOLD;
+            }
+
             _expireCount--;
             //System.out.println("ConnectionProxy name: " + _name + ", thread: " + Thread.currentThread().getId() + ", expireCount = " + _expireCount);
             if (_expireCount == 0)
@@ -219,6 +275,29 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
 
         cancel();
 
+        // Complete any suspended nextWorkItem requests with an empty response.
+        while (true)
+        {
+            AsyncHttpTransaction tx;
+            synchronized (_workItemRequests)
+            {
+                tx = _workItemRequests.poll();
+            }
+
+            if (tx == null)
+            {
+                break;
+            }
+            sendWorkItem(tx, null);
+        }
+
+        // Close any console/workItems streams, which completes their responses.
+        for (WorkItemStream stream : _workItemStreams)
+        {
+            stream.close();
+        }
+        _workItemStreams.clear();
+
         try
         {
             _console.destroy();
@@ -240,6 +319,139 @@ public final class ConnectionProxy extends TimerTask implements ExceptionListene
         return _console;
     }
 
+    /**
+     * Retrieves the list of QmfConsoleData objects with the specified packageName and className. Results are served
+     * from the ObjectCache if they are no older than the staleness bound, otherwise they are retrieved from the broker
+     * and shared with any other clients requesting the same objects at the same time.
+     * @param packageName the package name of the objects to retrieve, may be null to search all packages.
+     * @param className the class name of the objects to retrieve.
+     * @param agentName the name of the Agent to retrieve the objects from, may be null to search all Agents.
+     * @param refresh if true the objects are always retrieved from the broker.
+     * @return the List of QmfConsoleData objects, this List must not be modified.
+     */
+    public List<QmfConsoleData> getObjects(final String packageName, final String className, final String agentName,
+                                           final boolean refresh)
+    {
+        _expireCount = TIMEOUT_THRESHOLD;
+        return _objectCache.getObjects(_console, packageName, className, agentName, refresh);
+    }
+
+    /**
+     * Discard any cached getObjects() results, used when a client does something likely to change object state.
+     */
+    public void invalidateObjects()
+    {
+        _objectCache.invalidate();
+    }
+
+    /**
+     * Retrieves the next WorkItem from the Console asynchronously. If a WorkItem is available it is sent immediately,
+     * otherwise the transaction is suspended until a WorkItem arrives or WORKITEM_REQUEST_TIMEOUT expires, in which
+     * case an empty response (the JSON encoding of null) is sent. This means that a client "long polling" for
+     * WorkItems doesn't tie up a Web Server thread.
+     * @param tx the AsyncHttpTransaction for the console/nextWorkItem request.
+     */
+    public void getNextWorkItem(final AsyncHttpTransaction tx)
+    {
+        _expireCount = TIMEOUT_THRESHOLD;
+        tx.suspend(WORKITEM_REQUEST_TIMEOUT, new Runnable()
+        {
+            public void run()
+            {
+                boolean waiting;
+                synchronized (_workItemRequests)
+                {
+                    waiting = _workItemRequests.remove(tx);
+                }
+
+                if (waiting)
+                {
+                    sendWorkItem(tx, null);
+                }
+            }
+        });
+
+        synchronized (_workItemRequests)
+        {
+            _workItemRequests.add(tx);
+        }
+        dispatchWorkItems(); // There may already be WorkItems available.
+    }
+
+    /**
+     * Push WorkItems to a client as a Server-Sent Events stream, see WorkItemStream. The response headers are sent
+     * immediately and the response remains open, with WorkItems written as they arrive, until the client goes away
+     * or the Connection is closed. Note that while any streams are open WorkItems are taken from the Console as soon
+     * as they arrive, so they are no longer retained for subsequent console/nextWorkItem requests.
+     * @param tx the HttpTransaction for the console/workItems request.
+     */
+    public void addWorkItemStream(final HttpTransaction tx) throws IOException
+    {
+        _expireCount = TIMEOUT_THRESHOLD;
+        tx.setHeader("Cache-Control", "no-cache");
+        _workItemStreams.add(new WorkItemStream(tx.getResponseStream(HTTP_OK, "text/event-stream")));
+        dispatchWorkItems(); // There may already be WorkItems available.
+    }
+
+    /**
+     * Pass any available WorkItems to suspended nextWorkItem requests, one WorkItem per request, and to every
+     * console/workItems stream.
+     */
+    private void dispatchWorkItems()
+    {
+        while (true)
+        {
+            AsyncHttpTransaction tx;
+            WorkItem wi;
+            synchronized (_workItemRequests)
+            {
+                Console console = _console;
+                if ((_workItemRequests.isEmpty() && _workItemStreams.isEmpty()) || console == null)
+                {
+                    return;
+                }
+
+                wi = console.getNextWorkitem(0);
+                if (wi == null)
+                {
+                    return;
+                }
+
+                // Offering is done with the lock held so that every stream sees WorkItems in the same order.
+                for (WorkItemStream stream : _workItemStreams)
+                {
+                    if (!stream.offer(wi))
+                    {
+                        _workItemStreams.remove(stream);
+                    }
+                }
+                tx = _workItemRequests.poll();
+            }
+
+            if (tx != null)
+            {
+                sendWorkItem(tx, wi);
+            }
+        }
+    }
+
+    /**
+     * Send a WorkItem as the response to a suspended nextWorkItem request.
+     * @param tx the AsyncHttpTransaction for the nextWorkItem request.
+     * @param wi the WorkItem to send, may be null.
+     */
+    private void sendWorkItem(final AsyncHttpTransaction tx, final WorkItem wi)
+    {
+        try
+        {
+            JSON.sendResponse(tx, HTTP_OK, wi);
+        }
+        catch (IOException ioe)
+        { // Log and Ignore, the client has probably gone away.
+            _log.info("ConnectionProxy sendWorkItem() caught Exception {}", ioe.getMessage());
+        }
+    }
+
     /**
      * Returns whether or not the Connection is currently connected to the broker. This is used by the REST API to
      * tell any clients about the Connection state.
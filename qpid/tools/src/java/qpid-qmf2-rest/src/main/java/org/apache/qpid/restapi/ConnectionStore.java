@@ -58,6 +58,21 @@ public class ConnectionStore
      */
     private Timer _timer = new Timer(true);
 
+    /**
+     * The maximum age in milliseconds of cached getObjects() results that the ConnectionProxy ObjectCaches may serve.
+     */
+    private final long _staleness;
+
+    /**
+     * Construct a ConnectionStore.
+     * @param staleness the maximum age in milliseconds of cached getObjects() results served to clients, zero
+     *        disables caching.
+     */
+    public ConnectionStore(final long staleness)
+    {
+        _staleness = staleness;
+    }
+
     /**
      * Creates a new ConnectionProxy Object with the given name, which in turn creates a Qpid Connection using the
      * supplied Connection URL and options. In addition it schedules some regular housekeeping on the ConnectionProxy
@@ -77,7 +92,7 @@ public class ConnectionStore
         ConnectionProxy connection = _connections.get(name);
         if (connection == null)
         {
-            connection = new ConnectionProxy(this, name, url, opts, disableEvents);
+            connection = new ConnectionProxy(this, name, url, opts, disableEvents, _staleness);
             _connections.put(name, connection);
             _timer.schedule(connection, 0, PING_PERIOD);
         }
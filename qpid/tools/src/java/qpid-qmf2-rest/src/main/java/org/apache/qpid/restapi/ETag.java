@@ -0,0 +1,164 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * This class provides static methods to compute HTTP entity tags (ETags) for the objects returned by the REST API and
+ * to evaluate If-None-Match request headers, so that clients polling resources such as console/objects can be sent
+ * a 304 Not Modified response rather than the full JSON encoding if nothing has changed.
+ * <p>
+ * The entity tag is a 64 bit hash of the content that would be serialised by JSON.fromObject(), so computing it is
+ * much cheaper than serialising the content. Ideally the QmfConsoleData _update_ts timestamp would be used, but the
+ * broker ManagementAgent doesn't reliably set the timestamps in query responses (they then get set to the current
+ * time), so the object properties are hashed along with the ObjectId and _delete_ts. The timestamps are otherwise
+ * ignored so the tags are weak entity tags, i.e. the responses are semantically rather than byte for byte equivalent.
+ *
+ * @author Fraser Adams
+ */
+public final class ETag
+{
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Make the constructor private as this class only has static methods.
+     */
+    private ETag()
+    {
+    }
+
+    /**
+     * Mix a value into a hash using the FNV-1a algorithm.
+     * @param hash the hash so far.
+     * @param value the value to mix into the hash.
+     * @return the new hash.
+     */
+    private static long mix(final long hash, final long value)
+    {
+        return (hash ^ value) * FNV_PRIME;
+    }
+
+    /**
+     * Mix the hash of an Object into a hash, following the same structure used by JSON.fromObject().
+     * @param hash the hash so far.
+     * @param item the Object to mix into the hash.
+     * @return the new hash.
+     */
+    @SuppressWarnings("unchecked")
+    private static long hash(long hash, final Object item)
+    {
+        if (item == null)
+        {
+            return mix(hash, 0);
+        }
+        else if (item instanceof Map)
+        { // Map entry order is undefined so the entry hashes are combined in an order independent way.
+            long sum = 0;
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>)item).entrySet())
+            {
+                sum += hash(hash(FNV_OFFSET_BASIS, entry.getKey()), entry.getValue());
+            }
+            return mix(mix(hash, 'M'), sum);
+        }
+        else if (item instanceof List)
+        {
+            hash = mix(hash, 'L');
+            for (Object element : (List)item)
+            {
+                hash = hash(hash, element);
+            }
+            return mix(hash, 'l');
+        }
+        else if (item instanceof QmfData)
+        {
+            hash = mix(hash, 'Q');
+            if (item instanceof QmfConsoleData)
+            {
+                QmfConsoleData consoleData = (QmfConsoleData)item;
+                hash = mix(hash, consoleData.getObjectId().toString().hashCode());
+                hash = mix(hash, consoleData.getTimestamps()[2]);
+            }
+            return hash(hash, ((QmfData)item).mapEncode());
+        }
+        else if (item instanceof byte[])
+        {
+            return mix(hash, Arrays.hashCode((byte[])item));
+        }
+        else if (item instanceof String || item instanceof Number || item instanceof Boolean)
+        {
+            return mix(hash, item.hashCode());
+        }
+        else
+        { // Anything else is serialised using toString() so use that, as hashCode() may be identity based.
+            return mix(hash, item.toString().hashCode());
+        }
+    }
+
+    /**
+     * Compute a weak entity tag for an Object returned by the REST API.
+     * @param item the Object, normally a List of QmfConsoleData, a QmfConsoleData or a List of Agents.
+     * @return the entity tag, including the W/ prefix and quotes, suitable for use as an ETag header value.
+     */
+    public static String compute(final Object item)
+    {
+        return "W/\"" + Long.toHexString(hash(FNV_OFFSET_BASIS, item)) + "\"";
+    }
+
+    /**
+     * Evaluate an If-None-Match request header against an entity tag using the weak comparison function.
+     * @param ifNoneMatch the value of the If-None-Match request header, may be null.
+     * @param etag the current entity tag of the resource.
+     * @return true if the header matches the entity tag, in which case a 304 Not Modified response should be sent.
+     */
+    public static boolean matches(final String ifNoneMatch, final String etag)
+    {
+        if (ifNoneMatch == null)
+        {
+            return false;
+        }
+
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(","))
+        {
+            tag = tag.trim();
+            if (tag.equals("*"))
+            {
+                return true;
+            }
+
+            tag = tag.startsWith("W/") ? tag.substring(2) : tag;
+            if (tag.equals(opaque))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
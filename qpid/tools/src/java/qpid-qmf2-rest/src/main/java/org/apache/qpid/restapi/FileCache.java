@@ -0,0 +1,184 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A FileCache holds the content of small, recently requested files in memory for FileServer, so that the files of
+ * the Web UI, which every client requests, are served without touching the disk.
+ * <p>
+ * Files of up to MAX_FILE_SIZE are cached. For compressible files a gzip encoded copy is precomputed when the file is
+ * loaded, so serving a compressed file to a client that accepts gzip costs no more than serving it uncompressed.
+ * The cache holds up to MAX_CACHE_SIZE bytes (counting both copies) and discards the least recently used files when
+ * it is full. An entry is reloaded if the file's modification time or length has changed since it was loaded.
+ *
+ * @author Fraser Adams
+ */
+final class FileCache
+{
+    static final long MAX_FILE_SIZE = 1048576;   // Don't cache files larger than 1MB.
+    private static final long MAX_CACHE_SIZE = 16777216; // Hold at most 16MB of content.
+
+    /**
+     * An Entry holds the content of a file together with its gzip encoding if it is compressible.
+     */
+    static final class Entry
+    {
+        private final long _lastModified;
+        private final long _length;
+        private final byte[] _content;
+        private final byte[] _gzip;
+
+        private Entry(final long lastModified, final long length, final byte[] content, final byte[] gzip)
+        {
+            _lastModified = lastModified;
+            _length = length;
+            _content = content;
+            _gzip = gzip;
+        }
+
+        /**
+         * Return the content of the file.
+         * @return the content of the file.
+         */
+        byte[] getContent()
+        {
+            return _content;
+        }
+
+        /**
+         * Return the gzip encoded content of the file.
+         * @return the gzip encoded content of the file, or null if the file isn't worth compressing.
+         */
+        byte[] getGzipContent()
+        {
+            return _gzip;
+        }
+
+        /**
+         * Return the number of bytes the Entry holds.
+         */
+        private long size()
+        {
+            return _content.length + (_gzip == null ? 0 : _gzip.length);
+        }
+    }
+
+    // A LinkedHashMap in access order, so iteration starts with the least recently used entry.
+    private final Map<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long _size = 0;
+
+    /**
+     * Return the cached content of a file, loading it if it isn't cached or if it has changed.
+     * @param file the file, its path should be canonical so that each file has only one entry.
+     * @param mimeType the MIME type of the file, used to decide whether to precompute a gzip encoding.
+     * @return the Entry holding the file's content, or null if the file is too large to cache.
+     */
+    Entry get(final File file, final String mimeType) throws IOException
+    {
+        String key = file.getPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (length > MAX_FILE_SIZE)
+        {
+            return null;
+        }
+
+        synchronized (_entries)
+        {
+            Entry entry = _entries.get(key);
+            if (entry != null && entry._lastModified == lastModified && entry._length == length)
+            {
+                return entry;
+            }
+        }
+
+        // Load the file without holding the lock, so that other files may be served whilst it is being read.
+        byte[] content = read(file, length);
+        byte[] gzip = null;
+        if (content.length >= Compression.THRESHOLD && Compression.isCompressible(mimeType))
+        {
+            gzip = Compression.compress(content, "gzip");
+            gzip = (gzip.length < content.length) ? gzip : null;
+        }
+        Entry entry = new Entry(lastModified, length, content, gzip);
+
+        synchronized (_entries)
+        {
+            Entry previous = _entries.put(key, entry);
+            _size += entry.size() - (previous == null ? 0 : previous.size());
+            for (Iterator<Entry> i = _entries.values().iterator(); _size > MAX_CACHE_SIZE && i.hasNext();)
+            {
+                Entry eldest = i.next();
+                if (eldest != entry)
+                {
+                    _size -= eldest.size();
+                    i.remove();
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Read the content of a file.
+     * @param file the file to read.
+     * @param length the expected length of the file.
+     * @return the content of the file, which may differ in length from the expected length if it has just changed.
+     */
+    private static byte[] read(final File file, final long length) throws IOException
+    {
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate((int)length);
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer) == -1)
+                {
+                    break;
+                }
+            }
+
+            byte[] content = buffer.array();
+            if (buffer.position() < content.length)
+            {
+                byte[] truncated = new byte[buffer.position()];
+                System.arraycopy(content, 0, truncated, 0, truncated.length);
+                content = truncated;
+            }
+            return content;
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+}
@@ -27,16 +27,23 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TimeZone;
 
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
 import static java.net.HttpURLConnection.HTTP_PARTIAL;
 import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
@@ -47,7 +54,14 @@ import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
  * <p>
  * Although this is a relatively simple File Server it is still able to serve large files as it uses streaming, in
  * addition it uses the HTTP Range/Content-Range/Content-Length Headers to allow resuming of partial downloads
- * from clients that support it.
+ * from clients that support it. Files are sent with a Last-Modified Header and requests with an If-Modified-Since
+ * Header receive a 304 Not Modified response if the file hasn't changed, so browsers needn't download the Web UI
+ * files every time it is opened.
+ * <p>
+ * Small files are served from an in-memory FileCache, which also holds a precomputed gzip encoding of compressible
+ * files. Other files are sent with a Content-Length using HttpTransaction's FileChannel sendResponse(), which Web
+ * Servers that support it implement without copying the file via the Java heap, unless the client accepts a
+ * compressed encoding in which case compressible files are streamed through the compressor.
  *
  * @author Fraser Adams
  */
@@ -75,6 +89,7 @@ public class FileServer implements Server
         _mimeTypes.put("mp3", "audio/mpeg");
         _mimeTypes.put("m3u", "audio/mpeg-url");
         _mimeTypes.put("js", "application/x-javascript");
+        _mimeTypes.put("json", "application/json");
         _mimeTypes.put("pdf", "application/pdf");
         _mimeTypes.put("doc", "application/msword");
         _mimeTypes.put("ppt", "application/mspowerpoint");
@@ -87,6 +102,20 @@ public class FileServer implements Server
 
     private final File _home;
     private final boolean _allowDirectoryListing;
+    private final FileCache _cache = new FileCache();
+
+    /**
+     * Create a SimpleDateFormat for the RFC 1123 date format used by the Last-Modified and If-Modified-Since Headers.
+     * SimpleDateFormat isn't thread safe so a new instance is needed for each request.
+     *
+     * @return a SimpleDateFormat for RFC 1123 dates.
+     */
+    private static SimpleDateFormat createDateFormat()
+    {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
 
     /**
      * URL-encodes everything between "/"-characters. Encodes spaces as '%20' instead of '+'.
@@ -294,6 +323,27 @@ public class FileServer implements Server
                 mime = "application/octet-stream";
             }
         
+            // Use Last-Modified and If-Modified-Since headers to avoid resending unchanged files. HTTP dates only
+            // have a resolution of one second so the comparison is made in seconds.
+            SimpleDateFormat dateFormat = createDateFormat();
+            long lastModified = file.lastModified()/1000;
+            tx.setHeader("Last-Modified", dateFormat.format(new Date(lastModified*1000)));
+            String ifModifiedSince = tx.getHeader("If-Modified-Since");
+            if (ifModifiedSince != null && tx.getHeader("Range") == null)
+            {
+                try
+                {
+                    if (lastModified <= dateFormat.parse(ifModifiedSince).getTime()/1000)
+                    {
+                        tx.sendResponse(HTTP_NOT_MODIFIED, mime, (byte[])null);
+                        return;
+                    }
+                }
+                catch (ParseException pe)
+                { // Ignore an invalid If-Modified-Since header and send the file as normal.
+                }
+            }
+
             // Use Range header allow download resuming.
             long startFrom = 0;
             long length = file.length();
@@ -321,14 +371,43 @@ public class FileServer implements Server
                 }
             }
 
-            FileInputStream is = new FileInputStream(file);
-            is.skip(startFrom);
+            // Serve small files from the FileCache, using its precomputed gzip encoding if the client accepts gzip.
+            if (startFrom == 0)
+            {
+                FileCache.Entry entry = _cache.get(new File(fileName), mime);
+                if (entry != null)
+                {
+                    byte[] gzip = entry.getGzipContent();
+                    if (gzip != null && "gzip".equals(Compression.negotiate(tx, mime)))
+                    {
+                        tx.setHeader("Content-Encoding", "gzip");
+                        tx.sendResponse(HTTP_OK, mime, gzip);
+                    }
+                    else
+                    {
+                        tx.sendResponse(HTTP_OK, mime, entry.getContent());
+                    }
+                    return;
+                }
+            }
+
+            // Larger files that the client wants compressed are streamed through the compressor.
+            if (startFrom == 0 && Compression.negotiate(tx, mime) != null)
+            {
+                tx.setHeader("Content-Length", "" + length);
+                tx.sendResponse(HTTP_OK, mime, new FileInputStream(file));
+                return;
+            }
+
+            // Otherwise send the file as is, which Web Servers that support it do without copying it via the heap.
+            FileChannel channel = new FileInputStream(file).getChannel();
+            length = channel.size();
+            startFrom = Math.min(startFrom, length);
 
             int status = (startFrom == 0) ? HTTP_OK : HTTP_PARTIAL;
-            tx.setHeader("Content-Length", "" + (length - startFrom));
             tx.setHeader("Content-Range", "" + startFrom + "-" + (length - 1) + "/" + length);
 
-            tx.sendResponse(status, mime, is);
+            tx.sendResponse(status, mime, channel, startFrom, length - startFrom);
         }
         catch (IOException ioe)
         {
@@ -22,6 +22,8 @@ package org.apache.qpid.restapi;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * An HttpTransaction encapsulates an HTTP request received and a response to be generated in one HTTP request/response
@@ -90,6 +92,31 @@ public interface HttpTransaction
      */
     public void sendResponse(final int status, final String mimeType, final InputStream is) throws IOException;
 
+    /**
+     * Send a region of a file as an HTTP response back to the client with a Content-Length header. This is intended
+     * for serving static files, Web Servers that are able to do so send the content without copying it through the
+     * Java heap, for example by memory mapping the file. The content is sent as is, in other words uncompressed.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param channel a FileChannel for the file to be sent, which is closed once the response has been sent.
+     * @param position the position within the file of the first byte to be sent.
+     * @param count the number of bytes to be sent.
+     */
+    public void sendResponse(final int status, final String mimeType, final FileChannel channel,
+                             final long position, final long count) throws IOException;
+
+    /**
+     * Send the HTTP response headers and return an OutputStream that the response content may be written to. This
+     * is intended for content that is generated incrementally, such as large JSON responses, so that it never needs
+     * to be held in memory in its entirety. Unless the content is short it is sent using chunked transfer encoding,
+     * compressed if the client accepts it, and the response is complete when the returned OutputStream is closed,
+     * so callers must always close it.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @return an OutputStream that the content of the response may be written to.
+     */
+    public OutputStream getResponseStream(final int status, final String mimeType) throws IOException;
+
     /**
      * Returns the Internet Protocol (IP) address of the client or last proxy that sent the request.
      * @return the Internet Protocol (IP) address of the client or last proxy that sent the request.
@@ -128,6 +155,13 @@ public interface HttpTransaction
      */
     public String getRequestURI();
 
+    /**
+     * Returns the query string that is contained in the request URL after the path, or null if the URL does not have
+     * a query string. The query string is returned as sent by the client, in other words it is still URL encoded.
+     * @return a String containing the query string or null if the URL does not have a query string.
+     */
+    public String getQueryString();
+
     /**
      * Sets a response header with the given name and value. If the header had already been set, the new value
      * overwrites the previous one.
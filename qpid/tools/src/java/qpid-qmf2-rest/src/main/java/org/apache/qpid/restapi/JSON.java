@@ -20,6 +20,12 @@
  */
 package org.apache.qpid.restapi;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Writer;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -38,9 +44,10 @@ import org.apache.qpid.qmf2.console.QmfConsoleData;
  * This class provides a number of convenience methods to serialise and deserialise JSON strings to/from Java
  * Collections or QmfData objects.
  *
- * The JSONMapParser class used here is largely a direct copy of org.apache.qpid.messaging.util.AddressParser
+ * The JSONMapParser class used here started life as a direct copy of org.apache.qpid.messaging.util.AddressParser
  * as it provides a handy mechanism to parse a JSON String into a Map which is the only JSON requirement that
- * we really need for QMF. Originally this code simply did "import org.apache.qpid.messaging.util.AddressParser;"
+ * we really need for QMF (it is now a hand-written single pass parser that produces the same Map structures).
+ * Originally this code simply did "import org.apache.qpid.messaging.util.AddressParser;"
  * but there's a restriction/bug on the core AddressParser whereby it serialises integers into Java Integer
  * which means that long integer values aren't correctly stored. It's this restriction that gives Java Address
  * Strings a defacto 2GB queue size. I should really provide a patch for the *real* AddressParser but it's better
@@ -63,81 +70,108 @@ public final class JSON
      */
     public final static String fromObject(final Object item)
     {
-        if (item == null)
+        StringBuilder buffer = new StringBuilder(512);
+        try
         {
-            return "";
+            write(buffer, item);
         }
-        else
+        catch (IOException ioe)
+        { // Can't happen as StringBuilder.append() doesn't throw IOException.
+            throw new IllegalStateException(ioe);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Serialise an Object to JSON, writing the encoding directly to the supplied Appendable (e.g. a Writer wrapping
+     * an HTTP response OutputStream) rather than building up intermediate Strings. This is the streaming equivalent
+     * of fromObject(), which is implemented using it, so the two always produce exactly the same encoding.
+     * @param out the Appendable that the JSON encoding is written to.
+     * @param item the Object that we wish to serialise to JSON.
+     */
+    public final static void write(final Appendable out, final Object item) throws IOException
+    {
+        if (item == null)
         {
-            if (item instanceof Map)
-            { // Check if the value part is an ObjectId and serialise appropriately
-                Map map = (Map)item;
-                if (map.containsKey("_object_name"))
-                { // Serialise "ref" properties as String versions of ObjectId to match encoding used in fromQmfData()
-                    return "\"" + new ObjectId(map) + "\"";
-                }
-                else
-                {
-                    return fromMap(map);
-                }
-            }
-            else if (item instanceof List)
-            {
-                return fromList((List)item);
-            }
-            else if (item instanceof QmfData)
-            {
-                return fromQmfData((QmfData)item);
-            }
-            else if (item instanceof WorkItem)
-            {
-                return fromWorkItem((WorkItem)item);
-            }
-            else if (item instanceof String)
-            {
-                return "\"" + item + "\"";
-            }
-            else if (item instanceof byte[])
-            {
-                return "\"" + new String((byte[])item) + "\"";
-            }
-            else if (item instanceof UUID)
-            {
-                return "\"" + item.toString() + "\"";
+            return;
+        }
+
+        if (item instanceof Map)
+        { // Check if the value part is an ObjectId and serialise appropriately
+            Map map = (Map)item;
+            if (map.containsKey("_object_name"))
+            { // Serialise "ref" properties as String versions of ObjectId to match encoding used in fromQmfData()
+                out.append('"').append(new ObjectId(map).toString()).append('"');
             }
             else
             {
-                return item.toString();
+                writeMap(out, map);
             }
         }
+        else if (item instanceof List)
+        {
+            writeList(out, (List)item);
+        }
+        else if (item instanceof QmfData)
+        {
+            writeQmfData(out, (QmfData)item);
+        }
+        else if (item instanceof WorkItem)
+        {
+            writeWorkItem(out, (WorkItem)item);
+        }
+        else if (item instanceof String)
+        {
+            out.append('"').append((String)item).append('"');
+        }
+        else if (item instanceof byte[])
+        {
+            out.append('"').append(new String((byte[])item)).append('"');
+        }
+        else if (item instanceof UUID)
+        {
+            out.append('"').append(item.toString()).append('"');
+        }
+        else
+        {
+            out.append(item.toString());
+        }
     }
 
     /**
-     * Encode the Map contents so we can use the same code for fromMap and fromQmfData as the latter also needs
-     * to encode _object_id and _schema_id. This returns a String that needs to be topped and tailed with braces.
+     * Write the Map contents so we can use the same code for writeMap and writeQmfData as the latter also needs
+     * to encode _object_id and _schema_id. This writes the contents without the enclosing braces.
+     * @param out the Appendable that the JSON encoding is written to.
      * @param m the Map that we wish to serialise to JSON.
-     * @return the String encoding of the contents.
      */
     @SuppressWarnings("unchecked")
-    private final static String encodeMapContents(final Map m)
+    private final static void writeMapContents(final Appendable out, final Map m) throws IOException
     {
         Map<String, Object> map = (Map<String, Object>)m;
-        StringBuilder buffer = new StringBuilder(512);
-        int size = map.size();
-        int count = 1;
+        boolean first = true;
         for (Map.Entry<String, Object> entry : map.entrySet())
         {
-            String key = (String)entry.getKey();
-            buffer.append("\"" + key + "\":");
-
-            Object value = entry.getValue();
-            buffer.append(fromObject(value));
-            if (count++ < size)
+            if (!first)
             {
-                buffer.append(",");
+                out.append(',');
             }
+            first = false;
+
+            out.append('"').append(entry.getKey()).append("\":");
+            write(out, entry.getValue());
         }
-        return buffer.toString();
+    }
+
+    /**
+     * Serialise a Map to JSON.
+     * @param out the Appendable that the JSON encoding is written to.
+     * @param m the Map that we wish to serialise to JSON.
+     */
+    public final static void writeMap(final Appendable out, final Map m) throws IOException
+    {
+        out.append('{');
+        writeMapContents(out, m);
+        out.append('}');
     }
 
     /**
@@ -145,90 +179,147 @@ public final class JSON
      * @param m the Map that we wish to serialise to JSON.
      * @return the JSON String encoding.
      */
-    @SuppressWarnings("unchecked")
     public final static String fromMap(final Map m)
     {
-        return "{" + encodeMapContents(m) + "}";
+        StringBuilder buffer = new StringBuilder(512);
+        try
+        {
+            writeMap(buffer, m);
+        }
+        catch (IOException ioe)
+        { // Can't happen as StringBuilder.append() doesn't throw IOException.
+            throw new IllegalStateException(ioe);
+        }
+        return buffer.toString();
     }
 
     /**
      * Serialise a List to JSON.
+     * @param out the Appendable that the JSON encoding is written to.
      * @param list the List that we wish to serialise to JSON.
-     * @return the JSON String encoding.
      */
-    public final static String fromList(final List list)
+    public final static void writeList(final Appendable out, final List list) throws IOException
     {
-        StringBuilder buffer = new StringBuilder(512);
-        buffer.append("[");
-        int size = list.size();
-        int count = 1;
+        out.append('[');
+        boolean first = true;
         for (Object item : list)
         {
-            buffer.append(fromObject(item));
-            if (count++ < size)
+            if (!first)
             {
-                buffer.append(",");
+                out.append(',');
             }
+            first = false;
+            write(out, item);
         }
-        buffer.append("]");
-        return buffer.toString();
+        out.append(']');
     }
 
     /**
-     * Serialise a QmfData Object to JSON. If the Object is a QmfConsoleData we serialise the ObjectId as a String
-     * which is the same encoding used for the various "ref" properies in fromObject().
-     * @param data the QmfData that we wish to serialise to JSON.
+     * Serialise a List to JSON.
+     * @param list the List that we wish to serialise to JSON.
      * @return the JSON String encoding.
      */
-    public final static String fromQmfData(final QmfData data)
+    public final static String fromList(final List list)
     {
-        String consoleDataInfo = "";
+        return fromObject(list);
+    }
 
+    /**
+     * Serialise a QmfData Object to JSON. If the Object is a QmfConsoleData we serialise the ObjectId as a String
+     * which is the same encoding used for the various "ref" properies in write().
+     * @param out the Appendable that the JSON encoding is written to.
+     * @param data the QmfData that we wish to serialise to JSON.
+     */
+    public final static void writeQmfData(final Appendable out, final QmfData data) throws IOException
+    {
+        out.append('{');
         if (data instanceof QmfConsoleData)
         {
             QmfConsoleData consoleData = (QmfConsoleData)data;
             SchemaClassId sid = consoleData.getSchemaClassId();
             long[] ts = consoleData.getTimestamps();
 
-            String objectId = "\"_object_id\":\"" + consoleData.getObjectId().toString() + "\",";
-            String schemaId = "\"_schema_id\":{" + 
-                "\"_package_name\":\"" + sid.getPackageName() +
-                "\",\"_class_name\":\"" + sid.getClassName() +
-                "\",\"_type\":\"" + sid.getType() +
-                "\",\"_hash\":\"" + sid.getHashString() +
-            "\"},";
-
-            String timestamps = "\"_update_ts\":" + ts[0] + "," +
-                                "\"_create_ts\":" + ts[1] + "," +
-                                "\"_delete_ts\":" + ts[2] + ",";
+            out.append("\"_object_id\":\"").append(consoleData.getObjectId().toString()).append("\",");
+            out.append("\"_schema_id\":{\"_package_name\":\"").append(sid.getPackageName());
+            out.append("\",\"_class_name\":\"").append(sid.getClassName());
+            out.append("\",\"_type\":\"").append(String.valueOf(sid.getType()));
+            out.append("\",\"_hash\":\"").append(String.valueOf(sid.getHashString())).append("\"},");
 
-            consoleDataInfo = objectId + schemaId + timestamps;
+            out.append("\"_update_ts\":").append(Long.toString(ts[0]));
+            out.append(",\"_create_ts\":").append(Long.toString(ts[1]));
+            out.append(",\"_delete_ts\":").append(Long.toString(ts[2])).append(',');
         }
+        writeMapContents(out, data.mapEncode());
+        out.append('}');
+    }
 
-        return "{" + consoleDataInfo + encodeMapContents(data.mapEncode()) + "}";
+    /**
+     * Serialise a QmfData Object to JSON. If the Object is a QmfConsoleData we serialise the ObjectId as a String
+     * which is the same encoding used for the various "ref" properies in fromObject().
+     * @param data the QmfData that we wish to serialise to JSON.
+     * @return the JSON String encoding.
+     */
+    public final static String fromQmfData(final QmfData data)
+    {
+        return fromObject(data);
     }
 
     /**
      * Serialise a WorkItem Object to JSON.
+     * @param out the Appendable that the JSON encoding is written to.
      * @param data the WorkItem that we wish to serialise to JSON.
-     * @return the JSON String encoding.
      */
-    public final static String fromWorkItem(final WorkItem data)
+    public final static void writeWorkItem(final Appendable out, final WorkItem data) throws IOException
     {
         // TODO There are a couple of WorkItem types that won't serialise correctly - SubscriptionIndicationWorkItem
         // and MethodCallWorkItem. Their params require a custom serialiser - though they probably won't be used
         // from a REST API so they've been parked for now.
-        String type = "\"_type\":\"" + data.getType() + "\",";
+        out.append("{\"_type\":\"").append(data.getType().toString()).append("\",");
         Handle handle = data.getHandle();
-        String handleString = handle == null ? "" : "\"_handle\":\"" + handle.getCorrelationId() + "\",";
-        String params = "\"_params\":" + fromObject(data.getParams());
+        if (handle != null)
+        {
+            out.append("\"_handle\":\"").append(handle.getCorrelationId()).append("\",");
+        }
+        out.append("\"_params\":");
+        write(out, data.getParams());
+        out.append('}');
+    }
 
-        return "{" + type + handleString + params + "}";
+    /**
+     * Serialise a WorkItem Object to JSON.
+     * @param data the WorkItem that we wish to serialise to JSON.
+     * @return the JSON String encoding.
+     */
+    public final static String fromWorkItem(final WorkItem data)
+    {
+        return fromObject(data);
+    }
+
+    /**
+     * Send an Object serialised as JSON as an HTTP response. The JSON is written directly to the response stream
+     * obtained from HttpTransaction.getResponseStream(), which uses chunked transfer encoding, so even very large
+     * responses such as the list of all queues never exist as a single String or byte[].
+     * @param tx the HttpTransaction used to send the response.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param item the Object that we wish to serialise to JSON.
+     */
+    public final static void sendResponse(final HttpTransaction tx, final int status, final Object item)
+        throws IOException
+    {
+        Writer out = new OutputStreamWriter(tx.getResponseStream(status, "application/json"));
+        try
+        {
+            write(out, item);
+        }
+        finally
+        {
+            out.close();
+        }
     }
 
     /**
      * Create a Map from a JSON String.
-     * The JSONMapParser class used here is largely a direct copy of org.apache.qpid.messaging.util.AddressParser
+     * The JSONMapParser class used here started life as a direct copy of org.apache.qpid.messaging.util.AddressParser
      * as it provides a handy mechanism to parse a JSON String into a Map which is the only JSON requirement that
      * we really need for QMF. Originally this code simply did "import org.apache.qpid.messaging.util.AddressParser;"
      * but there's a restriction/bug on the core AddressParser whereby it serialises integers into Java Integer
@@ -251,6 +342,27 @@ public final class JSON
         }
     }
 
+    /**
+     * Create a Map from JSON read from an InputStream, such as the body of an HTTP request. The JSON is decoded as
+     * UTF-8 and parsed as it is read, so it never needs to be held in memory as a String.
+     * @param json the InputStream supplying the JSON that we wish to decode into a Map.
+     * @return the Map encoding of the JSON, an empty Map if the InputStream is empty.
+     */
+    public final static Map toMap(final InputStream json) throws IOException
+    {
+        PushbackReader reader = new PushbackReader(new InputStreamReader(json, "UTF-8"));
+        int ch = reader.read();
+        if (ch == -1)
+        {
+            return Collections.EMPTY_MAP;
+        }
+        else
+        {
+            reader.unread(ch);
+            return new JSONMapParser(reader).map();
+        }
+    }
+
     /**
      * Create a QmfData from a JSON String.
      * @param json the JSON String that we wish to decode into a QmfData.
@@ -20,383 +20,528 @@
  */
 package org.apache.qpid.restapi;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import org.apache.qpid.messaging.Address;
-import org.apache.qpid.messaging.util.Lexer;
-import org.apache.qpid.messaging.util.Lexicon;
-import org.apache.qpid.messaging.util.ParseError;
-import org.apache.qpid.messaging.util.Token;
+import java.util.regex.Pattern;
 
 /**
- * AddressParser
- *
- * This JSONMapParser class used is mostly just a direct copy of org.apache.qpid.messaging.util.AddressParser
- * as it provides a handy mechanism to parse a JSON String into a Map which is the only JSON requirement that
- * we really need for QMF.
- *
- * Unfortunately there's a restriction/bug on the core AddressParser whereby it serialises integers into Java Integer
- * which means that long integer values aren't correctly stored. It's this restriction that gives Java Address
- * Strings a defacto 2GB queue size. I should really provide a patch for the *real* AddressParser but it's better
- * to add features covering "shorthand" forms for large values (e.g. k/K, m/M, g/G for kilo, mega, giga etc.)
- * to both the Java and C++ AddressParser to ensure maximum consistency.
+ * JSONMapParser
  *
- * This AddressParser clone largely uses the classes from org.apache.qpid.messaging.util like the real AddressParser
- * but unfortunately the Parser class was package scope rather than public, so I've done some "copy and paste reuse"
- * to add the Parser methods into this version of AddressParser. I've also removed the bits that actually create
- * an Address as all we need to do is to parse into a java.util.Map.
+ * This JSONMapParser class originally started life as a copy of org.apache.qpid.messaging.util.AddressParser as it
+ * provided a handy mechanism to parse a JSON String into a Map which is the only JSON requirement that we really
+ * need for QMF. Unfortunately there's a restriction/bug on the core AddressParser whereby it serialises integers
+ * into Java Integer which means that long integer values aren't correctly stored. It's this restriction that gives
+ * Java Address Strings a defacto 2GB queue size. I should really provide a patch for the *real* AddressParser but
+ * it's better to add features covering "shorthand" forms for large values (e.g. k/K, m/M, g/G for kilo, mega, giga
+ * etc.) to both the Java and C++ AddressParser to ensure maximum consistency.
+ * <p>
+ * The AddressParser copy used the regex driven Lexicon/Lexer from org.apache.qpid.messaging.util, which tokenised
+ * the whole input up front and whose STRING pattern recursed once per character, so large request bodies (e.g.
+ * method arguments containing big binary payloads) were slow to parse and could overflow the stack. This version
+ * is a hand-written recursive descent parser that reads the input a character at a time in a single pass, so
+ * parsing is linear in the size of the input and the only memory used is that needed for the resulting Map.
+ * <p>
+ * The Map/List structures produced are the same as those produced by the AddressParser copy, in particular:
+ * <pre>
+ * Integer values are returned as Integer if they fit, otherwise as Long, values with a decimal point as Double.
+ * Strings may be quoted using either double or single quotes.
+ * String values consisting of a number ending in K, M or G (e.g. "10M") are returned as a Long multiplied by
+ * 1000, 1000000 or 1000000000 respectively.
+ * true and false are case insensitive and are returned as Boolean.
+ * Unquoted identifiers (including null) are returned as String.
+ * </pre>
+ * Unlike the AddressParser copy, backslash escaped quotes within Strings and numbers with exponents are supported.
  */
 
 public class JSONMapParser
 {
+    private static final int EOF = -1;
 
-    private static Lexicon lxi = new Lexicon();
-
-    private static Token.Type LBRACE = lxi.define("LBRACE", "\\{");
-    private static Token.Type RBRACE = lxi.define("RBRACE", "\\}");
-    private static Token.Type LBRACK = lxi.define("LBRACK", "\\[");
-    private static Token.Type RBRACK = lxi.define("RBRACK", "\\]");
-    private static Token.Type COLON = lxi.define("COLON", ":");
-    private static Token.Type SEMI = lxi.define("SEMI", ";");
-    private static Token.Type SLASH = lxi.define("SLASH", "/");
-    private static Token.Type COMMA = lxi.define("COMMA", ",");
-    private static Token.Type NUMBER = lxi.define("NUMBER", "[+-]?[0-9]*\\.?[0-9]+");
-    // Make test for true and false case insensitive. N.B. org.apache.qpid.messaging.util.AddressParser test is
-    // case sensitive - not sure if that's a bug/oversight in the AddressParser??
-    private static Token.Type TRUE = lxi.define("TRUE", "(?i)True");
-    private static Token.Type FALSE = lxi.define("FALSE", "(?i)False");
-    private static Token.Type ID = lxi.define("ID", "[a-zA-Z_](?:[a-zA-Z0-9_-]*[a-zA-Z0-9_])?");
-    private static Token.Type STRING = lxi.define("STRING", "\"(?:[^\\\"]|\\.)*\"|'(?:[^\\']|\\.)*'");
-    private static Token.Type ESC = lxi.define("ESC", "\\\\[^ux]|\\\\x[0-9a-fA-F][0-9a-fA-F]|\\\\u[0-9a-fA-F][0-9a-fA-F][0-9a-fA-F][0-9a-fA-F]");
-    private static Token.Type SYM = lxi.define("SYM", "[.#*%@$^!+-]");
-    private static Token.Type WSPACE = lxi.define("WSPACE", "[\\s]+");
-    private static Token.Type EOF = lxi.eof("EOF");
-
-    private static Lexer LEXER = lxi.compile();
-
-/********** Copied from org.apache.qpid.messaging.util.Parser as Parser was package scope **********/
-
-    private List<Token> tokens;
-    private int idx = 0;
-
-    Token next()
+    // Check for a number (with optional floating point) ending in K, M or G
+    private static final Pattern SHORTHAND = Pattern.compile("([0-9]*\\.[0-9]+|[0-9]+)\\s*[kKmMgG]");
+
+    private final Reader _reader;
+    private final char[] _buffer = new char[8192];
+    private int _position = 0;
+    private int _limit = 0;
+    private int _offset = 0; // Offset of the next character in the input, used for error reporting.
+    private final StringBuilder _token = new StringBuilder();
+
+    /**
+     * Construct a JSONMapParser to parse the supplied JSON String.
+     * @param input the JSON String to parse.
+     */
+    public JSONMapParser(final String input)
+    {
+        this(new StringReader(input));
+    }
+
+    /**
+     * Construct a JSONMapParser to parse JSON read from the supplied Reader. The Reader is read sequentially as
+     * parsing proceeds so the JSON never needs to be held in memory as a single String.
+     * @param reader the Reader supplying the JSON to parse.
+     */
+    public JSONMapParser(final Reader reader)
     {
-        return tokens.get(idx);
+        _reader = reader;
     }
 
-    boolean matches(Token.Type ... types)
+    /**
+     * Return the next character without consuming it.
+     * @return the next character or EOF if the end of the input has been reached.
+     */
+    private int peek()
     {
-        for (Token.Type t : types)
+        if (_position == _limit)
         {
-            if (next().getType() == t)
+            try
             {
-                return true;
+                int read;
+                do
+                {
+                    read = _reader.read(_buffer, 0, _buffer.length);
+                } while (read == 0);
+
+                if (read == EOF)
+                {
+                    return EOF;
+                }
+                _position = 0;
+                _limit = read;
+            }
+            catch (IOException ioe)
+            {
+                throw new IllegalArgumentException("JSONMapParser failed to read input: " + ioe.getMessage(), ioe);
             }
         }
-        return false;
+        return _buffer[_position];
     }
 
-    Token eat(Token.Type ... types)
+    /**
+     * Consume and return the next character.
+     * @return the next character or EOF if the end of the input has been reached.
+     */
+    private int read()
     {
-        if (types.length > 0 && !matches(types))
+        int ch = peek();
+        if (ch != EOF)
         {
-            throw new ParseError(next(), types);
+            _position++;
+            _offset++;
         }
-        else
+        return ch;
+    }
+
+    /**
+     * Skip any whitespace and return the next character without consuming it.
+     * @return the next non-whitespace character or EOF if the end of the input has been reached.
+     */
+    private int skipWhitespace()
+    {
+        int ch = peek();
+        while (ch != EOF && Character.isWhitespace(ch))
         {
-            Token t = next();
-            idx += 1;
-            return t;
+            read();
+            ch = peek();
         }
+        return ch;
     }
 
-/***************************************************************************************************/
-
-    public static List<Token> lex(String input)
+    /**
+     * Create an Exception describing an unexpected character.
+     * @param expected a description of what was expected at the current position.
+     * @return an IllegalArgumentException that the caller should throw.
+     */
+    private IllegalArgumentException error(final String expected)
     {
-        return LEXER.lex(input);
+        int ch = peek();
+        String found = (ch == EOF) ? "end of input" : "'" + (char)ch + "'";
+        return new IllegalArgumentException("JSONMapParser unexpected " + found + " at offset " + _offset +
+                                            ", expected " + expected);
     }
 
-    static List<Token> wlex(String input)
+    /**
+     * Consume the next non-whitespace character, which must be the specified character.
+     * @param expected the character that is required.
+     */
+    private void eat(final char expected)
     {
-        List<Token> tokens = new ArrayList<Token>();
-        for (Token t : lex(input))
+        if (skipWhitespace() != expected)
         {
-            if (t.getType() != WSPACE)
-            {
-                tokens.add(t);
-            }
+            throw error("'" + expected + "'");
         }
-        return tokens;
+        read();
     }
 
-    static String unquote(String st, Token tok)
+    /**
+     * Parse a JSON object into a Map. The input must start with the object's opening brace.
+     * @return the Map representation of the JSON object.
+     */
+    public Map<Object,Object> map()
     {
-        StringBuilder result = new StringBuilder();
-        for (int i = 1; i < st.length() - 1; i++)
+        eat('{');
+
+        Map<Object,Object> result = new HashMap<Object,Object>();
+        if (skipWhitespace() == '}')
+        {
+            read();
+            return result;
+        }
+
+        while (true)
         {
-            char ch = st.charAt(i);
-            if (ch == '\\')
+            Object key = value();
+            eat(':');
+            result.put(key, value());
+
+            int ch = skipWhitespace();
+            if (ch == ',')
             {
-                char code = st.charAt(i+1);
-                switch (code)
+                read();
+                // Tolerate a trailing comma before the closing brace as the AddressParser did.
+                if (skipWhitespace() == '}')
                 {
-                case '\n':
-                    break;
-                case '\\':
-                    result.append('\\');
-                    break;
-                case '\'':
-                    result.append('\'');
-                    break;
-                case '"':
-                    result.append('"');
-                    break;
-                case 'a':
-                    result.append((char) 0x07);
-                    break;
-                case 'b':
-                    result.append((char) 0x08);
-                    break;
-                case 'f':
-                    result.append('\f');
-                    break;
-                case 'n':
-                    result.append('\n');
-                    break;
-                case 'r':
-                    result.append('\r');
-                    break;
-                case 't':
-                    result.append('\t');
-                    break;
-                case 'u':
-                    result.append(decode(st.substring(i+2, i+6)));
-                    i += 4;
-                    break;
-                case 'v':
-                    result.append((char) 0x0b);
-                    break;
-                case 'o':
-                    result.append(decode(st.substring(i+2, i+4), 8));
-                    i += 2;
-                    break;
-                case 'x':
-                    result.append(decode(st.substring(i+2, i+4)));
-                    i += 2;
-                    break;
-                default:
-                    throw new ParseError(tok);
+                    read();
+                    return result;
                 }
-                i += 1;
+            }
+            else if (ch == '}')
+            {
+                read();
+                return result;
             }
             else
             {
-                result.append(ch);
+                throw error("',' or '}'");
             }
         }
-
-        return result.toString();
-    }
-
-    static char[] decode(String hex)
-    {
-        return decode(hex, 16);
-    }
-
-    static char[] decode(String code, int radix)
-    {
-        return Character.toChars(Integer.parseInt(code, radix));
     }
 
     /**
-     * This method is the the main place where this class differs from org.apache.qpid.messaging.util.AddressParser.
-     * If the token type is a STRING it checks for a number (with optional floating point) ending in K, M or G
-     * and if it is of this type it creates a Long out of the float value multiplied by 1000, 1000000 or 1000000000.
-     * If the token type is a NUMBER it tries to parse into an Integer like AddressParser, but if that fails it
-     * tries to parse onto a Long which allows much larger integer values to be used.
+     * Parse a JSON array into a List. The input must start with the array's opening bracket.
+     * @return the List representation of the JSON array.
      */
-    static Object tok2obj(Token tok)
+    List<Object> list()
     {
-        Token.Type type = tok.getType();
-        String value = tok.getValue();
-        if (type == STRING)
+        eat('[');
+
+        List<Object> result = new ArrayList<Object>();
+        if (skipWhitespace() == ']')
+        {
+            read();
+            return result;
+        }
+
+        while (true)
         {
-            value = unquote(value, tok);
+            result.add(value());
 
-            // Initial regex to check for a number (with optional floating point) ending in K, M or G
-            if (value.matches("([0-9]*\\.[0-9]+|[0-9]+)\\s*[kKmMgG]"))
+            int ch = skipWhitespace();
+            if (ch == ',')
             {
-                // If it's a numeric string perform the relevant multiplication and return as a Long.
-                int length = value.length();
-                if (length > 1)
+                read();
+                // Tolerate a trailing comma before the closing bracket as the AddressParser did.
+                if (skipWhitespace() == ']')
                 {
-                    String end = value.substring(length - 1, length).toUpperCase();
-                    String start = value.substring(0, length - 1).trim();
-
-                    if (end.equals("K"))
-                    {
-                        return Long.valueOf((long)(Float.parseFloat(start) * 1000.0));
-                    }
-                    else if (end.equals("M"))
-                    {
-                        return Long.valueOf((long)(Float.parseFloat(start) * 1000000.0));
-                    }
-                    else if (end.equals("G"))
-                    {
-                        return Long.valueOf((long)(Float.parseFloat(start) * 1000000000.0));
-                    }
+                    read();
+                    return result;
                 }
-
-                return value;
             }
-            else
+            else if (ch == ']')
             {
-                return value;
-            }
-        }
-        else if (type == NUMBER)
-        {
-            // This block extends the original AddressParser handling of NUMBER. It first attempts to parse the String
-            // into an Integer in order to be backwards compatible with AddressParser however if this causes a
-            // NumberFormatException it then attempts to parse into a Long.
-            if (value.indexOf('.') >= 0)
-            {
-                return Double.valueOf(value);
+                read();
+                return result;
             }
             else
             {
-                try
-                {
-                    return Integer.decode(value);
-                }
-                catch (NumberFormatException nfe)
-                {
-                    return Long.decode(value);
-                }
+                throw error("',' or ']'");
             }
         }
-        else if (type == TRUE)
+    }
+
+    /**
+     * Parse a JSON value, which may be a Map, List, String, Number, Boolean or unquoted identifier.
+     * @return the Object representation of the JSON value.
+     */
+    Object value()
+    {
+        int ch = skipWhitespace();
+        if (ch == '{')
         {
-            return true;
+            return map();
+        }
+        else if (ch == '[')
+        {
+            return list();
+        }
+        else if (ch == '"' || ch == '\'')
+        {
+            return string();
+        }
+        else if (ch == '+' || ch == '-' || ch == '.' || (ch >= '0' && ch <= '9'))
+        {
+            return number();
         }
-        else if (type == FALSE)
+        else if (ch == '_' || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z'))
         {
-            return false;
+            return identifier();
         }
         else
         {
-            return value;
+            throw error("a value");
         }
     }
 
-    public JSONMapParser(String input)
-    {
-        this.tokens = wlex(input); // Copied from org.apache.qpid.messaging.util.Parser
-        this.idx = 0; // Copied from org.apache.qpid.messaging.util.Parser
-    }
-
-    public Map<Object,Object> map()
+    /**
+     * Parse a quoted String. If the String consists of a number ending in K, M or G it is returned as a Long, which
+     * is the main place where the AddressParser copy differed from org.apache.qpid.messaging.util.AddressParser.
+     * @return the String, or Long if the String is a number in "shorthand" form.
+     */
+    private Object string()
     {
-        eat(LBRACE);
-
-        Map<Object,Object> result = new HashMap<Object,Object>();
+        int quote = read();
+        _token.setLength(0);
         while (true)
         {
-            if (matches(NUMBER, STRING, ID, LBRACE, LBRACK))
+            int ch = read();
+            if (ch == EOF)
             {
-                keyval(result);
-                if (matches(COMMA))
-                {
-                    eat(COMMA);
-                }
-                else if (matches(RBRACE))
-                {
-                    break;
-                }
-                else
-                {
-                    throw new ParseError(next(), COMMA, RBRACE);
-                }
+                throw error("closing " + (char)quote);
             }
-            else if (matches(RBRACE))
+            else if (ch == quote)
             {
                 break;
             }
+            else if (ch == '\\')
+            {
+                escape();
+            }
             else
             {
-                throw new ParseError(next(), NUMBER, STRING, ID, LBRACE, LBRACK,
-                                     RBRACE);
+                _token.append((char)ch);
             }
         }
 
-        eat(RBRACE);
-        return result;
+        String value = _token.toString();
+        int length = value.length();
+        if (length > 1 && "kKmMgG".indexOf(value.charAt(length - 1)) >= 0 && SHORTHAND.matcher(value).matches())
+        {
+            // If it's a numeric string perform the relevant multiplication and return as a Long.
+            String start = value.substring(0, length - 1).trim();
+            switch (Character.toUpperCase(value.charAt(length - 1)))
+            {
+            case 'K':
+                return Long.valueOf((long)(Float.parseFloat(start) * 1000.0));
+            case 'M':
+                return Long.valueOf((long)(Float.parseFloat(start) * 1000000.0));
+            default:
+                return Long.valueOf((long)(Float.parseFloat(start) * 1000000000.0));
+            }
+        }
+        return value;
     }
 
-    void keyval(Map<Object,Object> map)
+    /**
+     * Decode the escape sequence following a backslash in a quoted String and append it to the current token.
+     */
+    private void escape()
     {
-        Object key = value();
-        eat(COLON);
-        Object val = value();
-        map.put(key, val);
+        int code = read();
+        switch (code)
+        {
+        case '\n':
+            break;
+        case '\\':
+            _token.append('\\');
+            break;
+        case '\'':
+            _token.append('\'');
+            break;
+        case '"':
+            _token.append('"');
+            break;
+        case '/':
+            _token.append('/');
+            break;
+        case 'a':
+            _token.append((char) 0x07);
+            break;
+        case 'b':
+            _token.append((char) 0x08);
+            break;
+        case 'f':
+            _token.append('\f');
+            break;
+        case 'n':
+            _token.append('\n');
+            break;
+        case 'r':
+            _token.append('\r');
+            break;
+        case 't':
+            _token.append('\t');
+            break;
+        case 'u':
+            _token.append(Character.toChars(digits(4, 16)));
+            break;
+        case 'v':
+            _token.append((char) 0x0b);
+            break;
+        case 'o':
+            _token.append(Character.toChars(digits(2, 8)));
+            break;
+        case 'x':
+            _token.append(Character.toChars(digits(2, 16)));
+            break;
+        default:
+            throw new IllegalArgumentException("JSONMapParser invalid escape sequence at offset " + (_offset - 2));
+        }
     }
 
-    Object value()
+    /**
+     * Read a fixed number of digits in the specified radix as used in \\u, \\o and \\x escape sequences.
+     * @param count the number of digits to read.
+     * @param radix the radix of the digits.
+     * @return the value of the digits.
+     */
+    private int digits(final int count, final int radix)
     {
-        if (matches(NUMBER, STRING, ID, TRUE, FALSE))
+        int value = 0;
+        for (int i = 0; i < count; i++)
         {
-            return tok2obj(eat());
+            int digit = Character.digit(peek(), radix);
+            if (digit < 0)
+            {
+                throw error("a radix " + radix + " digit");
+            }
+            read();
+            value = value * radix + digit;
         }
-        else if (matches(LBRACE))
+        return value;
+    }
+
+    /**
+     * Parse a number. Integer values are returned as an Integer to be backwards compatible with AddressParser, but
+     * if they are too big to fit in an Integer they are returned as a Long, which allows much larger integer values
+     * to be used. Values with a decimal point or exponent are returned as a Double.
+     * @return the Integer, Long or Double representation of the number.
+     */
+    private Object number()
+    {
+        _token.setLength(0);
+        boolean floatingPoint = false;
+
+        int ch = peek();
+        if (ch == '+' || ch == '-')
         {
-            return map();
+            _token.append((char)read());
         }
-        else if (matches(LBRACK))
+
+        int digits = appendDigits();
+        if (peek() == '.')
         {
-            return list();
+            floatingPoint = true;
+            _token.append((char)read());
+            if (appendDigits() == 0)
+            {
+                throw error("a digit");
+            }
         }
-        else
+        else if (digits == 0)
         {
-            throw new ParseError(next(), NUMBER, STRING, ID, LBRACE, LBRACK);
+            throw error("a digit");
         }
-    }
-
-    List<Object> list()
-    {
-        eat(LBRACK);
 
-        List<Object> result = new ArrayList<Object>();
+        ch = peek();
+        if (ch == 'e' || ch == 'E')
+        {
+            floatingPoint = true;
+            _token.append((char)read());
+            ch = peek();
+            if (ch == '+' || ch == '-')
+            {
+                _token.append((char)read());
+            }
+            if (appendDigits() == 0)
+            {
+                throw error("a digit");
+            }
+        }
 
-        while (true)
+        String value = _token.toString();
+        if (floatingPoint)
+        {
+            return Double.valueOf(value);
+        }
+        else
         {
-            if (matches(RBRACK))
+            try
             {
-                break;
+                return Integer.decode(value);
             }
-            else
+            catch (NumberFormatException nfe)
             {
-                result.add(value());
-                if (matches(COMMA))
-                {
-                    eat(COMMA);
-                }
-                else if (matches(RBRACK))
-                {
-                    break;
-                }
-                else
-                {
-                    throw new ParseError(next(), COMMA, RBRACK);
-                }
+                return Long.decode(value);
             }
         }
+    }
 
-        eat(RBRACK);
-        return result;
+    /**
+     * Append any decimal digits at the current position to the current token.
+     * @return the number of digits appended.
+     */
+    private int appendDigits()
+    {
+        int count = 0;
+        int ch = peek();
+        while (ch >= '0' && ch <= '9')
+        {
+            _token.append((char)read());
+            count++;
+            ch = peek();
+        }
+        return count;
     }
 
+    /**
+     * Parse an unquoted identifier. The identifiers true and false (case insensitive) are returned as Boolean, any
+     * other identifier, including null, is returned as a String as it was by the AddressParser.
+     * @return the Boolean or String representation of the identifier.
+     */
+    private Object identifier()
+    {
+        _token.setLength(0);
+        int ch = peek();
+        while (ch == '_' || ch == '-' || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') ||
+               (ch >= '0' && ch <= '9'))
+        {
+            _token.append((char)read());
+            ch = peek();
+        }
+
+        if (_token.charAt(_token.length() - 1) == '-')
+        {
+            throw new IllegalArgumentException("JSONMapParser identifier " + _token + " ending at offset " + _offset +
+                                               " may not end with '-'");
+        }
+
+        String value = _token.toString();
+        if (value.equalsIgnoreCase("true"))
+        {
+            return Boolean.TRUE;
+        }
+        else if (value.equalsIgnoreCase("false"))
+        {
+            return Boolean.FALSE;
+        }
+        else
+        {
+            return value;
+        }
+    }
 }
@@ -0,0 +1,233 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.console.Agent;
+import org.apache.qpid.qmf2.console.Console;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * An ObjectCache holds the results of recent Console.getObjects() calls made on behalf of REST API clients so that
+ * the same results can be served to other clients without querying the broker again.
+ * <p>
+ * Each ConnectionProxy has its own ObjectCache, with an entry for each packageName/className (and optionally Agent)
+ * that has been requested.
+ * An entry is served from memory if it was fetched less than the staleness bound ago, otherwise it is refreshed with
+ * a single getObjects() call. Only one refresh is ever in progress for an entry, clients that request the same
+ * entry while it is being refreshed wait for and share the result of the refresh in progress. The number of broker
+ * queries is therefore bounded by the number of classes being viewed and the staleness bound rather than growing
+ * with the number of clients.
+ * <p>
+ * Entries that haven't been requested for EXPIRY_PERIOD are discarded by expire(), which is called periodically by
+ * the ConnectionProxy housekeeping.
+ * <p>
+ * Entries are refreshed on demand rather than fed by a Subscription per class. The broker ManagementAgent doesn't
+ * support Subscriptions, the Console emulates them from the object updates that the broker pushes periodically
+ * (every 10 seconds by default), so a Subscription fed entry could be no fresher than that push interval whatever
+ * staleness bound was configured. Its indications would also arrive on the Console's WorkItem queue, which is
+ * shared with the REST clients' console/nextWorkItem requests. The cost of refreshing on demand is one
+ * getObjects() round trip per class per staleness period while the class is being viewed, in exchange the staleness
+ * bound is honoured exactly and classes that nobody is viewing cause no broker load at all.
+ *
+ * @author Fraser Adams
+ */
+final class ObjectCache
+{
+    private static final long EXPIRY_PERIOD = 60000; // Discard entries that haven't been requested for 1 minute.
+
+    /**
+     * An Entry holds the most recent getObjects() results for a packageName/className.
+     */
+    private static final class Entry
+    {
+        private List<QmfConsoleData> _objects = null;
+        private long _timestamp = 0;
+        private boolean _refreshing = false;
+        private boolean _invalidated = false; // Set if invalidate() is called while a refresh is in progress.
+        private volatile long _lastAccess = System.currentTimeMillis();
+    }
+
+    private final Map<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private final long _staleness;
+
+    /**
+     * Construct an ObjectCache.
+     * @param staleness the maximum age in milliseconds of cached results that may be served to clients, if this is
+     *        zero or negative results are never cached.
+     */
+    ObjectCache(final long staleness)
+    {
+        _staleness = staleness;
+    }
+
+    /**
+     * Retrieve the list of QmfConsoleData objects with the specified packageName and className, from the cache if
+     * it holds sufficiently recent results otherwise from the broker via Console.getObjects().
+     * @param console the Console used to retrieve the objects if the cached results are stale.
+     * @param packageName the package name of the objects to retrieve, may be null to search all packages.
+     * @param className the class name of the objects to retrieve.
+     * @param agentName the name of the Agent to retrieve the objects from, may be null to search all Agents.
+     * @param refresh if true the objects are always retrieved from the broker, e.g. for Cache-Control: no-cache.
+     * @return an unmodifiable List of the QmfConsoleData objects.
+     */
+    List<QmfConsoleData> getObjects(final Console console, final String packageName, final String className,
+                                    final String agentName, final boolean refresh)
+    {
+        if (_staleness <= 0)
+        {
+            return fetch(console, packageName, className, agentName);
+        }
+
+        String key = (packageName == null) ? className : packageName + ":" + className;
+        key = (agentName == null) ? key : key + "@" + agentName;
+        Entry entry = _entries.get(key);
+        if (entry == null)
+        {
+            synchronized (_entries)
+            {
+                entry = _entries.get(key);
+                if (entry == null)
+                {
+                    entry = new Entry();
+                    _entries.put(key, entry);
+                }
+            }
+        }
+        entry._lastAccess = System.currentTimeMillis();
+
+        synchronized (entry)
+        {
+            if (entry._refreshing)
+            { // Another client is already refreshing this entry so wait for and share its results.
+                while (entry._refreshing)
+                {
+                    try
+                    {
+                        entry.wait();
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        continue;
+                    }
+                }
+
+                if (entry._objects != null)
+                {
+                    return entry._objects;
+                }
+            }
+            else if (!refresh && entry._objects != null &&
+                     System.currentTimeMillis() - entry._timestamp < _staleness)
+            {
+                return entry._objects;
+            }
+            entry._refreshing = true;
+            entry._invalidated = false;
+        }
+
+        List<QmfConsoleData> objects = null;
+        try
+        {
+            objects = fetch(console, packageName, className, agentName);
+            return objects;
+        }
+        finally
+        {
+            synchronized (entry)
+            {
+                entry._objects = objects;
+                entry._timestamp = entry._invalidated ? 0 : System.currentTimeMillis();
+                entry._refreshing = false;
+                entry.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Retrieve the objects from the broker.
+     * @param console the Console used to retrieve the objects.
+     * @param packageName the package name of the objects to retrieve, may be null to search all packages.
+     * @param className the class name of the objects to retrieve.
+     * @param agentName the name of the Agent to retrieve the objects from, may be null to search all Agents.
+     * @return an unmodifiable List of the QmfConsoleData objects.
+     */
+    private static List<QmfConsoleData> fetch(final Console console, final String packageName, final String className,
+                                              final String agentName)
+    {
+        if (agentName != null)
+        {
+            Agent agent = console.getAgent(agentName);
+            if (agent == null)
+            {
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableList(console.getObjects(packageName, className,
+                                                                   Collections.singletonList(agent)));
+        }
+
+        List<QmfConsoleData> objects = (packageName == null) ? console.getObjects(className) :
+                                                               console.getObjects(packageName, className);
+        return Collections.unmodifiableList(objects);
+    }
+
+    /**
+     * Discard all cached results, so that subsequent requests retrieve the objects from the broker. This is called
+     * when a client invokes a QMF method, which is likely to change the state of the objects.
+     */
+    void invalidate()
+    {
+        for (Entry entry : _entries.values())
+        {
+            synchronized (entry)
+            {
+                entry._timestamp = 0;
+                entry._invalidated = entry._refreshing;
+            }
+        }
+    }
+
+    /**
+     * Discard any entries that haven't been requested for EXPIRY_PERIOD.
+     * @param now the current time in milliseconds.
+     */
+    void expire(final long now)
+    {
+        synchronized (_entries)
+        {
+            for (Iterator<Entry> i = _entries.values().iterator(); i.hasNext();)
+            {
+                Entry entry = i.next();
+                if (now - entry._lastAccess > EXPIRY_PERIOD)
+                {
+                    i.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.QmfQueryTarget;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * An ObjectQuery applies the query parameters of a console/objects request to the List of QmfConsoleData objects
+ * retrieved for it, so that only the objects and properties a client actually wants are serialised and sent.
+ * <p>
+ * The supported query parameters are:
+ * <pre>
+ * where=&lt;predicate&gt;  A QMF predicate in the list form used by QmfQuery e.g. ["gt", "msgDepth", 0], only the
+ *                      objects that the predicate matches are returned.
+ * fields=&lt;names&gt;     A comma separated list of the properties to return e.g. fields=name,msgDepth. The _object_id,
+ *                      _schema_id and timestamps are always returned.
+ * sort=&lt;names&gt;       A comma separated list of the properties to sort by, a name prefixed by "-" sorts in
+ *                      descending order e.g. sort=-msgDepth,name.
+ * offset=&lt;n&gt;         The number of (filtered and sorted) objects to skip.
+ * limit=&lt;n&gt;          The maximum number of objects to return.
+ * </pre>
+ * The parameters are applied in the order filter, sort, page then project so that the cost of sorting and of
+ * building and serialising the response is bounded by the page size rather than by the number of objects. When a
+ * limit is given the sort only retains the best offset + limit objects rather than sorting all of them. Objects that
+ * compare equal are ordered by ObjectId so that the pages of a sorted result are consistent with one another.
+ * <p>
+ * Note that the predicate is evaluated against the (possibly cached) objects held by the REST API rather than being
+ * sent to the Agent, so it works for any Agent and doesn't defeat the ObjectCache.
+ *
+ * @author Fraser Adams
+ */
+final class ObjectQuery
+{
+    private QmfQuery _where = null;
+    private List<String> _fields = null;
+    private Comparator<QmfConsoleData> _comparator = null;
+    private int _offset = 0;
+    private int _limit = Integer.MAX_VALUE;
+    private int _matchCount = 0;
+
+    /**
+     * Construct an ObjectQuery from the query string of a console/objects request.
+     * @param queryString the URL encoded query string, may be null in which case the query matches every object.
+     * @throws IllegalArgumentException if any of the query parameters are invalid.
+     */
+    ObjectQuery(final String queryString)
+    {
+        if (queryString == null)
+        {
+            return;
+        }
+
+        for (String param : queryString.split("&"))
+        {
+            int i = param.indexOf('=');
+            if (i <= 0)
+            {
+                continue;
+            }
+
+            String name = decode(param.substring(0, i));
+            String value = decode(param.substring(i + 1)).trim();
+            if (value.length() == 0)
+            {
+                continue;
+            }
+
+            if (name.equals("where"))
+            {
+                try
+                {
+                    _where = new QmfQuery(QmfQueryTarget.OBJECT, value);
+                }
+                catch (QmfException qmfe)
+                {
+                    throw new IllegalArgumentException("Invalid where predicate: " + qmfe.getMessage());
+                }
+                catch (RuntimeException re)
+                { // The predicate parser reports syntax errors with unchecked exceptions.
+                    throw new IllegalArgumentException("Invalid where predicate: " + re.getMessage());
+                }
+            }
+            else if (name.equals("fields"))
+            {
+                _fields = split(value);
+            }
+            else if (name.equals("sort"))
+            {
+                _comparator = new PropertyComparator(split(value));
+            }
+            else if (name.equals("offset"))
+            {
+                _offset = parseInt(name, value);
+            }
+            else if (name.equals("limit"))
+            {
+                _limit = parseInt(name, value);
+            }
+        }
+    }
+
+    /**
+     * URL decode a query string component.
+     */
+    private static String decode(final String s)
+    {
+        try
+        {
+            return URLDecoder.decode(s, "UTF-8");
+        }
+        catch (UnsupportedEncodingException uee)
+        { // Can't happen as UTF-8 is always supported.
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * Split a comma separated list of property names, ignoring any empty names.
+     */
+    private static List<String> split(final String value)
+    {
+        List<String> names = new ArrayList<String>();
+        for (String name : value.split(","))
+        {
+            name = name.trim();
+            if (name.length() > 0)
+            {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Parse a non-negative integer query parameter.
+     */
+    private static int parseInt(final String name, final String value)
+    {
+        try
+        {
+            int i = Integer.parseInt(value);
+            if (i >= 0)
+            {
+                return i;
+            }
+        }
+        catch (NumberFormatException nfe)
+        { // Fall through to the exception below.
+        }
+        throw new IllegalArgumentException("Invalid " + name + " value: " + value);
+    }
+
+    /**
+     * Apply the query to a List of QmfConsoleData objects.
+     * @param objects the objects to query, this List is not modified.
+     * @return a List containing the requested page of the matching objects. If the fields parameter was specified the
+     *         List contains Maps holding only the requested properties, otherwise it contains the QmfConsoleData.
+     */
+    List<Object> apply(final List<QmfConsoleData> objects)
+    {
+        List<QmfConsoleData> matches = objects;
+        if (_where != null)
+        {
+            matches = new ArrayList<QmfConsoleData>();
+            for (QmfConsoleData object : objects)
+            {
+                if (_where.evaluate(object))
+                {
+                    matches.add(object);
+                }
+            }
+        }
+        _matchCount = matches.size();
+
+        int from = Math.min(_offset, _matchCount);
+        int to = (int)Math.min((long)from + _limit, _matchCount);
+        List<QmfConsoleData> page;
+        if (_comparator == null)
+        {
+            page = matches.subList(from, to);
+        }
+        else if (to < _matchCount)
+        { // Only the first "to" objects are needed, so select them with a bounded heap rather than sorting them all.
+            PriorityQueue<QmfConsoleData> heap =
+                new PriorityQueue<QmfConsoleData>(to + 1, Collections.reverseOrder(_comparator));
+            for (QmfConsoleData object : matches)
+            {
+                heap.offer(object);
+                if (heap.size() > to)
+                {
+                    heap.poll();
+                }
+            }
+
+            List<QmfConsoleData> best = new ArrayList<QmfConsoleData>(heap);
+            Collections.sort(best, _comparator);
+            page = best.subList(from, to);
+        }
+        else
+        {
+            List<QmfConsoleData> sorted = new ArrayList<QmfConsoleData>(matches);
+            Collections.sort(sorted, _comparator);
+            page = sorted.subList(from, to);
+        }
+
+        List<Object> results = new ArrayList<Object>(page.size());
+        for (QmfConsoleData object : page)
+        {
+            results.add(_fields == null ? object : project(object));
+        }
+        return results;
+    }
+
+    /**
+     * Return the number of objects that matched the where predicate in the most recent call to apply(), in other
+     * words the number of objects available to be paged through using offset and limit.
+     * @return the number of objects that matched the where predicate.
+     */
+    int getMatchCount()
+    {
+        return _matchCount;
+    }
+
+    /**
+     * Build a Map containing the requested properties of a QmfConsoleData, using the same encoding of the ObjectId,
+     * SchemaClassId and timestamps as JSON.writeQmfData().
+     */
+    private Map<String, Object> project(final QmfConsoleData object)
+    {
+        SchemaClassId sid = object.getSchemaClassId();
+        Map<String, Object> schemaId = new LinkedHashMap<String, Object>();
+        schemaId.put("_package_name", sid.getPackageName());
+        schemaId.put("_class_name", sid.getClassName());
+        schemaId.put("_type", String.valueOf(sid.getType()));
+        schemaId.put("_hash", String.valueOf(sid.getHashString()));
+
+        long[] ts = object.getTimestamps();
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("_object_id", object.getObjectId().toString());
+        map.put("_schema_id", schemaId);
+        map.put("_update_ts", ts[0]);
+        map.put("_create_ts", ts[1]);
+        map.put("_delete_ts", ts[2]);
+        for (String field : _fields)
+        {
+            Object value = object.getValue(field);
+            if (value != null)
+            {
+                map.put(field, value);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Compares QmfConsoleData objects by a list of property names, each optionally prefixed by "-" for descending
+     * order. Numeric properties compare numerically and everything else compares by its String value, objects that
+     * lack a property sort after those that have it and the ObjectId breaks any remaining ties.
+     */
+    private static final class PropertyComparator implements Comparator<QmfConsoleData>
+    {
+        private final String[] _names;
+        private final boolean[] _descending;
+
+        PropertyComparator(final List<String> names)
+        {
+            _names = new String[names.size()];
+            _descending = new boolean[names.size()];
+            for (int i = 0; i < _names.length; i++)
+            {
+                String name = names.get(i);
+                _descending[i] = name.startsWith("-");
+                _names[i] = _descending[i] ? name.substring(1) : name;
+            }
+        }
+
+        public int compare(final QmfConsoleData a, final QmfConsoleData b)
+        {
+            for (int i = 0; i < _names.length; i++)
+            {
+                Object x = a.getValue(_names[i]);
+                Object y = b.getValue(_names[i]);
+                if (x == null || y == null)
+                {
+                    if (x != y)
+                    { // Missing values sort last whatever the order.
+                        return (x == null) ? 1 : -1;
+                    }
+                    continue;
+                }
+
+                int result = compareValues(x, y);
+                if (result != 0)
+                {
+                    return _descending[i] ? -result : result;
+                }
+            }
+            return a.getObjectId().toString().compareTo(b.getObjectId().toString());
+        }
+
+        private static int compareValues(final Object x, final Object y)
+        {
+            if (x instanceof Number && y instanceof Number)
+            {
+                Number m = (Number)x;
+                Number n = (Number)y;
+                if (m instanceof Double || m instanceof Float || n instanceof Double || n instanceof Float)
+                {
+                    return Double.compare(m.doubleValue(), n.doubleValue());
+                }
+                long l = m.longValue();
+                long r = n.longValue();
+                return (l < r) ? -1 : ((l == r) ? 0 : 1);
+            }
+            return toString(x).compareTo(toString(y));
+        }
+
+        private static String toString(final Object value)
+        {
+            return (value instanceof byte[]) ? new String((byte[])value) : value.toString();
+        }
+    }
+}
@@ -31,6 +31,7 @@ import org.apache.qpid.qmf2.util.GetOpt;
 
 import org.apache.qpid.restapi.httpserver.Authenticator;
 import org.apache.qpid.restapi.httpserver.Delegator;
+import org.apache.qpid.restapi.nio.NioHttpServer;
 
 /**
  * Note QpidRestAPI makes use of the Java 1.6 "Easter Egg" HttpServer and associated classes to create a simple
@@ -50,6 +51,11 @@ import org.apache.qpid.restapi.httpserver.Delegator;
  * could wrap javax.servlet.http.HttpServletRequest and javax.servlet.http.HttpServletResponse, so for example an 
  * HttpServlet could delegate to a Server instance passing the Conversation it constructed from the HttpServletRequest
  * and HttpServletResponse in a similar way that our Delegator implementation of HttpHandler delegates to the Servers.
+ * <p>
+ * The --nio option selects an alternative Web Server, NioHttpServer, which uses a single non-blocking event loop
+ * thread for all socket I/O and a fixed size pool of worker threads to run the Servers. With NioHttpServer long
+ * poll requests such as console/nextWorkItem are suspended rather than blocking a thread, so a large number of
+ * concurrent clients (e.g. browser dashboards) can be supported with a small number of threads.
  *
  * <pre>
  * Usage:  QpidRestAPI [options]
@@ -72,6 +78,13 @@ import org.apache.qpid.restapi.httpserver.Delegator;
  *                        the socket backlog default is 10
  *        -w &lt;directory&gt;, --webroot=&lt;directory&gt;
  *                        the directory of the QpidRestAPI Web Site default is qpid-web
+ *        -n,             --nio
+ *                        use the non-blocking NIO Web Server rather than com.sun.net.httpserver.HttpServer
+ *        -t &lt;threads&gt;,   --threads=&lt;threads&gt;
+ *                        the number of worker threads used by the NIO Web Server default is 20
+ *        -s &lt;staleness&gt;, --staleness=&lt;staleness&gt;
+ *                        the maximum age in milliseconds of cached console/objects results, 0 disables
+ *                        caching default is 1000
  * </pre>
  * @author Fraser Adams
  */
@@ -104,7 +117,16 @@ public class QpidRestAPI
     "                        default is 10\n" +
     "  -w <directory>, --webroot=<directory>\n" +
     "                        the directory of the QpidRestAPI Web Site.\n" +
-    "                        default is qpid-web.\n";
+    "                        default is qpid-web.\n" +
+    "  -n, --nio             use the non-blocking NIO Web Server rather than\n" +
+    "                        com.sun.net.httpserver.HttpServer.\n" +
+    "  -t <threads>, --threads=<threads>\n" +
+    "                        the number of worker threads used by the NIO Web Server.\n" +
+    "                        default is 20.\n" +
+    "  -s <staleness>, --staleness=<staleness>\n" +
+    "                        the maximum age in milliseconds of cached console/objects\n" +
+    "                        results, 0 disables caching.\n" +
+    "                        default is 1000.\n";
 
 
     /**
@@ -116,26 +138,42 @@ public class QpidRestAPI
      * @param broker the address of the Qpid broker to connect to (null = default).
      * @param backlog the socket backlog.
      * @param webroot the directory of the QpidRestAPI Web Site.
+     * @param nio if true use the non-blocking NioHttpServer rather than com.sun.net.httpserver.HttpServer.
+     * @param threads the number of worker threads used by NioHttpServer.
+     * @param staleness the maximum age in milliseconds of cached console/objects results, 0 disables caching.
      */
-    public QpidRestAPI(final String addr, final int port, String broker, final int backlog, final String webroot) 
+    public QpidRestAPI(final String addr, final int port, String broker, final int backlog, final String webroot,
+                       final boolean nio, final int threads, final long staleness) 
         throws IOException
     {
         final InetSocketAddress inetaddr = (addr == null) ? new InetSocketAddress(port) :
                                                             new InetSocketAddress(addr, port);
-        final HttpServer server = HttpServer.create(inetaddr, backlog);
 
         broker = (broker == null) ? inetaddr.getAddress().getHostAddress() + ":5672" : broker;
 
-        Delegator fileserver = new Delegator(new FileServer(webroot + "/web", true));
-        Delegator qpidserver  = new Delegator(new QpidServer(broker));
+        Server fileserver = new FileServer(webroot + "/web", true);
+        Server qpidserver  = new QpidServer(broker, staleness);
 
         Authenticator authenticator = new Authenticator(this.getClass().getCanonicalName(), webroot + "/authentication");
 
-        server.setExecutor(Executors.newCachedThreadPool());
-        server.createContext("/", fileserver);
-        server.createContext("/ui", fileserver).setAuthenticator(authenticator);
-        server.createContext("/qpid/connection", qpidserver).setAuthenticator(authenticator);
-        server.start();
+        if (nio)
+        {
+            final NioHttpServer server = new NioHttpServer(inetaddr, backlog);
+            server.setExecutor(Executors.newFixedThreadPool(threads));
+            server.createContext("/", fileserver, null);
+            server.createContext("/ui", fileserver, authenticator);
+            server.createContext("/qpid/connection", qpidserver, authenticator);
+            server.start();
+        }
+        else
+        {
+            final HttpServer server = HttpServer.create(inetaddr, backlog);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/", new Delegator(fileserver));
+            server.createContext("/ui", new Delegator(fileserver)).setAuthenticator(authenticator);
+            server.createContext("/qpid/connection", new Delegator(qpidserver)).setAuthenticator(authenticator);
+            server.start();
+        }
     }
 
     /**
@@ -148,7 +186,7 @@ public class QpidRestAPI
         logLevel = (logLevel == null) ? "FATAL" : logLevel; // Set default log level to FATAL rather than DEBUG.
         System.setProperty("amqj.logging.level", logLevel);
 
-        String[] longOpts = {"help", "host=", "port=", "backlog=", "webroot="};
+        String[] longOpts = {"help", "host=", "port=", "backlog=", "webroot=", "nio", "threads=", "staleness="};
         try
         {
             String addr = null;
@@ -156,8 +194,11 @@ public class QpidRestAPI
             String broker = null;
             int backlog = 10;
             String webroot = "qpid-web";
+            boolean nio = false;
+            int threads = 20;
+            long staleness = 1000;
 
-            GetOpt getopt = new GetOpt(args, "ha:i:p:b:w:", longOpts);
+            GetOpt getopt = new GetOpt(args, "ha:i:p:b:w:nt:s:", longOpts);
             List<String[]> optList = getopt.getOptList();
             String[] cargs = {};
             cargs = getopt.getEncArgs().toArray(cargs);
@@ -191,9 +232,21 @@ public class QpidRestAPI
                 {
                     webroot = opt[1];
                 }
+                else if (opt[0].equals("-n") || opt[0].equals("--nio"))
+                {
+                    nio = true;
+                }
+                else if (opt[0].equals("-t") || opt[0].equals("--threads"))
+                {
+                    threads = Integer.parseInt(opt[1]);
+                }
+                else if (opt[0].equals("-s") || opt[0].equals("--staleness"))
+                {
+                    staleness = Long.parseLong(opt[1]);
+                }
             }
 
-            QpidRestAPI restAPI = new QpidRestAPI(addr, port, broker, backlog, webroot);
+            QpidRestAPI restAPI = new QpidRestAPI(addr, port, broker, backlog, webroot, nio, threads, staleness);
         }
         catch (IllegalArgumentException e)
         {
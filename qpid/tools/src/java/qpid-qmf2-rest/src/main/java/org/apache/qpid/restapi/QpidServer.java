@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 // Misc Imports
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -43,9 +44,11 @@ import org.apache.qpid.qmf2.console.QmfConsoleData;
 
 import static java.net.HttpURLConnection.HTTP_OK;
 import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_CREATED;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 import static java.net.HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
 import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
 
 
@@ -98,14 +101,39 @@ import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
  *      This is the REST equivalent of Console.getObjects(className) which searches across all packages and all Agents 
  *      for the specified className.
  *
+ *      Results are cached per connection and may be up to the staleness bound set by the QpidRestAPI --staleness
+ *      option old, so many clients viewing the same objects don't each cause a broker query. Invoking a method via
+ *      POST discards the cached results and a request with a "Cache-Control: no-cache" header always queries the
+ *      broker. The same applies to the &lt;packageName&gt;/&lt;className&gt; form below.
+ *
+ *      The response carries a (weak) ETag header and a request whose If-None-Match header matches the current ETag
+ *      receives a 304 Not Modified response rather than the objects. This also applies to the object/&lt;ObjectId&gt;,
+ *      console/agents and console/agent/&lt;agentName&gt; resources.
+ *
+ *      The following optional query parameters, which also apply to the forms below, select which objects and
+ *      properties are returned so that clients displaying large numbers of objects only pay for what they show:
+ *      where=&lt;predicate&gt; a QMF predicate in QmfQuery list form e.g. where=["gt","msgDepth",0]
+ *      fields=&lt;names&gt; a comma separated list of the properties to return e.g. fields=name,msgDepth
+ *      sort=&lt;names&gt; a comma separated list of the properties to sort by, prefix a name with - for descending order
+ *      offset=&lt;n&gt; and limit=&lt;n&gt; return at most n objects starting at offset n of the matching objects
+ *      When a query string is present the response carries an X-Total-Count header containing the number of objects
+ *      matching the where predicate, and an invalid parameter results in a 400 Bad Request response.
+ *
  * GET: &lt;host&gt;:&lt;port&gt;/qpid/connection/&lt;name&gt;/console/objects/&lt;packageName&gt;/&lt;className&gt;
- *      !!not yet implemented!!
+ * 
  *      This method retrieves (as a JSON string) the list of QmfConsoleData objects with the specified 
  *      &lt;packageName&gt; and &lt;className&gt; using the QMF2 Console associated with the Qpid Connection Object
  *      with the name &lt;name&gt;.
  *      This is the REST equivalent of Console.getObjects(packageName, className) which searches across all Agents 
  *      for the specified className in the package packageName.
  *
+ * GET: &lt;host&gt;:&lt;port&gt;/qpid/connection/&lt;name&gt;/console/objects/&lt;packageName&gt;/&lt;className&gt;/&lt;agentName&gt;
+ * 
+ *      This method retrieves (as a JSON string) the list of QmfConsoleData objects with the specified 
+ *      &lt;packageName&gt; and &lt;className&gt; from the Agent named &lt;agentName&gt;, or a 404 Not Found response if
+ *      there is no such Agent.
+ *      This is the REST equivalent of Console.getObjects(packageName, className, agentList) with a single Agent.
+ *
  * GET: &lt;host&gt;:&lt;port&gt;/qpid/connection/&lt;name&gt;/object/&lt;ObjectId&gt;
  *      This method retrieves (as a JSON string) the QmfConsoleData object with the specified &lt;ObjectId&gt;
  *      using the QMF2 Console associated with the Qpid Connection Object with the name &lt;name&gt;.
@@ -167,7 +195,17 @@ import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
  * 
  *      This method retrieves (as a JSON string) the next pending work item from this Console (N.B. this method
  *      blocks until a WorkItem is available so should only be called asynchronously e.g. via AJAX).
+ *      When QpidRestAPI is using the NIO Web Server the request is suspended rather than blocking a thread and
+ *      an empty response is returned if no WorkItem becomes available within 30 seconds.
  *      This is the REST equivalent of Console.getNextWorkitem().
+ *
+ * GET: &lt;host&gt;:&lt;port&gt;/qpid/connection/&lt;name&gt;/console/workItems
+ * 
+ *      This method pushes WorkItems from this Console to the client as they arrive as a Server-Sent Events
+ *      (text/event-stream) response, suitable for use with the browser EventSource API. WorkItems are sent in
+ *      batches as "workItems" events whose data is a JSON array of WorkItems encoded as for nextWorkItem. Each client
+ *      has a bounded buffer, if a client falls behind the oldest WorkItems are discarded and a "dropped" event
+ *      containing the number discarded is sent. Unlike nextWorkItem every client receives every WorkItem.
  * </pre>
  * @author Fraser Adams
  */
@@ -175,12 +213,19 @@ public final class QpidServer implements Server
 {
     private static final Logger _log = LoggerFactory.getLogger(QpidServer.class);
 
-    private ConnectionStore _connections = new ConnectionStore();
+    private final ConnectionStore _connections;
     private String _defaultBroker = null;
 
-    public QpidServer(final String broker)
+    /**
+     * Construct a QpidServer.
+     * @param broker the address of the default Qpid broker.
+     * @param staleness the maximum age in milliseconds of cached console/objects results served to clients, zero
+     *        disables caching.
+     */
+    public QpidServer(final String broker, final long staleness)
     {
         _defaultBroker = broker;
+        _connections = new ConnectionStore(staleness);
     }
 
     /**
@@ -188,25 +233,107 @@ public final class QpidServer implements Server
      * "/qpid/connection/<connectionName>/console/objects/" request,
      * in other words a request for information about an object resource specified by the remaining path.
      * Only the GET method is valid for this resource and it is in effect the REST mapping for Console.getObjects().
+     * The objects are retrieved via the ConnectionProxy's ObjectCache, a request with a "Cache-Control: no-cache"
+     * header bypasses any cached results. If the request has a query string the where, fields, sort, offset and
+     * limit parameters are applied by an ObjectQuery before the response is serialised.
      */
-    private void sendGetObjectsResponse(final HttpTransaction tx, final Console console, final String path) throws IOException
+    private void sendGetObjectsResponse(final HttpTransaction tx, final ConnectionProxy connection, final String path)
+        throws IOException
     {
         String[] params = path.split("/");
+        String cacheControl = tx.getHeader("Cache-Control");
+        boolean refresh = cacheControl != null && cacheControl.contains("no-cache");
+        List<QmfConsoleData> objects = null;
         if (params.length == 1)
         { // With one parameter we call getObjects(className)
-            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getObjects(params[0])));
+            objects = connection.getObjects(null, params[0], null, refresh);
         }
         else if (params.length == 2)
         { // With two parameters we call getObjects(packageName, className)
-            //System.out.println("params = " + params[0] + ", " + params[1]);
-            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getObjects(params[0], params[1])));
+            objects = connection.getObjects(params[0], params[1], null, refresh);
         }
         else if (params.length == 3)
-        { // TODO With three parameters we call getObjects(packageName, className, agent)
-            //System.out.println("params = " + params[0] + ", " + params[1] + ", " + params[2]);
-            tx.sendResponse(HTTP_NOT_FOUND, "text/plain", "404 Too many parameters for objects GET request.");
+        { // With three parameters we call getObjects(packageName, className, agent)
+            if (connection.getConsole().getAgent(params[2]) == null)
+            {
+                tx.sendResponse(HTTP_NOT_FOUND, "text/plain", "404 Agent Not Found.");
+                return;
+            }
+            objects = connection.getObjects(params[0], params[1], params[2], refresh);
         } else {
             tx.sendResponse(HTTP_NOT_FOUND, "text/plain", "404 Too many parameters for objects GET request.");
+            return;
+        }
+
+        String queryString = tx.getQueryString();
+        if (queryString == null)
+        {
+            sendConditionalResponse(tx, objects);
+            return;
+        }
+
+        ObjectQuery query = null;
+        try
+        {
+            query = new ObjectQuery(queryString);
+        }
+        catch (IllegalArgumentException iae)
+        {
+            tx.sendResponse(HTTP_BAD_REQUEST, "text/plain", "400 " + iae.getMessage());
+            return;
+        }
+
+        List<Object> results = query.apply(objects);
+        tx.setHeader("X-Total-Count", Integer.toString(query.getMatchCount()));
+
+        // The ETag covers the match count as well as the page, as X-Total-Count is part of the representation.
+        sendConditionalResponse(tx, results, Arrays.asList(query.getMatchCount(), results));
+    }
+
+    /**
+     * Send a JSON response for a resource that clients are likely to poll, such as console/objects. The response
+     * carries an ETag header and if the request's If-None-Match header matches it a 304 Not Modified response is
+     * sent instead of the JSON encoding, which saves both serialisation and bandwidth.
+     */
+    private void sendConditionalResponse(final HttpTransaction tx, final Object item) throws IOException
+    {
+        sendConditionalResponse(tx, item, item);
+    }
+
+    /**
+     * Send a JSON response for item whose ETag is computed from validator, which should reflect everything about
+     * the response that may change, e.g. the headers as well as the item.
+     */
+    private void sendConditionalResponse(final HttpTransaction tx, final Object item, final Object validator)
+        throws IOException
+    {
+        String etag = ETag.compute(validator);
+        tx.setHeader("ETag", etag);
+        if (ETag.matches(tx.getHeader("If-None-Match"), etag))
+        {
+            tx.sendResponse(HTTP_NOT_MODIFIED, "application/json", (byte[])null);
+        }
+        else
+        {
+            JSON.sendResponse(tx, HTTP_OK, item);
+        }
+    }
+
+    /**
+     * Handle a "/qpid/connection/<connectionName>/console/nextWorkItem" request. If the Web Server supports
+     * asynchronous transactions the request is suspended until a WorkItem is available rather than blocking the
+     * calling thread in Console.getNextWorkitem(), see ConnectionProxy.getNextWorkItem().
+     */
+    private void sendNextWorkItemResponse(final HttpTransaction tx, final ConnectionProxy connection,
+                                          final Console console) throws IOException
+    {
+        if (tx instanceof AsyncHttpTransaction)
+        {
+            connection.getNextWorkItem((AsyncHttpTransaction)tx);
+        }
+        else
+        {
+            JSON.sendResponse(tx, HTTP_OK, console.getNextWorkitem());
         }
     }
 
@@ -231,7 +358,7 @@ public final class QpidServer implements Server
             String user = tx.getPrincipal(); // Using the principal lets different users use the default connection.
             if (path.length() == 0)
             { // handle "/qpid/connection/" request with unspecified connection (returns list of available connections).
-                tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(_connections.getAll(user)));   
+                JSON.sendResponse(tx, HTTP_OK, _connections.getAll(user));   
             }
             else
             { // if path.length() > 0 we're dealing with a specified Connection so extract the name and look it up.
@@ -290,19 +417,19 @@ public final class QpidServer implements Server
                         if (path.startsWith("console/objects/"))
                         { // Get information about specified objects.
                             path = path.substring(16);
-                            sendGetObjectsResponse(tx, console, path);
+                            sendGetObjectsResponse(tx, connection, path);
                         }
                         else if (path.startsWith("console/objects") && path.length() == 15)
                         {  // If objects is unspecified treat as a synonym for classes.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getClasses()));
+                            JSON.sendResponse(tx, HTTP_OK, console.getClasses());
                         }
                         else if (path.startsWith("console/address/"))
                         { // Get the Console AMQP Address
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getAddress()));
+                            JSON.sendResponse(tx, HTTP_OK, console.getAddress());
                         }
                         else if (path.startsWith("console/address") && path.length() == 15)
                         { // Get the Console AMQP Address
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getAddress()));
+                            JSON.sendResponse(tx, HTTP_OK, console.getAddress());
                         }
                         else if (path.startsWith("console/workItemCount/"))
                         { // Returns the count of pending WorkItems that can be retrieved.
@@ -314,15 +441,23 @@ public final class QpidServer implements Server
                         }
                         else if (path.startsWith("console/nextWorkItem/"))
                         { // Obtains the next pending work item, or null if none available.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getNextWorkitem()));
+                            sendNextWorkItemResponse(tx, connection, console);
                         }
                         else if (path.startsWith("console/nextWorkItem") && path.length() == 20)
                         { // Obtains the next pending work item, or null if none available.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getNextWorkitem()));
+                            sendNextWorkItemResponse(tx, connection, console);
+                        }
+                        else if (path.startsWith("console/workItems/"))
+                        { // Push WorkItems to the client as a Server-Sent Events stream.
+                            connection.addWorkItemStream(tx);
+                        }
+                        else if (path.startsWith("console/workItems") && path.length() == 17)
+                        { // Push WorkItems to the client as a Server-Sent Events stream.
+                            connection.addWorkItemStream(tx);
                         }
                         else if (path.startsWith("console/agents") && path.length() == 14)
                         { // Get information about all available Agents.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getAgents()));
+                            sendConditionalResponse(tx, console.getAgents());
                         }
                         else if (path.startsWith("console/agent/"))
                         { // Get information about a specified Agent.
@@ -333,12 +468,12 @@ public final class QpidServer implements Server
                             }
                             else
                             {
-                                tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(agent));
+                                sendConditionalResponse(tx, agent);
                             }
                         }
                         else if (path.startsWith("console/agent") && path.length() == 13)
                         { // If agent is unspecified treat as a synonym for agents.
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getAgents()));
+                            sendConditionalResponse(tx, console.getAgents());
                         }
                         else if (path.startsWith("console/classes/"))
                         { // Get information about the classes for a specified Agent
@@ -349,7 +484,7 @@ public final class QpidServer implements Server
                         }
                         else if (path.startsWith("console/classes") && path.length() == 15)
                         { // Get information about all the classes for all Agents
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getClasses()));
+                            JSON.sendResponse(tx, HTTP_OK, console.getClasses());
                         }
                         else if (path.startsWith("console/packages/"))
                         { // Get information about the packages for a specified Agent
@@ -383,12 +518,12 @@ public final class QpidServer implements Server
                                 // Not that in a departure from the QMF2 API this returns the QmfConsoleData object
                                 // rather than a list of size one. Perhaps the APIs should be completely consistent
                                 // but this response seems more convenient.
-                                tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(objects.get(0)));
+                                sendConditionalResponse(tx, objects.get(0));
                             }
                         }
                         else if (path.startsWith("console/packages") && path.length() == 16)
                         { // Get information about all the packages for all Agents
-                            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(console.getPackages()));
+                            JSON.sendResponse(tx, HTTP_OK, console.getPackages());
                         }
                         else
                         {
@@ -401,7 +536,7 @@ public final class QpidServer implements Server
         else if (path.startsWith("/qpid/connection"))
         { // handle "/qpid/connection" request with unspecified connection (returns list of available connections).
             String user = tx.getPrincipal(); // Using the principal lets different users use the default connection.
-            tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(_connections.getAll(user)));   
+            JSON.sendResponse(tx, HTTP_OK, _connections.getAll(user));   
         }
         else
         {
@@ -482,14 +617,11 @@ public final class QpidServer implements Server
                             QmfConsoleData object = new QmfConsoleData(Collections.EMPTY_MAP, agent);
                             object.setObjectId(oid);
 
-                            String request = tx.getRequestString();
-                            _log.info("QpidServer.doPost path: {} body: {}", tx.getRequestURI(), request);
-
-                            //System.out.println(request);
                             String method = "";
                             try
                             {
-                                Map<String, Object> reqMap = JSON.toMap(request);
+                                Map<String, Object> reqMap = JSON.toMap(tx.getRequestStream());
+                                _log.info("QpidServer.doPost path: {} body: {}", tx.getRequestURI(), reqMap);
 
                                 method = (String)reqMap.get("_method_name");
                                 Object arguments = reqMap.get("_arguments");
@@ -503,9 +635,10 @@ public final class QpidServer implements Server
                                 // Invoke the specified method on the QmfConsoleData we've created.
                                 MethodResult results = null;
 
-                                _log.info("invokeMethod: {}", request);
+                                _log.info("invokeMethod: {}", reqMap);
                                 results = object.invokeMethod(method, inArgs);
-                                tx.sendResponse(HTTP_OK, "application/json", JSON.fromObject(results));
+                                connection.invalidateObjects(); // The method may well have changed object state.
+                                JSON.sendResponse(tx, HTTP_OK, results);
                             }
                             catch (QmfException qmfe)
                             {
@@ -570,16 +703,14 @@ public final class QpidServer implements Server
         {
             path = path.substring(17);
             String user = tx.getPrincipal();
-            String request = tx.getRequestString();
-            _log.info("QpidServer.doPut path: {} body: {}", tx.getRequestURI(), request);
-
             String name = user + "." + path;
 
             try
             {
                 // The PUT request is a JSON string containing a url String property and a connectionOptions
                 // property which is itself a JSON String.
-                Map<String, String> reqMap = JSON.toMap(request);
+                Map<String, String> reqMap = JSON.toMap(tx.getRequestStream());
+                _log.info("QpidServer.doPut path: {} body: {}", tx.getRequestURI(), reqMap);
 
                 String url = reqMap.get("url");
                 url = url.equals("") ? _defaultBroker : url;
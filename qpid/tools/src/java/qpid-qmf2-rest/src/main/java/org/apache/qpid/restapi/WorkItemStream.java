@@ -0,0 +1,287 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.WorkItem;
+
+/**
+ * A WorkItemStream pushes WorkItems to a REST API client as a
+ * <a href="http://www.w3.org/TR/eventsource/">Server-Sent Events</a> stream, so that clients such as dashboards
+ * receive every Event, Agent added/deleted and subscription indication as it happens without needing to make a
+ * console/nextWorkItem request per WorkItem.
+ * <p>
+ * ConnectionProxy offers each WorkItem from its Console to every WorkItemStream. Offering never blocks, instead the
+ * WorkItem is added to a per-client buffer that holds at most MAX_BUFFERED_WORKITEMS WorkItems, if a client can't keep
+ * up the oldest WorkItems are discarded and the client is told how many were discarded. The buffer is written to the
+ * client by a shared pool of threads, so a slow client only ever delays itself.
+ * <p>
+ * Writing is batched: all of the WorkItems buffered when a write starts are sent as a single "workItems" event whose
+ * data is a JSON array of WorkItems encoded as for console/nextWorkItem, so the more WorkItems arrive the fewer
+ * frames are needed to send them. The following events are sent:
+ * <pre>
+ * event: workItems
+ * data: [{"_type":"AGENT_ADDED","_params":{...}},...]
+ *
+ * event: dropped
+ * data: &lt;count of WorkItems discarded because the client wasn't keeping up&gt;
+ * </pre>
+ * A comment line is sent if nothing else has been sent for HEARTBEAT_PERIOD so that intermediaries don't time out
+ * the stream and so that clients that have gone away are detected.
+ *
+ * @author Fraser Adams
+ */
+final class WorkItemStream implements Runnable
+{
+    private static final Logger _log = LoggerFactory.getLogger(WorkItemStream.class);
+
+    private static final int MAX_BUFFERED_WORKITEMS = 1000; // Maximum number of WorkItems buffered per client.
+
+    private static final long HEARTBEAT_PERIOD = 15000; // Send a heartbeat if nothing has been sent for 15 seconds.
+
+    private static final long RETRY_PERIOD = 5000; // Ask clients to wait 5 seconds before reconnecting.
+
+    /**
+     * The threads used to write WorkItemStreams, these are daemon threads so they don't prevent the JVM exiting.
+     */
+    private static final Executor _executor = Executors.newCachedThreadPool(new ThreadFactory()
+    {
+        public Thread newThread(final Runnable r)
+        {
+            Thread thread = new Thread(r, "WorkItemStream");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final OutputStream _os;
+    private final Writer _out;
+
+    // The following are guarded by this.
+    private final LinkedList<WorkItem> _buffer = new LinkedList<WorkItem>();
+    private long _dropped = 0;
+    private boolean _heartbeat = true; // Send the retry period and an initial comment to start the stream.
+    private boolean _scheduled = false;
+    private boolean _closing = false;
+
+    private volatile boolean _closed = false;
+    private boolean _started = false; // Only accessed by the thread writing the stream.
+    private volatile long _lastWrite = System.currentTimeMillis();
+
+    /**
+     * Construct a WorkItemStream that writes to the specified response stream.
+     * @param os the response stream obtained from HttpTransaction.getResponseStream().
+     */
+    WorkItemStream(final OutputStream os)
+    {
+        _os = os;
+        _out = new OutputStreamWriter(os);
+        synchronized (this)
+        {
+            schedule();
+        }
+    }
+
+    /**
+     * Schedule the stream to be written if it isn't already, must be called with the lock held.
+     */
+    private void schedule()
+    {
+        if (!_scheduled)
+        {
+            _scheduled = true;
+            _executor.execute(this);
+        }
+    }
+
+    /**
+     * Offer a WorkItem to be sent to the client. This never blocks, if the client already has MAX_BUFFERED_WORKITEMS
+     * waiting to be sent the oldest is discarded.
+     * @param wi the WorkItem to send.
+     * @return false if the stream has been closed and should be discarded, otherwise true.
+     */
+    synchronized boolean offer(final WorkItem wi)
+    {
+        if (_closed || _closing)
+        {
+            return false;
+        }
+
+        _buffer.add(wi);
+        if (_buffer.size() > MAX_BUFFERED_WORKITEMS)
+        {
+            _buffer.removeFirst();
+            _dropped++;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Send a heartbeat to the client if nothing has been sent for HEARTBEAT_PERIOD.
+     * @param now the current time in milliseconds.
+     * @return false if the stream has been closed and should be discarded, otherwise true.
+     */
+    synchronized boolean heartbeat(final long now)
+    {
+        if (_closed || _closing)
+        {
+            return false;
+        }
+
+        if (now - _lastWrite > HEARTBEAT_PERIOD)
+        {
+            _heartbeat = true;
+            schedule();
+        }
+        return true;
+    }
+
+    /**
+     * Close the stream once any buffered WorkItems have been sent, which completes the HTTP response.
+     */
+    synchronized void close()
+    {
+        if (!_closing)
+        {
+            _closing = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Write data as an event, each line of the data is prefixed with "data: " as required by Server-Sent Events.
+     * @param event the event name.
+     * @param data the event data.
+     */
+    private void writeEvent(final String event, final String data) throws IOException
+    {
+        _out.write("event: ");
+        _out.write(event);
+        _out.write("\ndata: ");
+        _out.write(data.replaceAll("\r\n|\r|\n", "\ndata: "));
+        _out.write("\n\n");
+    }
+
+    /**
+     * Write the buffered WorkItems to the client, called by the _executor threads.
+     */
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                List<WorkItem> batch;
+                long dropped;
+                boolean heartbeat;
+                boolean close = false;
+                synchronized (this)
+                {
+                    if (_buffer.isEmpty() && _dropped == 0 && !_heartbeat)
+                    {
+                        if (_closing && !_closed)
+                        {
+                            _closed = true;
+                            close = true;
+                        }
+                        _scheduled = false;
+                    }
+
+                    batch = new ArrayList<WorkItem>(_buffer);
+                    _buffer.clear();
+                    dropped = _dropped;
+                    _dropped = 0;
+                    heartbeat = _heartbeat;
+                    _heartbeat = false;
+                }
+
+                if (!_started)
+                {
+                    _started = true;
+                    _out.write("retry: " + RETRY_PERIOD + "\n");
+                }
+
+                if (heartbeat)
+                {
+                    _out.write(": heartbeat\n\n");
+                }
+
+                if (dropped > 0)
+                {
+                    writeEvent("dropped", Long.toString(dropped));
+                }
+
+                if (batch.size() > 0)
+                {
+                    writeEvent("workItems", JSON.fromObject(batch));
+                }
+
+                if (close)
+                {
+                    _out.close();
+                    return;
+                }
+                else if (!heartbeat && dropped == 0 && batch.size() == 0)
+                { // Nothing left to write and _scheduled has been cleared.
+                    return;
+                }
+
+                _out.flush();
+                _lastWrite = System.currentTimeMillis();
+            }
+        }
+        catch (IOException ioe)
+        { // Log and Ignore, the client has probably gone away.
+            _log.info("WorkItemStream run() caught Exception {}", ioe.getMessage());
+            synchronized (this)
+            {
+                _closed = true;
+                _buffer.clear();
+                _scheduled = false;
+            }
+
+            try
+            {
+                _os.close();
+            }
+            catch (IOException e)
+            { // Ignore
+            }
+        }
+    }
+}
@@ -27,23 +27,50 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Timer;
 import java.util.TimerTask;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import com.sun.net.httpserver.BasicAuthenticator;
 
 /**
  * This class implements a simple com.sun.net.httpserver.BasicAuthenticator. Clearly it's not very secure being a
- * BasicAuthenticator that takes a plain (well Base64 encoded) username/password.
- * TODO Clearly something more secure needs to be implemented.....
- *
- * This class creates a Timer used to schedule regular checks on the account.properties file and if it has changed
- * it reloads the cache used for looking up the credentials. The poll period is every 10 seconds which should be OK
- * for checking account updates. The class only updates the cache if the account.properties file has actually changed.
- * Polling isn't ideal, but for this application it's probably no big deal. With Java 7 there is a Watch Service API
- * https://blogs.oracle.com/thejavatutorials/entry/watching_a_directory_for_changes that allows asynchronous
- * notification of changes, but it's an unnecessary dependency on Java 7 for this application.
+ * BasicAuthenticator that takes a plain (well Base64 encoded) username/password, so it should be used over HTTPS or
+ * on a trusted network.
+ * <p>
+ * The credentials are held in the account.properties file as username=password entries. The password may be stored
+ * in plain text, but it is better stored as a salted hash of the form pbkdf2:&lt;iterations&gt;:&lt;salt&gt;:&lt;hash&gt;
+ * where the salt and hash are hex encoded and the hash is computed with PBKDF2WithHmacSHA1. Running this class's main
+ * method with a username and password prints a suitable entry.
+ * <p>
+ * Checking a salted hash is deliberately expensive and Basic authentication sends the credentials with every request,
+ * so successfully verified credentials are remembered for CACHE_PERIOD in a cache of at most MAX_CACHED entries. The
+ * cache is keyed by an HMAC of the username and password using a key that is randomly generated at startup, so the
+ * passwords themselves aren't held in memory. Failed checks are never cached, and the cache is cleared whenever the
+ * account.properties file is reloaded so that changed or removed accounts take effect immediately.
+ * <p>
+ * The account.properties file is reloaded when it changes. The directory holding it is monitored using a
+ * java.nio.file.WatchService, on file systems where that isn't supported the file is instead checked for changes
+ * every CHECK_PERIOD.
  *
  * @author Fraser Adams
  */
@@ -53,18 +80,120 @@ public class Authenticator extends BasicAuthenticator
     private static final String ACCOUNT_FILENAME = "account.properties";
     private static final Logger _log = LoggerFactory.getLogger(Authenticator.class);
 
-    private File _file;
-    private Properties _accountCache;
+    private static final String PBKDF2_PREFIX = "pbkdf2:";
+    private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
+    private static final int PBKDF2_ITERATIONS = 20000;
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 20;
+
+    private static final int MAX_CACHED = 256;         // The maximum number of verified credentials remembered.
+    private static final long CACHE_PERIOD = 60000;    // Verified credentials are remembered for 60 seconds.
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File _file;
+    private volatile Map<String, Credential> _accounts = new HashMap<String, Credential>();
     private long _accountFileLastModified = 0; // Used to check for updates to the account properties.
 
     /**
-     * Create a Timer used to schedule regular checks on the account.properties file.
+     * The key used to compute the digests of verified credentials held in _verified.
      */
-    private Timer _timer = new Timer(true);
+    private final SecretKeySpec _digestKey;
+
+    /**
+     * Mac isn't thread safe, so each thread gets its own initialised instance for computing digests.
+     */
+    private final ThreadLocal<Mac> _mac = new ThreadLocal<Mac>()
+    {
+        @Override
+        protected Mac initialValue()
+        {
+            try
+            {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(_digestKey);
+                return mac;
+            }
+            catch (GeneralSecurityException gse)
+            { // Can't happen as every Java implementation must support HmacSHA256.
+                throw new IllegalStateException(gse);
+            }
+        }
+    };
+
+    /**
+     * Verified credential digests mapped to the time they were verified. A LinkedHashMap in insertion order is used so
+     * that the oldest entry is discarded when the cache is full.
+     */
+    private final Map<String, Long> _verified = new LinkedHashMap<String, Long>()
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest)
+        {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    /**
+     * A Credential holds the password of an account, either as a plain text password or as a salted hash.
+     */
+    private static final class Credential
+    {
+        private final byte[] _password; // The plain text password, null if a salted hash is used.
+        private final int _iterations;
+        private final byte[] _salt;
+        private final byte[] _hash;
+
+        /**
+         * Construct a Credential from the value of an account.properties entry.
+         * @param value the plain text password or pbkdf2:&lt;iterations&gt;:&lt;salt&gt;:&lt;hash&gt;.
+         */
+        Credential(final String value)
+        {
+            if (value.startsWith(PBKDF2_PREFIX))
+            {
+                String[] fields = value.substring(PBKDF2_PREFIX.length()).split(":");
+                if (fields.length != 3)
+                {
+                    throw new IllegalArgumentException("expected pbkdf2:<iterations>:<salt>:<hash>");
+                }
+                _password = null;
+                _iterations = Integer.parseInt(fields[0]);
+                _salt = fromHex(fields[1]);
+                _hash = fromHex(fields[2]);
+
+                // Reject these here, otherwise PBEKeySpec would throw when the password is checked.
+                if (_iterations <= 0 || _salt.length == 0 || _hash.length == 0)
+                {
+                    throw new IllegalArgumentException("pbkdf2 iterations, salt or hash missing");
+                }
+            }
+            else
+            {
+                _password = value.getBytes(UTF_8);
+                _iterations = 0;
+                _salt = null;
+                _hash = null;
+            }
+        }
+
+        /**
+         * Check a password against the Credential.
+         * @param password the password to check.
+         * @return true if the password matches.
+         */
+        boolean matches(final String password)
+        {
+            if (_password != null)
+            {
+                return MessageDigest.isEqual(_password, password.getBytes(UTF_8));
+            }
+            return MessageDigest.isEqual(_hash, hash(password, _salt, _iterations, _hash.length));
+        }
+    }
 
     /**
      * This private inner class is a fairly trivial TimerTask whose run() method simply calls checkAccountFile()
-     * in the main Authenticator class to check for account changes.
+     * in the main Authenticator class to check for account changes. It is only used if the WatchService can't be.
      */
     private final class CacheUpdater extends TimerTask
     {
@@ -75,7 +204,7 @@ public class Authenticator extends BasicAuthenticator
     }
 
     /**
-     * Construct the Authenticator. This fires up the CacheUpdater TimerTask to periodically check for changes.
+     * Construct the Authenticator. This loads the account properties file and starts monitoring it for changes.
      * @param realm the authentication realm to use.
      * @param path the path of the directory holding the account properties file.
      */
@@ -86,10 +215,17 @@ public class Authenticator extends BasicAuthenticator
         String accountPathname = path + "/" + ACCOUNT_FILENAME;
         _file = new File(accountPathname);
 
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        _digestKey = new SecretKeySpec(key, "HmacSHA256");
+
         if (_file.exists())
         {
-            CacheUpdater updater = new CacheUpdater();
-            _timer.schedule(updater, 0, CHECK_PERIOD);
+            checkAccountFile();
+            if (!watchAccountFile())
+            {
+                new Timer(true).schedule(new CacheUpdater(), CHECK_PERIOD, CHECK_PERIOD);
+            }
         }
         else
         {
@@ -98,10 +234,75 @@ public class Authenticator extends BasicAuthenticator
         }
     }
 
+    /**
+     * Start a daemon Thread that uses a WatchService to reload the account properties file when it changes.
+     * @return true if the WatchService is monitoring the file, false if it isn't supported.
+     */
+    private boolean watchAccountFile()
+    {
+        final WatchService watcher;
+        final Path directory = _file.getAbsoluteFile().getParentFile().toPath();
+        try
+        {
+            watcher = FileSystems.getDefault().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException ioe)
+        {
+            _log.info("Can't watch {}, polling for account changes instead: {}", directory, ioe.getMessage());
+            return false;
+        }
+        catch (UnsupportedOperationException uoe)
+        {
+            _log.info("Can't watch {}, polling for account changes instead.", directory);
+            return false;
+        }
+
+        Thread thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    while (true)
+                    {
+                        WatchKey key = watcher.take();
+                        // Reload for every event rather than checking the modification time as a file that is
+                        // truncated then written may be modified twice within the modification time's resolution.
+                        for (WatchEvent<?> event : key.pollEvents())
+                        { // An OVERFLOW event has a null context, in which case reload anyway to be safe.
+                            Object context = event.context();
+                            if (context == null || context.toString().equals(ACCOUNT_FILENAME))
+                            {
+                                reloadAccountFile();
+                            }
+                        }
+
+                        if (!key.reset())
+                        {
+                            _log.info("Directory {} is no longer accessible, account changes won't be seen.",
+                                      directory);
+                            return;
+                        }
+                    }
+                }
+                catch (InterruptedException ie)
+                { // Exit the thread.
+                }
+                catch (ClosedWatchServiceException cwse)
+                { // Exit the thread.
+                }
+            }
+        }, "Authenticator account watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
     /**
      * Checks if the account properties file has been updated, if it has it calls loadCache() to reload the cache.
      */
-    public void checkAccountFile()
+    public synchronized void checkAccountFile()
     {
         long mtime = _file.lastModified();
         if (mtime != _accountFileLastModified)
@@ -112,40 +313,189 @@ public class Authenticator extends BasicAuthenticator
     }
 
     /**
-     * Load the account properties file into the account cache.
+     * Unconditionally reload the account properties file, called when the WatchService reports that it has changed.
+     */
+    private synchronized void reloadAccountFile()
+    {
+        _accountFileLastModified = _file.lastModified();
+        loadCache();
+    }
+
+    /**
+     * Load the account properties file into the account cache and discard any cached verified credentials.
      */
     private void loadCache()
     {
-    	try
+        InputStream is = null;
+        try
         {
+            is = new FileInputStream(_file);
             Properties properties = new Properties();
-    	    properties.load(new FileInputStream(_file));
+            properties.load(is);
+
+            Map<String, Credential> accounts = new HashMap<String, Credential>();
+            for (String username : properties.stringPropertyNames())
+            {
+                try
+                {
+                    accounts.put(username, new Credential(properties.getProperty(username)));
+                }
+                catch (IllegalArgumentException iae)
+                { // Note that NumberFormatException is an IllegalArgumentException.
+                    _log.info("Ignoring invalid account {} in {}: {}", new Object[] {username, _file, iae.getMessage()});
+                }
+            }
 
             // Set the cache to be the newly loaded one.
-            _accountCache = properties;
-    	}
+            _accounts = accounts;
+            synchronized (_verified)
+            {
+                _verified.clear();
+            }
+        }
         catch (IOException ex)
         {
             _log.info("loadCache failed with {}.", ex.getMessage());
         }
+        finally
+        {
+            if (is != null)
+            {
+                try
+                {
+                    is.close();
+                }
+                catch (IOException ioe)
+                { // Ignore
+                }
+            }
+        }
     }
 
     @Override
     public boolean checkCredentials(final String username, final String password)
     {
-        //System.out.println("username = " + username);
-        //System.out.println("password = " + password);
-
         // The original version of this forgot to check check for a null username Property. Thanks to 
         // Bruno Matos for picking that up and supplying the fix below.
-        if (_accountCache.getProperty(username) != null &&
-            _accountCache.getProperty(username).equals(password))
+        Credential credential = _accounts.get(username);
+        if (credential == null)
         {
+            return false;
+        }
+
+        String digest = digest(username, password);
+        long now = System.currentTimeMillis();
+        synchronized (_verified)
+        {
+            Long verified = _verified.get(digest);
+            if (verified != null)
+            {
+                if (now - verified < CACHE_PERIOD)
+                {
+                    return true;
+                }
+                _verified.remove(digest);
+            }
+        }
+
+        if (credential.matches(password))
+        {
+            synchronized (_verified)
+            {
+                _verified.put(digest, now);
+            }
             return true;
         }
-        else
+        return false;
+    }
+
+    /**
+     * Compute the digest of a username and password used as the key of the verified credentials cache.
+     */
+    private String digest(final String username, final String password)
+    {
+        Mac mac = _mac.get();
+        mac.update(username.getBytes(UTF_8));
+        mac.update((byte)0);
+        return toHex(mac.doFinal(password.getBytes(UTF_8)));
+    }
+
+    /**
+     * Compute the PBKDF2 hash of a password.
+     * @param password the password to hash.
+     * @param salt the salt.
+     * @param iterations the PBKDF2 iteration count.
+     * @param length the length of the hash in bytes.
+     * @return the hash.
+     */
+    private static byte[] hash(final String password, final byte[] salt, final int iterations, final int length)
+    {
+        try
         {
-            return false;
+            PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, length*8);
+            return SecretKeyFactory.getInstance(PBKDF2_ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException gse)
+        { // Can't happen as PBKDF2WithHmacSHA1 is supported by every Java 7 implementation.
+            throw new IllegalStateException(gse);
+        }
+    }
+
+    /**
+     * Hex encode a byte[].
+     */
+    private static String toHex(final byte[] bytes)
+    {
+        StringBuilder buffer = new StringBuilder(bytes.length*2);
+        for (byte b : bytes)
+        {
+            buffer.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Decode a hex encoded byte[].
+     */
+    private static byte[] fromHex(final String hex)
+    {
+        if (hex.length() % 2 != 0)
+        {
+            throw new IllegalArgumentException("odd length hex string");
         }
+
+        byte[] bytes = new byte[hex.length()/2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            int hi = Character.digit(hex.charAt(i*2), 16);
+            int lo = Character.digit(hex.charAt(i*2 + 1), 16);
+            if (hi < 0 || lo < 0)
+            {
+                throw new IllegalArgumentException("invalid hex string");
+            }
+            bytes[i] = (byte)((hi << 4) | lo);
+        }
+        return bytes;
+    }
+
+    /**
+     * Print an account.properties entry holding a salted hash of the password, for example
+     * <pre>
+     * java -cp qpid-qmf2-rest.jar org.apache.qpid.restapi.httpserver.Authenticator admin secret
+     * </pre>
+     * @param args the username and password.
+     */
+    public static void main(final String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.out.println("Usage: Authenticator <username> <password>");
+            System.exit(1);
+        }
+
+        byte[] salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        byte[] hash = hash(args[1], salt, PBKDF2_ITERATIONS, HASH_LENGTH);
+        System.out.println(args[0] + "=" + PBKDF2_PREFIX + PBKDF2_ITERATIONS + ":" + toHex(salt) + ":" + toHex(hash));
     }
 }
@@ -20,10 +20,14 @@
  */
 package org.apache.qpid.restapi.httpserver;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
 import java.util.Map;
 
@@ -31,8 +35,11 @@ import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpPrincipal;
 
+import org.apache.qpid.restapi.Compression;
 import org.apache.qpid.restapi.HttpTransaction;
 
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
 /**
  * This class provides an implementation of the HttpTransaction interface that wraps com.sun.net.httpserver.HttpExchange
  * in order to provide an implementation neutral facade to the Server classes.
@@ -138,9 +145,21 @@ public final class HttpExchangeTransaction implements HttpTransaction
         }
         else
         {
-            _exchange.sendResponseHeaders(status, content.length);
+            byte[] body = content;
+            if (Compression.isCompressible(mimeType))
+            {
+                _exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+                String encoding = isEncoded() ? null : Compression.negotiate(this, mimeType);
+                if (encoding != null && content.length >= Compression.THRESHOLD)
+                {
+                    body = Compression.compress(content, encoding);
+                    _exchange.getResponseHeaders().set("Content-Encoding", encoding);
+                }
+            }
+
+            _exchange.sendResponseHeaders(status, body.length);
             OutputStream os = _exchange.getResponseBody();
-            os.write(content);
+            os.write(body);
             os.flush();
             os.close();
             _exchange.close();
@@ -155,34 +174,183 @@ public final class HttpExchangeTransaction implements HttpTransaction
      */
     public void sendResponse(final int status, final String mimeType, final InputStream is) throws IOException
     {
-        _exchange.getResponseHeaders().set("Content-Type", mimeType);
         if (is == null)
         { // If response length has the value -1 then no response body is being sent.
+            _exchange.getResponseHeaders().set("Content-Type", mimeType);
             _exchange.sendResponseHeaders(status, -1);
             _exchange.close();
         }
         else
         {
-            _exchange.sendResponseHeaders(status, 0); // For a stream we set to zero to force chunked transfer encoding.
-            OutputStream os = _exchange.getResponseBody();
-
-            byte[] buffer = new byte[8192];
-            while (true)
+            try
             {
-                int read = is.read(buffer, 0, buffer.length);
-                if (read == -1) // Loop until EOF is reached
+                OutputStream os = getResponseStream(status, mimeType);
+                byte[] buffer = new byte[8192];
+                while (true)
                 {
+                    int read = is.read(buffer, 0, buffer.length);
+                    if (read == -1) // Loop until EOF is reached
+                    {
+                        break;
+                    }
+                    os.write(buffer, 0, read);
+                }
+                os.close();
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+    }
+
+    /**
+     * Send a region of a file as an HTTP response back to the client with a Content-Length header. HttpServer only
+     * provides an OutputStream for the response body, so the content is copied using FileChannel.transferTo() which
+     * avoids the need to read the file via an InputStream.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param channel a FileChannel for the file to be sent, which is closed once the response has been sent.
+     * @param position the position within the file of the first byte to be sent.
+     * @param count the number of bytes to be sent.
+     */
+    public void sendResponse(final int status, final String mimeType, final FileChannel channel,
+                             final long position, final long count) throws IOException
+    {
+        try
+        {
+            Headers headers = _exchange.getResponseHeaders();
+            headers.set("Content-Type", mimeType);
+            if (Compression.isCompressible(mimeType))
+            {
+                headers.set("Vary", "Accept-Encoding");
+            }
+
+            // HttpServer sets Content-Length itself from the length passed to sendResponseHeaders().
+            headers.remove("Content-Length");
+            _exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+            OutputStream os = _exchange.getResponseBody();
+            WritableByteChannel target = Channels.newChannel(os);
+            long offset = 0;
+            while (offset < count)
+            {
+                long transferred = channel.transferTo(position + offset, count - offset, target);
+                if (transferred <= 0)
+                { // The file has been truncated, HttpServer will notice the response is short and close it.
                     break;
                 }
-                os.write(buffer, 0, read);
+                offset += transferred;
             }
-          
-            os.flush();
             os.close();
+        }
+        finally
+        {
+            channel.close();
             _exchange.close();
         }
     }
 
+    /**
+     * Return an OutputStream that the response content may be written to. If the Server has set a Content-Length
+     * header the content is sent with that length, unless it is compressed. Otherwise the first Compression.THRESHOLD
+     * bytes are buffered, if the content turns out to be shorter than that it is sent with a Content-Length, otherwise
+     * chunked transfer encoding is used. Content longer than Compression.THRESHOLD is compressed if the client
+     * accepts a compressed encoding. Flushing the OutputStream doesn't send content that is still being buffered.
+     * Streamed content, such as text/event-stream, is never buffered and is sent with chunked transfer encoding
+     * as it is flushed. The response is complete when the returned OutputStream is closed, so callers must always
+     * close it.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @return an OutputStream that the content of the response may be written to.
+     */
+    public OutputStream getResponseStream(final int status, final String mimeType) throws IOException
+    {
+        Headers headers = _exchange.getResponseHeaders();
+        headers.set("Content-Type", mimeType);
+        if (Compression.isCompressible(mimeType))
+        {
+            headers.set("Vary", "Accept-Encoding");
+        }
+
+        // Don't compress partial content as the Content-Range refers to the uncompressed content.
+        String encoding = (status == HTTP_PARTIAL || isEncoded()) ? null : Compression.negotiate(this, mimeType);
+
+        // HttpServer sets Content-Length itself from the length passed to sendResponseHeaders().
+        String contentLength = headers.getFirst("Content-Length");
+        if (contentLength != null)
+        {
+            headers.remove("Content-Length");
+            long length = Long.parseLong(contentLength);
+            if (encoding != null && length >= Compression.THRESHOLD)
+            {
+                headers.remove("Content-Range");
+                return Compression.compressingStream(openResponseStream(status, encoding, -1), encoding);
+            }
+            return openResponseStream(status, null, length);
+        }
+
+        // Streamed content such as Server-Sent Events is sent as soon as it is flushed, so it can't be buffered.
+        if (Compression.isStreamed(mimeType))
+        {
+            OutputStream os = openResponseStream(status, encoding, -1);
+            return (encoding == null) ? os : Compression.compressingStream(os, encoding);
+        }
+
+        return new Compression.ThresholdOutputStream(encoding, new Compression.ResponseStreamFactory()
+        {
+            public OutputStream open(final String contentEncoding, final long length) throws IOException
+            {
+                return openResponseStream(status, contentEncoding, length);
+            }
+        });
+    }
+
+    /**
+     * Returns true if the Server has set a Content-Encoding header, in other words it is sending content that it has
+     * already compressed, such as a precomputed gzip encoding of a file.
+     */
+    private boolean isEncoded()
+    {
+        return _exchange.getResponseHeaders().containsKey("Content-Encoding");
+    }
+
+    /**
+     * Send the response headers and return an OutputStream for the response content.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param contentEncoding the Content-Encoding of the response or null if it isn't compressed.
+     * @param length the length of the content or -1 if it's unknown, in which case chunked encoding is used.
+     * @return an OutputStream for the response content, closing it closes the HttpExchange.
+     */
+    private OutputStream openResponseStream(final int status, final String contentEncoding, final long length)
+        throws IOException
+    {
+        if (contentEncoding != null)
+        {
+            _exchange.getResponseHeaders().set("Content-Encoding", contentEncoding);
+        }
+
+        // For HttpServer a length of zero forces chunked transfer encoding and -1 means there is no response body.
+        _exchange.sendResponseHeaders(status, length < 0 ? 0 : (length == 0 ? -1 : length));
+
+        // The buffer means that each chunk sent is reasonably sized even if the content is written a few bytes at
+        // a time, which is the usual case when serialising JSON.
+        return new BufferedOutputStream(_exchange.getResponseBody(), 8192)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    _exchange.close();
+                }
+            }
+        };
+    }
+
     /**
      * Returns the Internet Protocol (IP) address of the client or last proxy that sent the request.
      * @return the Internet Protocol (IP) address of the client or last proxy that sent the request.
@@ -240,6 +408,16 @@ public final class HttpExchangeTransaction implements HttpTransaction
         return _exchange.getRequestURI().getPath();
     }
 
+    /**
+     * Returns the query string that is contained in the request URL after the path, or null if the URL does not have
+     * a query string. The query string is returned as sent by the client, in other words it is still URL encoded.
+     * @return a String containing the query string or null if the URL does not have a query string.
+     */
+    public String getQueryString()
+    {
+        return _exchange.getRequestURI().getRawQuery();
+    }
+
     /**
      * Sets a response header with the given name and value. If the header had already been set, the new value
      * overwrites the previous one.
@@ -0,0 +1,475 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi.nio;
+
+// Misc Imports
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.net.HttpURLConnection.HTTP_ENTITY_TOO_LARGE;
+import static java.net.HttpURLConnection.HTTP_NOT_IMPLEMENTED;
+
+/**
+ * An NioHttpConnection holds the state of a single client connection to an NioHttpServer.
+ * <p>
+ * Reading and parsing requests is only ever done by the NioHttpServer event loop thread. Response data may be
+ * queued by any thread using send() and complete(), the data is then written by the event loop. Only one request
+ * is handled at a time on a connection, any pipelined requests are buffered until the current response has been
+ * completely written.
+ * <p>
+ * send() applies back-pressure: if more than MAX_PENDING_BYTES are waiting to be written a worker thread running
+ * a Server blocks until the client has read enough of them, which prevents a slow client from causing a large
+ * response (e.g. a big file) to be buffered in memory. Other threads, such as those completing suspended "long poll"
+ * or streaming requests, never block: their data is queued, and if more than MAX_QUEUED_BYTES are waiting the client
+ * is deemed too slow and the connection is closed. The event loop itself never blocks.
+ *
+ * @author Fraser Adams
+ */
+final class NioHttpConnection
+{
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_SIZE = 65536;
+    private static final int MAX_CONTENT_SIZE = 16777216;
+    private static final int MAX_PENDING_BYTES = 262144;
+    private static final int MAX_QUEUED_BYTES = 4194304;
+
+    private static final byte[] HEADER_TERMINATOR = {'\r', '\n', '\r', '\n'};
+
+    private final NioHttpServer _server;
+    private final SocketChannel _channel;
+    private final SelectionKey _key;
+    private final InetSocketAddress _remoteAddress;
+    private final ByteBuffer _readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    // Request state, only accessed by the event loop thread.
+    private byte[] _data = new byte[READ_BUFFER_SIZE]; // The bytes read but not yet consumed by a request.
+    private int _length = 0;                             // The number of valid bytes in _data.
+    private int _headerLength = -1;                      // The length of the request header, -1 if not yet parsed.
+    private int _scanned = 0;                            // The offset that the header terminator search resumes at.
+    private int _contentLength = 0;
+    private String _method;
+    private URI _uri;
+    private boolean _keepAlive;
+    private Map<String, List<String>> _headers;
+
+    // Set by the event loop when a request is dispatched and cleared when its response has been written.
+    private volatile boolean _handling = false;
+    private volatile long _lastActivity = System.currentTimeMillis();
+
+    // Response state, guarded by this.
+    private final LinkedList<ByteBuffer> _writeQueue = new LinkedList<ByteBuffer>();
+    private int _pendingBytes = 0;
+    private boolean _responseComplete = false;
+    private boolean _closeWhenWritten = false;
+    private boolean _closed = false;
+
+    /**
+     * Construct an NioHttpConnection.
+     * @param server the NioHttpServer that accepted the connection.
+     * @param channel the SocketChannel for the connection.
+     * @param key the SelectionKey registering channel with the NioHttpServer's Selector.
+     */
+    NioHttpConnection(final NioHttpServer server, final SocketChannel channel, final SelectionKey key)
+    {
+        _server = server;
+        _channel = channel;
+        _key = key;
+        _remoteAddress = (InetSocketAddress)channel.socket().getRemoteSocketAddress();
+    }
+
+    /**
+     * Returns the NioHttpServer that accepted the connection.
+     * @return the NioHttpServer that accepted the connection.
+     */
+    NioHttpServer getServer()
+    {
+        return _server;
+    }
+
+    /**
+     * Returns the address of the client.
+     * @return the address of the client.
+     */
+    InetSocketAddress getRemoteAddress()
+    {
+        return _remoteAddress;
+    }
+
+    /**
+     * Returns whether the connection has been idle for longer than NioHttpServer.IDLE_TIMEOUT. A connection that is
+     * handling a request (which may be a suspended "long poll" request) is never idle.
+     * @param now the current time in milliseconds.
+     * @return true if the connection is idle and should be closed.
+     */
+    boolean isIdle(final long now)
+    {
+        return !_handling && now - _lastActivity > NioHttpServer.IDLE_TIMEOUT;
+    }
+
+    /**
+     * Called by the event loop when the channel is readable. Reads the available data then tries to parse a request.
+     */
+    void read() throws IOException
+    {
+        int read = _channel.read(_readBuffer);
+        if (read == -1)
+        {
+            close();
+            return;
+        }
+
+        _lastActivity = System.currentTimeMillis();
+        _readBuffer.flip();
+        if (_length + read > _data.length)
+        {
+            _data = Arrays.copyOf(_data, Math.max(_data.length*2, _length + read));
+        }
+        _readBuffer.get(_data, _length, read);
+        _readBuffer.clear();
+        _length += read;
+
+        parseRequest();
+    }
+
+    /**
+     * Try to parse a complete request from the data read so far, if there is one it is dispatched to the
+     * NioHttpServer. Data read whilst a request is being handled is just buffered, though we stop reading if the
+     * client sends too much of it.
+     */
+    private void parseRequest()
+    {
+        if (_handling)
+        {
+            if (_length > MAX_HEADER_SIZE)
+            {
+                _key.interestOps(_key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            return;
+        }
+
+        if (_headerLength < 0)
+        {
+            int end = indexOf(_data, _scanned, _length, HEADER_TERMINATOR);
+            if (end < 0)
+            { // Resume the search where this one left off, allowing for a terminator split across reads.
+                _scanned = Math.max(0, _length - (HEADER_TERMINATOR.length - 1));
+                if (_length > MAX_HEADER_SIZE)
+                {
+                    sendError(HTTP_ENTITY_TOO_LARGE, "413 Request header too large.");
+                }
+                return;
+            }
+
+            _headerLength = end + HEADER_TERMINATOR.length;
+            if (!parseHeader(new String(_data, 0, end, NioHttpTransaction.ISO_8859_1)))
+            {
+                return;
+            }
+        }
+
+        if (_length - _headerLength < _contentLength)
+        {
+            return;
+        }
+
+        byte[] body = Arrays.copyOfRange(_data, _headerLength, _headerLength + _contentLength);
+        int consumed = _headerLength + _contentLength;
+        System.arraycopy(_data, consumed, _data, 0, _length - consumed);
+        _length -= consumed;
+        _headerLength = -1;
+        _scanned = 0;
+
+        _handling = true;
+        _server.dispatch(new NioHttpTransaction(this, _method, _uri, _headers, body, _keepAlive));
+    }
+
+    /**
+     * Parse the request line and headers, sending an error response if they are invalid.
+     * @param header the request line and headers.
+     * @return true if the request line and headers were parsed successfully.
+     */
+    private boolean parseHeader(final String header)
+    {
+        String[] lines = header.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/"))
+        {
+            sendError(HTTP_BAD_REQUEST, "400 Bad Request.");
+            return false;
+        }
+
+        try
+        {
+            _method = requestLine[0];
+            _uri = new URI(requestLine[1]);
+        }
+        catch (URISyntaxException use)
+        {
+            sendError(HTTP_BAD_REQUEST, "400 Bad Request URI.");
+            return false;
+        }
+
+        _headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < lines.length; i++)
+        {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0)
+            {
+                String name = lines[i].substring(0, colon).trim();
+                List<String> values = _headers.get(name);
+                if (values == null)
+                {
+                    values = new ArrayList<String>(1);
+                    _headers.put(name, values);
+                }
+                values.add(lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        if (_headers.containsKey("Transfer-Encoding"))
+        {
+            sendError(HTTP_NOT_IMPLEMENTED, "501 Chunked request bodies are not supported.");
+            return false;
+        }
+
+        _contentLength = 0;
+        List<String> contentLength = _headers.get("Content-Length");
+        if (contentLength != null)
+        {
+            try
+            {
+                _contentLength = Integer.parseInt(contentLength.get(0));
+            }
+            catch (NumberFormatException nfe)
+            {
+                _contentLength = -1;
+            }
+
+            if (_contentLength < 0)
+            {
+                sendError(HTTP_BAD_REQUEST, "400 Bad Content-Length.");
+                return false;
+            }
+
+            // Refuse the request before buffering the body, otherwise a client could exhaust the heap.
+            if (_contentLength > MAX_CONTENT_SIZE)
+            {
+                sendError(HTTP_ENTITY_TOO_LARGE, "413 Request body too large.");
+                return false;
+            }
+        }
+
+        // HTTP/1.1 connections are persistent unless the client says otherwise, HTTP/1.0 ones are the reverse.
+        List<String> connection = _headers.get("Connection");
+        String connectionValue = connection == null ? "" : connection.get(0);
+        _keepAlive = requestLine[2].equals("HTTP/1.0") ? connectionValue.equalsIgnoreCase("keep-alive") :
+                                                         !connectionValue.equalsIgnoreCase("close");
+        return true;
+    }
+
+    /**
+     * Send an error response for a request that couldn't be parsed then close the connection. Only called by the
+     * event loop, before any request has been dispatched, so there can't be any other response data queued.
+     * @param status the HTTP status code.
+     * @param message the plain text response content.
+     */
+    private void sendError(final int status, final String message)
+    {
+        _handling = true;
+        _key.interestOps(0);
+        NioHttpTransaction.sendError(this, status, message);
+    }
+
+    /**
+     * Queue response data to be written by the event loop. If too much data is already waiting a worker thread
+     * blocks, whereas any other thread closes the connection rather than be held up by a slow client.
+     * @param buffer the data to write.
+     */
+    void send(final ByteBuffer buffer) throws IOException
+    {
+        if (!NioHttpServer.isWorkerThread())
+        {
+            boolean overflow;
+            synchronized (this)
+            {
+                overflow = !_closed && _pendingBytes > MAX_QUEUED_BYTES;
+            }
+
+            if (overflow)
+            {
+                close();
+                throw new IOException("Connection closed, client not reading responses");
+            }
+        }
+
+        synchronized (this)
+        {
+            while (_pendingBytes > MAX_PENDING_BYTES && !_closed && NioHttpServer.isWorkerThread())
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ie)
+                {
+                    throw new IOException("Interrupted whilst sending response");
+                }
+            }
+
+            if (_closed)
+            {
+                throw new IOException("Connection closed");
+            }
+
+            _writeQueue.add(buffer);
+            _pendingBytes += buffer.remaining();
+        }
+        _server.requestWrite(this);
+    }
+
+    /**
+     * Indicate that all of the data for the current response has been queued.
+     * @param close if true the connection is closed once the response has been written.
+     */
+    void complete(final boolean close)
+    {
+        synchronized (this)
+        {
+            _responseComplete = true;
+            _closeWhenWritten = close;
+        }
+        _server.requestWrite(this);
+    }
+
+    /**
+     * Called by the event loop to write queued response data. When a complete response has been written the
+     * connection is either closed or made ready to read the next request.
+     */
+    void write() throws IOException
+    {
+        boolean close;
+        synchronized (this)
+        {
+            if (_closed)
+            {
+                return;
+            }
+
+            while (!_writeQueue.isEmpty())
+            {
+                ByteBuffer buffer = _writeQueue.getFirst();
+                _pendingBytes -= _channel.write(buffer);
+                if (buffer.hasRemaining())
+                {
+                    break;
+                }
+                _writeQueue.removeFirst();
+            }
+            notifyAll(); // Wake any thread blocked in send().
+
+            if (!_writeQueue.isEmpty() || !_responseComplete)
+            {
+                int ops = _key.interestOps() | SelectionKey.OP_READ;
+                _key.interestOps(_writeQueue.isEmpty() ? ops & ~SelectionKey.OP_WRITE : ops | SelectionKey.OP_WRITE);
+                if (_length > MAX_HEADER_SIZE)
+                {
+                    _key.interestOps(_key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                return;
+            }
+
+            close = _closeWhenWritten;
+            _responseComplete = false;
+        }
+
+        _lastActivity = System.currentTimeMillis();
+        if (close)
+        {
+            close();
+        }
+        else
+        {
+            _handling = false;
+            _key.interestOps(SelectionKey.OP_READ);
+            parseRequest(); // There may be a pipelined request already buffered.
+        }
+    }
+
+    /**
+     * Close the connection, any thread blocked in send() gets an IOException.
+     */
+    void close()
+    {
+        synchronized (this)
+        {
+            if (_closed)
+            {
+                return;
+            }
+            _closed = true;
+            _writeQueue.clear();
+            notifyAll();
+        }
+
+        _key.cancel();
+        try
+        {
+            _channel.close();
+        }
+        catch (IOException ioe)
+        { // Ignore
+        }
+    }
+
+    /**
+     * Find the first occurrence of pattern in the first length bytes of data, starting the search at from.
+     * @return the index of the first occurrence, or -1 if there isn't one.
+     */
+    private static int indexOf(final byte[] data, final int from, final int length, final byte[] pattern)
+    {
+        for (int i = from; i <= length - pattern.length; i++)
+        {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j])
+            {
+                j++;
+            }
+
+            if (j == pattern.length)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi.nio;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import static java.net.HttpURLConnection.HTTP_BAD_METHOD;
+import static java.net.HttpURLConnection.HTTP_INTERNAL_ERROR;
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
+import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
+
+import com.sun.net.httpserver.BasicAuthenticator;
+
+import org.apache.qpid.restapi.Server;
+
+/**
+ * NioHttpServer is a small non-blocking HTTP/1.1 server that delegates to Server objects in the same way that the
+ * com.sun.net.httpserver.HttpServer based Delegator does, so the REST API "business logic" is unchanged.
+ * <p>
+ * A single event loop thread accepts connections and does all of the socket reads and writes using a
+ * java.nio.channels.Selector. When a complete request has been read it is passed as a NioHttpTransaction to a
+ * worker thread from the Executor supplied via setExecutor(), which calls the appropriate Server doXXX method.
+ * The response is queued on the connection and written by the event loop, so a worker thread is only tied up for
+ * as long as the Server takes to produce the response.
+ * <p>
+ * NioHttpTransaction implements AsyncHttpTransaction, so Servers can suspend "long poll" requests such as
+ * console/nextWorkItem and complete them later from another thread. Idle connections therefore cost a socket and
+ * a few buffers rather than a blocked thread, which allows a large number of concurrent clients such as browser
+ * dashboards to be supported with a small worker pool.
+ * <p>
+ * The server supports persistent connections and Basic authentication using the same BasicAuthenticator that is
+ * used with com.sun.net.httpserver.HttpServer. It deliberately doesn't support chunked request bodies as the REST
+ * API clients always send a Content-Length.
+ *
+ * @author Fraser Adams
+ */
+public final class NioHttpServer implements Runnable
+{
+    private static final Logger _log = LoggerFactory.getLogger(NioHttpServer.class);
+
+    // Connections that have been idle for 5 minutes are closed, suspended requests are not considered idle.
+    static final long IDLE_TIMEOUT = 5*60000;
+
+    // The maximum time in milliseconds that the event loop blocks in select() before checking for idle connections.
+    private static final long SELECT_TIMEOUT = 1000;
+
+    /**
+     * Set whilst an Executor thread is running a Server for a dispatched request. Only these threads may block in
+     * NioHttpConnection.send(), other threads completing suspended requests (such as the Console's JMS listener
+     * dispatching WorkItems) mustn't be held up by a slow client.
+     */
+    private static final ThreadLocal<Boolean> _workerThread = new ThreadLocal<Boolean>();
+
+    /**
+     * A Context associates a Server and an optional BasicAuthenticator with a request URI path prefix, in the same
+     * way as com.sun.net.httpserver.HttpContext. Requests are handled by the Context with the longest matching path.
+     */
+    private static final class Context
+    {
+        private final String _path;
+        private final Server _server;
+        private final BasicAuthenticator _authenticator;
+
+        Context(final String path, final Server server, final BasicAuthenticator authenticator)
+        {
+            _path = path;
+            _server = server;
+            _authenticator = authenticator;
+        }
+    }
+
+    private final Selector _selector;
+    private final ServerSocketChannel _serverChannel;
+    private final List<Context> _contexts = new CopyOnWriteArrayList<Context>();
+
+    /**
+     * Connections that have had response data queued by a thread other than the event loop. The event loop drains
+     * this queue after every select() and starts writing the data.
+     */
+    private final Queue<NioHttpConnection> _pendingWrites = new ConcurrentLinkedQueue<NioHttpConnection>();
+
+    /**
+     * Used to schedule the timeouts of suspended AsyncHttpTransactions.
+     */
+    private final Timer _timer = new Timer(true);
+
+    private Executor _executor;
+    private Thread _thread;
+    private volatile boolean _running = false;
+    private long _lastIdleCheck = 0;
+
+    /**
+     * Create an NioHttpServer bound to the specified address. The server doesn't accept connections until start()
+     * has been called.
+     * @param address the address that the server should listen on.
+     * @param backlog the socket backlog.
+     */
+    public NioHttpServer(final InetSocketAddress address, final int backlog) throws IOException
+    {
+        _selector = Selector.open();
+        _serverChannel = ServerSocketChannel.open();
+        _serverChannel.configureBlocking(false);
+        _serverChannel.socket().setReuseAddress(true);
+        _serverChannel.socket().bind(address, backlog);
+        _serverChannel.register(_selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Sets the Executor used to run the Servers. Servers may block, e.g. waiting for a QMF response from a broker,
+     * so the Executor should not be the event loop thread. This must be called before start().
+     * @param executor the Executor used to run the Servers.
+     */
+    public void setExecutor(final Executor executor)
+    {
+        _executor = executor;
+    }
+
+    /**
+     * Associates a Server with a request URI path prefix.
+     * @param path the request URI path prefix, e.g. "/qpid/connection".
+     * @param server the Server that handles requests whose path starts with the prefix.
+     * @param authenticator the BasicAuthenticator used to authenticate requests, may be null.
+     */
+    public void createContext(final String path, final Server server, final BasicAuthenticator authenticator)
+    {
+        _contexts.add(new Context(path, server, authenticator));
+    }
+
+    /**
+     * Start the event loop thread.
+     */
+    public synchronized void start()
+    {
+        if (_executor == null)
+        {
+            throw new IllegalStateException("NioHttpServer.start() called before setExecutor()");
+        }
+        _running = true;
+        _thread = new Thread(this, "NioHttpServer");
+        _thread.start();
+    }
+
+    /**
+     * Stop the event loop thread and close the listening socket and all open connections.
+     */
+    public synchronized void stop()
+    {
+        _running = false;
+        _selector.wakeup();
+        _timer.cancel();
+    }
+
+    /**
+     * The event loop. This accepts new connections, reads requests and writes responses until stop() is called.
+     */
+    public void run()
+    {
+        while (_running)
+        {
+            try
+            {
+                _selector.select(SELECT_TIMEOUT);
+
+                NioHttpConnection connection;
+                while ((connection = _pendingWrites.poll()) != null)
+                {
+                    process(connection, SelectionKey.OP_WRITE);
+                }
+
+                Iterator<SelectionKey> i = _selector.selectedKeys().iterator();
+                while (i.hasNext())
+                {
+                    SelectionKey key = i.next();
+                    i.remove();
+                    if (!key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        accept();
+                    }
+                    else
+                    {
+                        process((NioHttpConnection)key.attachment(), key.readyOps());
+                    }
+                }
+
+                closeIdleConnections();
+            }
+            catch (IOException ioe)
+            {
+                _log.info("NioHttpServer event loop caught Exception {}", ioe.getMessage());
+            }
+        }
+
+        for (SelectionKey key : _selector.keys())
+        {
+            if (key.attachment() instanceof NioHttpConnection)
+            {
+                ((NioHttpConnection)key.attachment()).close();
+            }
+        }
+
+        try
+        {
+            _serverChannel.close();
+            _selector.close();
+        }
+        catch (IOException ioe)
+        { // Log and Ignore
+            _log.info("NioHttpServer close caught Exception {}", ioe.getMessage());
+        }
+    }
+
+    /**
+     * Accept a new connection and register it with the Selector.
+     */
+    private void accept() throws IOException
+    {
+        SocketChannel channel = _serverChannel.accept();
+        if (channel != null)
+        {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(_selector, SelectionKey.OP_READ);
+            key.attach(new NioHttpConnection(this, channel, key));
+        }
+    }
+
+    /**
+     * Carry out the reads and writes that a connection is ready for, closing the connection on error.
+     * @param connection the connection to process.
+     * @param readyOps the operations that the connection is ready for.
+     */
+    private void process(final NioHttpConnection connection, final int readyOps)
+    {
+        try
+        {
+            if ((readyOps & SelectionKey.OP_READ) != 0)
+            {
+                connection.read();
+            }
+
+            if ((readyOps & SelectionKey.OP_WRITE) != 0)
+            {
+                connection.write();
+            }
+        }
+        catch (IOException ioe)
+        {
+            connection.close();
+        }
+        catch (CancelledKeyException cke)
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Close any connections that have been idle for longer than IDLE_TIMEOUT. This is checked roughly once a second.
+     */
+    private void closeIdleConnections()
+    {
+        long now = System.currentTimeMillis();
+        if (now - _lastIdleCheck >= SELECT_TIMEOUT)
+        {
+            _lastIdleCheck = now;
+            List<NioHttpConnection> idle = new ArrayList<NioHttpConnection>();
+            for (SelectionKey key : _selector.keys())
+            {
+                Object attachment = key.attachment();
+                if (attachment instanceof NioHttpConnection && ((NioHttpConnection)attachment).isIdle(now))
+                {
+                    idle.add((NioHttpConnection)attachment);
+                }
+            }
+
+            for (NioHttpConnection connection : idle)
+            {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Called by a connection when response data has been queued by a thread other than the event loop.
+     * @param connection the connection that has data to write.
+     */
+    void requestWrite(final NioHttpConnection connection)
+    {
+        if (Thread.currentThread() == _thread)
+        {
+            process(connection, SelectionKey.OP_WRITE);
+        }
+        else
+        {
+            _pendingWrites.add(connection);
+            _selector.wakeup();
+        }
+    }
+
+    /**
+     * Schedule a TimerTask, used for the timeouts of suspended AsyncHttpTransactions.
+     * @param task the TimerTask to schedule.
+     * @param delay the delay in milliseconds before the task is run.
+     */
+    void schedule(final TimerTask task, final long delay)
+    {
+        _timer.schedule(task, delay);
+    }
+
+    /**
+     * Called by the event loop when a complete request has been read. This finds the Context for the request,
+     * authenticates it if necessary, then passes it to a worker thread which calls the appropriate Server method.
+     * @param tx the NioHttpTransaction holding the request.
+     */
+    void dispatch(final NioHttpTransaction tx)
+    {
+        _executor.execute(new Runnable()
+        {
+            public void run()
+            {
+                _workerThread.set(Boolean.TRUE);
+                try
+                {
+                    handle(tx);
+                }
+                finally
+                {
+                    _workerThread.remove();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns whether the calling thread is an Executor thread running a Server for a dispatched request.
+     * @return true if the calling thread is running a Server for a dispatched request.
+     */
+    static boolean isWorkerThread()
+    {
+        return _workerThread.get() != null;
+    }
+
+    /**
+     * Find the Context with the longest path that is a prefix of the specified request URI path.
+     * @param path the request URI path.
+     * @return the matching Context, or null if there isn't one.
+     */
+    private Context findContext(final String path)
+    {
+        Context match = null;
+        for (Context context : _contexts)
+        {
+            if (path.startsWith(context._path) &&
+                (match == null || context._path.length() > match._path.length()))
+            {
+                match = context;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Check the Basic authentication credentials sent with the request, if any.
+     * @param tx the NioHttpTransaction holding the request.
+     * @param authenticator the BasicAuthenticator used to check the credentials.
+     * @return the name of the authenticated user, or null if the request wasn't successfully authenticated.
+     */
+    private String authenticate(final NioHttpTransaction tx, final BasicAuthenticator authenticator)
+    {
+        String authorization = tx.getHeader("Authorization");
+        if (authorization == null || !authorization.regionMatches(true, 0, "Basic ", 0, 6))
+        {
+            return null;
+        }
+
+        String credentials = decodeBase64(authorization.substring(6).trim());
+        int colon = credentials == null ? -1 : credentials.indexOf(':');
+        if (colon < 0)
+        {
+            return null;
+        }
+
+        String username = credentials.substring(0, colon);
+        String password = credentials.substring(colon + 1);
+        return authenticator.checkCredentials(username, password) ? username : null;
+    }
+
+    /**
+     * Run the Server method appropriate to the request, this runs on a worker thread.
+     * @param tx the NioHttpTransaction holding the request.
+     */
+    private void handle(final NioHttpTransaction tx)
+    {
+        try
+        {
+            Context context = findContext(tx.getRequestURI());
+            if (context == null)
+            {
+                tx.sendResponse(HTTP_NOT_FOUND, "text/plain", "404 Not Found.");
+                return;
+            }
+
+            if (context._authenticator != null)
+            {
+                String principal = authenticate(tx, context._authenticator);
+                if (principal == null)
+                {
+                    tx.setHeader("WWW-Authenticate", "Basic realm=\"" + context._authenticator.getRealm() + "\"");
+                    tx.sendResponse(HTTP_UNAUTHORIZED, "text/plain", "401 Unauthorized.");
+                    return;
+                }
+                tx.setPrincipal(principal);
+            }
+
+            Server server = context._server;
+            String method = tx.getMethod();
+            if (method.equals("GET"))
+            {
+                server.doGet(tx);
+            }
+            else if (method.equals("POST"))
+            {
+                server.doPost(tx);
+            }
+            else if (method.equals("PUT"))
+            {
+                server.doPut(tx);
+            }
+            else if (method.equals("DELETE"))
+            {
+                server.doDelete(tx);
+            }
+            else
+            {
+                tx.sendResponse(HTTP_BAD_METHOD, "text/plain", "405 Bad Method.");
+            }
+
+            if (!tx.isComplete() && !tx.isSuspended())
+            { // Unlike HttpServer we don't leave the client hanging if a Server forgets to respond.
+                _log.info("NioHttpServer {} {} no response sent.", method, tx.getRequestURI());
+                tx.sendResponse(HTTP_INTERNAL_ERROR, "text/plain", "500 No response.");
+            }
+        }
+        catch (Exception e)
+        {
+            _log.info("NioHttpServer.handle() caught Exception {}", e.getMessage());
+            if (tx.isComplete())
+            {
+                tx.getConnection().close();
+            }
+            else
+            {
+                try
+                {
+                    tx.sendResponse(HTTP_INTERNAL_ERROR, "text/plain", "500 " + e.getMessage());
+                }
+                catch (IOException ioe)
+                {
+                    tx.getConnection().close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode a Base64 encoded String as used by the HTTP Basic authentication scheme. The decoded bytes are treated
+     * as UTF-8 (RFC 7617) so that user names and passwords containing non-ASCII characters can be authenticated.
+     * @param encoded the Base64 encoded String.
+     * @return the decoded String, or null if encoded isn't valid Base64.
+     */
+    private static String decodeBase64(final String encoded)
+    {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream(encoded.length());
+        int buffer = 0;
+        int bits = 0;
+        for (int i = 0; i < encoded.length(); i++)
+        {
+            char c = encoded.charAt(i);
+            if (c == '=')
+            {
+                break;
+            }
+
+            int value = alphabet.indexOf(c);
+            if (value < 0)
+            {
+                return null;
+            }
+
+            buffer = (buffer << 6) | value;
+            bits += 6;
+            if (bits >= 8)
+            {
+                bits -= 8;
+                decoded.write((buffer >> bits) & 0xFF);
+            }
+        }
+
+        try
+        {
+            return decoded.toString("UTF-8");
+        }
+        catch (UnsupportedEncodingException uee)
+        { // Every Java platform supports UTF-8.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,789 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi.nio;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.qpid.restapi.AsyncHttpTransaction;
+import org.apache.qpid.restapi.Compression;
+
+import static java.net.HttpURLConnection.HTTP_NO_CONTENT;
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
+
+/**
+ * This class provides an implementation of the AsyncHttpTransaction interface for requests received by NioHttpServer.
+ * <p>
+ * The sendResponse() methods format the response and queue it on the NioHttpConnection to be written by the event
+ * loop, so they may be called from any thread and only block if a large response is being sent to a slow client.
+ * Responses with byte[] or String content are sent with a Content-Length, InputStream and getResponseStream() content
+ * is sent with the Content-Length header if the Server has set one or if it is short, otherwise chunked transfer
+ * encoding is used. Responses are compressed as described in {@link org.apache.qpid.restapi.Compression}.
+ *
+ * @author Fraser Adams
+ */
+public final class NioHttpTransaction implements AsyncHttpTransaction
+{
+    private static final Logger _log = LoggerFactory.getLogger(NioHttpTransaction.class);
+
+    static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final long MAP_SIZE = 4194304; // Map files 4MB at a time.
+
+    /**
+     * Reason phrases for the status codes used by the REST API.
+     */
+    private static final Map<Integer, String> _reasons = new HashMap<Integer, String>();
+    static
+    {
+        _reasons.put(200, "OK");
+        _reasons.put(201, "Created");
+        _reasons.put(204, "No Content");
+        _reasons.put(206, "Partial Content");
+        _reasons.put(301, "Moved Permanently");
+        _reasons.put(304, "Not Modified");
+        _reasons.put(400, "Bad Request");
+        _reasons.put(401, "Unauthorized");
+        _reasons.put(403, "Forbidden");
+        _reasons.put(404, "Not Found");
+        _reasons.put(405, "Method Not Allowed");
+        _reasons.put(413, "Request Entity Too Large");
+        _reasons.put(500, "Internal Server Error");
+        _reasons.put(501, "Not Implemented");
+        _reasons.put(503, "Service Unavailable");
+    }
+
+    private final NioHttpConnection _connection;
+    private final String _method;
+    private final URI _uri;
+    private final Map<String, List<String>> _requestHeaders;
+    private final byte[] _body;
+    private final boolean _keepAlive;
+    private final Map<String, List<String>> _responseHeaders =
+        new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+    private final AtomicBoolean _complete = new AtomicBoolean(false);
+
+    private volatile String _principal = null;
+    private volatile TimerTask _timeout = null;
+
+    /**
+     * Construct an NioHttpTransaction, called by NioHttpConnection when it has read a complete request.
+     */
+    NioHttpTransaction(final NioHttpConnection connection, final String method, final URI uri,
+                       final Map<String, List<String>> requestHeaders, final byte[] body, final boolean keepAlive)
+    {
+        _connection = connection;
+        _method = method;
+        _uri = uri;
+        _requestHeaders = requestHeaders;
+        _body = body;
+        _keepAlive = keepAlive;
+    }
+
+    /**
+     * Send an error response on a connection whose request couldn't be parsed, then close the connection.
+     * @param connection the connection to send the response on.
+     * @param status the HTTP status code.
+     * @param message the plain text response content.
+     */
+    static void sendError(final NioHttpConnection connection, final int status, final String message)
+    {
+        NioHttpTransaction tx = new NioHttpTransaction(connection, "", null,
+            new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER), new byte[0], false);
+        try
+        {
+            tx.sendResponse(status, "text/plain", message);
+        }
+        catch (IOException ioe)
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the NioHttpConnection that the request was received on.
+     * @return the NioHttpConnection that the request was received on.
+     */
+    NioHttpConnection getConnection()
+    {
+        return _connection;
+    }
+
+    /**
+     * Set the name of the authenticated user, called by NioHttpServer once the request has been authenticated.
+     * @param principal the name of the authenticated user.
+     */
+    void setPrincipal(final String principal)
+    {
+        _principal = principal;
+    }
+
+    /**
+     * Returns whether a response has been sent.
+     * @return true if a response has been sent.
+     */
+    boolean isComplete()
+    {
+        return _complete.get();
+    }
+
+    /**
+     * Returns whether suspend() has been called.
+     * @return true if suspend() has been called.
+     */
+    boolean isSuspended()
+    {
+        return _timeout != null;
+    }
+
+    /**
+     * Mark the transaction as complete, only one response may be sent per transaction.
+     * @return true if the caller should send the response, false if one has already been sent.
+     */
+    private boolean markComplete()
+    {
+        if (!_complete.compareAndSet(false, true))
+        {
+            _log.info("NioHttpTransaction {} {} response already sent.", _method, getRequestURI());
+            return false;
+        }
+
+        TimerTask timeout = _timeout;
+        if (timeout != null)
+        {
+            timeout.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the Server has set a Content-Encoding header, in other words it is sending content that it has
+     * already compressed, such as a precomputed gzip encoding of a file.
+     */
+    private boolean isEncoded()
+    {
+        synchronized (_responseHeaders)
+        {
+            return _responseHeaders.containsKey("Content-Encoding");
+        }
+    }
+
+    /**
+     * Format the status line and response headers.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @return the formatted status line and response headers.
+     */
+    private ByteBuffer formatHeaders(final int status)
+    {
+        String reason = _reasons.get(status);
+        StringBuilder buffer = new StringBuilder(256);
+        buffer.append("HTTP/1.1 ").append(status).append(' ').append(reason == null ? "" : reason).append("\r\n");
+        synchronized (_responseHeaders)
+        {
+            for (Map.Entry<String, List<String>> header : _responseHeaders.entrySet())
+            {
+                for (String value : header.getValue())
+                {
+                    buffer.append(header.getKey()).append(": ").append(value).append("\r\n");
+                }
+            }
+        }
+
+        if (!_keepAlive)
+        {
+            buffer.append("Connection: close\r\n");
+        }
+        buffer.append("\r\n");
+        return ByteBuffer.wrap(buffer.toString().getBytes(ISO_8859_1));
+    }
+
+    /**
+     * Suspend the transaction, allowing the Server's doXXX method to return without sending a response.
+     * @param timeout the time in milliseconds to wait for a response to be sent before running timeoutHandler.
+     * @param timeoutHandler run if no response has been sent before timeout expires.
+     */
+    public void suspend(final long timeout, final Runnable timeoutHandler)
+    {
+        TimerTask task = new TimerTask()
+        {
+            public void run()
+            {
+                if (!_complete.get())
+                {
+                    timeoutHandler.run();
+                }
+            }
+        };
+        _timeout = task;
+        _connection.getServer().schedule(task, timeout);
+    }
+
+    /**
+     * Log the HTTP request information (primarily for debugging purposes)
+     */
+    public void logRequest()
+    {
+        System.out.println(_method + " " + _uri);
+        for (Map.Entry<String, List<String>> header : _requestHeaders.entrySet())
+        {
+            System.out.println(header);
+        }
+        System.out.println("From: " + getRemoteHost() + ":" + getRemotePort());
+    }
+
+    /**
+     * Return the content passed in the request from the client as a Stream.
+     * @return the content passed in the request from the client as a Stream.
+     */
+    public InputStream getRequestStream() throws IOException
+    {
+        return new ByteArrayInputStream(_body);
+    }
+
+    /**
+     * Return the content passed in the request from the client as a String.
+     * @return the content passed in the request from the client as a String.
+     */
+    public String getRequestString() throws IOException
+    {
+        return new String(_body);
+    }
+
+    /**
+     * Return the content passed in the request from the client as a byte[].
+     * @return the content passed in the request from the client as a byte[].
+     */
+    public byte[] getRequest() throws IOException
+    {
+        return _body;
+    }
+
+    /**
+     * Send the content passed as a String as an HTTP response back to the client.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param content the content of the response passed as a String.
+     */
+    public void sendResponse(final int status, final String mimeType, final String content) throws IOException
+    {
+        sendResponse(status, mimeType, content == null ? null : content.getBytes());
+    }
+
+    /**
+     * Send the content passed as a byte[] as an HTTP response back to the client.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param content the content of the response passed as a byte[].
+     */
+    public void sendResponse(final int status, final String mimeType, final byte[] content) throws IOException
+    {
+        if (!markComplete())
+        {
+            return;
+        }
+
+        setHeader("Content-Type", mimeType);
+        byte[] body = content;
+        if (content != null && Compression.isCompressible(mimeType))
+        {
+            setHeader("Vary", "Accept-Encoding");
+            String encoding = isEncoded() ? null : Compression.negotiate(this, mimeType);
+            if (encoding != null && content.length >= Compression.THRESHOLD)
+            {
+                body = Compression.compress(content, encoding);
+                setHeader("Content-Encoding", encoding);
+            }
+        }
+
+        if (body != null || (status != HTTP_NOT_MODIFIED && status != HTTP_NO_CONTENT))
+        { // 304 and 204 responses have no body, so mustn't claim a Content-Length of zero.
+            setHeader("Content-Length", "" + (body == null ? 0 : body.length));
+        }
+        _connection.send(formatHeaders(status));
+        if (body != null && body.length > 0)
+        {
+            _connection.send(ByteBuffer.wrap(body));
+        }
+        _connection.complete(!_keepAlive);
+    }
+
+    /**
+     * Send the content passed as an InputStream as an HTTP response back to the client.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param is the content of the response passed as an InputStream.
+     */
+    public void sendResponse(final int status, final String mimeType, final InputStream is) throws IOException
+    {
+        if (is == null)
+        {
+            sendResponse(status, mimeType, (byte[])null);
+            return;
+        }
+
+        try
+        {
+            OutputStream os = getResponseStream(status, mimeType);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            while (true)
+            {
+                int read = is.read(buffer, 0, buffer.length);
+                if (read == -1) // Loop until EOF is reached
+                {
+                    break;
+                }
+                os.write(buffer, 0, read);
+            }
+            os.close();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Send a region of a file as an HTTP response back to the client with a Content-Length header. The file is
+     * queued as read only memory mapped regions, so the event loop writes it to the socket straight from the page
+     * cache rather than copying it through the Java heap. Mapping MAP_SIZE bytes at a time means that send() still
+     * limits how far ahead of a slow client a large file gets.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @param channel a FileChannel for the file to be sent, which is closed once the response has been sent.
+     * @param position the position within the file of the first byte to be sent.
+     * @param count the number of bytes to be sent.
+     */
+    public void sendResponse(final int status, final String mimeType, final FileChannel channel,
+                             final long position, final long count) throws IOException
+    {
+        try
+        {
+            if (!markComplete())
+            {
+                return;
+            }
+
+            setHeader("Content-Type", mimeType);
+            if (Compression.isCompressible(mimeType))
+            {
+                setHeader("Vary", "Accept-Encoding");
+            }
+            setHeader("Content-Length", "" + count);
+            _connection.send(formatHeaders(status));
+            for (long offset = 0; offset < count; offset += MAP_SIZE)
+            {
+                long size = Math.min(count - offset, MAP_SIZE);
+                _connection.send(channel.map(FileChannel.MapMode.READ_ONLY, position + offset, size));
+            }
+            _connection.complete(!_keepAlive);
+        }
+        finally
+        { // The mappings remain valid after the channel has been closed.
+            channel.close();
+        }
+    }
+
+    /**
+     * Return an OutputStream that the response content may be written to. If the Server has set a Content-Length
+     * header the content is sent with that length, unless it is compressed. Otherwise the first Compression.THRESHOLD
+     * bytes are buffered, if the content turns out to be shorter than that it is sent with a Content-Length, otherwise
+     * chunked transfer encoding is used. Content longer than Compression.THRESHOLD is compressed if the client
+     * accepts a compressed encoding. Flushing the OutputStream doesn't send content that is still being buffered.
+     * Streamed content, such as text/event-stream, is never buffered and is sent with chunked transfer encoding
+     * as it is flushed. The response is complete when the returned OutputStream is closed, so callers must always
+     * close it.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param mimeType the mimeType of the response content e.g. text/plain, text/xml, image/jpeg etc.
+     * @return an OutputStream that the content of the response may be written to.
+     */
+    public OutputStream getResponseStream(final int status, final String mimeType) throws IOException
+    {
+        if (!markComplete())
+        { // A response has already been sent, so quietly discard anything written by the caller.
+            return new OutputStream()
+            {
+                @Override
+                public void write(int b)
+                {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len)
+                {
+                }
+            };
+        }
+
+        setHeader("Content-Type", mimeType);
+        if (Compression.isCompressible(mimeType))
+        {
+            setHeader("Vary", "Accept-Encoding");
+        }
+
+        // Don't compress partial content as the Content-Range refers to the uncompressed content.
+        String encoding = (status == HTTP_PARTIAL || isEncoded()) ? null : Compression.negotiate(this, mimeType);
+        String contentLength = null;
+        synchronized (_responseHeaders)
+        {
+            List<String> values = _responseHeaders.get("Content-Length");
+            if (values != null)
+            {
+                contentLength = values.get(0);
+                _responseHeaders.remove("Content-Length");
+            }
+        }
+
+        if (contentLength != null)
+        {
+            long length = Long.parseLong(contentLength);
+            if (encoding != null && length >= Compression.THRESHOLD)
+            {
+                synchronized (_responseHeaders)
+                {
+                    _responseHeaders.remove("Content-Range");
+                }
+                return Compression.compressingStream(openResponseStream(status, encoding, -1), encoding);
+            }
+            return openResponseStream(status, null, length);
+        }
+
+        // Streamed content such as Server-Sent Events is sent as soon as it is flushed, so it can't be buffered.
+        if (Compression.isStreamed(mimeType))
+        {
+            OutputStream os = openResponseStream(status, encoding, -1);
+            return (encoding == null) ? os : Compression.compressingStream(os, encoding);
+        }
+
+        return new Compression.ThresholdOutputStream(encoding, new Compression.ResponseStreamFactory()
+        {
+            public OutputStream open(final String contentEncoding, final long length) throws IOException
+            {
+                return openResponseStream(status, contentEncoding, length);
+            }
+        });
+    }
+
+    /**
+     * Send the response headers and return a ResponseOutputStream for the response content.
+     * @param status the HTTP status code e.g. 200 for OK.
+     * @param contentEncoding the Content-Encoding of the response or null if it isn't compressed.
+     * @param length the length of the content or -1 if it's unknown, in which case chunked encoding is used.
+     * @return a ResponseOutputStream for the response content.
+     */
+    private OutputStream openResponseStream(final int status, final String contentEncoding, final long length)
+        throws IOException
+    {
+        if (contentEncoding != null)
+        {
+            setHeader("Content-Encoding", contentEncoding);
+        }
+
+        boolean chunked = length < 0;
+        if (chunked)
+        {
+            setHeader("Transfer-Encoding", "chunked");
+        }
+        else
+        {
+            setHeader("Content-Length", "" + length);
+        }
+        _connection.send(formatHeaders(status));
+        return new ResponseOutputStream(chunked);
+    }
+
+    /**
+     * ResponseOutputStream buffers the response content and queues it on the NioHttpConnection in CHUNK_SIZE pieces,
+     * framing each piece as an HTTP chunk if chunked transfer encoding is being used. The buffering means that the
+     * chunks sent are reasonably sized even if the content is written a few bytes at a time, which is the usual case
+     * when serialising JSON. Closing the stream sends the last-chunk and completes the response.
+     */
+    private final class ResponseOutputStream extends OutputStream
+    {
+        private final boolean _chunked;
+        private final byte[] _buffer = new byte[CHUNK_SIZE];
+        private int _count = 0;
+        private boolean _closed = false;
+
+        ResponseOutputStream(final boolean chunked)
+        {
+            _chunked = chunked;
+        }
+
+        /**
+         * Queue any buffered content on the NioHttpConnection.
+         */
+        private void sendBuffer() throws IOException
+        {
+            if (_count == 0)
+            {
+                return;
+            }
+
+            if (_chunked)
+            {
+                byte[] size = (Integer.toHexString(_count) + "\r\n").getBytes(ISO_8859_1);
+                ByteBuffer chunk = ByteBuffer.allocate(size.length + _count + 2);
+                chunk.put(size).put(_buffer, 0, _count).put((byte)'\r').put((byte)'\n');
+                chunk.flip();
+                _connection.send(chunk);
+            }
+            else
+            {
+                ByteBuffer content = ByteBuffer.allocate(_count);
+                content.put(_buffer, 0, _count);
+                content.flip();
+                _connection.send(content);
+            }
+            _count = 0;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            if (_closed)
+            {
+                throw new IOException("ResponseOutputStream is closed");
+            }
+
+            if (_count == _buffer.length)
+            {
+                sendBuffer();
+            }
+            _buffer[_count++] = (byte)b;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException
+        {
+            if (_closed)
+            {
+                throw new IOException("ResponseOutputStream is closed");
+            }
+
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0)
+            {
+                if (_count == _buffer.length)
+                {
+                    sendBuffer();
+                }
+
+                int n = Math.min(remaining, _buffer.length - _count);
+                System.arraycopy(b, offset, _buffer, _count, n);
+                _count += n;
+                offset += n;
+                remaining -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (!_closed)
+            {
+                sendBuffer();
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (_closed)
+            {
+                return;
+            }
+
+            sendBuffer();
+            _closed = true;
+            if (_chunked)
+            {
+                _connection.send(ByteBuffer.wrap("0\r\n\r\n".getBytes(ISO_8859_1)));
+            }
+            _connection.complete(!_keepAlive);
+        }
+    }
+
+    /**
+     * Returns the Internet Protocol (IP) address of the client or last proxy that sent the request.
+     * @return the Internet Protocol (IP) address of the client or last proxy that sent the request.
+     */
+    public String getRemoteAddr()
+    {
+        return _connection.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    /**
+     * Returns the fully qualified name of the client or the last proxy that sent the request.
+     * @return the fully qualified name of the client or the last proxy that sent the request.
+     */
+    public String getRemoteHost()
+    {
+        return _connection.getRemoteAddress().getHostName();
+    }
+
+    /**
+     * Returns the Internet Protocol (IP) source port of the client or last proxy that sent the request.
+     * @return the Internet Protocol (IP) source port of the client or last proxy that sent the request.
+     */
+    public int getRemotePort()
+    {
+        return _connection.getRemoteAddress().getPort();
+    }
+
+    /**
+     * Returns a String containing the name of the current authenticated user. If the user has not been authenticated,
+     * the method returns null.
+     * @return a String containing the name of the user making this request; null if the user has not been authenticated.
+     */
+    public String getPrincipal()
+    {
+        return _principal;
+    }
+
+    /**
+     * Returns the name of the HTTP method with which this request was made, for example, GET, POST, or PUT.
+     * @return a String specifying the name of the method with which this request was made.
+     */
+    public String getMethod()
+    {
+        return _method;
+    }
+
+    /**
+     * Returns the part of this request's URL from the protocol name up to the query string in the first line of
+     * the HTTP request.
+     * @return a String containing the part of the URL from the protocol name up to the query string.
+     */
+    public String getRequestURI()
+    {
+        return _uri == null ? "" : _uri.getPath();
+    }
+
+    /**
+     * Returns the query string that is contained in the request URL after the path, or null if the URL does not have
+     * a query string. The query string is returned as sent by the client, in other words it is still URL encoded.
+     * @return a String containing the query string or null if the URL does not have a query string.
+     */
+    public String getQueryString()
+    {
+        return _uri == null ? null : _uri.getRawQuery();
+    }
+
+    /**
+     * Sets a response header with the given name and value. If the header had already been set, the new value
+     * overwrites the previous one.
+     * @param name a String specifying the header name.
+     * @param value a String specifying the header value. If it contains octet string, it should be encoded according
+     *        to RFC 2047.
+     */
+    public void setHeader(final String name, final String value)
+    {
+        List<String> values = new ArrayList<String>(1);
+        values.add(value);
+        synchronized (_responseHeaders)
+        {
+            _responseHeaders.put(name, values);
+        }
+    }
+
+    /**
+     * Returns the value of the specified request header as a String. If the request did not include a header of the
+     * specified name, this method returns null. If there are multiple headers with the same name, this method returns
+     * the first head in the request. The header name is case insensitive. You can use this method with any request
+     * header.
+     * @param name a String specifying the header name.
+     * @return a String containing the value of the requested header, or null if the request does not have a header of
+     *         that name.
+     */
+    public String getHeader(final String name)
+    {
+        List<String> values = _requestHeaders.get(name);
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * Returns the String value of the specified cookie.
+     * @param name a String specifying the cookie name.
+     */
+    public String getCookie(final String name)
+    {
+        List<String> values = _requestHeaders.get("Cookie");
+        if (values == null)
+        {
+            return null;
+        }
+
+        for (String value : values)
+        {
+            String[] cookies = value.split(";");
+            for (String cookie : cookies)
+            {
+                String[] cdata = cookie.split("=");
+                if (cdata[0].trim().equals(name))
+                {
+                    return cdata[1];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the specified cookie to the response. This method can be called multiple times to set more than one cookie.
+     * @param name a String specifying the cookie name.
+     * @param value a String specifying the cookie value.
+     */
+    public void addCookie(final String name, final String value)
+    {
+        String data = name + "=" + value + "; path=/";
+        synchronized (_responseHeaders)
+        {
+            List<String> values = _responseHeaders.get("Set-Cookie");
+            if (values == null)
+            {
+                values = new ArrayList<String>(1);
+                _responseHeaders.put("Set-Cookie", values);
+            }
+            values.add(data);
+        }
+    }
+}
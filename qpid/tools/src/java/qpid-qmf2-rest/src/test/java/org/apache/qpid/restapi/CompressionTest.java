@@ -0,0 +1,237 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for Compression.
+ *
+ * @author Fraser Adams
+ */
+public class CompressionTest extends TestCase
+{
+    /**
+     * A ResponseStreamFactory that records the headers it was asked to send and collects the response content.
+     */
+    private static final class RecordingFactory implements Compression.ResponseStreamFactory
+    {
+        private final ByteArrayOutputStream _content = new ByteArrayOutputStream();
+        private String _contentEncoding = null;
+        private long _length = 0;
+        private int _openCount = 0;
+
+        public OutputStream open(final String contentEncoding, final long length)
+        {
+            _contentEncoding = contentEncoding;
+            _length = length;
+            _openCount++;
+            return _content;
+        }
+    }
+
+    /**
+     * Returns an HttpTransaction whose only non-null header is Accept-Encoding.
+     */
+    private static HttpTransaction request(final String acceptEncoding)
+    {
+        return (HttpTransaction)Proxy.newProxyInstance(HttpTransaction.class.getClassLoader(),
+            new Class<?>[] {HttpTransaction.class}, new InvocationHandler()
+        {
+            public Object invoke(final Object proxy, final Method method, final Object[] args)
+            {
+                if (method.getName().equals("getHeader") && "Accept-Encoding".equals(args[0]))
+                {
+                    return acceptEncoding;
+                }
+                return null;
+            }
+        });
+    }
+
+    private static byte[] content(final int length)
+    {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++)
+        {
+            content[i] = (byte)('a' + (i % 26));
+        }
+        return content;
+    }
+
+    private static byte[] readAll(final InputStream is) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = is.read(buffer)) != -1)
+        {
+            bos.write(buffer, 0, n);
+        }
+        is.close();
+        return bos.toByteArray();
+    }
+
+    public void testIsCompressible()
+    {
+        assertTrue(Compression.isCompressible("text/plain"));
+        assertTrue(Compression.isCompressible("application/json"));
+        assertTrue(Compression.isCompressible("application/javascript"));
+        assertTrue(Compression.isCompressible("application/xml"));
+        assertFalse(Compression.isCompressible("image/png"));
+        assertFalse(Compression.isCompressible(null));
+    }
+
+    public void testIsStreamed()
+    {
+        assertTrue(Compression.isStreamed("text/event-stream"));
+        assertFalse(Compression.isStreamed("text/plain"));
+        assertFalse(Compression.isStreamed(null));
+    }
+
+    public void testNegotiate()
+    {
+        assertNull(Compression.negotiate(request(null), "application/json"));
+        assertNull(Compression.negotiate(request("gzip"), "image/png"));
+        assertNull(Compression.negotiate(request("identity"), "application/json"));
+        assertEquals("gzip", Compression.negotiate(request("gzip"), "application/json"));
+        assertEquals("gzip", Compression.negotiate(request("x-gzip"), "application/json"));
+        assertEquals("gzip", Compression.negotiate(request("deflate, gzip"), "application/json"));
+        assertEquals("deflate", Compression.negotiate(request("deflate"), "application/json"));
+    }
+
+    public void testNegotiateQValues()
+    {
+        assertEquals("deflate", Compression.negotiate(request("gzip;q=0.5, deflate"), "text/html"));
+        assertEquals("deflate", Compression.negotiate(request("gzip;q=0, deflate;q=0.1"), "text/html"));
+        assertNull(Compression.negotiate(request("gzip;q=0, deflate;q=0"), "text/html"));
+        assertEquals("gzip", Compression.negotiate(request("gzip;q=bad"), "text/html"));
+    }
+
+    public void testNegotiateWildcard()
+    {
+        assertEquals("gzip", Compression.negotiate(request("*"), "text/html"));
+        assertEquals("deflate", Compression.negotiate(request("*, gzip;q=0"), "text/html"));
+        assertNull(Compression.negotiate(request("*;q=0"), "text/html"));
+    }
+
+    public void testCompressRoundTrip() throws IOException
+    {
+        byte[] content = content(5000);
+
+        byte[] gzipped = Compression.compress(content, "gzip");
+        assertTrue(gzipped.length < content.length);
+        assertTrue(Arrays.equals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(gzipped)))));
+
+        byte[] deflated = Compression.compress(content, "deflate");
+        assertTrue(deflated.length < content.length);
+        assertTrue(Arrays.equals(content, readAll(new InflaterInputStream(new ByteArrayInputStream(deflated)))));
+    }
+
+    public void testThresholdShortContentUncompressed() throws IOException
+    {
+        RecordingFactory factory = new RecordingFactory();
+        OutputStream os = new Compression.ThresholdOutputStream("gzip", factory);
+        os.write("content".getBytes("UTF-8"));
+        os.flush();
+        assertEquals(0, factory._openCount);
+        os.close();
+
+        assertEquals(1, factory._openCount);
+        assertNull(factory._contentEncoding);
+        assertEquals(7, factory._length);
+        assertEquals("content", factory._content.toString("UTF-8"));
+    }
+
+    public void testThresholdExactlyThresholdUncompressed() throws IOException
+    {
+        byte[] content = content(Compression.THRESHOLD);
+        RecordingFactory factory = new RecordingFactory();
+        OutputStream os = new Compression.ThresholdOutputStream("gzip", factory);
+        os.write(content);
+        os.close();
+
+        assertNull(factory._contentEncoding);
+        assertEquals(Compression.THRESHOLD, factory._length);
+        assertTrue(Arrays.equals(content, factory._content.toByteArray()));
+    }
+
+    public void testThresholdLongContentCompressed() throws IOException
+    {
+        byte[] content = content(5000);
+        RecordingFactory factory = new RecordingFactory();
+        OutputStream os = new Compression.ThresholdOutputStream("gzip", factory);
+        for (int i = 0; i < content.length; i += 100)
+        {
+            os.write(content, i, 100);
+        }
+        os.close();
+
+        assertEquals(1, factory._openCount);
+        assertEquals("gzip", factory._contentEncoding);
+        assertEquals(-1, factory._length);
+        byte[] sent = factory._content.toByteArray();
+        assertTrue(sent.length < content.length);
+        assertTrue(Arrays.equals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(sent)))));
+    }
+
+    public void testThresholdLongContentWithoutEncoding() throws IOException
+    {
+        byte[] content = content(5000);
+        RecordingFactory factory = new RecordingFactory();
+        OutputStream os = new Compression.ThresholdOutputStream(null, factory);
+        os.write(content);
+        os.close();
+
+        assertNull(factory._contentEncoding);
+        assertEquals(-1, factory._length);
+        assertTrue(Arrays.equals(content, factory._content.toByteArray()));
+    }
+
+    public void testThresholdWriteAfterClose() throws IOException
+    {
+        OutputStream os = new Compression.ThresholdOutputStream("gzip", new RecordingFactory());
+        os.close();
+        os.close();
+        try
+        {
+            os.write(1);
+            fail("Expected IOException writing to a closed ThresholdOutputStream");
+        }
+        catch (IOException ioe)
+        { // Expected.
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * Unit tests for ETag.
+ *
+ * @author Fraser Adams
+ */
+public class ETagTest extends TestCase
+{
+    private static QmfConsoleData queue(final String name, final long depth, final long updateTime)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", name);
+        values.put("msgDepth", depth);
+
+        Map<String, Object> objectId = new HashMap<String, Object>();
+        objectId.put("_agent_name", "broker");
+        objectId.put("_object_name", "org.apache.qpid.broker:queue:" + name);
+        objectId.put("_agent_epoch", 1l);
+
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("_values", values);
+        m.put("_object_id", objectId);
+        m.put("_update_ts", updateTime);
+        m.put("_create_ts", 0l);
+        m.put("_delete_ts", 0l);
+        return new QmfConsoleData(m, null);
+    }
+
+    public void testTagsAreWeak()
+    {
+        String etag = ETag.compute("content");
+        assertTrue(etag.startsWith("W/\""));
+        assertTrue(etag.endsWith("\""));
+    }
+
+    public void testEqualContentHasEqualTags()
+    {
+        List<Object> a = new ArrayList<Object>(Arrays.asList("x", 1, 2.5, true, null));
+        List<Object> b = new ArrayList<Object>(Arrays.asList("x", 1, 2.5, true, null));
+        assertEquals(ETag.compute(a), ETag.compute(b));
+    }
+
+    public void testDifferentContentHasDifferentTags()
+    {
+        assertFalse(ETag.compute("a").equals(ETag.compute("b")));
+        assertFalse(ETag.compute(Arrays.asList(1, 2)).equals(ETag.compute(Arrays.asList(2, 1))));
+        assertFalse(ETag.compute(Arrays.asList(Arrays.asList(1), 2)).equals(
+                    ETag.compute(Arrays.asList(1, Arrays.asList(2)))));
+    }
+
+    public void testMapEntryOrderDoesNotMatter()
+    {
+        Map<String, Object> a = new LinkedHashMap<String, Object>();
+        a.put("one", 1);
+        a.put("two", 2);
+        Map<String, Object> b = new LinkedHashMap<String, Object>();
+        b.put("two", 2);
+        b.put("one", 1);
+        assertEquals(ETag.compute(a), ETag.compute(b));
+
+        b.put("two", 3);
+        assertFalse(ETag.compute(a).equals(ETag.compute(b)));
+    }
+
+    public void testUpdateTimestampIsIgnored()
+    {
+        assertEquals(ETag.compute(queue("q1", 10, 1000)), ETag.compute(queue("q1", 10, 2000)));
+    }
+
+    public void testObjectPropertiesAndIdentityAreHashed()
+    {
+        String etag = ETag.compute(queue("q1", 10, 1000));
+        assertFalse(etag.equals(ETag.compute(queue("q1", 11, 1000))));
+        assertFalse(etag.equals(ETag.compute(queue("q2", 10, 1000))));
+    }
+
+    public void testMatchesNullHeader()
+    {
+        assertFalse(ETag.matches(null, ETag.compute("content")));
+    }
+
+    public void testMatchesUsesWeakComparison()
+    {
+        String etag = ETag.compute("content");
+        String opaque = etag.substring(2);
+        assertTrue(ETag.matches(etag, etag));
+        assertTrue(ETag.matches(opaque, etag));
+        assertTrue(ETag.matches(etag, opaque));
+    }
+
+    public void testMatchesAnyTagInAList()
+    {
+        String etag = ETag.compute("content");
+        assertTrue(ETag.matches("W/\"1\", " + etag + " ,\"2\"", etag));
+        assertFalse(ETag.matches("W/\"1\", \"2\"", etag));
+    }
+
+    public void testMatchesWildcard()
+    {
+        assertTrue(ETag.matches("*", ETag.compute("content")));
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for JSONMapParser and the JSON.toMap() methods that use it.
+ *
+ * @author Fraser Adams
+ */
+public class JSONMapParserTest extends TestCase
+{
+    private static Map<Object, Object> parse(final String json)
+    {
+        return new JSONMapParser(json).map();
+    }
+
+    private static Object parseValue(final String json)
+    {
+        return parse("{\"v\": " + json + "}").get("v");
+    }
+
+    private static void assertInvalid(final String json)
+    {
+        try
+        {
+            parse(json);
+            fail("Expected IllegalArgumentException parsing " + json);
+        }
+        catch (IllegalArgumentException iae)
+        { // Expected
+        }
+    }
+
+    public void testEmptyMap()
+    {
+        assertTrue(parse("{}").isEmpty());
+        assertTrue(parse("  {  }  ").isEmpty());
+    }
+
+    public void testNestedStructures()
+    {
+        Map<Object, Object> map = parse("{'a': [1, 'two', {'b': []}], \"c\": {\"d\": {}}}");
+        List a = (List)map.get("a");
+        assertEquals(3, a.size());
+        assertEquals(Integer.valueOf(1), a.get(0));
+        assertEquals("two", a.get(1));
+        assertTrue(((List)((Map)a.get(2)).get("b")).isEmpty());
+        assertTrue(((Map)((Map)map.get("c")).get("d")).isEmpty());
+    }
+
+    public void testTrailingCommasAreTolerated()
+    {
+        assertEquals(2, parse("{'a': 1, 'b': 2,}").size());
+        assertEquals(2, ((List)parseValue("[1, 2,]")).size());
+    }
+
+    public void testSimpleEscapes()
+    {
+        assertEquals("\"'\\/", parseValue("\"\\\"\\'\\\\\\/\""));
+        assertEquals("\b\f\n\r\t", parseValue("'\\b\\f\\n\\r\\t'"));
+        assertEquals("\u0007\u000b", parseValue("'\\a\\v'"));
+        assertEquals("ab", parseValue("'a\\\nb'")); // An escaped newline is a line continuation.
+    }
+
+    public void testNumericEscapes()
+    {
+        assertEquals("\u00e9\u20ac", parseValue("'\\u00e9\\u20AC'"));
+        assertEquals("A", parseValue("'\\x41'"));
+        assertEquals("\u0007", parseValue("'\\o07'"));
+        assertEquals("\ud83d\ude00", parseValue("'\\ud83d\\ude00'"));
+    }
+
+    public void testQuotesWithinStrings()
+    {
+        assertEquals("it's", parseValue("\"it's\""));
+        assertEquals("say \"hi\"", parseValue("'say \"hi\"'"));
+    }
+
+    public void testInvalidStrings()
+    {
+        assertInvalid("{'v': '\\q'}");
+        assertInvalid("{'v': '\\u12'}");
+        assertInvalid("{'v': '\\xZZ'}");
+        assertInvalid("{'v': 'unterminated}");
+    }
+
+    public void testIntegers()
+    {
+        assertEquals(Integer.valueOf(0), parseValue("0"));
+        assertEquals(Integer.valueOf(-42), parseValue("-42"));
+        assertEquals(Integer.valueOf(42), parseValue("+42"));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), parseValue("2147483647"));
+    }
+
+    public void testIntegersTooBigForAnIntegerAreLongs()
+    {
+        assertEquals(Long.valueOf(2147483648l), parseValue("2147483648"));
+        assertEquals(Long.valueOf(-5000000000l), parseValue("-5000000000"));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), parseValue("9223372036854775807"));
+    }
+
+    public void testFloatingPoint()
+    {
+        assertEquals(Double.valueOf(1.5), parseValue("1.5"));
+        assertEquals(Double.valueOf(-0.25), parseValue("-.25"));
+        assertEquals(Double.valueOf(1.0e10), parseValue("1e10"));
+        assertEquals(Double.valueOf(2.5e-3), parseValue("2.5E-3"));
+        assertEquals(Double.valueOf(3.0e2), parseValue("3e+2"));
+    }
+
+    public void testInvalidNumbers()
+    {
+        assertInvalid("{'v': -}");
+        assertInvalid("{'v': 1.}");
+        assertInvalid("{'v': 1e}");
+        assertInvalid("{'v': 1e+}");
+    }
+
+    public void testShorthandNumbers()
+    {
+        assertEquals(Long.valueOf(10000l), parseValue("'10K'"));
+        assertEquals(Long.valueOf(1500l), parseValue("'1.5k'"));
+        assertEquals(Long.valueOf(10000000l), parseValue("'10M'"));
+        assertEquals(Long.valueOf(2000000000l), parseValue("'2G'"));
+        assertEquals("10MB", parseValue("'10MB'"));
+        assertEquals("M", parseValue("'M'"));
+    }
+
+    public void testIdentifiers()
+    {
+        assertEquals(Boolean.TRUE, parseValue("true"));
+        assertEquals(Boolean.FALSE, parseValue("FALSE"));
+        assertEquals("null", parseValue("null"));
+        assertEquals("some-name_1", parseValue("some-name_1"));
+        assertInvalid("{'v': name-}");
+    }
+
+    public void testMalformedStructures()
+    {
+        assertInvalid("");
+        assertInvalid("[]");
+        assertInvalid("{'a' 1}");
+        assertInvalid("{'a': 1 'b': 2}");
+        assertInvalid("{'a': [1 2]}");
+        assertInvalid("{'a': 1");
+    }
+
+    public void testReaderInput()
+    {
+        Map<Object, Object> map = new JSONMapParser(new StringReader("{'a': 'b', 'n': 5000000000}")).map();
+        assertEquals("b", map.get("a"));
+        assertEquals(Long.valueOf(5000000000l), map.get("n"));
+    }
+
+    public void testInputLargerThanTheReadBuffer()
+    {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+        {
+            value.append((char)('a' + i % 26));
+        }
+        assertEquals(value.toString(), parseValue("'" + value + "'"));
+    }
+
+    public void testToMapFromString()
+    {
+        assertTrue(JSON.toMap((String)null).isEmpty());
+        assertTrue(JSON.toMap("").isEmpty());
+        assertEquals("b", JSON.toMap("{'a': 'b'}").get("a"));
+    }
+
+    public void testToMapFromStreamDecodesUtf8() throws Exception
+    {
+        assertTrue(JSON.toMap(new ByteArrayInputStream(new byte[0])).isEmpty());
+        byte[] json = "{\"name\": \"caf\u00e9 \u20ac\"}".getBytes("UTF-8");
+        assertEquals("caf\u00e9 \u20ac", JSON.toMap(new ByteArrayInputStream(json)).get("name"));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * Unit tests for ObjectQuery.
+ *
+ * @author Fraser Adams
+ */
+public class ObjectQueryTest extends TestCase
+{
+    private List<QmfConsoleData> _queues;
+
+    private static QmfConsoleData queue(final String name, final long depth, final String durable)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", name);
+        values.put("msgDepth", depth);
+        if (durable != null)
+        {
+            values.put("durable", durable);
+        }
+
+        Map<String, Object> schemaId = new HashMap<String, Object>();
+        schemaId.put("_package_name", "org.apache.qpid.broker");
+        schemaId.put("_class_name", "queue");
+
+        Map<String, Object> objectId = new HashMap<String, Object>();
+        objectId.put("_agent_name", "broker");
+        objectId.put("_object_name", "org.apache.qpid.broker:queue:" + name);
+        objectId.put("_agent_epoch", 1l);
+
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("_values", values);
+        m.put("_schema_id", schemaId);
+        m.put("_object_id", objectId);
+        m.put("_update_ts", 3l);
+        m.put("_create_ts", 2l);
+        m.put("_delete_ts", 0l);
+        return new QmfConsoleData(m, null);
+    }
+
+    private static List<String> names(final List<Object> results)
+    {
+        List<String> names = new ArrayList<String>();
+        for (Object result : results)
+        {
+            names.add(((QmfConsoleData)result).getStringValue("name"));
+        }
+        return names;
+    }
+
+    private static List<String> list(final String... names)
+    {
+        List<String> list = new ArrayList<String>();
+        for (String name : names)
+        {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private static void assertInvalid(final String queryString)
+    {
+        try
+        {
+            new ObjectQuery(queryString);
+            fail("Expected IllegalArgumentException for " + queryString);
+        }
+        catch (IllegalArgumentException iae)
+        { // Expected.
+        }
+    }
+
+    @Override
+    protected void setUp()
+    {
+        _queues = new ArrayList<QmfConsoleData>();
+        _queues.add(queue("c", 5, "true"));
+        _queues.add(queue("a", 0, "false"));
+        _queues.add(queue("e", 20, "true"));
+        _queues.add(queue("b", 5, null));
+        _queues.add(queue("d", 100, "false"));
+    }
+
+    public void testNullQueryMatchesEverything()
+    {
+        ObjectQuery query = new ObjectQuery(null);
+        assertEquals(list("c", "a", "e", "b", "d"), names(query.apply(_queues)));
+        assertEquals(5, query.getMatchCount());
+    }
+
+    public void testWhere()
+    {
+        ObjectQuery query = new ObjectQuery("where=%5B%22gt%22%2C%22msgDepth%22%2C5%5D");
+        assertEquals(list("e", "d"), names(query.apply(_queues)));
+        assertEquals(2, query.getMatchCount());
+        assertEquals(5, _queues.size());
+    }
+
+    public void testSortAscending()
+    {
+        ObjectQuery query = new ObjectQuery("sort=name");
+        assertEquals(list("a", "b", "c", "d", "e"), names(query.apply(_queues)));
+    }
+
+    public void testSortNumericDescendingWithTieBreak()
+    {
+        ObjectQuery query = new ObjectQuery("sort=-msgDepth");
+        assertEquals(list("d", "e", "b", "c", "a"), names(query.apply(_queues)));
+
+        query = new ObjectQuery("sort=msgDepth,-name");
+        assertEquals(list("a", "c", "b", "e", "d"), names(query.apply(_queues)));
+    }
+
+    public void testSortMissingValuesLast()
+    {
+        ObjectQuery query = new ObjectQuery("sort=durable");
+        assertEquals("b", names(query.apply(_queues)).get(4));
+
+        query = new ObjectQuery("sort=-durable");
+        assertEquals("b", names(query.apply(_queues)).get(4));
+    }
+
+    public void testTopK()
+    {
+        ObjectQuery query = new ObjectQuery("sort=-msgDepth&limit=2");
+        assertEquals(list("d", "e"), names(query.apply(_queues)));
+        assertEquals(5, query.getMatchCount());
+
+        query = new ObjectQuery("sort=-msgDepth&offset=1&limit=3");
+        assertEquals(list("e", "b", "c"), names(query.apply(_queues)));
+    }
+
+    public void testTopKMatchesFullSort()
+    {
+        List<QmfConsoleData> queues = new ArrayList<QmfConsoleData>();
+        for (int i = 0; i < 200; i++)
+        {
+            queues.add(queue("q" + i, (i * 37) % 11, null));
+        }
+
+        List<String> sorted = names(new ObjectQuery("sort=-msgDepth").apply(queues));
+        for (int offset = 0; offset < 200; offset += 45)
+        {
+            List<String> page = names(new ObjectQuery("sort=-msgDepth&offset=" + offset + "&limit=10").apply(queues));
+            assertEquals(sorted.subList(offset, Math.min(offset + 10, 200)), page);
+        }
+    }
+
+    public void testPagingWithoutSort()
+    {
+        ObjectQuery query = new ObjectQuery("offset=1&limit=2");
+        assertEquals(list("a", "e"), names(query.apply(_queues)));
+
+        query = new ObjectQuery("offset=10&limit=2");
+        assertEquals(0, query.apply(_queues).size());
+        assertEquals(5, query.getMatchCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testFields()
+    {
+        ObjectQuery query = new ObjectQuery("fields=name,%20durable&sort=name&limit=2");
+        List<Object> results = query.apply(_queues);
+        assertEquals(2, results.size());
+
+        Map<String, Object> a = (Map<String, Object>)results.get(0);
+        assertEquals("a", a.get("name"));
+        assertEquals("false", a.get("durable"));
+        assertFalse(a.containsKey("msgDepth"));
+        assertTrue(a.containsKey("_object_id"));
+        assertEquals(3l, a.get("_update_ts"));
+        assertEquals(2l, a.get("_create_ts"));
+        assertEquals("queue", ((Map<String, Object>)a.get("_schema_id")).get("_class_name"));
+
+        Map<String, Object> b = (Map<String, Object>)results.get(1);
+        assertEquals("b", b.get("name"));
+        assertFalse(b.containsKey("durable"));
+    }
+
+    public void testIgnoredParameters()
+    {
+        ObjectQuery query = new ObjectQuery("sort=&limit=&bogus=1&noequals&=x");
+        assertEquals(list("c", "a", "e", "b", "d"), names(query.apply(_queues)));
+    }
+
+    public void testBadParameters()
+    {
+        assertInvalid("limit=-1");
+        assertInvalid("limit=ten");
+        assertInvalid("offset=-5");
+        assertInvalid("offset=99999999999");
+        assertInvalid("where=%5B%22gt%22%2C%22msgDepth%22");
+        assertInvalid("where=not%20a%20predicate");
+    }
+}
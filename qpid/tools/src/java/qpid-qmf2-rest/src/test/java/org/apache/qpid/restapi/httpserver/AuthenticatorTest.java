@@ -0,0 +1,163 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.restapi.httpserver;
+
+// Misc Imports
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for Authenticator.
+ * <p>
+ * The PBKDF2 entries use the PBKDF2-HMAC-SHA1 test vectors from RFC 6070, where the password "password" with the
+ * salt "salt" (hex 73616c74) gives 0c60c80f961f0e71f3a9b524af6012062fe037a6 after one iteration and
+ * ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957 after two.
+ *
+ * @author Fraser Adams
+ */
+public class AuthenticatorTest extends TestCase
+{
+    private static final String SALT = "73616c74";
+    private static final String HASH_1 = "0c60c80f961f0e71f3a9b524af6012062fe037a6";
+    private static final String HASH_2 = "ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957";
+
+    private File _directory;
+    private File _file;
+
+    private void writeAccounts(final String... lines) throws IOException
+    {
+        long previous = _file.lastModified();
+        OutputStream os = new FileOutputStream(_file);
+        try
+        {
+            for (String line : lines)
+            {
+                os.write((line + "\n").getBytes("UTF-8"));
+            }
+        }
+        finally
+        {
+            os.close();
+        }
+
+        // Make sure checkAccountFile() sees the change even if the file system's timestamps are coarse.
+        if (previous != 0)
+        {
+            _file.setLastModified(previous + 2000);
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        _directory = Files.createTempDirectory("authenticator").toFile();
+        _file = new File(_directory, "account.properties");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        _file.delete();
+        _directory.delete();
+    }
+
+    public void testPlainTextPassword() throws IOException
+    {
+        writeAccounts("admin=secret");
+        Authenticator authenticator = new Authenticator("test", _directory.getPath());
+        assertTrue(authenticator.checkCredentials("admin", "secret"));
+        assertFalse(authenticator.checkCredentials("admin", "Secret"));
+        assertFalse(authenticator.checkCredentials("admin", ""));
+        assertFalse(authenticator.checkCredentials("guest", "secret"));
+    }
+
+    public void testNonAsciiPlainTextPassword() throws IOException
+    {
+        writeAccounts("admin=p\\u00e4ss");
+        Authenticator authenticator = new Authenticator("test", _directory.getPath());
+        assertTrue(authenticator.checkCredentials("admin", "p\u00e4ss"));
+        assertFalse(authenticator.checkCredentials("admin", "pass"));
+    }
+
+    public void testPbkdf2Password() throws IOException
+    {
+        writeAccounts("one=pbkdf2:1:" + SALT + ":" + HASH_1,
+                      "two=pbkdf2:2:" + SALT + ":" + HASH_2.toUpperCase());
+        Authenticator authenticator = new Authenticator("test", _directory.getPath());
+        assertTrue(authenticator.checkCredentials("one", "password"));
+        assertTrue(authenticator.checkCredentials("two", "password"));
+        assertFalse(authenticator.checkCredentials("one", "passwordx"));
+        assertFalse(authenticator.checkCredentials("two", "Password"));
+
+        // Verified credentials are cached, the cache mustn't accept a different password.
+        assertTrue(authenticator.checkCredentials("one", "password"));
+        assertFalse(authenticator.checkCredentials("one", "wrong"));
+    }
+
+    public void testPbkdf2IterationCountMatters() throws IOException
+    {
+        writeAccounts("user=pbkdf2:2:" + SALT + ":" + HASH_1);
+        Authenticator authenticator = new Authenticator("test", _directory.getPath());
+        assertFalse(authenticator.checkCredentials("user", "password"));
+    }
+
+    public void testInvalidPbkdf2EntriesIgnored() throws IOException
+    {
+        writeAccounts("good=pbkdf2:1:" + SALT + ":" + HASH_1,
+                      "fields=pbkdf2:1:" + SALT,
+                      "trailing=pbkdf2:1:" + SALT + ":",
+                      "nosalt=pbkdf2:1::" + HASH_1,
+                      "zero=pbkdf2:0:" + SALT + ":" + HASH_1,
+                      "negative=pbkdf2:-1:" + SALT + ":" + HASH_1,
+                      "number=pbkdf2:many:" + SALT + ":" + HASH_1,
+                      "odd=pbkdf2:1:" + SALT + "0:" + HASH_1,
+                      "hex=pbkdf2:1:" + SALT + ":" + HASH_1.replace('c', 'x'));
+        Authenticator authenticator = new Authenticator("test", _directory.getPath());
+        assertTrue(authenticator.checkCredentials("good", "password"));
+        for (String username : new String[] {"fields", "trailing", "nosalt", "zero", "negative", "number", "odd",
+                                             "hex"})
+        {
+            assertFalse(username, authenticator.checkCredentials(username, "password"));
+        }
+    }
+
+    public void testReloadDiscardsCachedCredentials() throws IOException
+    {
+        writeAccounts("admin=pbkdf2:1:" + SALT + ":" + HASH_1);
+        Authenticator authenticator = new Authenticator("test", _directory.getPath());
+        assertTrue(authenticator.checkCredentials("admin", "password"));
+
+        writeAccounts("admin=changed");
+        authenticator.checkAccountFile();
+        assertFalse(authenticator.checkCredentials("admin", "password"));
+        assertTrue(authenticator.checkCredentials("admin", "changed"));
+
+        writeAccounts("other=changed");
+        authenticator.checkAccountFile();
+        assertFalse(authenticator.checkCredentials("admin", "changed"));
+    }
+}
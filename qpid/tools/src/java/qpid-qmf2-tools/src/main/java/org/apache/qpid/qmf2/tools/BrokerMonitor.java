@@ -0,0 +1,338 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.tools;
+
+// JMS Imports
+import javax.jms.Connection;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfEventListener;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.WorkItem;
+import org.apache.qpid.qmf2.console.Console;
+import org.apache.qpid.qmf2.util.ConnectionHelper;
+
+/**
+ * BrokerMonitor is a monitoring engine shared by tools such as QueueFuse and QpidPrintEvents that watch several
+ * brokers at once.
+ * <p>
+ * Each monitored broker has its own Console, but rather than each Console delivering WorkItems to the application on
+ * its JMS MessageListener thread, the WorkItems are appended to a per-broker queue and a small fixed pool of worker
+ * threads drains these queues. WorkItems from a given broker are always delivered to the BrokerListener one at a
+ * time and in the order that they were received, so per-broker state needs no further synchronisation, whereas
+ * WorkItems from different brokers are processed concurrently. A worker delivers at most BATCH_SIZE WorkItems from a
+ * broker before moving on, so a busy broker can't starve the others.
+ * <p>
+ * Decoupling the application from the JMS threads also means that a BrokerListener may safely make blocking calls on
+ * the Console, such as getObjects() or invokeMethod(), without delaying the receipt of further events, and the number
+ * of threads running application code is bounded by the size of the pool however many brokers are monitored. Note
+ * that each Console still has its own JMS connection and so its own connection threads.
+ * <p>
+ * Tasks may also be run in a broker's pipeline via Broker.execute(), which is useful for initialising per-broker
+ * state, such as a cache, in order with respect to that broker's events.
+ *
+ * @author Fraser Adams
+ */
+public final class BrokerMonitor
+{
+    /**
+     * The maximum number of WorkItems delivered from one broker before a worker moves on to another broker.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Receives the WorkItems from the monitored brokers.
+     */
+    public interface BrokerListener
+    {
+        /**
+         * Called by a worker thread for each WorkItem received from a broker. Calls for a given broker are never
+         * concurrent and are made in the order that the WorkItems were received.
+         * @param broker the Broker that the WorkItem was received from.
+         * @param wi the QMF2 WorkItem.
+         */
+        public void onEvent(Broker broker, WorkItem wi);
+    }
+
+    /**
+     * A monitored broker, holding its Console and the queue of tasks in its event pipeline.
+     */
+    public final class Broker
+    {
+        private final String _url;
+        private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicBoolean _scheduled = new AtomicBoolean(false);
+        private Console _console;
+
+        /**
+         * Drains this broker's task queue, the scheduled flag ensures only one worker runs this at a time.
+         */
+        private final Runnable _drain = new Runnable()
+        {
+            public void run()
+            {
+                drain();
+            }
+        };
+
+        /**
+         * Construct a Broker.
+         * @param url the broker's connection URL.
+         */
+        private Broker(final String url)
+        {
+            _url = url;
+        }
+
+        /**
+         * Return the broker's connection URL.
+         * @return the broker's connection URL.
+         */
+        public String getUrl()
+        {
+            return _url;
+        }
+
+        /**
+         * Return the broker's Console.
+         * @return the broker's Console.
+         */
+        public Console getConsole()
+        {
+            return _console;
+        }
+
+        /**
+         * Run a task in this broker's event pipeline, after any WorkItems or tasks that are already queued.
+         * @param task the task to run.
+         */
+        public void execute(final Runnable task)
+        {
+            _tasks.add(task);
+            schedule();
+        }
+
+        /**
+         * Queue a WorkItem for delivery to the BrokerListener.
+         * @param wi the QMF2 WorkItem.
+         */
+        private void deliver(final WorkItem wi)
+        {
+            execute(new Runnable()
+            {
+                public void run()
+                {
+                    _listener.onEvent(Broker.this, wi);
+                }
+            });
+        }
+
+        /**
+         * Submit the drain task to the worker pool unless it is already scheduled.
+         */
+        private void schedule()
+        {
+            if (_scheduled.compareAndSet(false, true))
+            {
+                try
+                {
+                    _executor.execute(_drain);
+                }
+                catch (RejectedExecutionException ree)
+                { // The BrokerMonitor has been shut down so just discard the tasks.
+                    _tasks.clear();
+                }
+            }
+        }
+
+        /**
+         * Run up to BATCH_SIZE queued tasks then reschedule if more remain, so other brokers get a turn.
+         */
+        private void drain()
+        {
+            for (int i = 0; i < BATCH_SIZE; i++)
+            {
+                Runnable task = _tasks.poll();
+                if (task == null)
+                {
+                    break;
+                }
+
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException re)
+                { // Don't let a failing task stall the pipeline.
+                    System.err.println("RuntimeException " + re + " caught in BrokerMonitor for broker " + _url);
+                }
+            }
+
+            _scheduled.set(false);
+            if (!_tasks.isEmpty())
+            { // Either we've processed a full batch or a task was queued after we last polled.
+                schedule();
+            }
+        }
+    }
+
+    private final BrokerListener _listener;
+    private final ExecutorService _executor;
+    private final List<Broker> _brokers = new CopyOnWriteArrayList<Broker>();
+
+    /**
+     * Construct a BrokerMonitor with a worker pool sized by the number of available processors.
+     * @param listener the BrokerListener that WorkItems from the monitored brokers are delivered to.
+     */
+    public BrokerMonitor(final BrokerListener listener)
+    {
+        this(listener, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a BrokerMonitor.
+     * @param listener the BrokerListener that WorkItems from the monitored brokers are delivered to.
+     * @param threads the number of worker threads.
+     */
+    public BrokerMonitor(final BrokerListener listener, final int threads)
+    {
+        _listener = listener;
+        _executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+        {
+            private final AtomicInteger _count = new AtomicInteger();
+
+            public Thread newThread(final Runnable r)
+            {
+                Thread thread = new Thread(r, "BrokerMonitor worker " + _count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Connect to a broker and start monitoring it.
+     * @param url the broker's connection URL.
+     * @param connectionOptions the options String to pass to ConnectionHelper.
+     * @return the Broker.
+     */
+    public Broker addBroker(final String url, final String connectionOptions) throws QmfException
+    {
+        final Broker broker = new Broker(url);
+        Connection connection = ConnectionHelper.createConnection(url, connectionOptions);
+        if (connection == null)
+        {
+            throw new QmfException("Failed to create connection to " + url);
+        }
+
+        Console console = new Console(new QmfEventListener()
+        {
+            public void onEvent(final WorkItem wi)
+            {
+                broker.deliver(wi);
+            }
+        });
+        broker._console = console;
+        console.addConnection(connection);
+        _brokers.add(broker);
+        return broker;
+    }
+
+    /**
+     * Connect to several brokers concurrently, using the worker pool, and start monitoring them. Failures are
+     * reported and the brokers concerned are omitted from the returned List.
+     * @param urls the brokers' connection URLs.
+     * @param connectionOptions the options String to pass to ConnectionHelper.
+     * @return the List of Brokers successfully connected to.
+     */
+    public List<Broker> addBrokers(final List<String> urls, final String connectionOptions)
+    {
+        List<Future<Broker>> futures = new ArrayList<Future<Broker>>(urls.size());
+        for (final String url : urls)
+        {
+            futures.add(_executor.submit(new Callable<Broker>()
+            {
+                public Broker call() throws QmfException
+                {
+                    return addBroker(url, connectionOptions);
+                }
+            }));
+        }
+
+        List<Broker> brokers = new ArrayList<Broker>(urls.size());
+        for (int i = 0; i < futures.size(); i++)
+        {
+            try
+            {
+                brokers.add(futures.get(i).get());
+            }
+            catch (ExecutionException ee)
+            {
+                System.err.println("Exception " + ee.getCause().getMessage() + " caught connecting to " + urls.get(i));
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return brokers;
+    }
+
+    /**
+     * Return the Brokers being monitored.
+     * @return the Brokers being monitored.
+     */
+    public List<Broker> getBrokers()
+    {
+        return Collections.unmodifiableList(_brokers);
+    }
+
+    /**
+     * Stop monitoring, destroying the brokers' Consoles and shutting down the worker pool.
+     */
+    public void shutdown()
+    {
+        for (Broker broker : _brokers)
+        {
+            broker.getConsole().destroy();
+        }
+        _brokers.clear();
+        _executor.shutdown();
+    }
+}
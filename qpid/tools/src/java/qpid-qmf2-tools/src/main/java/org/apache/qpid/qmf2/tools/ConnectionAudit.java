@@ -30,8 +30,12 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,7 +45,6 @@ import org.w3c.dom.*;
 import javax.xml.parsers.*;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfEvent;
 import org.apache.qpid.qmf2.common.QmfEventListener;
 import org.apache.qpid.qmf2.common.QmfException;
@@ -50,7 +53,9 @@ import org.apache.qpid.qmf2.console.Agent;
 import org.apache.qpid.qmf2.console.AgentRestartedWorkItem;
 import org.apache.qpid.qmf2.console.Console;
 import org.apache.qpid.qmf2.console.EventReceivedWorkItem;
+import org.apache.qpid.qmf2.console.ObjectMirror;
 import org.apache.qpid.qmf2.console.QmfConsoleData;
+import org.apache.qpid.qmf2.console.ReferenceIndex;
 import org.apache.qpid.qmf2.util.ConnectionHelper;
 import org.apache.qpid.qmf2.util.GetOpt;
 
@@ -139,14 +144,55 @@ public final class ConnectionAudit implements QmfEventListener
     "                        default is ./whitelist.xml\n";
 
 
+    private static final String BROKER_PACKAGE = "org.apache.qpid.broker";
+
+    /**
+     * The whitelist file is checked for changes at most once per WHITELIST_CHECK_PERIOD milliseconds rather than
+     * on every subscribe event.
+     */
+    private static final long WHITELIST_CHECK_PERIOD = 1000;
+
     private final String _url;
     private final String _whitelist;
     private long _whitelistLastModified = 0;
+    private long _whitelistLastChecked = 0;
     private Console _console;
+    private ObjectMirror _mirror;
+
+    // The sets to be used as the whitelists. These are rebuilt and replaced as a whole when the whitelist changes.
+    private volatile Set<String> _exchangeWhitelist = Collections.emptySet();
+    private volatile Set<String> _queueWhitelist = Collections.emptySet();
 
-    // The sets to be used as the whitelists.
-    private Set<String> _exchangeWhitelist = new HashSet<String>();
-    private Set<String> _queueWhitelist = new HashSet<String>();
+    /**
+     * The broker topology used to validate subscriptions, mapping each queue name to the bindings of that queue.
+     * It is built from a snapshot of the broker's queues and bindings and then kept current by the queueDeclare,
+     * queueDelete, bind, unbind and exchangeDelete events, so validating a subscription requires no round trips to
+     * the broker. All access is synchronized on the ConnectionAudit instance.
+     */
+    private Map<String, List<Binding>> _topology = new HashMap<String, List<Binding>>();
+
+    /**
+     * Describes a binding of a queue to an exchange.
+     */
+    private static final class Binding
+    {
+        private final String _exchangeName;
+        private final String _bindingKey;
+        private final Map _arguments;
+
+        /**
+         * Construct a Binding.
+         * @param exchangeName the name of the exchange that the queue is bound to.
+         * @param bindingKey the binding key.
+         * @param arguments the binding arguments, null is treated as an empty Map.
+         */
+        public Binding(final String exchangeName, final String bindingKey, final Map arguments)
+        {
+            _exchangeName = exchangeName;
+            _bindingKey = bindingKey;
+            _arguments = (arguments == null) ? Collections.EMPTY_MAP : arguments;
+        }
+    }
 
     /**
      * Basic constructor. Creates JMS Session, Initialises Destinations, Producers &amp; Consumers and starts connection.
@@ -164,6 +210,9 @@ public final class ConnectionAudit implements QmfEventListener
             Connection connection = ConnectionHelper.createConnection(url, connectionOptions);        
             _console = new Console(this);
             _console.addConnection(connection);
+
+            // Mirror the broker's objects so that the snapshots used to (re)build the topology are taken locally.
+            _mirror = _console.enableObjectMirror(_console.getAgent("broker"));
             checkExistingSubscriptions();
         }
         catch (QmfException qmfe)
@@ -173,52 +222,185 @@ public final class ConnectionAudit implements QmfEventListener
     }
 
     /**
-     * When we start up we need to check any subscriptions that already exist against the whitelist.
-     * Subsequent checks are made only when we receive new subscribe events.
+     * When we start up we need to build the topology and check any subscriptions that already exist against the
+     * whitelist. Subsequent checks are made only when we receive new subscribe events.
      */
-    private void checkExistingSubscriptions()
+    private synchronized void checkExistingSubscriptions()
     {
         readWhitelist();
-        List<QmfConsoleData> subscriptions = _console.getObjects("org.apache.qpid.broker", "subscription");
-        for (QmfConsoleData subscription : subscriptions)
+        buildTopology();
+
+        ReferenceIndex index = new ReferenceIndex(_console.getObjects(BROKER_PACKAGE, "subscription"));
+        index.addAll(_console.getObjects(BROKER_PACKAGE, "queue"));
+        index.addAll(_console.getObjects(BROKER_PACKAGE, "session"));
+        index.addAll(_console.getObjects(BROKER_PACKAGE, "connection"));
+        for (QmfConsoleData subscription : index.getObjects("subscription"))
+        {
+            QmfConsoleData queue = index.dereference(subscription, "queueRef");
+            QmfConsoleData session = index.dereference(subscription, "sessionRef");
+            QmfConsoleData connection = (session == null) ? null : index.dereference(session, "connectionRef");
+            if (queue != null && connection != null)
+            {
+                String queueName = queue.getStringValue("name");
+                String address = connection.getStringValue("address");
+                String timestamp = new Date(subscription.getCreateTime()/1000000l).toString();
+                validateQueue(queueName, address, timestamp);
+            }
+        }
+    }
+
+    /**
+     * Builds the topology, the Map of queue name to bindings, from a snapshot of the broker's queues, bindings
+     * and exchanges.
+     */
+    private synchronized void buildTopology()
+    {
+        Map<String, List<Binding>> topology = new HashMap<String, List<Binding>>();
+        List<QmfConsoleData> queues = _console.getObjects(BROKER_PACKAGE, "queue");
+        for (QmfConsoleData queue : queues)
+        {
+            topology.put(queue.getStringValue("name"), new ArrayList<Binding>());
+        }
+
+        ReferenceIndex index = new ReferenceIndex(queues);
+        index.addAll(_console.getObjects(BROKER_PACKAGE, "exchange"));
+        for (QmfConsoleData binding : _console.getObjects(BROKER_PACKAGE, "binding"))
+        {
+            QmfConsoleData queue = index.dereference(binding, "queueRef");
+            QmfConsoleData exchange = index.dereference(binding, "exchangeRef");
+            if (queue != null && exchange != null)
+            {
+                List<Binding> bindings = topology.get(queue.getStringValue("name"));
+                bindings.add(new Binding(exchange.getStringValue("name"), binding.getStringValue("bindingKey"),
+                                         (Map)binding.getValue("arguments")));
+            }
+        }
+        _topology = topology;
+    }
+
+    /**
+     * Rebuilds the topology after first refreshing the mirrored queues and bindings from the broker. Agents only
+     * push updates periodically, so without the refresh the rebuilt topology could be as stale as the one it replaces.
+     */
+    private synchronized void refreshTopology()
+    {
+        if (_mirror != null)
+        {
+            try
+            {
+                _console.refreshObjectMirror(_mirror.getAgent(), BROKER_PACKAGE, "queue");
+                _console.refreshObjectMirror(_mirror.getAgent(), BROKER_PACKAGE, "binding");
+            }
+            catch (QmfException qmfe)
+            {
+                System.err.println("QmfException " + qmfe.getMessage() +
+                                   " caught in ConnectionAudit.refreshTopology()");
+            }
+        }
+        buildTopology();
+    }
+
+    /**
+     * Updates the topology from a queueDeclare, queueDelete, bind, unbind or exchangeDelete event. The updates
+     * are idempotent as an event may already be reflected in the snapshot that the topology was built from.
+     * @param className the event class name.
+     * @param event the QmfEvent.
+     */
+    private synchronized void updateTopology(final String className, final QmfEvent event)
+    {
+        if (className.equals("queueDeclare"))
+        {
+            String queueName = event.getStringValue("qName");
+            if (!_topology.containsKey(queueName))
+            { // New queues are implicitly bound to the default exchange using the queue name as the binding key.
+                List<Binding> bindings = new ArrayList<Binding>();
+                bindings.add(new Binding("", queueName, null));
+                _topology.put(queueName, bindings);
+            }
+        }
+        else if (className.equals("queueDelete"))
+        {
+            _topology.remove(event.getStringValue("qName"));
+        }
+        else if (className.equals("bind") || className.equals("unbind"))
+        {
+            List<Binding> bindings = _topology.get(event.getStringValue("qName"));
+            if (bindings != null)
+            {
+                String exchangeName = event.getStringValue("exName");
+                String bindingKey = event.getStringValue("key");
+                removeBinding(bindings, exchangeName, bindingKey);
+                if (className.equals("bind"))
+                {
+                    bindings.add(new Binding(exchangeName, bindingKey, (Map)event.getValue("args")));
+                }
+            }
+        }
+        else if (className.equals("exchangeDelete"))
+        { // Deleting an exchange implicitly removes its bindings.
+            String exchangeName = event.getStringValue("exName");
+            for (List<Binding> bindings : _topology.values())
+            {
+                removeBinding(bindings, exchangeName, null);
+            }
+        }
+    }
+
+    /**
+     * Handles an eventBurstSummary event, raised by a broker that rate limits its events in place of the events of
+     * a class that it suppressed. The suppressed events can't be replayed, so if they were subscribe events all the
+     * existing subscriptions are revalidated and if they were events used to maintain the topology it is refreshed.
+     * @param eventClass the class name of the suppressed events.
+     */
+    private synchronized void handleEventBurst(final String eventClass)
+    {
+        if (eventClass == null)
+        {
+            return;
+        }
+
+        if (eventClass.equals("subscribe"))
+        {
+            checkExistingSubscriptions();
+        }
+        else if (eventClass.equals("queueDeclare") || eventClass.equals("queueDelete") ||
+                 eventClass.equals("bind") || eventClass.equals("unbind") || eventClass.equals("exchangeDelete"))
         {
-            QmfConsoleData queue = dereference(subscription.getRefValue("queueRef"));
-            QmfConsoleData session = dereference(subscription.getRefValue("sessionRef"));
-            QmfConsoleData connection = dereference(session.getRefValue("connectionRef"));
-            
-            String queueName = queue.getStringValue("name");
-            String address = connection.getStringValue("address");
-            String timestamp = new Date(subscription.getCreateTime()/1000000l).toString();
-            validateQueue(queueName, address, timestamp);
+            refreshTopology();
         }
     }
 
     /**
-     * Dereferences an ObjectId returning a QmfConsoleData.
-     * @param ref the ObjectId to be dereferenced.
-     * @return the dereferenced QmfConsoleData object or null if the object can't be found.
+     * Removes the bindings matching the specified exchange name and binding key from a List of bindings.
+     * @param bindings the List of bindings.
+     * @param exchangeName the exchange name to match.
+     * @param bindingKey the binding key to match, if null all bindings to the exchange are removed.
      */
-    private QmfConsoleData dereference(final ObjectId ref)
+    private void removeBinding(final List<Binding> bindings, final String exchangeName, final String bindingKey)
     {
-        List<QmfConsoleData> data = _console.getObjects(ref);
-        if (data.size() == 1)
+        Iterator<Binding> i = bindings.iterator();
+        while (i.hasNext())
         {
-            return data.get(0);
+            Binding binding = i.next();
+            if (binding._exchangeName.equals(exchangeName) &&
+                (bindingKey == null || binding._bindingKey.equals(bindingKey)))
+            {
+                i.remove();
+            }
         }
-        return null;
     }
 
     /**
-     * Looks up the exchange and binding information from the supplied queuename then calls the main validateQueue()
+     * Checks a binding against the whitelists and raises an alert if neither the exchange nor the queue is whitelisted.
      * @param queueName the name of the queue that we want to check against the whitelists.
-     * @param exchangeName the name of the exchange that the queue we want to check against the whitelists is bound to.
-     * @param binding the binding associating queue "queueName" with exchange "exchangeName".
+     * @param binding the binding associating queue "queueName" with an exchange.
      * @param address the connection address information for the subscription.
      * @param timestamp the timestamp of the subscription.
      */
-    private void validateQueue(final String queueName, String exchangeName, final QmfConsoleData binding,
+    private void validateQueue(final String queueName, final Binding binding,
                                final String address, final String timestamp)
     {
+        String exchangeName = binding._exchangeName;
         if (_exchangeWhitelist.contains(exchangeName))
         { // Check exchangeName against the exchangeWhitelist and if it's in there we simply return.
             return;
@@ -234,8 +416,8 @@ public final class ConnectionAudit implements QmfEventListener
             exchangeName = "''";
         }
 
-        String bindingKey = binding.getStringValue("bindingKey");
-        Map arguments = (Map)binding.getValue("arguments");
+        String bindingKey = binding._bindingKey;
+        Map arguments = binding._arguments;
         if (arguments.isEmpty())
         {
             System.out.printf("%s ALERT ConnectionAudit.validateQueue() validation failed for queue: %s with binding[%s] => %s from address: %s with connection timestamp %s\n\n", new Date().toString(), queueName, bindingKey, exchangeName, address, timestamp);
@@ -247,41 +429,30 @@ public final class ConnectionAudit implements QmfEventListener
     }
 
     /**
-     * Looks up the exchange and binding information from the supplied queuename then calls the main validateQueue()
+     * Looks up the bindings of the supplied queuename in the topology then calls the main validateQueue() for each.
      * @param queueName the name of the queue that we want to check against the whitelists.
      * @param address the connection address information for the subscription.
      * @param timestamp the timestamp of the subscription.
      */
-    private void validateQueue(final String queueName, final String address, final String timestamp)
+    private synchronized void validateQueue(final String queueName, final String address, final String timestamp)
     {
-        ObjectId queueId = null;
-        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
-        for (QmfConsoleData queue : queues)
-        { // We first have to find the ObjectId of the queue called queueName.
-            if (queue.getStringValue("name").equals(queueName))
-            {
-                queueId = queue.getObjectId();
-                break;
-            }
+        List<Binding> bindings = _topology.get(queueName);
+        if (bindings == null)
+        { // The topology should be current, but if we've somehow missed an event refresh it and try again.
+            refreshTopology();
+            bindings = _topology.get(queueName);
         }
 
-        if (queueId == null)
+        if (bindings == null)
         {
             System.out.printf("%s ERROR ConnectionAudit.validateQueue() %s reference couldn't be found\n",
                               new Date().toString(), queueName);
         }
         else
-        { // If we've got the queue's ObjectId we then find the binding that references it.
-            List<QmfConsoleData> bindings = _console.getObjects("org.apache.qpid.broker", "binding");
-            for (QmfConsoleData binding : bindings)
+        {
+            for (Binding binding : bindings)
             {
-                ObjectId queueRef = binding.getRefValue("queueRef");
-                if (queueRef.equals(queueId))
-                { // We've found a binding that matches queue queueName so look up the associated exchange and validate.
-                    QmfConsoleData exchange = dereference(binding.getRefValue("exchangeRef"));
-                    String exchangeName = exchange.getStringValue("name");
-                    validateQueue(queueName, exchangeName, binding, address, timestamp);
-                }
+                validateQueue(queueName, binding, address, timestamp);
             }
         }
     }
@@ -290,11 +461,15 @@ public final class ConnectionAudit implements QmfEventListener
      * Handles WorkItems delivered by the Console.
      * <p>
      * If we receive an EventReceivedWorkItem check if it is a subscribe event. If it is we check if the whitelist has 
-     * changed, and if it has we re-read it. We then extract the queue name, exchange name, binding, connection address
-     * and timestamp and validate with the whitelsist.
+     * changed, and if it has we re-read it. We then look up the bindings of the queue in the topology and validate
+     * them, along with the connection address and timestamp, against the whitelist. The queueDeclare, queueDelete,
+     * bind, unbind and exchangeDelete events are used to keep the topology current. If the broker reports via an
+     * eventBurstSummary event that it suppressed a burst of any of these events the topology is refreshed instead,
+     * and if it suppressed subscribe events all existing subscriptions are revalidated.
      * <p>
-     * If we receive an AgentRestartedWorkItem we revalidate all subscriptions as it's possible that a client connection
-     * could have been made to the broker before ConnectionAudit has successfully re-established its own connections.
+     * If we receive an AgentRestartedWorkItem we rebuild the topology and revalidate all subscriptions as it's
+     * possible that a client connection could have been made to the broker before ConnectionAudit has successfully
+     * re-established its own connections.
      * @param wi a QMF2 WorkItem object
      */
     public void onEvent(final WorkItem wi)
@@ -312,6 +487,14 @@ public final class ConnectionAudit implements QmfEventListener
                 String timestamp = new Date(event.getTimestamp()/1000000l).toString();
                 validateQueue(queueName, address, timestamp);
             }
+            else if (className.equals("eventBurstSummary"))
+            {
+                handleEventBurst(event.getStringValue("eventClass"));
+            }
+            else
+            {
+                updateTopology(className, event);
+            }
         }
         else if (wi instanceof AgentRestartedWorkItem)
         {
@@ -323,11 +506,20 @@ public final class ConnectionAudit implements QmfEventListener
      * This method first checks if the whitelist file exists, if not it clears the sets used as whitelists
      * so that no whitelisting is applied. If the whitelist file does exist it is parsed by a DOM parser.
      * <p>
-     * We look for all exchange and queue elements and populate the respective whitelist sets with their
-     * contents. Note that we check the whitelist file update time to avoid reading it if it hasn't been changed
+     * We look for all exchange and queue elements and populate new whitelist sets with their contents, which
+     * replace the current sets once the whole file has been parsed successfully. Note that we check the whitelist
+     * file update time to avoid reading it if it hasn't been changed, and only check that at most once every
+     * WHITELIST_CHECK_PERIOD milliseconds.
      */
-    private void readWhitelist()
+    private synchronized void readWhitelist()
     {
+        long now = System.currentTimeMillis();
+        if (now - _whitelistLastChecked < WHITELIST_CHECK_PERIOD && now >= _whitelistLastChecked)
+        {
+            return;
+        }
+        _whitelistLastChecked = now;
+
         File file = new File(_whitelist);
         if (file.exists())
         {
@@ -335,8 +527,8 @@ public final class ConnectionAudit implements QmfEventListener
             if (mtime != _whitelistLastModified)
             {
                 _whitelistLastModified = mtime;
-                _exchangeWhitelist.clear();
-                _queueWhitelist.clear();
+                Set<String> exchangeWhitelist = new HashSet<String>();
+                Set<String> queueWhitelist = new HashSet<String>();
 
                 try
                 {
@@ -362,11 +554,11 @@ public final class ConnectionAudit implements QmfEventListener
                                         if (node.hasChildNodes())
                                         {
                                             String exchange = node.getFirstChild().getNodeValue();
-                                            _exchangeWhitelist.add(exchange);
+                                            exchangeWhitelist.add(exchange);
                                         }
                                         else
                                         {
-                                            _exchangeWhitelist.add("");
+                                            exchangeWhitelist.add("");
                                         }
                                     }
                                 }
@@ -382,13 +574,15 @@ public final class ConnectionAudit implements QmfEventListener
                                         if (node.hasChildNodes())
                                         {
                                             String queue = node.getFirstChild().getNodeValue();
-                                            _queueWhitelist.add(queue);
+                                            queueWhitelist.add(queue);
                                         }
                                     }
                                 }
                             }
                         }
                     }
+                    _exchangeWhitelist = Collections.unmodifiableSet(exchangeWhitelist);
+                    _queueWhitelist = Collections.unmodifiableSet(queueWhitelist);
                 }
                 catch (Exception e)
                 { // Failed to parse correctly.
@@ -403,8 +597,9 @@ public final class ConnectionAudit implements QmfEventListener
         { // If whitelist file doesn't exist log a warning and clear the whitelists.
             System.out.println(new Date().toString() + " WARN ConnectionAudit.readWhitelist() " + 
                                _whitelist + " doesn't exist");
-            _exchangeWhitelist.clear();
-            _queueWhitelist.clear();
+            _whitelistLastModified = 0;
+            _exchangeWhitelist = Collections.emptySet();
+            _queueWhitelist = Collections.emptySet();
         }
     } // End of readWhitelist()
 
@@ -27,6 +27,7 @@ import javax.jms.Connection;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -43,6 +44,7 @@ import org.apache.qpid.qmf2.console.AgentRestartedWorkItem;
 import org.apache.qpid.qmf2.console.Console;
 import org.apache.qpid.qmf2.console.EventReceivedWorkItem;
 import org.apache.qpid.qmf2.console.QmfConsoleData;
+import org.apache.qpid.qmf2.console.ReferenceIndex;
 import org.apache.qpid.qmf2.util.ConnectionHelper;
 import org.apache.qpid.qmf2.util.GetOpt;
 
@@ -124,80 +126,50 @@ public final class ConnectionLogger implements QmfEventListener
         }
     }
 
-    /**
-     * Finds a QmfConsoleData in a List of QMF Objects that matches a given ObjectID
-     *
-     * More or less a direct Java port of findById from qpid-config
-     *
-     * @param items the List of QMF Objects to search
-     * @param id the ObjectId we're searching the List for
-     * @return return the found object as a QmfConsoleData else return null
-     */
-    private QmfConsoleData findById(final List<QmfConsoleData> items, final ObjectId id)
-    {
-        for (QmfConsoleData item : items)
-        {
-            if (item.getObjectId().equals(id))
-            {
-                return item;
-            }
-        }
-
-        return null;
-    }
-
     /**
      * For every queue list the bindings (equivalent of qpid-config -b queues)
      *
      * More or less a direct Java port of QueueListRecurse in qpid-config, which handles qpid-config -b queues
      *
+     * @param index a ReferenceIndex containing the queue, binding and exchange objects.
      * @param ref If ref is null list info about all queues else list info about queue referenced by ObjectID
      */
-    private void logQueueInformation(final ObjectId ref)
+    private void logQueueInformation(final ReferenceIndex index, final ObjectId ref)
     {
-        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
-        List<QmfConsoleData> bindings = _console.getObjects("org.apache.qpid.broker", "binding");
-        List<QmfConsoleData> exchanges = _console.getObjects("org.apache.qpid.broker", "exchange");
+        List<QmfConsoleData> queues = (ref == null) ? index.getObjects("queue") :
+                                      Collections.singletonList(index.get(ref));
 
         for (QmfConsoleData queue : queues)
         {
-            ObjectId queueId = queue.getObjectId();
-
-            if (ref == null || ref.equals(queueId))
+            if (queue != null)
             {
                 System.out.printf("    Queue '%s'\n", queue.getStringValue("name"));
                 System.out.println("        arguments " + (Map)queue.getValue("arguments"));
 
-                for (QmfConsoleData binding : bindings)
+                for (QmfConsoleData binding : index.getReferrers("binding", "queueRef", queue.getObjectId()))
                 {
-                    ObjectId queueRef = binding.getRefValue("queueRef");
+                    QmfConsoleData exchange = index.dereference(binding, "exchangeRef");
 
-                    if (queueRef.equals(queueId))
+                    String exchangeName = "<unknown>";
+                    if (exchange != null)
                     {
-                        ObjectId exchangeRef = binding.getRefValue("exchangeRef");
-                        QmfConsoleData exchange = findById(exchanges, exchangeRef);
-
-                        String exchangeName = "<unknown>";
-                        if (exchange != null)
+                        exchangeName = exchange.getStringValue("name");
+                        if (exchangeName.equals(""))
                         {
-                            exchangeName = exchange.getStringValue("name");
-                            if (exchangeName.equals(""))
-                            {
-                                exchangeName = "''";
-                            }
+                            exchangeName = "''";
                         }
+                    }
 
-                        String bindingKey = binding.getStringValue("bindingKey");
-                        Map arguments = (Map)binding.getValue("arguments");
-                        if (arguments.isEmpty())
-                        {
-                            System.out.printf("        bind [%s] => %s\n", bindingKey, exchangeName);
-                        }
-                        else
-                        {
-                            // If there are binding arguments then it's a headers exchange
-                            System.out.printf("        bind [%s] => %s %s\n", bindingKey, exchangeName, arguments);
-                        }
+                    String bindingKey = binding.getStringValue("bindingKey");
+                    Map arguments = (Map)binding.getValue("arguments");
+                    if (arguments.isEmpty())
+                    {
+                        System.out.printf("        bind [%s] => %s\n", bindingKey, exchangeName);
+                    }
+                    else
+                    {
+                        // If there are binding arguments then it's a headers exchange
+                        System.out.printf("        bind [%s] => %s %s\n", bindingKey, exchangeName, arguments);
                     }
                 }
             }
@@ -207,18 +179,25 @@ public final class ConnectionLogger implements QmfEventListener
     /**
      * Logs audit information about each connection made to the broker
      *
-     * Obtains connection, session and subscription objects and iterates in turn through these comparing
-     * references to find the subscriptions association with sessions and sessions associated with
-     * connections. Ultimately it then uses logQueueInformation to display the queues associated with
-     * each subscription.
+     * Obtains connection, session and subscription objects and adds them to a ReferenceIndex so that the
+     * subscriptions associated with each session and the sessions associated with each connection may be looked
+     * up directly rather than by iterating through every object. Ultimately it then uses logQueueInformation to
+     * display the queues associated with each subscription.
      */
     private void logConnectionInformation()
     {
         System.out.println("\n\n**** ConnectionLogger: Logging current connection information ****");
 
         List<QmfConsoleData> connections = _console.getObjects("org.apache.qpid.broker", "connection");
-        List<QmfConsoleData> sessions = _console.getObjects("org.apache.qpid.broker", "session");
-        List<QmfConsoleData> subscriptions = _console.getObjects("org.apache.qpid.broker", "subscription");
+        ReferenceIndex index = new ReferenceIndex(connections);
+        index.addAll(_console.getObjects("org.apache.qpid.broker", "session"));
+        index.addAll(_console.getObjects("org.apache.qpid.broker", "subscription"));
+        if (_logQueues)
+        {
+            index.addAll(_console.getObjects("org.apache.qpid.broker", "queue"));
+            index.addAll(_console.getObjects("org.apache.qpid.broker", "binding"));
+            index.addAll(_console.getObjects("org.apache.qpid.broker", "exchange"));
+        }
 
         for (QmfConsoleData connection : connections)
         {
@@ -233,32 +212,23 @@ public final class ConnectionLogger implements QmfEventListener
             System.out.println("createTimestamp: " + new Date(connection.getCreateTime()/1000000l));
 
             ObjectId connectionId = connection.getObjectId();
-            for (QmfConsoleData session : sessions)
-            { // Iterate through all session objects
-                ObjectId connectionRef = session.getRefValue("connectionRef");
-                if (connectionRef.equals(connectionId))
-                { // But only select sessions that are associated with the connection under consideration.
-                    System.out.printf("Session '%s'\n", session.getStringValue("name"));
-                    int subscriptionCount = 0;
-                    ObjectId sessionId = session.getObjectId();
-                    for (QmfConsoleData subscription : subscriptions)
-                    { // Iterate through all subscription objects
-                        ObjectId sessionRef = subscription.getRefValue("sessionRef");
-                        if (sessionRef.equals(sessionId))
-                        { // But only select subscriptions that are associated with the session under consideration.
-                            subscriptionCount++;
-                            ObjectId queueRef = subscription.getRefValue("queueRef");
-                            if (_logQueues)
-                            {
-                                logQueueInformation(queueRef);
-                            }
-                        }
-                    }
-                    if (subscriptionCount == 0)
+            for (QmfConsoleData session : index.getReferrers("session", "connectionRef", connectionId))
+            { // Only select sessions that are associated with the connection under consideration.
+                System.out.printf("Session '%s'\n", session.getStringValue("name"));
+                ObjectId sessionId = session.getObjectId();
+                List<QmfConsoleData> subscriptions = index.getReferrers("subscription", "sessionRef", sessionId);
+                for (QmfConsoleData subscription : subscriptions)
+                { // Only select subscriptions that are associated with the session under consideration.
+                    ObjectId queueRef = subscription.getRefValue("queueRef");
+                    if (_logQueues)
                     {
-                        System.out.println("    ** No Subscriptions for this Session - probably a producer only Session **");
+                        logQueueInformation(index, queueRef);
                     }
                 }
+                if (subscriptions.size() == 0)
+                {
+                    System.out.println("    ** No Subscriptions for this Session - probably a producer only Session **");
+                }
             }
         }
     }
@@ -27,10 +27,12 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
 
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Arrays;
@@ -38,14 +40,23 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.common.QmfEventListener;
 import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.console.Console;
+import org.apache.qpid.qmf2.console.MethodResponseWorkItem;
+import org.apache.qpid.qmf2.console.MethodResult;
 import org.apache.qpid.qmf2.console.QmfConsoleData;
+import org.apache.qpid.qmf2.console.ReferenceIndex;
 import org.apache.qpid.qmf2.util.ConnectionHelper;
 import org.apache.qpid.qmf2.util.GetOpt;
 
@@ -60,6 +71,16 @@ import org.apache.qpid.qmf2.util.GetOpt;
  * <p>
  * N.B. "create" and "delete" broker ManagementAgent methods were added in Qpid version 0.10, unfortunately these
  * calls won't work for earlier versions of Qpid.
+ * <p>
+ * QpidConfig also has a batch mode, selected with --batch, that reads commands from a file (or stdin) one per line,
+ * each line taking the same form as the QpidConfig command line, for example "add queue q1 --durable". Blank lines
+ * and lines beginning with # are ignored and options given on the command line apply to every line. A single
+ * Console is used for the whole batch and the create and delete method invocations are pipelined, in other words
+ * up to --concurrency invocations are sent to the broker before waiting for their responses, so provisioning
+ * thousands of objects isn't dominated by connection setup and round trips. The broker processes the requests in
+ * order, so for example a binding may refer to a queue added earlier in the batch. Any failures are reported once
+ * all of the commands have completed and the exit status is non zero if any command failed. If the broker stops
+ * responding the remaining commands are not executed and are reported as failures.
  * <pre>
  * Usage:  qpid-config [OPTIONS]
  *         qpid-config [OPTIONS] exchanges [filter-string]
@@ -72,6 +93,7 @@ import org.apache.qpid.qmf2.util.GetOpt;
  *                   &lt;for type xml&gt;     [-f -|filename]
  *                   &lt;for type header&gt;  [all|any] k1=v1 [, k2=v2...]
  *         qpid-config [OPTIONS] unbind &lt;exchange-name&gt; &lt;queue-name&gt; [binding-key]
+ *         qpid-config [OPTIONS] --batch=&lt;file&gt;
  * 
  * ADDRESS syntax:
  * 
@@ -125,6 +147,12 @@ import org.apache.qpid.qmf2.util.GetOpt;
  *                         automatically picks the most secure available
  *                         mechanism - use this option to override.
  * 
+ *   Batch Options:
+ *     --batch=&lt;file&gt;      Read commands, one per line, from a file (- reads
+ *                         them from stdin) and run them using one connection
+ *     --concurrency=&lt;n&gt;   Maximum number of outstanding method invocations in
+ *                         batch mode (default = 64)
+ * 
  *   Options for Adding Exchanges and Queues:
  *     --alternate-exchange=&lt;aexname&gt;
  *                         Name of the alternate-exchange for the new queue or
@@ -187,7 +215,7 @@ import org.apache.qpid.qmf2.util.GetOpt;
  * </pre>
  * @author Fraser Adams
  */
-public final class QpidConfig
+public final class QpidConfig implements QmfEventListener
 {
     private static final String _usage =
     "Usage:  qpid-config [OPTIONS]\n" +
@@ -200,7 +228,8 @@ public final class QpidConfig
     "        qpid-config [OPTIONS] bind   <exchange-name> <queue-name> [binding-key]\n" +
     "                  <for type xml>     [-f -|filename]\n" +
     "                  <for type header>  [all|any] k1=v1 [, k2=v2...]\n" +
-    "        qpid-config [OPTIONS] unbind <exchange-name> <queue-name> [binding-key]\n";
+    "        qpid-config [OPTIONS] unbind <exchange-name> <queue-name> [binding-key]\n" +
+    "        qpid-config [OPTIONS] --batch=<file>\n";
 
     private static final String _description =
     "ADDRESS syntax:\n" +
@@ -256,6 +285,12 @@ public final class QpidConfig
     "                        automatically picks the most secure available\n" +
     "                        mechanism - use this option to override.\n" +
     "\n" +
+    "  Batch Options:\n" +
+    "    --batch=<file>      Read commands, one per line, from a file (- reads\n" +
+    "                        them from stdin) and run them using one connection\n" +
+    "    --concurrency=<n>   Maximum number of outstanding method invocations in\n" +
+    "                        batch mode (default = 64)\n" +
+    "\n" +
     "  Options for Adding Exchanges and Queues:\n" +
     "    --alternate-exchange=<aexname>\n" +
     "                        Name of the alternate-exchange for the new queue or\n" +
@@ -344,6 +379,29 @@ public final class QpidConfig
     private long _flowResumeSize = 0;
     private List<String> extraArguments = new ArrayList<String>();
 
+    private static final String[] _longOpts = {"help", "durable", "bindings", "broker-addr=", "file-count=",
+                             "file-size=", "max-queue-size=", "max-queue-count=", "limit-policy=",
+                             "order=", "sequence", "ive", "force", "force-if-not-empty",
+                             "force-if-used", "alternate-exchange=", "passive", "timeout=", "file=", "flow-stop-size=",
+                             "flow-resume-size=", "flow-stop-count=", "flow-resume-count=", "argument=",
+                             "batch=", "concurrency="};
+
+    // Batch mode state
+    private static final int BATCH_TIMEOUT = 60; // Seconds to wait for a method response in batch mode.
+    private String _batchFile = null;
+    private int _concurrency = 64;
+    private boolean _batchMode = false;
+    private Semaphore _permits;
+    private int _lineNumber = 0;
+    private String _command;
+    private final Map<String, String> _pending = new ConcurrentHashMap<String, String>();
+    private final List<String> _failures = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> _batchErrors = new ArrayList<String>(); // Errors not associated with a command.
+    private final AtomicInteger _succeeded = new AtomicInteger();
+    private Map<String, String> _exchangeTypes = null;
+    private Map<String, QmfConsoleData> _queues = null;
+    private boolean _queueDeleted = false;
+
     private static final String FILECOUNT = "qpid.file_count";
     private static final String FILESIZE  = "qpid.file_size";
     private static final String MAX_QUEUE_SIZE  = "qpid.max_size";
@@ -386,10 +444,106 @@ public final class QpidConfig
      */
     private void usage()
     {
+        if (_batchMode)
+        { // In batch mode an invalid command is reported rather than ending the batch.
+            throw new IllegalArgumentException("Invalid command");
+        }
         System.out.println(_usage);
         System.exit(1);
     }
 
+    /**
+     * Report an error. In batch mode the error is recorded against the current command and reported when the
+     * batch completes.
+     * @param message the error message.
+     */
+    private void error(final String message)
+    {
+        if (_batchMode)
+        {
+            _failures.add(_command + " - " + message);
+        }
+        else
+        {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Invoke a method on the broker. In batch mode the method is invoked asynchronously and the response is handled
+     * by onEvent(), at most _concurrency invocations may be outstanding at any time.
+     * @param methodName the name of the method, "create" or "delete".
+     * @param arguments the method arguments.
+     */
+    private void invokeMethod(final String methodName, final QmfData arguments)
+    {
+        if (_batchMode)
+        {
+            try
+            {
+                if (!_permits.tryAcquire(BATCH_TIMEOUT, TimeUnit.SECONDS))
+                {
+                    throw new IllegalStateException("Timed out waiting for responses from the broker");
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                throw new IllegalStateException("Interrupted waiting for responses from the broker");
+            }
+
+            String handle = Integer.toString(_lineNumber);
+            _pending.put(handle, _command);
+            try
+            {
+                _broker.invokeMethod(methodName, arguments, handle);
+            }
+            catch (QmfException e)
+            {
+                _pending.remove(handle);
+                _permits.release();
+                error(e.getMessage());
+            }
+        }
+        else
+        {
+            try
+            {
+                _broker.invokeMethod(methodName, arguments);
+            }
+            catch (QmfException e)
+            {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handles the responses to the methods invoked in batch mode, recording any failures.
+     * @param wi a QMF2 WorkItem object
+     */
+    public void onEvent(final WorkItem wi)
+    {
+        if (wi instanceof MethodResponseWorkItem)
+        {
+            MethodResponseWorkItem item = (MethodResponseWorkItem)wi;
+            String command = _pending.remove(item.getHandle().getCorrelationId());
+            if (command != null)
+            {
+                MethodResult result = item.getMethodResult();
+                if (result.succeeded())
+                {
+                    _succeeded.incrementAndGet();
+                }
+                else
+                {
+                    QmfException exception = result.getQmfException();
+                    _failures.add(command + " - " + (exception == null ? "failed" : exception.getMessage()));
+                }
+                _permits.release();
+            }
+        }
+    }
+
     /**
      * Display QpidConfig options.
      */
@@ -402,25 +556,20 @@ public final class QpidConfig
     }
 
     /**
-     * Finds a QmfConsoleData instance in a List of QMF Objects that matches a given ObjectID.
-     *
-     * More or less a direct Java port of findById from qpid-config.
-     *
-     * @param items the List of QMF Objects to search.
-     * @param id the ObjectId we're searching the List for.
-     * @return return the found object as a QmfConsoleData else return null.
+     * Retrieve the objects of several broker classes. The queries are pipelined so that this takes roughly a single
+     * round trip to the broker however many classes are retrieved. Note that each class is still a separate query,
+     * so objects may change between the queries, for example a binding may refer to a queue that isn't listed.
+     * @param classNames the names of the classes to retrieve.
+     * @return a List containing a List of the objects of each class, in the same order as classNames.
      */
-    private QmfConsoleData findById(final List<QmfConsoleData> items, final ObjectId id)
+    private List<List<QmfConsoleData>> getObjects(final String... classNames)
     {
-        for (QmfConsoleData item : items)
+        List<SchemaClassId> queries = new ArrayList<SchemaClassId>(classNames.length);
+        for (String className : classNames)
         {
-            if (item.getObjectId().equals(id))
-            {
-                return item;
-            }
+            queries.add(new SchemaClassId("org.apache.qpid.broker", className));
         }
-
-        return null;
+        return _console.getObjects(queries);
     }
 
     /**
@@ -428,8 +577,9 @@ public final class QpidConfig
      */
     private void overview()
     {
-        List<QmfConsoleData> exchanges = _console.getObjects("org.apache.qpid.broker", "exchange");
-        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
+        List<List<QmfConsoleData>> objects = getObjects("exchange", "queue");
+        List<QmfConsoleData> exchanges = objects.get(0);
+        List<QmfConsoleData> queues = objects.get(1);
 
         System.out.printf("Total Exchanges: %d\n", exchanges.size());
 
@@ -480,6 +630,7 @@ public final class QpidConfig
     private void exchangeList(final String filter)
     {
         List<QmfConsoleData> exchanges = _console.getObjects("org.apache.qpid.broker", "exchange");
+        ReferenceIndex index = new ReferenceIndex(exchanges);
 
         String caption1 = "Type      ";
         String caption2 = "Exchange Name";
@@ -533,8 +684,7 @@ public final class QpidConfig
 
                 if (exchange.hasValue("altExchange"))
                 {
-                    ObjectId altExchangeRef = exchange.getRefValue("altExchange");
-                    QmfConsoleData altExchange = findById(exchanges, altExchangeRef);
+                    QmfConsoleData altExchange = index.dereference(exchange, "altExchange");
                     if (altExchange != null)
                     {
                         System.out.printf("--alternate-exchange=%s", altExchange.getStringValue("name"));
@@ -555,9 +705,10 @@ public final class QpidConfig
      */
     private void exchangeListRecurse(final String filter)
     {
-        List<QmfConsoleData> exchanges = _console.getObjects("org.apache.qpid.broker", "exchange");
-        List<QmfConsoleData> bindings = _console.getObjects("org.apache.qpid.broker", "binding");
-        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
+        List<List<QmfConsoleData>> objects = getObjects("exchange", "binding", "queue");
+        List<QmfConsoleData> exchanges = objects.get(0);
+        ReferenceIndex index = new ReferenceIndex(objects.get(1));
+        index.addAll(objects.get(2));
 
         for (QmfConsoleData exchange : exchanges)
         {
@@ -567,36 +718,30 @@ public final class QpidConfig
             if (filter.equals("") || filter.equals(name))
             {
                 System.out.printf("Exchange '%s' (%s)\n", name, exchange.getStringValue("type"));
-                for (QmfConsoleData binding : bindings)
+                for (QmfConsoleData binding : index.getReferrers("binding", "exchangeRef", exchangeId))
                 {
-                    ObjectId exchangeRef = binding.getRefValue("exchangeRef");
+                    QmfConsoleData queue = index.dereference(binding, "queueRef");
 
-                    if (exchangeRef.equals(exchangeId))
+                    String queueName = "<unknown>";
+                    if (queue != null)
                     {
-                        ObjectId queueRef = binding.getRefValue("queueRef");
-                        QmfConsoleData queue = findById(queues, queueRef);
-
-                        String queueName = "<unknown>";
-                        if (queue != null)
+                        queueName = queue.getStringValue("name");
+                        if (queueName.equals(""))
                         {
-                            queueName = queue.getStringValue("name");
-                            if (queueName.equals(""))
-                            {
-                                queueName = "''";
-                            }
+                            queueName = "''";
                         }
+                    }
 
-                        String bindingKey = binding.getStringValue("bindingKey");
-                        Map arguments = (Map)binding.getValue("arguments");
-                        if (arguments == null || arguments.isEmpty())
-                        {
-                            System.out.printf("    bind [%s] => %s\n", bindingKey, queueName);
-                        }
-                        else
-                        {
-                            // If there are binding arguments then it's a headers exchange
-                            System.out.printf("    bind [%s] => %s %s\n", bindingKey, queueName, arguments);
-                        }
+                    String bindingKey = binding.getStringValue("bindingKey");
+                    Map arguments = (Map)binding.getValue("arguments");
+                    if (arguments == null || arguments.isEmpty())
+                    {
+                        System.out.printf("    bind [%s] => %s\n", bindingKey, queueName);
+                    }
+                    else
+                    {
+                        // If there are binding arguments then it's a headers exchange
+                        System.out.printf("    bind [%s] => %s %s\n", bindingKey, queueName, arguments);
                     }
                 }
             }
@@ -612,7 +757,9 @@ public final class QpidConfig
      */
     private void queueList(final String filter)
     {
-        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
+        List<List<QmfConsoleData>> objects = getObjects("queue", "exchange");
+        List<QmfConsoleData> queues = objects.get(0);
+        ReferenceIndex index = new ReferenceIndex(objects.get(1));
 
         String caption = "Queue Name";
         int maxNameLen = caption.length();
@@ -701,15 +848,10 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
                     System.out.printf("--order lvq-no-browse ");
                 }
 
-                if (queue.hasValue("altExchange"))
+                QmfConsoleData altExchange = index.dereference(queue, "altExchange");
+                if (altExchange != null)
                 {
-                    ObjectId altExchangeRef = queue.getRefValue("altExchange");
-                    List<QmfConsoleData> altExchanges = _console.getObjects(altExchangeRef);
-                    if (altExchanges.size() == 1)
-                    {
-                        QmfConsoleData altExchange = altExchanges.get(0);
-                        System.out.printf("--alternate-exchange=%s", altExchange.getStringValue("name"));
-                    }
+                    System.out.printf("--alternate-exchange=%s", altExchange.getStringValue("name"));
                 }
 
                 if (args.containsKey(FLOW_STOP_SIZE))
@@ -754,9 +896,10 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
      */
     private void queueListRecurse(final String filter)
     {
-        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
-        List<QmfConsoleData> bindings = _console.getObjects("org.apache.qpid.broker", "binding");
-        List<QmfConsoleData> exchanges = _console.getObjects("org.apache.qpid.broker", "exchange");
+        List<List<QmfConsoleData>> objects = getObjects("queue", "binding", "exchange");
+        List<QmfConsoleData> queues = objects.get(0);
+        ReferenceIndex index = new ReferenceIndex(objects.get(1));
+        index.addAll(objects.get(2));
 
         for (QmfConsoleData queue : queues)
         {
@@ -767,36 +910,30 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
             {
                 System.out.printf("Queue '%s'\n", name);
 
-                for (QmfConsoleData binding : bindings)
+                for (QmfConsoleData binding : index.getReferrers("binding", "queueRef", queueId))
                 {
-                    ObjectId queueRef = binding.getRefValue("queueRef");
+                    QmfConsoleData exchange = index.dereference(binding, "exchangeRef");
 
-                    if (queueRef.equals(queueId))
+                    String exchangeName = "<unknown>";
+                    if (exchange != null)
                     {
-                        ObjectId exchangeRef = binding.getRefValue("exchangeRef");
-                        QmfConsoleData exchange = findById(exchanges, exchangeRef);
-
-                        String exchangeName = "<unknown>";
-                        if (exchange != null)
+                        exchangeName = exchange.getStringValue("name");
+                        if (exchangeName.equals(""))
                         {
-                            exchangeName = exchange.getStringValue("name");
-                            if (exchangeName.equals(""))
-                            {
-                                exchangeName = "''";
-                            }
+                            exchangeName = "''";
                         }
+                    }
 
-                        String bindingKey = binding.getStringValue("bindingKey");
-                        Map arguments = (Map)binding.getValue("arguments");
-                        if (arguments == null || arguments.isEmpty())
-                        {
-                            System.out.printf("    bind [%s] => %s\n", bindingKey, exchangeName);
-                        }
-                        else
-                        {
-                            // If there are binding arguments then it's a headers exchange
-                            System.out.printf("    bind [%s] => %s %s\n", bindingKey, exchangeName, arguments);
-                        }
+                    String bindingKey = binding.getStringValue("bindingKey");
+                    Map arguments = (Map)binding.getValue("arguments");
+                    if (arguments == null || arguments.isEmpty())
+                    {
+                        System.out.printf("    bind [%s] => %s\n", bindingKey, exchangeName);
+                    }
+                    else
+                    {
+                        // If there are binding arguments then it's a headers exchange
+                        System.out.printf("    bind [%s] => %s %s\n", bindingKey, exchangeName, arguments);
                     }
                 }
             }
@@ -843,13 +980,10 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         arguments.setValue("name", args[1]);
         arguments.setValue("properties", properties);
 
-        try
+        invokeMethod("create", arguments);
+        if (_exchangeTypes != null)
         {
-            _broker.invokeMethod("create", arguments);
-        }
-        catch (QmfException e)
-        {
-            System.out.println(e.getMessage());
+            _exchangeTypes.put(args[1], args[0]);
         }
         // passive exchange creation not implemented yet (not sure how to do it using QMF2)
     }
@@ -948,14 +1082,7 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         arguments.setValue("name", args[0]);
         arguments.setValue("properties", properties);
 
-        try
-        {
-            _broker.invokeMethod("create", arguments);
-        }
-        catch (QmfException e)
-        {
-            System.out.println(e.getMessage());
-        }
+        invokeMethod("create", arguments);
         // passive queue creation not implemented yet (not sure how to do it using QMF2)
     }
 
@@ -975,13 +1102,10 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         arguments.setValue("type", "exchange");
         arguments.setValue("name", args[0]);
 
-        try
+        invokeMethod("delete", arguments);
+        if (_exchangeTypes != null)
         {
-            _broker.invokeMethod("delete", arguments);
-        }
-        catch (QmfException e)
-        {
-            System.out.println(e.getMessage());
+            _exchangeTypes.remove(args[0]);
         }
     }
 
@@ -999,26 +1123,22 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
 
         if (_ifEmpty || _ifUnused)
         { // Check the selected queue object to see if it is not empty or is in use
-            List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
-            for (QmfConsoleData queue : queues)
+            QmfConsoleData queue = findQueue(args[0]);
+            if (queue != null)
             {
-                ObjectId queueId = queue.getObjectId();
                 String name = queue.getStringValue("name");
-                if (name.equals(args[0]))
+                long msgDepth = queue.getLongValue("msgDepth");
+                if (_ifEmpty == true && msgDepth > 0)
                 {
-                    long msgDepth = queue.getLongValue("msgDepth");
-                    if (_ifEmpty == true && msgDepth > 0)
-                    {
-                        System.out.println("Cannot delete queue " + name + "; queue not empty");
-                        return;
-                    }
+                    error("Cannot delete queue " + name + "; queue not empty");
+                    return;
+                }
 
-                    long consumerCount = queue.getLongValue("consumerCount");                    
-                    if (_ifUnused == true && consumerCount > 0)
-                    {
-                        System.out.println("Cannot delete queue " + name + "; queue in use");
-                        return;
-                    }
+                long consumerCount = queue.getLongValue("consumerCount");                    
+                if (_ifUnused == true && consumerCount > 0)
+                {
+                    error("Cannot delete queue " + name + "; queue in use");
+                    return;
                 }
             }
         }
@@ -1027,14 +1147,78 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         arguments.setValue("type", "queue");
         arguments.setValue("name", args[0]);
 
-        try
+        invokeMethod("delete", arguments);
+        _queueDeleted = true;
+        if (_queues != null)
         {
-            _broker.invokeMethod("delete", arguments);
+            _queues.remove(args[0]);
         }
-        catch (QmfException e)
+    }
+
+    /**
+     * Look up the queue with the given name. In batch mode the queues are retrieved from the broker in a single
+     * request at the start of each run of consecutive queue deletions and cached for the rest of the run, so the
+     * queue states checked by --force-if-not-empty and --force-if-used are those from the start of the run. The
+     * cache is discarded by runBatch() as soon as any other command is run.
+     * @param name the queue name.
+     * @return the queue object or null if there's no such queue.
+     */
+    private QmfConsoleData findQueue(final String name)
+    {
+        if (_batchMode)
         {
-            System.out.println(e.getMessage());
+            if (_queues == null)
+            {
+                _queues = new HashMap<String, QmfConsoleData>();
+                for (QmfConsoleData queue : _console.getObjects("org.apache.qpid.broker", "queue"))
+                {
+                    _queues.put(queue.getStringValue("name"), queue);
+                }
+            }
+            return _queues.get(name);
         }
+
+        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
+        for (QmfConsoleData queue : queues)
+        {
+            if (name.equals(queue.getStringValue("name")))
+            {
+                return queue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Look up the type of the exchange with the given name. In batch mode the exchange types are retrieved from the
+     * broker the first time this is called and cached, the cache is updated as exchanges are added and deleted.
+     * @param name the exchange name.
+     * @return the exchange type or null if there's no such exchange.
+     */
+    private String findExchangeType(final String name)
+    {
+        if (_batchMode)
+        {
+            if (_exchangeTypes == null)
+            {
+                _exchangeTypes = new HashMap<String, String>();
+                for (QmfConsoleData exchange : _console.getObjects("org.apache.qpid.broker", "exchange"))
+                {
+                    _exchangeTypes.put(exchange.getStringValue("name"), exchange.getStringValue("type"));
+                }
+            }
+            return _exchangeTypes.get(name);
+        }
+
+        List<QmfConsoleData> exchanges = _console.getObjects("org.apache.qpid.broker", "exchange");
+        for (QmfConsoleData exchange : exchanges)
+        {
+            if (name.equals(exchange.getStringValue("name")))
+            {
+                return exchange.getStringValue("type");
+            }
+        }
+        return null;
     }
 
     /**
@@ -1051,21 +1235,11 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         }
 
         // Look up exchange objects to find the type of the selected exchange
-        String exchangeType = null;
-        List<QmfConsoleData> exchanges = _console.getObjects("org.apache.qpid.broker", "exchange");
-        for (QmfConsoleData exchange : exchanges)
-        {
-            String name = exchange.getStringValue("name");
-            if (args[0].equals(name))
-            {
-                exchangeType = exchange.getStringValue("type");
-                break;
-            }
-        }
+        String exchangeType = findExchangeType(args[0]);
 
         if (exchangeType == null)
         {
-            System.out.println("Exchange " + args[0] + " is invalid");
+            error("Exchange " + args[0] + " is invalid");
             return;
         }
 
@@ -1074,7 +1248,7 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         {
             if (_file == null)
             {
-                System.out.println("Invalid args to bind xml:  need an input file or stdin");
+                error("Invalid args to bind xml:  need an input file or stdin");
                 return;
             }
 
@@ -1094,7 +1268,7 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
                 }
                 catch (IOException ioe)
                 {
-                    System.out.println("Exception " + ioe + " while reading stdin");
+                    error("Exception " + ioe + " while reading stdin");
                     return;
                 }      
             }
@@ -1117,12 +1291,12 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
                 }
                 catch (FileNotFoundException e)
                 {
-                    System.out.println("File " + _file + " not found");
+                    error("File " + _file + " not found");
                     return;
                 }
                 catch (IOException ioe)
                 {
-                    System.out.println("Exception " + ioe + " while reading " + _file);
+                    error("Exception " + ioe + " while reading " + _file);
                     return;
                 }
             }
@@ -1132,7 +1306,7 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         {
             if (args.length < 5)
             {
-                System.out.println("Invalid args to bind headers: need 'any'/'all' plus conditions");
+                error("Invalid args to bind headers: need 'any'/'all' plus conditions");
                 return;
             }
             String op = args[3];
@@ -1152,7 +1326,7 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
             }
             else
             {
-                System.out.println("Invalid condition arg to bind headers, need 'any' or 'all', not '" + op + "'");
+                error("Invalid condition arg to bind headers, need 'any' or 'all', not '" + op + "'");
                 return;
             }
         }
@@ -1168,14 +1342,7 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         arguments.setValue("name", bindingIdentifier);
         arguments.setValue("properties", properties);
 
-        try
-        {
-            _broker.invokeMethod("create", arguments);
-        }
-        catch (QmfException e)
-        {
-            System.out.println(e.getMessage());
-        }
+        invokeMethod("create", arguments);
     }
 
     /**
@@ -1201,291 +1368,519 @@ for (Map.Entry<String, Object> entry  : args.entrySet()) {
         arguments.setValue("type", "binding");
         arguments.setValue("name", bindingIdentifier);
 
-        try
-        {
-            _broker.invokeMethod("delete", arguments);
-        }
-        catch (QmfException e)
-        {
-            System.out.println(e.getMessage());
-        }
+        invokeMethod("delete", arguments);
     }
 
     /**
-     * Create an instance of QpidConfig.
-     *
-     * @param args the command line arguments.
+     * Apply the options parsed from a command line (or a line of a batch file).
+     * @param optList the options returned by GetOpt.
      */
-    public QpidConfig(final String[] args)
+    private void parseOptions(final List<String[]> optList)
     {
-        String[] longOpts = {"help", "durable", "bindings", "broker-addr=", "file-count=",
-                             "file-size=", "max-queue-size=", "max-queue-count=", "limit-policy=",
-                             "order=", "sequence", "ive", "force", "force-if-not-empty",
-                             "force-if-used", "alternate-exchange=", "passive", "timeout=", "file=", "flow-stop-size=",
-                             "flow-resume-size=", "flow-stop-count=", "flow-resume-count=", "argument="};
-
-        try
+        //System.out.println("optList");
+        for (String[] opt : optList)
         {
-            GetOpt getopt = new GetOpt(args, "ha:bf:", longOpts);
-            List<String[]> optList = getopt.getOptList();
-            String[] cargs = {};
-            cargs = getopt.getEncArgs().toArray(cargs);
+            //System.out.println(opt[0] + ":" + opt[1]);
 
-            //System.out.println("optList");
-            for (String[] opt : optList)
+            if (opt[0].equals("-h") || opt[0].equals("--help"))
             {
-                //System.out.println(opt[0] + ":" + opt[1]);
+                options();
+            }
 
-                if (opt[0].equals("-h") || opt[0].equals("--help"))
-                {
-                    options();
-                }
+            if (opt[0].equals("-b") || opt[0].equals("--bindings"))
+            {
+                _recursive = true;
+            }
 
-                if (opt[0].equals("-b") || opt[0].equals("--bindings"))
-                {
-                    _recursive = true;
-                }
+            if (opt[0].equals("-a") || opt[0].equals("--broker-addr"))
+            {
+                _host = opt[1];
+            }
 
-                if (opt[0].equals("-a") || opt[0].equals("--broker-addr"))
-                {
-                    _host = opt[1];
-                }
+            if (opt[0].equals("-f") || opt[0].equals("--file"))
+            {
+                _file = opt[1];
+            }
 
-                if (opt[0].equals("-f") || opt[0].equals("--file"))
-                {
-                    _file = opt[1];
-                }
+            if (opt[0].equals("--timeout"))
+            {
+                _connTimeout = Integer.parseInt(opt[1]);
+            }
 
-                if (opt[0].equals("--timeout"))
-                {
-                    _connTimeout = Integer.parseInt(opt[1]);
-                }
+            if (opt[0].equals("--alternate-exchange"))
+            {
+                _altExchange = opt[1];
+            }
 
-                if (opt[0].equals("--alternate-exchange"))
-                {
-                    _altExchange = opt[1];
-                }
+            if (opt[0].equals("--passive"))
+            {
+                _passive = true;
+            }
 
-                if (opt[0].equals("--passive"))
-                {
-                    _passive = true;
-                }
+            if (opt[0].equals("--durable"))
+            {
+                _durable = true;
+            }
 
-                if (opt[0].equals("--durable"))
-                {
-                    _durable = true;
-                }
+            if (opt[0].equals("--file-count"))
+            {
+                _fileCount = Long.parseLong(opt[1]);
+            }
 
-                if (opt[0].equals("--file-count"))
-                {
-                    _fileCount = Long.parseLong(opt[1]);
-                }
+            if (opt[0].equals("--file-size"))
+            {
+                _fileSize = Long.parseLong(opt[1]);
+            }
 
-                if (opt[0].equals("--file-size"))
-                {
-                    _fileSize = Long.parseLong(opt[1]);
-                }
+            if (opt[0].equals("--max-queue-size"))
+            {
+                _maxQueueSize = Long.parseLong(opt[1]);
+            }
 
-                if (opt[0].equals("--max-queue-size"))
-                {
-                    _maxQueueSize = Long.parseLong(opt[1]);
-                }
+            if (opt[0].equals("--max-queue-count"))
+            {
+                _maxQueueCount = Long.parseLong(opt[1]);
+            }
 
-                if (opt[0].equals("--max-queue-count"))
-                {
-                    _maxQueueCount = Long.parseLong(opt[1]);
-                }
+            if (opt[0].equals("--limit-policy"))
+            {
+                _limitPolicy = opt[1];
+            }
 
-                if (opt[0].equals("--limit-policy"))
-                {
-                    _limitPolicy = opt[1];
-                }
+            if (opt[0].equals("--flow-stop-size"))
+            {
+                _flowStopSize = Long.parseLong(opt[1]);
+            }
 
-                if (opt[0].equals("--flow-stop-size"))
-                {
-                    _flowStopSize = Long.parseLong(opt[1]);
-                }
+            if (opt[0].equals("--flow-resume-size"))
+            {
+                _flowResumeSize = Long.parseLong(opt[1]);
+            }
 
-                if (opt[0].equals("--flow-resume-size"))
-                {
-                    _flowResumeSize = Long.parseLong(opt[1]);
-                }
+            if (opt[0].equals("--flow-stop-count"))
+            {
+                _flowStopCount = Long.parseLong(opt[1]);
+            }
 
-                if (opt[0].equals("--flow-stop-count"))
+            if (opt[0].equals("--flow-resume-count"))
+            {
+                _flowResumeCount = Long.parseLong(opt[1]);
+            }
+
+            boolean validPolicy = false;
+            String[] validPolicies = {"none", "reject", "flow-to-disk", "ring", "ring-strict"};
+            for (String i : validPolicies)
+            {
+                if (_limitPolicy.equals(i))
                 {
-                    _flowStopCount = Long.parseLong(opt[1]);
+                    validPolicy = true;
+                    break;
                 }
+            }
+
+            if (!validPolicy)
+            {
+                System.err.println("Error: Invalid --limit-policy argument");
+                System.exit(1);
+            }
+
+            if (opt[0].equals("--order"))
+            {
+                _order = opt[1];
+            }
 
-                if (opt[0].equals("--flow-resume-count"))
+            boolean validOrder = false;
+            String[] validOrders = {"fifo", "lvq", "lvq-no-browse"};
+            for (String i : validOrders)
+            {
+                if (_order.equals(i))
                 {
-                    _flowResumeCount = Long.parseLong(opt[1]);
+                    validOrder = true;
+                    break;
                 }
+            }
+
+            if (!validOrder)
+            {
+                System.err.println("Error: Invalid --order argument");
+                System.exit(1);
+            }
+
+            if (opt[0].equals("--sequence"))
+            {
+                _msgSequence = true;
+            }
+
+            if (opt[0].equals("--ive"))
+            {
+                _ive = true;
+            }
+
+            if (opt[0].equals("--force"))
+            {
+                _ifEmpty  = false;
+                _ifUnused = false;
+            }
+
+            if (opt[0].equals("--force-if-not-empty"))
+            {
+                _ifEmpty = false;
+            }
+
+            if (opt[0].equals("--force-if-used"))
+            {
+                _ifUnused = false;
+            }
 
-                boolean validPolicy = false;
-                String[] validPolicies = {"none", "reject", "flow-to-disk", "ring", "ring-strict"};
-                for (String i : validPolicies)
+            if (opt[0].equals("--argument"))
+            {
+                extraArguments.add(opt[1]);
+            }
+
+            if (opt[0].equals("--batch"))
+            {
+                _batchFile = opt[1];
+            }
+
+            if (opt[0].equals("--concurrency"))
+            {
+                _concurrency = Integer.parseInt(opt[1]);
+                if (_concurrency < 1)
                 {
-                    if (_limitPolicy.equals(i))
-                    {
-                        validPolicy = true;
-                        break;
-                    }
+                    throw new IllegalArgumentException("--concurrency must be at least 1");
                 }
+            }
+        }
+    }
+
+    /**
+     * Reset the options that apply to a single command to their defaults, used before each line of a batch file.
+     */
+    private void resetOptions()
+    {
+        _recursive = false;
+        _altExchange = null;
+        _passive = false;
+        _durable = false;
+        _ifEmpty = true;
+        _ifUnused = true;
+        _fileCount = 8;
+        _fileSize = 24;
+        _maxQueueSize = 0;
+        _maxQueueCount = 0;
+        _limitPolicy = "none";
+        _order = "fifo";
+        _msgSequence = false;
+        _ive = false;
+        _file = null;
+        _flowStopCount = 0;
+        _flowResumeCount = 0;
+        _flowStopSize = 0;
+        _flowResumeSize = 0;
+        extraArguments.clear();
+    }
+
+    /**
+     * Execute a command.
+     * @param cargs the command and its arguments, for example {"add", "queue", "q1"}.
+     */
+    private void execute(final String[] cargs)
+    {
+        int nargs = cargs.length;
+        if (nargs == 0)
+        {
+            overview();
+        }
+        else
+        {
+            String cmd = cargs[0];
+            String modifier = "";
 
-                if (!validPolicy)
+            if (nargs > 1)
+            {
+                modifier = cargs[1];
+            }
+
+            if (cmd.equals("exchanges"))
+            {
+                if (_recursive)
                 {
-                    System.err.println("Error: Invalid --limit-policy argument");
-                    System.exit(1);
+                    exchangeListRecurse(modifier);
                 }
-
-                if (opt[0].equals("--order"))
+                else
                 {
-                    _order = opt[1];
+                    exchangeList(modifier);
                 }
-
-                boolean validOrder = false;
-                String[] validOrders = {"fifo", "lvq", "lvq-no-browse"};
-                for (String i : validOrders)
+            }
+            else if (cmd.equals("queues"))
+            {
+                if (_recursive)
                 {
-                    if (_order.equals(i))
-                    {
-                        validOrder = true;
-                        break;
-                    }
+                    queueListRecurse(modifier);
                 }
-
-                if (!validOrder)
+                else
                 {
-                    System.err.println("Error: Invalid --order argument");
-                    System.exit(1);
+                    queueList(modifier);
                 }
-
-                if (opt[0].equals("--sequence"))
+            }
+            else if (cmd.equals("add"))
+            {
+                if (modifier.equals("exchange"))
                 {
-                    _msgSequence = true;
+                    addExchange(Arrays.copyOfRange(cargs, 2, cargs.length));
                 }
-    
-                if (opt[0].equals("--ive"))
+                else if (modifier.equals("queue"))
                 {
-                    _ive = true;
+                    addQueue(Arrays.copyOfRange(cargs, 2, cargs.length));
                 }
-
-                if (opt[0].equals("--force"))
+                else
                 {
-                    _ifEmpty  = false;
-                    _ifUnused = false;
+                    usage();
                 }
-
-                if (opt[0].equals("--force-if-not-empty"))
+            }
+            else if (cmd.equals("del"))
+            {
+                if (modifier.equals("exchange"))
                 {
-                    _ifEmpty = false;
+                    delExchange(Arrays.copyOfRange(cargs, 2, cargs.length));
                 }
-
-                if (opt[0].equals("--force-if-used"))
+                else if (modifier.equals("queue"))
                 {
-                    _ifUnused = false;
+                    delQueue(Arrays.copyOfRange(cargs, 2, cargs.length));
                 }
-
-                if (opt[0].equals("--argument"))
+                else
                 {
-                    extraArguments.add(opt[1]);
+                    usage();
                 }
             }
-
-            Connection connection = ConnectionHelper.createConnection(_host, "{reconnect: true}");        
-            _console = new Console();
-            _console.disableEvents(); // Optimisation, as we're only doing getObjects() calls.
-            _console.addConnection(connection);
-            List<QmfConsoleData> brokers = _console.getObjects("org.apache.qpid.broker", "broker");
-            if (brokers.isEmpty())
+            else if (cmd.equals("bind"))
             {
-                System.out.println("No broker QmfConsoleData returned");
-                System.exit(1);
+                bind(Arrays.copyOfRange(cargs, 1, cargs.length));
             }
-
-            _broker = brokers.get(0);
-
-            int nargs = cargs.length;
-            if (nargs == 0)
+            else if (cmd.equals("unbind"))
             {
-                overview();
+                unbind(Arrays.copyOfRange(cargs, 1, cargs.length));
             }
             else
             {
-                String cmd = cargs[0];
-                String modifier = "";
+                usage();
+            }
+        }
+    }
 
-                if (nargs > 1)
+    /**
+     * Split a line of a batch file into arguments. Arguments are separated by whitespace and may be quoted with
+     * single or double quotes.
+     * @param line the line to split.
+     * @return the arguments.
+     */
+    private static String[] tokenize(final String line)
+    {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = null;
+        char quote = 0;
+        for (char c : line.toCharArray())
+        {
+            if (quote != 0)
+            {
+                if (c == quote)
                 {
-                    modifier = cargs[1];
+                    quote = 0;
                 }
-
-                if (cmd.equals("exchanges"))
+                else
                 {
-                    if (_recursive)
-                    {
-                        exchangeListRecurse(modifier);
-                    }
-                    else
-                    {
-                        exchangeList(modifier);
-                    }
+                    token.append(c);
                 }
-                else if (cmd.equals("queues"))
+            }
+            else if (c == '"' || c == '\'')
+            {
+                quote = c;
+                token = (token == null) ? new StringBuilder() : token;
+            }
+            else if (Character.isWhitespace(c))
+            {
+                if (token != null)
                 {
-                    if (_recursive)
-                    {
-                        queueListRecurse(modifier);
-                    }
-                    else
-                    {
-                        queueList(modifier);
-                    }
+                    tokens.add(token.toString());
+                    token = null;
                 }
-                else if (cmd.equals("add"))
+            }
+            else
+            {
+                token = (token == null) ? new StringBuilder() : token;
+                token.append(c);
+            }
+        }
+
+        if (quote != 0)
+        {
+            throw new IllegalArgumentException("Unterminated quote");
+        }
+        if (token != null)
+        {
+            tokens.add(token.toString());
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * Run the commands in a batch file, one per line, then report the number of commands that succeeded and
+     * failed along with the reason for each failure.
+     * @param globalOptions the options from the command line, which apply to every command.
+     * @return true if all of the commands succeeded.
+     */
+    private boolean runBatch(final List<String[]> globalOptions)
+    {
+        _batchMode = true;
+        _permits = new Semaphore(_concurrency);
+        int commands = 0;
+        String abandoned = null; // Set to the reason if the remaining commands can't be executed.
+        try
+        {
+            BufferedReader in = _batchFile.equals("-") ? new BufferedReader(new InputStreamReader(System.in)) :
+                                                         new BufferedReader(new FileReader(_batchFile));
+            try
+            {
+                String line;
+                while ((line = in.readLine()) != null)
                 {
-                    if (modifier.equals("exchange"))
+                    _lineNumber++;
+                    line = line.trim();
+                    if (line.length() == 0 || line.startsWith("#"))
                     {
-                        addExchange(Arrays.copyOfRange(cargs, 2, cargs.length));
+                        continue;
                     }
-                    else if (modifier.equals("queue"))
+
+                    commands++;
+                    _command = "line " + _lineNumber + ": " + line;
+                    if (abandoned != null)
                     {
-                        addQueue(Arrays.copyOfRange(cargs, 2, cargs.length));
+                        error("Not executed, " + abandoned);
+                        continue;
                     }
-                    else
+
+                    try
                     {
-                        usage();
+                        resetOptions();
+                        parseOptions(globalOptions);
+                        GetOpt getopt = new GetOpt(tokenize(line), "ha:bf:", _longOpts);
+                        parseOptions(getopt.getOptList());
+                        String[] cargs = {};
+                        execute(getopt.getEncArgs().toArray(cargs));
                     }
-                }
-                else if (cmd.equals("del"))
-                {
-                    if (modifier.equals("exchange"))
+                    catch (IllegalArgumentException e)
                     {
-                        delExchange(Arrays.copyOfRange(cargs, 2, cargs.length));
+                        error(e.getMessage());
                     }
-                    else if (modifier.equals("queue"))
-                    {
-                        delQueue(Arrays.copyOfRange(cargs, 2, cargs.length));
+                    catch (IllegalStateException e)
+                    { // The broker has stopped responding so report this and all subsequent commands as failed.
+                        error(e.getMessage());
+                        abandoned = e.getMessage();
                     }
-                    else
+
+                    // The cached queues are only used by consecutive queue deletions, see findQueue().
+                    if (!_queueDeleted)
                     {
-                        usage();
+                        _queues = null;
                     }
+                    _queueDeleted = false;
                 }
-                else if (cmd.equals("bind"))
-                {
-                    bind(Arrays.copyOfRange(cargs, 1, cargs.length));
-                }
-                else if (cmd.equals("unbind"))
-                {
-                    unbind(Arrays.copyOfRange(cargs, 1, cargs.length));
-                }
-                else
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            _batchErrors.add("Exception " + ioe + " while reading " + _batchFile);
+        }
+
+        try
+        { // Wait for the outstanding method responses.
+            if (!_permits.tryAcquire(_concurrency, BATCH_TIMEOUT, TimeUnit.SECONDS))
+            {
+                for (String command : _pending.values())
                 {
-                    usage();
+                    _failures.add(command + " - No response from broker");
                 }
             }
         }
+        catch (InterruptedException ie)
+        {
+        }
+
+        List<String> failures = new ArrayList<String>(_failures);
+        Collections.sort(failures, new Comparator<String>()
+        {
+            public int compare(final String a, final String b)
+            { // Sort by line number, the failures are recorded in the order the responses arrive.
+                return lineNumber(a) - lineNumber(b);
+            }
+
+            private int lineNumber(final String failure)
+            {
+                return Integer.parseInt(failure.substring(5, failure.indexOf(':')));
+            }
+        });
+
+        System.out.printf("%d commands, %d methods succeeded, %d failures\n", commands, _succeeded.get(),
+                          failures.size());
+        for (String batchError : _batchErrors)
+        {
+            System.out.println(batchError);
+        }
+        for (String failure : failures)
+        {
+            System.out.println(failure);
+        }
+        return failures.isEmpty() && _batchErrors.isEmpty();
+    }
+
+    /**
+     * Create an instance of QpidConfig.
+     *
+     * @param args the command line arguments.
+     */
+    public QpidConfig(final String[] args)
+    {
+        try
+        {
+            GetOpt getopt = new GetOpt(args, "ha:bf:", _longOpts);
+            List<String[]> optList = getopt.getOptList();
+            String[] cargs = {};
+            cargs = getopt.getEncArgs().toArray(cargs);
+            parseOptions(optList);
+
+            Connection connection = ConnectionHelper.createConnection(_host, "{reconnect: true}");        
+            if (_batchFile == null)
+            {
+                _console = new Console();
+                _console.disableEvents(); // Optimisation, as we're only doing getObjects() calls.
+            }
+            else
+            { // Batch mode needs asynchronous method responses, so Events can't be disabled.
+                _console = new Console(this);
+            }
+            _console.addConnection(connection);
+            List<QmfConsoleData> brokers = _console.getObjects("org.apache.qpid.broker", "broker");
+            if (brokers.isEmpty())
+            {
+                System.out.println("No broker QmfConsoleData returned");
+                System.exit(1);
+            }
+
+            _broker = brokers.get(0);
+
+            if (_batchFile == null)
+            {
+                execute(cargs);
+            }
+            else if (!runBatch(optList))
+            {
+                System.exit(1);
+            }
+        }
         catch (QmfException e)
         {
             System.err.println(e.toString());
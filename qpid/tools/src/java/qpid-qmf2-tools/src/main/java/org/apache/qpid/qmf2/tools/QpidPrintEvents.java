@@ -20,13 +20,11 @@
  */
 package org.apache.qpid.qmf2.tools;
 
-// JMS Imports
-import javax.jms.Connection;
-
 // Misc Imports
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -34,14 +32,10 @@ import java.util.Map;
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfEvent;
-import org.apache.qpid.qmf2.common.QmfEventListener;
-import org.apache.qpid.qmf2.common.QmfException;
 import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.console.Agent;
-import org.apache.qpid.qmf2.console.Console;
 import org.apache.qpid.qmf2.console.EventReceivedWorkItem;
 import org.apache.qpid.qmf2.console.QmfConsoleData;
-import org.apache.qpid.qmf2.util.ConnectionHelper;
 import org.apache.qpid.qmf2.util.GetOpt;
 import static org.apache.qpid.qmf2.common.WorkItem.WorkItemType.*;
 
@@ -70,9 +64,11 @@ import static org.apache.qpid.qmf2.common.WorkItem.WorkItemType.*;
  *                         automatically picks the most secure available
  *                         mechanism - use this option to override.
  * </pre>
+ * The brokers are monitored using a shared BrokerMonitor, so events from many brokers are handled by a small pool
+ * of worker threads whilst events from each broker are still printed in the order that they were received.
  * @author Fraser Adams
  */
-public final class QpidPrintEvents implements QmfEventListener
+public final class QpidPrintEvents implements BrokerMonitor.BrokerListener
 {
     private static final String _usage =
     "Usage: QpidPrintEvents [options] [broker-addr]...\n";
@@ -103,41 +99,35 @@ public final class QpidPrintEvents implements QmfEventListener
     "                        automatically picks the most secure available\n" +
     "                        mechanism - use this option to override.\n";
 
-    private final String _url;
-    private Console _console;
+    private final BrokerMonitor _monitor;
 
     /**
-     * Basic constructor. Creates JMS Session, Initialises Destinations, Producers &amp; Consumers and starts connection.
-     * @param url the connection URL.
+     * Basic constructor. Connects to each of the brokers and starts monitoring them for events.
+     * @param urls the connection URLs of the brokers to monitor.
      * @param connectionOptions the options String to pass to ConnectionHelper.
      */
-    public QpidPrintEvents(final String url, final String connectionOptions)
+    public QpidPrintEvents(final List<String> urls, final String connectionOptions)
     {
-        System.out.println("Connecting to " + url);
-        _url = url;
-        try
-        {
-            Connection connection = ConnectionHelper.createConnection(url, connectionOptions);        
-            _console = new Console(this);
-            _console.addConnection(connection);
-        }
-        catch (QmfException qmfe)
+        for (String url : urls)
         {
-            System.err.println ("QmfException " + qmfe.getMessage() + " caught in QpidPrintEvents constructor");
+            System.out.println("Connecting to " + url);
         }
+        _monitor = new BrokerMonitor(this);
+        _monitor.addBrokers(urls, connectionOptions);
     }
 
     /**
      * Checks if the WorkItem is an EventReceivedWorkItem and if it is extracts and renders the QmfEvent.
+     * @param broker the broker that the WorkItem was received from.
      * @param wi a QMF2 WorkItem object
      */
-    public void onEvent(final WorkItem wi)
+    public void onEvent(final BrokerMonitor.Broker broker, final WorkItem wi)
     {
         if (wi instanceof EventReceivedWorkItem)
         {
             EventReceivedWorkItem item = (EventReceivedWorkItem)wi;
             QmfEvent event = item.getEvent();
-            System.out.println(event + " broker=" + _url);
+            System.out.println(event + " broker=" + broker.getUrl());
         }
     }
 
@@ -184,10 +174,7 @@ public final class QpidPrintEvents implements QmfEventListener
                 cargs = new String[] {"localhost"};
             }
 
-            for (String url : cargs)
-            {
-                QpidPrintEvents eventPrinter = new QpidPrintEvents(url, connectionOptions);
-            }
+            QpidPrintEvents eventPrinter = new QpidPrintEvents(Arrays.asList(cargs), connectionOptions);
         }
         catch (IllegalArgumentException e)
         {
@@ -29,14 +29,12 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.regex.Pattern;
 
 // QMF2 Imports
-import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfEvent;
 import org.apache.qpid.qmf2.common.QmfEventListener;
 import org.apache.qpid.qmf2.common.QmfException;
@@ -72,43 +70,28 @@ import org.apache.qpid.qmf2.util.GetOpt;
  *   -f &lt;filter&gt;, --filter=&lt;filter&gt;
  *                         a list of comma separated queue names (regex are
  *                         accepted) to show
+ *   -t &lt;N&gt;, --top=&lt;N&gt;
+ *                         periodically show the top N queues rather than a
+ *                         line for each queue update
+ *   -s &lt;key&gt;, --sort=&lt;key&gt;
+ *                         the order of the top N queues: depth, enqueue or
+ *                         dequeue (default = depth)
+ *   -i &lt;secs&gt;, --interval=&lt;secs&gt;
+ *                         the top N refresh interval (default = 10)
  *   --sasl-mechanism=&lt;mech&gt;
  *                         SASL mechanism for authentication (e.g. EXTERNAL,
  *                         ANONYMOUS, PLAIN, CRAM-MD5, DIGEST-MD5, GSSAPI). SASL
  *                         automatically picks the most secure available
  *                         mechanism - use this option to override.
  * </pre>
+ * The statistics are recorded by a QueueStatistics engine, which holds a bounded history of samples for each queue
+ * and calculates interval, moving average and percentile rates. By default a line is printed each time a queue's
+ * statistics are updated, showing the rates over the last interval. On brokers with many queues the --top option
+ * is more useful, it periodically shows the top N queues ordered by depth or by average enqueue or dequeue rate.
  * @author Fraser Adams
  */
 public final class QpidQueueStats implements QmfEventListener
 {
-    private final class Stats
-    {
-        private final String _name;
-        private QmfConsoleData _data;
-
-        public Stats(final String name, final QmfConsoleData data)
-        {
-            _name = name;
-            _data = data;
-        }
-
-        public String getName()
-        {
-            return _name;
-        }
-
-        public QmfConsoleData getData()
-        {
-            return _data;
-        }
-
-        public void setData(final QmfConsoleData data)
-        {
-            _data = data;
-        }
-    }
-
     private static final String _usage =
     "Usage: QpidQueueStats [options]\n";
 
@@ -123,6 +106,14 @@ public final class QpidQueueStats implements QmfEventListener
     "  -f <filter>, --filter=<filter>\n" +
     "                        a list of comma separated queue names (regex are\n" +
     "                        accepted) to show\n" +
+    "  -t <N>, --top=<N>\n" +
+    "                        periodically show the top N queues rather than a\n" +
+    "                        line for each queue update\n" +
+    "  -s <key>, --sort=<key>\n" +
+    "                        the order of the top N queues: depth, enqueue or\n" +
+    "                        dequeue (default = depth)\n" +
+    "  -i <secs>, --interval=<secs>\n" +
+    "                        the top N refresh interval (default = 10)\n" +
     "  --sasl-mechanism=<mech>\n" +
     "                        SASL mechanism for authentication (e.g. EXTERNAL,\n" +
     "                        ANONYMOUS, PLAIN, CRAM-MD5, DIGEST-MD5, GSSAPI). SASL\n" +
@@ -130,10 +121,11 @@ public final class QpidQueueStats implements QmfEventListener
     "                        mechanism - use this option to override.\n";
 
     private final String _url;
-    private final List<Pattern> _filter;
+    private final QueueStatistics _statistics;
+    private final int _top;
+    private final QueueStatistics.SortKey _sortKey;
     private Agent _broker;
     private Console _console;
-    private Map<ObjectId, Stats> _objects = new HashMap<ObjectId, Stats>();
     private String _subscriptionId = null;
     private long _subscriptionDuration;
     private long _startTime;
@@ -145,6 +137,22 @@ public final class QpidQueueStats implements QmfEventListener
      * @param filter a list of regex Patterns used to choose the queues we wish to display.
      */
     public QpidQueueStats(final String url, final String connectionOptions, final List<Pattern> filter)
+    {
+        this(url, connectionOptions, filter, 0, QueueStatistics.SortKey.DEPTH, 0);
+    }
+
+    /**
+     * Constructor with a top N view. Creates JMS Session, Initialises Destinations, Producers &amp; Consumers and
+     * starts connection.
+     * @param url the connection URL.
+     * @param connectionOptions the options String to pass to ConnectionHelper.
+     * @param filter a list of regex Patterns used to choose the queues we wish to display.
+     * @param top the number of queues to show in the top N view, if zero a line is shown for each queue update.
+     * @param sortKey the order of the queues in the top N view.
+     * @param interval the top N view refresh interval in seconds.
+     */
+    public QpidQueueStats(final String url, final String connectionOptions, final List<Pattern> filter,
+                          final int top, final QueueStatistics.SortKey sortKey, final int interval)
     {
         System.out.println("Connecting to " + url);
         if (filter.size() > 0)
@@ -152,7 +160,9 @@ public final class QpidQueueStats implements QmfEventListener
             System.out.println("Filter = " + filter);
         }
         _url = url;
-        _filter = filter;
+        _statistics = new QueueStatistics(filter);
+        _top = top;
+        _sortKey = sortKey;
         try
         {
             Connection connection = ConnectionHelper.createConnection(url, connectionOptions);        
@@ -167,10 +177,24 @@ public final class QpidQueueStats implements QmfEventListener
             }
 
             System.out.println("Hit Return to exit");
-            System.out.println(
+            if (_top > 0)
+            {
+                Timer timer = new Timer(true);
+                timer.schedule(new TimerTask()
+                {
+                    public void run()
+                    {
+                        showTopN();
+                    }
+                }, interval*1000l, interval*1000l);
+            }
+            else
+            {
+                System.out.println(
                 "Queue Name                                          Sec       Depth     Enq Rate     Deq Rate");
-            System.out.println(
+                System.out.println(
                 "=============================================================================================");
+            }
         }
         catch (QmfException qmfe)
         {
@@ -197,8 +221,33 @@ public final class QpidQueueStats implements QmfEventListener
     }
 
     /**
-     * Main Event handler. Checks if the WorkItem is a SubscriptionIndicationWorkItem, if it is it stores the object
-     * in a Map and uses this to maintain state so we can record deltas such as enqueue and dequeue rates.
+     * Show the top N queues, the rates shown are the moving averages together with the 95th percentile of the
+     * enqueue rate.
+     */
+    private void showTopN()
+    {
+        synchronized(_statistics)
+        {
+            List<QueueStatistics.Series> top = _statistics.getTopN(_top, _sortKey);
+            System.out.println();
+            System.out.printf("%s  top %d of %d queues by %s\n", new Date().toString(), top.size(),
+                              _statistics.size(), _sortKey.toString().toLowerCase());
+            System.out.println(
+                "Queue Name                                    Depth     Enq Rate     Deq Rate  Enq Rate p95");
+            System.out.println(
+                "=============================================================================================");
+            for (QueueStatistics.Series series : top)
+            {
+                System.out.printf("%-40s%11d%13.2f%13.2f%14.2f\n", series.getName(), series.getDepth(),
+                                  series.getAverageEnqueueRate(), series.getAverageDequeueRate(),
+                                  series.getEnqueueRatePercentile(95.0d));
+            }
+        }
+    }
+
+    /**
+     * Main Event handler. Checks if the WorkItem is a SubscriptionIndicationWorkItem, if it is it passes the objects
+     * to the QueueStatistics engine, which maintains state so we can record deltas such as enqueue and dequeue rates.
      * <p>
      * The AgentHeartbeatWorkItem is used to periodically compare the elapsed time against the Subscription duration
      * so that we can refresh the Subscription (or create a new one if necessary) in order to continue receiving
@@ -228,7 +277,7 @@ public final class QpidQueueStats implements QmfEventListener
         }
         else if (wi instanceof AgentRestartedWorkItem)
         {
-            _objects.clear();
+            _statistics.clear();
         }
         else if (wi instanceof SubscriptionIndicationWorkItem)
         {
@@ -240,65 +289,11 @@ public final class QpidQueueStats implements QmfEventListener
                 List<QmfConsoleData> data = indication.getData();
                 for (QmfConsoleData record : data)
                 {
-                    ObjectId id = record.getObjectId();
-                    if (record.isDeleted())
-                    { // If the object was deleted by the Agent we remove it from out Map
-                        _objects.remove(id);
-                    }
-                    else
-                    {
-                        if (_objects.containsKey(id))
-                        { // If the object is already in the Map it's likely to be a statistics push from the broker.
-                            Stats stats = _objects.get(id);
-                            String name = stats.getName();
-
-                            boolean matches = false;
-                            for (Pattern x : _filter)
-                            { // Check the queue name against the regexes in the filter List (if any)
-                                Matcher m = x.matcher(name);
-                                if (m.find())
-                                {
-                                    matches = true;
-                                    break;
-                                }
-                            }
-
-                            if (_filter.isEmpty() || matches)
-                            { // If there's no filter enabled or the filter matches the queue name we display statistics.
-                                QmfConsoleData lastSample = stats.getData();
-                                stats.setData(record);
-    
-                                float deltaTime = record.getUpdateTime() - lastSample.getUpdateTime();
-                                if (deltaTime > 1000000000.0f)
-                                {
-                                    float deltaEnqueues = record.getLongValue("msgTotalEnqueues") -
-                                                          lastSample.getLongValue("msgTotalEnqueues");
-                                    float deltaDequeues = record.getLongValue("msgTotalDequeues") -
-                                                          lastSample.getLongValue("msgTotalDequeues");
-                                    long msgDepth = record.getLongValue("msgDepth");
-                                    float enqueueRate = deltaEnqueues/(deltaTime/1000000000.0f);
-                                    float dequeueRate = deltaDequeues/(deltaTime/1000000000.0f);
-
-                                    System.out.printf("%-46s%10.2f%11d%13.2f%13.2f\n", 
-                                                      name, deltaTime/1000000000, msgDepth, enqueueRate, dequeueRate);
-                                }
-                            }
-                        }
-                        else
-                        { // If the object isn't in the Map it's likely to be a properties push from the broker.
-                            if (!record.hasValue("name"))
-                            { // This probably won't happen, but if it does we refresh the object to get its full state.
-                                try
-                                {
-                                    record.refresh();
-                                }
-                                catch (QmfException qmfe)
-                                {  
-                                } 
-                            }
-                            String queueName = record.getStringValue("name");
-                            _objects.put(id, new Stats(queueName, record));
-                        }
+                    QueueStatistics.Series series = _statistics.update(record);
+                    if (series != null && _top == 0)
+                    { // A new interval was recorded for a queue matching the filter so we display its statistics.
+                        System.out.printf("%-46s%10.2f%11d%13.2f%13.2f\n", series.getName(), series.getInterval(),
+                                          series.getDepth(), series.getEnqueueRate(), series.getDequeueRate());
                     }
                 }
             }
@@ -315,13 +310,16 @@ public final class QpidQueueStats implements QmfEventListener
         logLevel = (logLevel == null) ? "FATAL" : logLevel; // Set default log level to FATAL rather than DEBUG.
         System.setProperty("amqj.logging.level", logLevel);
 
-        String[] longOpts = {"help", "broker-address=", "filter=", "sasl-mechanism="};
+        String[] longOpts = {"help", "broker-address=", "filter=", "top=", "sort=", "interval=", "sasl-mechanism="};
         try
         {
             String host = "localhost";
             String connectionOptions = "{reconnect: true}";
             List<Pattern> filter = new ArrayList<Pattern>();
-            GetOpt getopt = new GetOpt(args, "ha:f:", longOpts);
+            int top = 0;
+            QueueStatistics.SortKey sortKey = QueueStatistics.SortKey.DEPTH;
+            int interval = 10;
+            GetOpt getopt = new GetOpt(args, "ha:f:t:s:i:", longOpts);
             List<String[]> optList = getopt.getOptList();
 
             for (String[] opt : optList)
@@ -345,13 +343,29 @@ public final class QpidQueueStats implements QmfEventListener
                         filter.add(p);
                     }
                 }
+                else if (opt[0].equals("-t") || opt[0].equals("--top"))
+                {
+                    top = Integer.parseInt(opt[1]);
+                }
+                else if (opt[0].equals("-s") || opt[0].equals("--sort"))
+                {
+                    sortKey = QueueStatistics.SortKey.fromString(opt[1]);
+                }
+                else if (opt[0].equals("-i") || opt[0].equals("--interval"))
+                {
+                    interval = Integer.parseInt(opt[1]);
+                    if (interval <= 0)
+                    {
+                        throw new IllegalArgumentException("The interval must be greater than zero");
+                    }
+                }
                 else if (opt[0].equals("--sasl-mechanism"))
                 {
                     connectionOptions = "{reconnect: true, sasl_mechs: " + opt[1] + "}";
                 }
             }
 
-            QpidQueueStats queueStats = new QpidQueueStats(host, connectionOptions, filter);
+            QpidQueueStats queueStats = new QpidQueueStats(host, connectionOptions, filter, top, sortKey, interval);
         }
         catch (IllegalArgumentException e)
         {
@@ -0,0 +1,623 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.tools;
+
+// JMS Imports
+import javax.jms.Connection;
+
+// Misc Imports
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.regex.Pattern;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfEventListener;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.QmfQueryTarget;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.WorkItem;
+import org.apache.qpid.qmf2.console.Agent;
+import org.apache.qpid.qmf2.console.AgentHeartbeatWorkItem;
+import org.apache.qpid.qmf2.console.Console;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+import org.apache.qpid.qmf2.console.SubscribeIndication;
+import org.apache.qpid.qmf2.console.SubscribeParams;
+import org.apache.qpid.qmf2.console.SubscriptionIndicationWorkItem;
+import org.apache.qpid.qmf2.util.ConnectionHelper;
+import org.apache.qpid.qmf2.util.GetOpt;
+
+/**
+ * Record queue, exchange and connection statistics to a local TimeSeriesStore and query the recorded statistics.
+ * <pre>
+ * Usage: QpidRecorder [options] -d &lt;directory&gt;
+ *        QpidRecorder --query [options] -d &lt;directory&gt;
+ *
+ * Records the statistics of a broker's queues, exchanges and connections so
+ * that they can be replayed or aggregated later, for example for capacity
+ * planning.
+ *
+ * Options:
+ *   -h, --help            show this help message and exit
+ *   -a &lt;address&gt;, --broker-address=&lt;address&gt;
+ *                         broker-addr is in the form:  [username/password@]
+ *                         hostname | ip-address [:&lt;port&gt;]   ex:  localhost,
+ *                         10.1.1.7:10000, broker-host:10000,
+ *                         guest/guest@localhost
+ *   -d &lt;directory&gt;, --directory=&lt;directory&gt;
+ *                         the directory holding the recorded statistics
+ *   --flush=&lt;secs&gt;        how often recorded statistics are written to disk
+ *                         (default = 30)
+ *   --query               query the recorded statistics rather than record
+ *   -c &lt;class&gt;, --class=&lt;class&gt;
+ *                         the class to query: queue, exchange or connection
+ *                         (default is all classes)
+ *   -f &lt;filter&gt;, --filter=&lt;filter&gt;
+ *                         a list of comma separated object names (regex are
+ *                         accepted) to query (default is all objects)
+ *   --from=&lt;time&gt;         the start of the time range to query
+ *   --to=&lt;time&gt;           the end of the time range to query, times are in
+ *                         the form yyyy-MM-dd'T'HH:mm:ss or milliseconds
+ *                         since the epoch
+ *   --aggregate           show the minimum, maximum, mean and rate of change
+ *                         of each statistic over the time range rather than
+ *                         replaying each sample
+ *   --sasl-mechanism=&lt;mech&gt;
+ *                         SASL mechanism for authentication (e.g. EXTERNAL,
+ *                         ANONYMOUS, PLAIN, CRAM-MD5, DIGEST-MD5, GSSAPI). SASL
+ *                         automatically picks the most secure available
+ *                         mechanism - use this option to override.
+ * </pre>
+ * The statistics are received via a Subscription to each class, so the broker pushes them at its management publish
+ * interval. Each object is recorded as a TimeSeriesStore Series keyed by its ObjectId, see TimeSeriesStore for the
+ * format of the files.
+ * @author Fraser Adams
+ */
+public final class QpidRecorder implements QmfEventListener
+{
+    private static final String _usage =
+    "Usage: QpidRecorder [options] -d <directory>\n" +
+    "       QpidRecorder --query [options] -d <directory>\n";
+
+    private static final String _description =
+    "Records the statistics of a broker's queues, exchanges and connections so\n" +
+    "that they can be replayed or aggregated later, for example for capacity\n" +
+    "planning.\n";
+
+    private static final String _options =
+    "Options:\n" +
+    "  -h, --help            show this help message and exit\n" +
+    "  -a <address>, --broker-address=<address>\n" +
+    "                        broker-addr is in the form:  [username/password@]\n" +
+    "                        hostname | ip-address [:<port>]   ex:  localhost,\n" +
+    "                        10.1.1.7:10000, broker-host:10000,\n" +
+    "                        guest/guest@localhost\n" +
+    "  -d <directory>, --directory=<directory>\n" +
+    "                        the directory holding the recorded statistics\n" +
+    "  --flush=<secs>        how often recorded statistics are written to disk\n" +
+    "                        (default = 30)\n" +
+    "  --query               query the recorded statistics rather than record\n" +
+    "  -c <class>, --class=<class>\n" +
+    "                        the class to query: queue, exchange or connection\n" +
+    "                        (default is all classes)\n" +
+    "  -f <filter>, --filter=<filter>\n" +
+    "                        a list of comma separated object names (regex are\n" +
+    "                        accepted) to query (default is all objects)\n" +
+    "  --from=<time>         the start of the time range to query\n" +
+    "  --to=<time>           the end of the time range to query, times are in\n" +
+    "                        the form yyyy-MM-dd'T'HH:mm:ss or milliseconds\n" +
+    "                        since the epoch\n" +
+    "  --aggregate           show the minimum, maximum, mean and rate of change\n" +
+    "                        of each statistic over the time range rather than\n" +
+    "                        replaying each sample\n" +
+    "  --sasl-mechanism=<mech>\n" +
+    "                        SASL mechanism for authentication (e.g. EXTERNAL,\n" +
+    "                        ANONYMOUS, PLAIN, CRAM-MD5, DIGEST-MD5, GSSAPI). SASL\n" +
+    "                        automatically picks the most secure available\n" +
+    "                        mechanism - use this option to override.\n";
+
+    private static final String TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+    /**
+     * The statistics recorded for each class, the first entry is the property holding the object's name.
+     */
+    private static final Map<String, String[]> _statistics = new LinkedHashMap<String, String[]>();
+    static
+    {
+        _statistics.put("queue", new String[] {"name", "msgDepth", "byteDepth", "msgTotalEnqueues",
+                        "msgTotalDequeues", "byteTotalEnqueues", "byteTotalDequeues", "consumerCount"});
+        _statistics.put("exchange", new String[] {"name", "msgReceives", "msgRoutes", "msgDrops",
+                        "byteReceives", "byteRoutes", "byteDrops", "bindingCount"});
+        _statistics.put("connection", new String[] {"address", "msgsFromClient", "msgsToClient",
+                        "bytesFromClient", "bytesToClient", "framesFromClient", "framesToClient"});
+    }
+
+    /**
+     * The state of the Subscription to a class.
+     */
+    private static final class ClassSubscription
+    {
+        private final String _className;
+        private final String[] _columns;
+        private String _subscriptionId = null;
+        private long _subscriptionDuration;
+        private long _startTime;
+
+        private ClassSubscription(final String className, final String[] statistics)
+        {
+            _className = className;
+            _columns = new String[statistics.length - 1];
+            System.arraycopy(statistics, 1, _columns, 0, _columns.length);
+        }
+    }
+
+    private final TimeSeriesStore _store;
+    private final Map<String, ClassSubscription> _subscriptions = new HashMap<String, ClassSubscription>();
+    private final Map<ObjectId, TimeSeriesStore.Series> _series = new HashMap<ObjectId, TimeSeriesStore.Series>();
+    private Agent _broker;
+    private Console _console;
+
+    /**
+     * Basic constructor. Opens the TimeSeriesStore, connects to the broker and subscribes to each class.
+     * @param url the connection URL.
+     * @param connectionOptions the options String to pass to ConnectionHelper.
+     * @param store the TimeSeriesStore to record to.
+     * @param flushInterval how often the TimeSeriesStore is flushed, in seconds.
+     */
+    public QpidRecorder(final String url, final String connectionOptions, final TimeSeriesStore store,
+                        final int flushInterval)
+    {
+        System.out.println("Connecting to " + url);
+        _store = store;
+        for (Map.Entry<String, String[]> entry : _statistics.entrySet())
+        {
+            _subscriptions.put(entry.getKey(), new ClassSubscription(entry.getKey(), entry.getValue()));
+        }
+
+        Timer timer = new Timer(true);
+        timer.schedule(new TimerTask()
+        {
+            public void run()
+            {
+                try
+                {
+                    _store.flush();
+                }
+                catch (IOException ioe)
+                {
+                    System.err.println("IOException " + ioe.getMessage() + " caught in QpidRecorder flush");
+                }
+            }
+        }, flushInterval*1000l, flushInterval*1000l);
+
+        try
+        {
+            Connection connection = ConnectionHelper.createConnection(url, connectionOptions);
+            _console = new Console(this);
+            _console.addConnection(connection);
+
+            // Wait until the broker Agent has been discovered
+            _broker = _console.findAgent("broker");
+            if (_broker != null)
+            {
+                for (ClassSubscription subscription : _subscriptions.values())
+                {
+                    createSubscription(subscription);
+                }
+            }
+            System.out.println("Recording, hit Return to exit");
+        }
+        catch (QmfException qmfe)
+        {
+            System.err.println ("QmfException " + qmfe.getMessage() + " caught in QpidRecorder constructor");
+        }
+    }
+
+    /**
+     * Create a Subscription to query for all objects of a class.
+     * @param subscription the state of the Subscription.
+     */
+    private void createSubscription(final ClassSubscription subscription)
+    {
+        try
+        {
+            QmfQuery query = new QmfQuery(QmfQueryTarget.OBJECT, new SchemaClassId(subscription._className));
+            SubscribeParams params = _console.createSubscription(_broker, query, subscription._className);
+            subscription._subscriptionId = params.getSubscriptionId();
+            subscription._subscriptionDuration = params.getLifetime() - 10; // Refresh before it times out
+            subscription._startTime = System.currentTimeMillis();
+        }
+        catch (QmfException qmfe)
+        {
+            System.err.println ("QmfException " + qmfe.getMessage() + " caught in QpidRecorder createSubscription");
+        }
+    }
+
+    /**
+     * Record a statistics sample of an object.
+     * @param subscription the Subscription of the object's class.
+     * @param record the object, which may be a properties or a statistics push.
+     */
+    private void record(final ClassSubscription subscription, final QmfConsoleData record) throws IOException
+    {
+        ObjectId id = record.getObjectId();
+        if (record.isDeleted())
+        {
+            _series.remove(id);
+            return;
+        }
+
+        TimeSeriesStore.Series series = _series.get(id);
+        if (series == null)
+        { // The first time we see an object we need its name, which is only included in properties pushes.
+            String nameProperty = _statistics.get(subscription._className)[0];
+            if (!record.hasValue(nameProperty))
+            {
+                try
+                {
+                    record.refresh();
+                }
+                catch (QmfException qmfe)
+                {
+                    return;
+                }
+            }
+            series = _store.getSeries(id.toString(), subscription._className, record.getStringValue(nameProperty),
+                                      subscription._columns);
+            _series.put(id, series);
+        }
+
+        String[] columns = subscription._columns;
+        if (record.hasValue(columns[0]))
+        {
+            long[] values = new long[columns.length];
+            for (int i = 0; i < columns.length; i++)
+            {
+                values[i] = record.getLongValue(columns[i]);
+            }
+            _store.append(series, record.getUpdateTime()/1000000l, values);
+        }
+    }
+
+    /**
+     * Main Event handler. Records each object delivered by the Subscriptions. The AgentHeartbeatWorkItem is used to
+     * refresh the Subscriptions (or create new ones if necessary) before they time out.
+     * @param wi a QMF2 WorkItem object
+     */
+    public void onEvent(final WorkItem wi)
+    {
+        if (wi instanceof AgentHeartbeatWorkItem)
+        {
+            for (ClassSubscription subscription : _subscriptions.values())
+            {
+                long elapsed = (long)Math.round((System.currentTimeMillis() - subscription._startTime)/1000.0f);
+                if (subscription._subscriptionId != null && elapsed > subscription._subscriptionDuration)
+                {
+                    try
+                    {
+                        _console.refreshSubscription(subscription._subscriptionId);
+                        subscription._startTime = System.currentTimeMillis();
+                    }
+                    catch (QmfException qmfe)
+                    {
+                        System.err.println ("QmfException " + qmfe.getMessage() + " caught in QpidRecorder onEvent");
+                        createSubscription(subscription);
+                    }
+                }
+            }
+        }
+        else if (wi instanceof SubscriptionIndicationWorkItem)
+        {
+            SubscriptionIndicationWorkItem item = (SubscriptionIndicationWorkItem)wi;
+            SubscribeIndication indication = item.getSubscribeIndication();
+            ClassSubscription subscription = _subscriptions.get(indication.getConsoleHandle());
+            if (subscription != null)
+            {
+                try
+                {
+                    for (QmfConsoleData record : indication.getData())
+                    {
+                        record(subscription, record);
+                    }
+                }
+                catch (IOException ioe)
+                {
+                    System.err.println("IOException " + ioe.getMessage() + " caught in QpidRecorder onEvent");
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse a time in the form yyyy-MM-dd'T'HH:mm:ss or milliseconds since the epoch.
+     */
+    private static long parseTime(final String time)
+    {
+        try
+        {
+            return Long.parseLong(time);
+        }
+        catch (NumberFormatException nfe)
+        {
+            try
+            {
+                return new SimpleDateFormat(TIME_FORMAT).parse(time).getTime();
+            }
+            catch (ParseException pe)
+            {
+                throw new IllegalArgumentException("Invalid time " + time);
+            }
+        }
+    }
+
+    /**
+     * Query the recorded statistics, either replaying each sample or showing the minimum, maximum, mean and rate of
+     * change of each statistic.
+     * @param store the TimeSeriesStore to query.
+     * @param className the class to query or null for all classes.
+     * @param filter a list of regex Patterns used to choose the objects to query.
+     * @param from the start of the time range in milliseconds since the epoch.
+     * @param to the end of the time range in milliseconds since the epoch.
+     * @param aggregate true to show aggregates rather than replaying each sample.
+     */
+    public static void query(final TimeSeriesStore store, final String className, final List<Pattern> filter,
+                             final long from, final long to, final boolean aggregate) throws IOException
+    {
+        final SimpleDateFormat format = new SimpleDateFormat(TIME_FORMAT);
+        for (TimeSeriesStore.Series series : store.getSeries())
+        {
+            if (className != null && !className.equals(series.getClassName()))
+            {
+                continue;
+            }
+
+            boolean matches = filter.isEmpty();
+            for (Pattern x : filter)
+            {
+                if (x.matcher(series.getName()).find())
+                {
+                    matches = true;
+                    break;
+                }
+            }
+            if (!matches)
+            {
+                continue;
+            }
+
+            final String[] columns = series.getColumns();
+            if (aggregate)
+            {
+                final int n = columns.length;
+                final long[] first = new long[n];
+                final long[] last = new long[n];
+                final long[] min = new long[n];
+                final long[] max = new long[n];
+                final double[] sum = new double[n];
+                final long[] times = new long[3]; // count, first timestamp, last timestamp
+                store.query(series, from, to, new TimeSeriesStore.SampleListener()
+                {
+                    public void onSample(final TimeSeriesStore.Series series, final long timestamp,
+                                         final long[] values)
+                    {
+                        for (int i = 0; i < n; i++)
+                        {
+                            if (times[0] == 0)
+                            {
+                                first[i] = values[i];
+                                min[i] = values[i];
+                                max[i] = values[i];
+                            }
+                            min[i] = Math.min(min[i], values[i]);
+                            max[i] = Math.max(max[i], values[i]);
+                            sum[i] += values[i];
+                            last[i] = values[i];
+                        }
+                        if (times[0] == 0)
+                        {
+                            times[1] = timestamp;
+                        }
+                        times[2] = timestamp;
+                        times[0]++;
+                    }
+                });
+
+                if (times[0] > 0)
+                {
+                    double seconds = (times[2] - times[1])/1000.0d;
+                    System.out.printf("%s %s: %d samples from %s to %s\n", series.getClassName(), series.getName(),
+                                      times[0], format.format(new Date(times[1])), format.format(new Date(times[2])));
+                    System.out.printf("    %-20s%15s%15s%18s%15s\n", "statistic", "min", "max", "mean", "rate/sec");
+                    for (int i = 0; i < n; i++)
+                    {
+                        double rate = seconds > 0 ? (last[i] - first[i])/seconds : 0.0d;
+                        System.out.printf("    %-20s%15d%15d%18.2f%15.2f\n", columns[i], min[i], max[i],
+                                          sum[i]/times[0], rate);
+                    }
+                }
+            }
+            else
+            {
+                store.query(series, from, to, new TimeSeriesStore.SampleListener()
+                {
+                    public void onSample(final TimeSeriesStore.Series series, final long timestamp,
+                                         final long[] values)
+                    {
+                        StringBuilder buffer = new StringBuilder();
+                        buffer.append(format.format(new Date(timestamp))).append(' ').append(series.getClassName())
+                              .append(' ').append(series.getName());
+                        for (int i = 0; i < columns.length; i++)
+                        {
+                            buffer.append(' ').append(columns[i]).append('=').append(values[i]);
+                        }
+                        System.out.println(buffer);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Runs QpidRecorder.
+     * @param args the command line arguments.
+     */
+    public static void main(final String[] args)
+    {
+        String logLevel = System.getProperty("amqj.logging.level");
+        logLevel = (logLevel == null) ? "FATAL" : logLevel; // Set default log level to FATAL rather than DEBUG.
+        System.setProperty("amqj.logging.level", logLevel);
+
+        String[] longOpts = {"help", "broker-address=", "directory=", "flush=", "query", "class=", "filter=",
+                             "from=", "to=", "aggregate", "sasl-mechanism="};
+        TimeSeriesStore store = null;
+        try
+        {
+            String host = "localhost";
+            String connectionOptions = "{reconnect: true}";
+            String directory = null;
+            int flushInterval = 30;
+            boolean query = false;
+            String className = null;
+            List<Pattern> filter = new ArrayList<Pattern>();
+            long from = Long.MIN_VALUE;
+            long to = Long.MAX_VALUE;
+            boolean aggregate = false;
+            GetOpt getopt = new GetOpt(args, "ha:d:c:f:", longOpts);
+            List<String[]> optList = getopt.getOptList();
+
+            for (String[] opt : optList)
+            {
+                if (opt[0].equals("-h") || opt[0].equals("--help"))
+                {
+                    System.out.println(_usage);
+                    System.out.println(_description);
+                    System.out.println(_options);
+                    System.exit(1);
+                }
+                else if (opt[0].equals("-a") || opt[0].equals("--broker-address"))
+                {
+                    host = opt[1];
+                }
+                else if (opt[0].equals("-d") || opt[0].equals("--directory"))
+                {
+                    directory = opt[1];
+                }
+                else if (opt[0].equals("--flush"))
+                {
+                    flushInterval = Integer.parseInt(opt[1]);
+                    if (flushInterval <= 0)
+                    {
+                        throw new IllegalArgumentException("The flush interval must be greater than zero");
+                    }
+                }
+                else if (opt[0].equals("--query"))
+                {
+                    query = true;
+                }
+                else if (opt[0].equals("-c") || opt[0].equals("--class"))
+                {
+                    className = opt[1];
+                    if (!_statistics.containsKey(className))
+                    {
+                        throw new IllegalArgumentException("Invalid class " + className);
+                    }
+                }
+                else if (opt[0].equals("-f") || opt[0].equals("--filter"))
+                {
+                    String[] split = opt[1].split(",");
+                    for (String s : split)
+                    {
+                        Pattern p = Pattern.compile(s);
+                        filter.add(p);
+                    }
+                }
+                else if (opt[0].equals("--from"))
+                {
+                    from = parseTime(opt[1]);
+                }
+                else if (opt[0].equals("--to"))
+                {
+                    to = parseTime(opt[1]);
+                }
+                else if (opt[0].equals("--aggregate"))
+                {
+                    aggregate = true;
+                }
+                else if (opt[0].equals("--sasl-mechanism"))
+                {
+                    connectionOptions = "{reconnect: true, sasl_mechs: " + opt[1] + "}";
+                }
+            }
+
+            if (directory == null)
+            {
+                throw new IllegalArgumentException("A directory must be supplied");
+            }
+
+            if (query)
+            {
+                store = new TimeSeriesStore(new File(directory), true);
+                query(store, className, filter, from, to, aggregate);
+                store.close();
+                System.exit(0);
+            }
+
+            store = new TimeSeriesStore(new File(directory), false);
+            QpidRecorder recorder = new QpidRecorder(host, connectionOptions, store, flushInterval);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println(_usage);
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+        catch (IOException ioe)
+        {
+            System.out.println("QpidRecorder main(): IOException: " + ioe.getMessage());
+            System.exit(1);
+        }
+
+        BufferedReader commandLine = new BufferedReader(new InputStreamReader(System.in));
+        try
+        { // Blocks here until return is pressed
+            String s = commandLine.readLine();
+            store.close();
+            System.exit(0);
+        }
+        catch (IOException e)
+        {
+            System.out.println ("QpidRecorder main(): IOException: " + e.getMessage());
+        }
+    }
+}
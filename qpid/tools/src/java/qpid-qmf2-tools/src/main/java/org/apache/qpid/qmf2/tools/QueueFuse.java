@@ -20,18 +20,20 @@
  */
 package org.apache.qpid.qmf2.tools;
 
-// JMS Imports
-import javax.jms.Connection;
-
 // Misc Imports
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,16 +41,19 @@ import java.util.regex.Pattern;
 import org.apache.qpid.qmf2.common.ObjectId;
 import org.apache.qpid.qmf2.common.QmfData;
 import org.apache.qpid.qmf2.common.QmfEvent;
-import org.apache.qpid.qmf2.common.QmfEventListener;
 import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.QmfQueryTarget;
 import org.apache.qpid.qmf2.common.SchemaClassId;
 import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.console.Agent;
-import org.apache.qpid.qmf2.console.Console;
+import org.apache.qpid.qmf2.console.AgentHeartbeatWorkItem;
+import org.apache.qpid.qmf2.console.AgentRestartedWorkItem;
 import org.apache.qpid.qmf2.console.EventReceivedWorkItem;
 import org.apache.qpid.qmf2.console.QmfConsoleData;
-
-import org.apache.qpid.qmf2.util.ConnectionHelper;
+import org.apache.qpid.qmf2.console.SubscribeIndication;
+import org.apache.qpid.qmf2.console.SubscribeParams;
+import org.apache.qpid.qmf2.console.SubscriptionIndicationWorkItem;
 import org.apache.qpid.qmf2.util.GetOpt;
 
 /**
@@ -110,9 +115,18 @@ import org.apache.qpid.qmf2.util.GetOpt;
  *                         automatically picks the most secure available
  *                         mechanism - use this option to override.
  * </pre>
+ * The brokers are monitored using a shared BrokerMonitor, so events from many brokers are handled by a small pool
+ * of worker threads. Events from a given broker are handled in order by one worker at a time, so each broker's
+ * queue cache is only ever accessed by one thread at a time.
+ * <p>
+ * Each broker's queue cache is populated once when QueueFuse starts (and again if the broker restarts), after that
+ * it is maintained incrementally from queueDeclare and queueDelete Events and from a queue object Subscription,
+ * which delivers the properties of newly created queues. This means that when a queueThresholdExceeded Event occurs
+ * the queue to purge is simply looked up in the cache, so the time taken to react doesn't depend on the number of
+ * queues on the broker.
  * @author Fraser Adams
  */
-public final class QueueFuse implements QmfEventListener
+public final class QueueFuse implements BrokerMonitor.BrokerListener
 {
     private static final String _usage =
     "Usage: QueueFuse [options] [broker-addr]...\n";
@@ -153,64 +167,239 @@ public final class QueueFuse implements QmfEventListener
     "                        automatically picks the most secure available\n" +
     "                        mechanism - use this option to override.\n";
 
-    private final String _url;
+    private static final String QUEUE_HANDLE = "queueFuseHandle";
+
+    /**
+     * Holds the queue cache of a broker together with the state of the queue object Subscription that maintains it.
+     * A given broker's QueueCache is only accessed from that broker's BrokerMonitor pipeline so it needs no
+     * synchronisation.
+     */
+    private static final class QueueCache
+    {
+        private final Map<String, QmfConsoleData> _queues = new HashMap<String, QmfConsoleData>(50);
+        private final Map<ObjectId, String> _names = new HashMap<ObjectId, String>(50);
+        private Agent _agent = null;
+        private String _subscriptionId = null;
+        private long _subscriptionDuration;
+        private long _startTime;
+
+        /**
+         * Add or replace a queue object in the cache.
+         * @param queue the queue object, which must include its properties.
+         */
+        private void put(final QmfConsoleData queue)
+        {
+            String queueName = queue.getStringValue("name");
+            QmfConsoleData previous = _queues.put(queueName, queue);
+            if (previous != null)
+            {
+                _names.remove(previous.getObjectId());
+            }
+            _names.put(queue.getObjectId(), queueName);
+        }
+
+        /**
+         * Remove the queue with the given name from the cache.
+         * @param queueName the name of the queue to remove.
+         */
+        private void remove(final String queueName)
+        {
+            QmfConsoleData queue = _queues.remove(queueName);
+            if (queue != null)
+            {
+                _names.remove(queue.getObjectId());
+            }
+        }
+
+        /**
+         * Remove the queue with the given ObjectId from the cache.
+         * @param id the ObjectId of the queue to remove.
+         */
+        private void remove(final ObjectId id)
+        {
+            String queueName = _names.remove(id);
+            if (queueName != null)
+            {
+                _queues.remove(queueName);
+            }
+        }
+
+        /**
+         * Clear the cache.
+         */
+        private void clear()
+        {
+            _queues.clear();
+            _names.clear();
+        }
+    }
+
     private final List<Pattern> _filter;
     private final float _purge;
-    private Map<String, QmfConsoleData> _queueCache = new HashMap<String, QmfConsoleData>(50);
-    private Console _console;
+    private final BrokerMonitor _monitor;
+
+    /**
+     * The QueueCache of each broker, keyed by the broker's connection URL. The caches are created before the brokers
+     * are connected to, so that none of the WorkItems delivered as soon as a Console is connected are dropped.
+     */
+    private final Map<String, QueueCache> _queueCaches = new ConcurrentHashMap<String, QueueCache>();
 
     /**
-     * Basic constructor. Creates JMS Session, Initialises Destinations, Producers &amp; Consumers and starts connection.
-     * @param url the connection URL.
+     * Basic constructor. Connects to each of the brokers and starts monitoring them for queueThresholdExceeded Events.
+     * @param urls the connection URLs of the brokers to protect.
      * @param connectionOptions the options String to pass to ConnectionHelper.
      * @param filter a list of regex Patterns used to choose the queues we wish to protect.
      * @param purge the ratio of messages that we wish to purge if the threshold gets exceeded.
      */
-    public QueueFuse(final String url, final String connectionOptions, final List<Pattern> filter, final float purge)
+    public QueueFuse(final List<String> urls, final String connectionOptions, final List<Pattern> filter,
+                     final float purge)
     {
-        System.out.println("QueueFuse Connecting to " + url);
+        for (String url : urls)
+        {
+            System.out.println("QueueFuse Connecting to " + url);
+        }
         if (filter.size() > 0)
         {
             System.out.println("Filter = " + filter);
         }
-        _url = url;
         _filter = filter;
         _purge = purge;
-        try
+        _monitor = new BrokerMonitor(this);
+
+        List<String> distinctUrls = new ArrayList<String>(new LinkedHashSet<String>(urls));
+        for (String url : distinctUrls)
+        {
+            _queueCaches.put(url, new QueueCache());
+        }
+
+        List<BrokerMonitor.Broker> brokers = _monitor.addBrokers(distinctUrls, connectionOptions);
+        _queueCaches.keySet().retainAll(connectedUrls(brokers));
+        for (final BrokerMonitor.Broker broker : brokers)
+        { // Populate each broker's queue cache in its pipeline, so it's ordered with respect to the broker's events.
+            final QueueCache queueCache = _queueCaches.get(broker.getUrl());
+            broker.execute(new Runnable()
+            {
+                public void run()
+                {
+                    queueCache._agent = broker.getConsole().findAgent("broker");
+                    createQueueSubscription(broker, queueCache);
+                    updateQueueCache(broker, queueCache);
+                }
+            });
+        }
+    }
+
+    /**
+     * Return the connection URLs of a List of Brokers.
+     * @param brokers the Brokers.
+     * @return the Set of the Brokers' connection URLs.
+     */
+    private static Set<String> connectedUrls(final List<BrokerMonitor.Broker> brokers)
+    {
+        Set<String> urls = new HashSet<String>();
+        for (BrokerMonitor.Broker broker : brokers)
+        {
+            urls.add(broker.getUrl());
+        }
+        return urls;
+    }
+
+    /**
+     * Create a Subscription to query for all queue objects, this delivers the properties of newly created queues
+     * and tells us about queues that have been deleted.
+     * @param broker the broker whose queues we wish to subscribe to.
+     * @param queueCache the broker's QueueCache.
+     */
+    private void createQueueSubscription(final BrokerMonitor.Broker broker, final QueueCache queueCache)
+    {
+        if (queueCache._agent == null)
         {
-            Connection connection = ConnectionHelper.createConnection(url, connectionOptions);        
-            _console = new Console(this);
-            _console.addConnection(connection);
-            updateQueueCache();
+            System.out.printf("%s ERROR QueueFuse couldn't find the broker Agent on %s\n",
+                              new Date().toString(), broker.getUrl());
+            return;
+        }
+
+        try
+        {   // This QmfQuery simply does an ID query for objects with the className "queue"
+            QmfQuery query = new QmfQuery(QmfQueryTarget.OBJECT, new SchemaClassId("queue"));
+            SubscribeParams params = broker.getConsole().createSubscription(queueCache._agent, query, QUEUE_HANDLE);
+            queueCache._subscriptionId = params.getSubscriptionId();
+            queueCache._subscriptionDuration = params.getLifetime() - 10; // Refresh before it times out
+            queueCache._startTime = System.currentTimeMillis();
         }
         catch (QmfException qmfe)
         {
-            System.err.println("QmfException " + qmfe.getMessage() + " caught in QueueFuse constructor");
+            System.err.println ("QmfException " + qmfe.getMessage() + " caught in QueueFuse createQueueSubscription");
         }
     }
 
     /**
-     * Looks up queue objects and stores them in _queueCache keyed by the queue name
+     * Looks up all of the broker's queue objects and stores them in its queue cache keyed by the queue name. This
+     * is only done when we start monitoring a broker and when a broker restarts, otherwise the cache is maintained
+     * incrementally.
+     * @param broker the broker whose queue cache we wish to update.
+     * @param queueCache the broker's QueueCache.
      */
-    private void updateQueueCache()
+    private void updateQueueCache(final BrokerMonitor.Broker broker, final QueueCache queueCache)
     {
-        _queueCache.clear();
-        List<QmfConsoleData> queues = _console.getObjects("org.apache.qpid.broker", "queue");
+        queueCache.clear();
+        List<QmfConsoleData> queues = broker.getConsole().getObjects("org.apache.qpid.broker", "queue");
         for (QmfConsoleData queue : queues)
         {
-            String queueName = queue.getStringValue("name");
-            _queueCache.put(queueName, queue);
+            queueCache.put(queue);
+        }
+    }
+
+    /**
+     * Apply a queue object Subscription update to the broker's queue cache.
+     * @param queueCache the broker's QueueCache.
+     * @param data the queue objects delivered by the Subscription.
+     */
+    private void updateQueueCache(final QueueCache queueCache, final List<QmfConsoleData> data)
+    {
+        for (QmfConsoleData record : data)
+        {
+            ObjectId id = record.getObjectId();
+            if (record.isDeleted())
+            {
+                queueCache.remove(id);
+            }
+            else if (record.hasValue("name"))
+            { // A properties push, most likely a newly created queue, so we cache it.
+                queueCache.put(record);
+            }
+            else if (!queueCache._names.containsKey(id))
+            { // A statistics push for a queue we don't know, this probably won't happen but if it does we refresh
+              // the object to get its properties.
+                try
+                {
+                    record.refresh();
+                    queueCache.put(record);
+                }
+                catch (QmfException qmfe)
+                {
+                    System.err.println ("QmfException " + qmfe.getMessage() + " caught in QueueFuse updateQueueCache");
+                }
+            }
+            // Otherwise it's a statistics push for a queue we already have, we only need the queue's properties.
         }
     }
 
     /**
      * Look up a queue object with the given name and if it's not a ring queue invoke the queue's purge method.
+     * @param broker the broker that the queue belongs to.
      * @param queueName the name of the queue to purge
      * @param msgDepth the number of messages on the queue, used to determine how many messages to purge.
      */
-    private void purgeQueue(final String queueName, long msgDepth)
+    private void purgeQueue(final BrokerMonitor.Broker broker, final String queueName, long msgDepth)
     {
-        QmfConsoleData queue = _queueCache.get(queueName);
+        QueueCache queueCache = _queueCaches.get(broker.getUrl());
+        QmfConsoleData queue = queueCache._queues.get(queueName);
+        if (queue == null)
+        { // The queue was declared so recently that the Subscription hasn't delivered it yet, so we reload the cache.
+            updateQueueCache(broker, queueCache);
+            queue = queueCache._queues.get(queueName);
+        }
 
         if (queue == null)
         {
@@ -241,21 +430,75 @@ public final class QueueFuse implements QmfEventListener
     }
 
     /**
-     * Main Event handler.
+     * Main Event handler. Maintains each broker's queue cache from queueDeclare and queueDelete Events and from
+     * the queue object Subscription and purges queues when queueThresholdExceeded Events occur.
+     * <p>
+     * The AgentHeartbeatWorkItem is used to periodically compare the elapsed time against the Subscription duration
+     * so that we can refresh the Subscription (or create a new one if necessary), when the AgentRestartedWorkItem is
+     * received we reload the cache as any queues that weren't durable will have gone.
+     * @param broker the broker that the WorkItem was received from.
      * @param wi a QMF2 WorkItem object
      */
-    public void onEvent(final WorkItem wi)
+    public void onEvent(final BrokerMonitor.Broker broker, final WorkItem wi)
     {
-        if (wi instanceof EventReceivedWorkItem)
+        QueueCache queueCache = _queueCaches.get(broker.getUrl());
+        if (queueCache == null)
+        {
+            return;
+        }
+
+        if (wi instanceof AgentHeartbeatWorkItem && queueCache._subscriptionId != null)
+        {
+            long elapsed = (long)Math.round((System.currentTimeMillis() - queueCache._startTime)/1000.0f);
+            if (elapsed > queueCache._subscriptionDuration)
+            {
+                try
+                {
+                    broker.getConsole().refreshSubscription(queueCache._subscriptionId);
+                    queueCache._startTime = System.currentTimeMillis();
+                }
+                catch (QmfException qmfe)
+                {
+                    System.err.println ("QmfException " + qmfe.getMessage() + " caught in QueueFuse onEvent");
+                    createQueueSubscription(broker, queueCache);
+                }
+            }
+        }
+        else if (wi instanceof AgentRestartedWorkItem)
+        {
+            updateQueueCache(broker, queueCache);
+        }
+        else if (wi instanceof SubscriptionIndicationWorkItem)
+        {
+            SubscriptionIndicationWorkItem item = (SubscriptionIndicationWorkItem)wi;
+            SubscribeIndication indication = item.getSubscribeIndication();
+            if (QUEUE_HANDLE.equals(indication.getConsoleHandle()))
+            {
+                updateQueueCache(queueCache, indication.getData());
+            }
+        }
+        else if (wi instanceof EventReceivedWorkItem)
         {
             EventReceivedWorkItem item = (EventReceivedWorkItem)wi;
-            Agent agent = item.getAgent();
             QmfEvent event = item.getEvent();
             String className = event.getSchemaClassId().getClassName();
 
             if (className.equals("queueDeclare"))
+            { // The Event doesn't carry the queue's ObjectId, so the queue object itself arrives via the Subscription,
+              // which replaces any cached queue with the same name. The event and object timestamps come from
+              // different clocks so they aren't compared, instead a cached queue from an earlier Agent Epoch is
+              // known to be stale and is removed so that purgeQueue() reloads the cache if it's needed first.
+                String queueName = event.getStringValue("qName");
+                QmfConsoleData queue = queueCache._queues.get(queueName);
+                if (queue != null && queueCache._agent != null && !"existing".equals(event.getStringValue("disp")) &&
+                    queue.getObjectId().getAgentEpoch() < queueCache._agent.getEpoch())
+                {
+                    queueCache.remove(queueName);
+                }
+            }
+            else if (className.equals("queueDelete"))
             {
-                updateQueueCache();
+                queueCache.remove(event.getStringValue("qName"));
             }
             else if (className.equals("queueThresholdExceeded"))
             {
@@ -274,7 +517,7 @@ public final class QueueFuse implements QmfEventListener
                 if (_filter.isEmpty() || matches)
                 { // If there's no filter enabled or the filter matches the queue name we call purgeQueue().
                     long msgDepth = event.getLongValue("msgDepth");
-                    purgeQueue(queueName, msgDepth);
+                    purgeQueue(broker, queueName, msgDepth);
                 }
             }
         }
@@ -341,10 +584,7 @@ public final class QueueFuse implements QmfEventListener
                 cargs = new String[] {"localhost"};
             }
 
-            for (String url : cargs)
-            {
-                QueueFuse queueFuse = new QueueFuse(url, connectionOptions, filter, purge);
-            }
+            QueueFuse queueFuse = new QueueFuse(Arrays.asList(cargs), connectionOptions, filter, purge);
         }
         catch (IllegalArgumentException e)
         {
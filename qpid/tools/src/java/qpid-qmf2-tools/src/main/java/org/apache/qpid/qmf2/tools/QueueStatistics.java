@@ -0,0 +1,580 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.tools;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * QueueStatistics is a statistics engine that turns the stream of queue objects delivered by a queue Subscription
+ * into per-queue rates, it is used by QpidQueueStats but is intended to be reusable by other tools.
+ * <p>
+ * For each queue the most recent samples of the enqueue and dequeue counters and of the queue depth are held in a
+ * fixed size ring buffer, so memory use is bounded however long the tool runs. From these QueueStatistics derives
+ * <ul>
+ * <li>the rates over the most recent interval.</li>
+ * <li>exponentially weighted moving average (EWMA) rates. The weight given to each interval depends on its length,
+ * so irregular publish intervals don't skew the average.</li>
+ * <li>percentiles of the interval rates held in the ring buffer.</li>
+ * </ul>
+ * All rates are calculated in double precision and are in messages per second.
+ * <p>
+ * The queue name filter is matched once when a queue is first seen rather than on every update, and updates for
+ * queues that don't match the filter are discarded. The busiest queues can be found with getTopN(), which uses a
+ * bounded heap so it is efficient on brokers with thousands of queues.
+ * <p>
+ * All methods are synchronized, so the statistics may be updated on the Console's event thread and read on another
+ * thread, such as a display timer.
+ *
+ * @author Fraser Adams
+ */
+public final class QueueStatistics
+{
+    /**
+     * The ways in which getTopN() may order the queues.
+     */
+    public enum SortKey
+    {
+        DEPTH,
+        ENQUEUE_RATE,
+        DEQUEUE_RATE;
+
+        /**
+         * Return the SortKey with the given name, which may be "depth", "enqueue" or "dequeue".
+         * @param name the name of the SortKey.
+         * @return the SortKey with the given name.
+         */
+        public static SortKey fromString(final String name)
+        {
+            if (name.equals("depth"))
+            {
+                return DEPTH;
+            }
+            else if (name.equals("enqueue"))
+            {
+                return ENQUEUE_RATE;
+            }
+            else if (name.equals("dequeue"))
+            {
+                return DEQUEUE_RATE;
+            }
+            throw new IllegalArgumentException("Invalid sort key " + name + ", use depth, enqueue or dequeue");
+        }
+    }
+
+    /**
+     * The statistics of a single queue.
+     */
+    public static final class Series
+    {
+        private final String _name;
+        private final boolean _selected;
+
+        // The ring buffer of samples, _head is the index of the most recent sample.
+        private final long[] _timestamp;
+        private final long[] _enqueues;
+        private final long[] _dequeues;
+        private final long[] _depth;
+        private final double[] _enqueueRate;
+        private final double[] _dequeueRate;
+        private int _head = -1;
+        private int _count = 0;
+
+        private double _ewmaEnqueueRate = 0.0d;
+        private double _ewmaDequeueRate = 0.0d;
+
+        /**
+         * Construct a Series.
+         * @param name the queue name.
+         * @param selected true if the queue matches the filter.
+         * @param capacity the size of the ring buffer.
+         */
+        private Series(final String name, final boolean selected, final int capacity)
+        {
+            _name = name;
+            _selected = selected;
+            _timestamp = selected ? new long[capacity] : null;
+            _enqueues = selected ? new long[capacity] : null;
+            _dequeues = selected ? new long[capacity] : null;
+            _depth = selected ? new long[capacity] : null;
+            _enqueueRate = selected ? new double[capacity] : null;
+            _dequeueRate = selected ? new double[capacity] : null;
+        }
+
+        /**
+         * Add a sample to the ring buffer, updating the rates.
+         * @param timestamp the broker's update time of the sample in nanoseconds since the epoch.
+         * @param enqueues the total number of messages enqueued.
+         * @param dequeues the total number of messages dequeued.
+         * @param depth the queue depth.
+         * @param tau the EWMA time constant in seconds.
+         * @param minInterval the minimum interval between samples in nanoseconds.
+         * @return true if a new interval was recorded.
+         */
+        private boolean add(final long timestamp, final long enqueues, final long dequeues, final long depth,
+                            final double tau, final long minInterval)
+        {
+            int capacity = _timestamp.length;
+            if (_count > 0)
+            {
+                long deltaTime = timestamp - _timestamp[_head];
+                if (deltaTime < minInterval && deltaTime >= 0)
+                { // Too soon after the last sample to give a meaningful rate, so just update the depth.
+                    _depth[_head] = depth;
+                    return false;
+                }
+
+                long deltaEnqueues = enqueues - _enqueues[_head];
+                long deltaDequeues = dequeues - _dequeues[_head];
+                if (deltaTime < 0 || deltaEnqueues < 0 || deltaDequeues < 0)
+                { // The counters or clock went backwards, most likely the queue was re-created, so start again.
+                    _count = 0;
+                }
+                else
+                {
+                    double seconds = deltaTime/1000000000.0d;
+                    double enqueueRate = deltaEnqueues/seconds;
+                    double dequeueRate = deltaDequeues/seconds;
+                    if (_count == 1)
+                    { // The first interval seeds the moving averages.
+                        _ewmaEnqueueRate = enqueueRate;
+                        _ewmaDequeueRate = dequeueRate;
+                    }
+                    else
+                    {
+                        double alpha = 1.0d - Math.exp(-seconds/tau);
+                        _ewmaEnqueueRate += alpha*(enqueueRate - _ewmaEnqueueRate);
+                        _ewmaDequeueRate += alpha*(dequeueRate - _ewmaDequeueRate);
+                    }
+
+                    _head = (_head + 1) % capacity;
+                    _timestamp[_head] = timestamp;
+                    _enqueues[_head] = enqueues;
+                    _dequeues[_head] = dequeues;
+                    _depth[_head] = depth;
+                    _enqueueRate[_head] = enqueueRate;
+                    _dequeueRate[_head] = dequeueRate;
+                    if (_count < capacity)
+                    {
+                        _count++;
+                    }
+                    return true;
+                }
+            }
+
+            _head = 0;
+            _timestamp[0] = timestamp;
+            _enqueues[0] = enqueues;
+            _dequeues[0] = dequeues;
+            _depth[0] = depth;
+            _count = 1;
+            _ewmaEnqueueRate = 0.0d;
+            _ewmaDequeueRate = 0.0d;
+            return false;
+        }
+
+        /**
+         * Return the p'th percentile, using the nearest rank method, of the interval rates in the ring buffer.
+         * The first sample has no interval so it is excluded.
+         */
+        private double percentile(final double[] rates, final double p)
+        {
+            int n = _count - 1;
+            if (n <= 0)
+            {
+                return 0.0d;
+            }
+
+            double[] sorted = new double[n];
+            for (int i = 0; i < n; i++)
+            {
+                sorted[i] = rates[(_head - i + rates.length) % rates.length];
+            }
+            Arrays.sort(sorted);
+            int rank = (int)Math.ceil(p/100.0d*n);
+            return sorted[Math.min(Math.max(rank, 1), n) - 1];
+        }
+
+        /**
+         * Return the queue name.
+         * @return the queue name.
+         */
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         * Return the number of samples held, which is at most the capacity of the ring buffer.
+         * @return the number of samples held.
+         */
+        public int getSampleCount()
+        {
+            return _count;
+        }
+
+        /**
+         * Return the queue depth at the most recent sample.
+         * @return the queue depth at the most recent sample.
+         */
+        public long getDepth()
+        {
+            return _count == 0 ? 0 : _depth[_head];
+        }
+
+        /**
+         * Return the length of the most recent interval in seconds.
+         * @return the length of the most recent interval in seconds.
+         */
+        public double getInterval()
+        {
+            if (_count < 2)
+            {
+                return 0.0d;
+            }
+            int previous = (_head - 1 + _timestamp.length) % _timestamp.length;
+            return (_timestamp[_head] - _timestamp[previous])/1000000000.0d;
+        }
+
+        /**
+         * Return the enqueue rate over the most recent interval.
+         * @return the enqueue rate over the most recent interval.
+         */
+        public double getEnqueueRate()
+        {
+            return _count < 2 ? 0.0d : _enqueueRate[_head];
+        }
+
+        /**
+         * Return the dequeue rate over the most recent interval.
+         * @return the dequeue rate over the most recent interval.
+         */
+        public double getDequeueRate()
+        {
+            return _count < 2 ? 0.0d : _dequeueRate[_head];
+        }
+
+        /**
+         * Return the exponentially weighted moving average enqueue rate.
+         * @return the exponentially weighted moving average enqueue rate.
+         */
+        public double getAverageEnqueueRate()
+        {
+            return _ewmaEnqueueRate;
+        }
+
+        /**
+         * Return the exponentially weighted moving average dequeue rate.
+         * @return the exponentially weighted moving average dequeue rate.
+         */
+        public double getAverageDequeueRate()
+        {
+            return _ewmaDequeueRate;
+        }
+
+        /**
+         * Return a percentile of the enqueue rates held in the ring buffer.
+         * @param p the percentile, between 0 and 100.
+         * @return the p'th percentile of the enqueue rates.
+         */
+        public double getEnqueueRatePercentile(final double p)
+        {
+            return percentile(_enqueueRate, p);
+        }
+
+        /**
+         * Return a percentile of the dequeue rates held in the ring buffer.
+         * @param p the percentile, between 0 and 100.
+         * @return the p'th percentile of the dequeue rates.
+         */
+        public double getDequeueRatePercentile(final double p)
+        {
+            return percentile(_dequeueRate, p);
+        }
+    }
+
+    /**
+     * The default number of samples held for each queue.
+     */
+    public static final int DEFAULT_CAPACITY = 60;
+
+    /**
+     * The default EWMA time constant in seconds.
+     */
+    public static final double DEFAULT_TAU = 60.0d;
+
+    /**
+     * Samples closer together than this (in nanoseconds) don't give a meaningful rate, the broker may push a queue's
+     * properties and statistics separately with the same statistics.
+     */
+    private static final long MIN_INTERVAL = 1000000000l;
+
+    private final List<Pattern> _filter;
+    private final int _capacity;
+    private final double _tau;
+    private final Map<ObjectId, Series> _series = new HashMap<ObjectId, Series>();
+
+    /**
+     * Construct a QueueStatistics with the default capacity and EWMA time constant.
+     * @param filter a list of regex Patterns used to choose the queues we wish to record, an empty List
+     *        records all queues.
+     */
+    public QueueStatistics(final List<Pattern> filter)
+    {
+        this(filter, DEFAULT_CAPACITY, DEFAULT_TAU);
+    }
+
+    /**
+     * Construct a QueueStatistics.
+     * @param filter a list of regex Patterns used to choose the queues we wish to record, an empty List
+     *        records all queues.
+     * @param capacity the number of samples held for each queue, this must be at least 2.
+     * @param tau the EWMA time constant in seconds, the weight of an interval decays by a factor of e every tau
+     *        seconds.
+     */
+    public QueueStatistics(final List<Pattern> filter, final int capacity, final double tau)
+    {
+        if (capacity < 2 || tau <= 0.0d)
+        {
+            throw new IllegalArgumentException("QueueStatistics capacity must be at least 2 and tau positive");
+        }
+        _filter = filter;
+        _capacity = capacity;
+        _tau = tau;
+    }
+
+    /**
+     * Check the queue name against the regexes in the filter List (if any).
+     */
+    private boolean matches(final String name)
+    {
+        if (_filter.isEmpty())
+        {
+            return true;
+        }
+
+        for (Pattern x : _filter)
+        {
+            if (x.matcher(name).find())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update the statistics from a queue object, which may be a properties or a statistics push or a complete
+     * queue object. Deleted queues are removed.
+     * <p>
+     * The first time we see a queue we need its name, which is only included in properties pushes. If the first
+     * update of a queue is a statistics push, which probably won't happen, the object is refreshed to get its full
+     * state. The refresh is a round trip to the Agent so it is made without holding the QueueStatistics lock.
+     * @param record the queue object.
+     * @return the queue's Series if a new interval was recorded, otherwise null.
+     */
+    public Series update(final QmfConsoleData record)
+    {
+        if (!record.isDeleted() && !record.hasValue("name") && !isKnown(record.getObjectId()))
+        {
+            try
+            {
+                record.refresh();
+            }
+            catch (QmfException qmfe)
+            { // The queue may have been deleted, if not we'll pick up its name from the next properties push.
+                return null;
+            }
+        }
+        return apply(record);
+    }
+
+    /**
+     * Return whether statistics are held for the queue with the given ObjectId, whether or not it matches the filter.
+     * @param id the ObjectId of the queue.
+     * @return true if the queue has been seen before.
+     */
+    private synchronized boolean isKnown(final ObjectId id)
+    {
+        return _series.containsKey(id);
+    }
+
+    /**
+     * Apply a queue object to the statistics.
+     * @param record the queue object.
+     * @return the queue's Series if a new interval was recorded, otherwise null.
+     */
+    private synchronized Series apply(final QmfConsoleData record)
+    {
+        ObjectId id = record.getObjectId();
+        if (record.isDeleted())
+        {
+            _series.remove(id);
+            return null;
+        }
+
+        Series series = _series.get(id);
+        if (series == null)
+        {
+            if (!record.hasValue("name"))
+            {
+                return null;
+            }
+            String name = record.getStringValue("name");
+            series = new Series(name, matches(name), _capacity);
+            _series.put(id, series);
+        }
+
+        if (!series._selected || !record.hasValue("msgTotalEnqueues"))
+        {
+            return null;
+        }
+
+        boolean added = series.add(record.getUpdateTime(), record.getLongValue("msgTotalEnqueues"),
+                                   record.getLongValue("msgTotalDequeues"), record.getLongValue("msgDepth"),
+                                   _tau, MIN_INTERVAL);
+        return added ? series : null;
+    }
+
+    /**
+     * Update the statistics from a List of queue objects.
+     * @param records the queue objects.
+     */
+    public void update(final List<QmfConsoleData> records)
+    {
+        for (QmfConsoleData record : records)
+        {
+            update(record);
+        }
+    }
+
+    /**
+     * Remove the statistics of all queues.
+     */
+    public synchronized void clear()
+    {
+        _series.clear();
+    }
+
+    /**
+     * Return the number of queues matching the filter that statistics are held for.
+     * @return the number of queues matching the filter that statistics are held for.
+     */
+    public synchronized int size()
+    {
+        int size = 0;
+        for (Series series : _series.values())
+        {
+            if (series._selected)
+            {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Return the Series of the queue with the given ObjectId.
+     * @param id the ObjectId of the queue.
+     * @return the Series of the queue or null if the queue is unknown or doesn't match the filter.
+     */
+    public synchronized Series getSeries(final ObjectId id)
+    {
+        Series series = _series.get(id);
+        return (series == null || !series._selected) ? null : series;
+    }
+
+    /**
+     * Return the value of the given SortKey for a Series.
+     */
+    private static double value(final Series series, final SortKey key)
+    {
+        switch (key)
+        {
+            case DEPTH:
+                return series.getDepth();
+            case ENQUEUE_RATE:
+                return series.getAverageEnqueueRate();
+            default:
+                return series.getAverageDequeueRate();
+        }
+    }
+
+    /**
+     * Return the n queues with the highest depth or average rate, in descending order. The Series returned are
+     * live, so they should only be read while synchronized on this QueueStatistics if it is being updated
+     * concurrently.
+     * @param n the number of queues to return.
+     * @param key the value to order the queues by.
+     * @return the n queues with the highest value of key.
+     */
+    public synchronized List<Series> getTopN(final int n, final SortKey key)
+    {
+        if (n <= 0)
+        {
+            return Collections.emptyList();
+        }
+
+        Comparator<Series> ascending = new Comparator<Series>()
+        {
+            public int compare(final Series a, final Series b)
+            {
+                int result = Double.compare(value(a, key), value(b, key));
+                return result == 0 ? b.getName().compareTo(a.getName()) : result;
+            }
+        };
+
+        // A min-heap holding the n highest values seen so far, so the cost is O(queues*log(n)).
+        PriorityQueue<Series> heap = new PriorityQueue<Series>(n, ascending);
+        for (Series series : _series.values())
+        {
+            if (series._selected && series._count > 0)
+            {
+                if (heap.size() < n)
+                {
+                    heap.add(series);
+                }
+                else if (ascending.compare(series, heap.peek()) > 0)
+                {
+                    heap.poll();
+                    heap.add(series);
+                }
+            }
+        }
+
+        List<Series> top = new ArrayList<Series>(heap);
+        Collections.sort(top, Collections.reverseOrder(ascending));
+        return top;
+    }
+}
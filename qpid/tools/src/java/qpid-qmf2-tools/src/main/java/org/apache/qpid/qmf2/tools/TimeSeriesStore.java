@@ -0,0 +1,772 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.tools;
+
+// Misc Imports
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TimeSeriesStore persists numeric time series, such as the statistics of QMF Management Objects, to compact files
+ * in a local directory. It is used by QpidRecorder, which both records statistics and queries them.
+ * <p>
+ * Each Series is identified by a key (QpidRecorder uses the ObjectId) and has a fixed set of named columns, each
+ * sample being a timestamp in milliseconds since the epoch and a long value for each column. Samples are buffered in
+ * memory and written as blocks of BLOCK_SIZE samples of a single Series, only the final block of each Series written
+ * by close() may be smaller. Within a block the data is stored by
+ * column: the timestamps are delta-of-delta encoded, so regularly spaced samples cost a single byte each, and each
+ * column of values is delta encoded, so slowly changing counters are also very small. All numbers are written as
+ * zig-zag encoded variable length integers.
+ * <p>
+ * The directory contains four files:
+ * <pre>
+ * series.dat  the catalog, a sequence of Series definitions (id, key, className, name and column names).
+ * blocks.dat  the memory mapped data file, a header holding the length used followed by the encoded blocks.
+ * index.dat   the memory mapped index, a header holding the number of entries followed by an entry of
+ *             INDEX_ENTRY_SIZE bytes (series id, first and last timestamp, offset and length) for each block.
+ * tail.dat    the samples buffered when the store was last flushed, encoded as a partial block for each Series.
+ * </pre>
+ * A block is written to blocks.dat before its index entry, and the catalog entry of a Series is written before any
+ * of its blocks, so if the recorder stops abruptly the store is consistent up to the last complete index entry.
+ * flush() doesn't seal the partially filled buffers as blocks, which would fill the store with small blocks when
+ * it is flushed frequently, instead it replaces tail.dat with their samples. When the store is opened the samples
+ * in tail.dat that are later than the last block of their Series are buffered again, so nothing that has been
+ * flushed is lost.
+ * <p>
+ * The index is loaded into memory when the store is opened, so a query for a time range of a Series only decodes
+ * the blocks that overlap the range, which are found by a binary search as a Series' blocks are in time order.
+ * <p>
+ * The methods of TimeSeriesStore are synchronized so samples may be appended and flushed from different threads.
+ *
+ * @author Fraser Adams
+ */
+public final class TimeSeriesStore
+{
+    /**
+     * Receives the samples found by a query.
+     */
+    public interface SampleListener
+    {
+        /**
+         * Called for each sample in the queried range in time order.
+         * @param series the Series that the sample belongs to.
+         * @param timestamp the time of the sample in milliseconds since the epoch.
+         * @param values the values of the sample, one for each of the Series' columns. The array is reused so it
+         *        must be copied if it is retained.
+         */
+        public void onSample(Series series, long timestamp, long[] values);
+    }
+
+    /**
+     * A time series, together with its buffered samples and its block index.
+     */
+    public static final class Series
+    {
+        private final int _id;
+        private final String _key;
+        private final String _className;
+        private final String _name;
+        private final String[] _columns;
+
+        // Buffered samples not yet written to a block.
+        private final long[] _timestamps = new long[BLOCK_SIZE];
+        private final long[][] _values;
+        private int _count = 0;
+        private long _lastTimestamp = Long.MIN_VALUE;
+
+        // The index of the blocks of this Series, in time order.
+        private final List<long[]> _blocks = new ArrayList<long[]>();
+
+        private Series(final int id, final String key, final String className, final String name,
+                       final String[] columns)
+        {
+            _id = id;
+            _key = key;
+            _className = className;
+            _name = name;
+            _columns = columns;
+            _values = new long[columns.length][BLOCK_SIZE];
+        }
+
+        /**
+         * Return the key of the Series, such as the String form of an ObjectId.
+         * @return the key of the Series.
+         */
+        public String getKey()
+        {
+            return _key;
+        }
+
+        /**
+         * Return the class name of the object that the Series records.
+         * @return the class name of the object that the Series records.
+         */
+        public String getClassName()
+        {
+            return _className;
+        }
+
+        /**
+         * Return the name of the object that the Series records.
+         * @return the name of the object that the Series records.
+         */
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         * Return the names of the columns of the Series.
+         * @return the names of the columns of the Series.
+         */
+        public String[] getColumns()
+        {
+            return _columns.clone();
+        }
+    }
+
+    /**
+     * The maximum number of samples in a block.
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    private static final int MAGIC = 0x51545331; // "QTS1"
+    private static final int TAIL_MAGIC = 0x51545431; // "QTT1"
+    private static final int HEADER_SIZE = 16;
+    private static final int INDEX_ENTRY_SIZE = 32;
+    private static final int INITIAL_SIZE = 1024*1024;
+
+    private final File _directory;
+    private final boolean _readOnly;
+    private final List<Series> _series = new ArrayList<Series>();
+    private final Map<String, Series> _seriesByKey = new HashMap<String, Series>();
+    private FileOutputStream _catalog = null;
+    private long _catalogLength = 0;
+    private FileChannel _dataChannel;
+    private FileChannel _indexChannel;
+    private MappedByteBuffer _data;
+    private MappedByteBuffer _index;
+    private long _dataLength;
+    private int _indexCount;
+    private final ByteArrayOutputStream _block = new ByteArrayOutputStream(4096);
+
+    /**
+     * Open a TimeSeriesStore, creating it if necessary and it isn't opened read only.
+     * @param directory the directory holding the store's files.
+     * @param readOnly true if the store is only to be queried.
+     */
+    public TimeSeriesStore(final File directory, final boolean readOnly) throws IOException
+    {
+        _directory = directory;
+        _readOnly = readOnly;
+        if (!readOnly && !directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Couldn't create directory " + directory);
+        }
+
+        readCatalog();
+        String mode = readOnly ? "r" : "rw";
+        _dataChannel = new RandomAccessFile(new File(directory, "blocks.dat"), mode).getChannel();
+        _indexChannel = new RandomAccessFile(new File(directory, "index.dat"), mode).getChannel();
+        _data = map(_dataChannel, INITIAL_SIZE);
+        _index = map(_indexChannel, INITIAL_SIZE);
+
+        if (_index.getInt(0) == 0 && !readOnly)
+        { // A new store.
+            initialiseHeader(_data);
+            initialiseHeader(_index);
+        }
+        checkHeader(_data, "blocks.dat");
+        checkHeader(_index, "index.dat");
+        _indexCount = (int)_index.getLong(8);
+
+        // Load the index. Any data after the end of the last indexed block was written by a recorder that stopped
+        // before writing the block's index entry, so it is discarded.
+        _dataLength = HEADER_SIZE;
+        for (int i = 0; i < _indexCount; i++)
+        {
+            int position = HEADER_SIZE + i*INDEX_ENTRY_SIZE;
+            int id = _index.getInt(position);
+            long first = _index.getLong(position + 4);
+            long last = _index.getLong(position + 12);
+            long offset = _index.getLong(position + 20);
+            int length = _index.getInt(position + 28);
+            if (id < 0 || id >= _series.size())
+            {
+                throw new IOException("index.dat refers to unknown series " + id);
+            }
+            Series series = _series.get(id);
+            series._blocks.add(new long[] {first, last, offset, length});
+            series._lastTimestamp = last;
+            _dataLength = Math.max(_dataLength, offset + length);
+        }
+
+        readTail();
+    }
+
+    /**
+     * Memory map a file, the mapping is at least minimumSize bytes if the file is writable.
+     */
+    private MappedByteBuffer map(final FileChannel channel, final long minimumSize) throws IOException
+    {
+        if (_readOnly)
+        {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        long size = Math.max(channel.size(), minimumSize);
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private static void initialiseHeader(final ByteBuffer buffer)
+    {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, 1); // Version
+        buffer.putLong(8, 0);
+    }
+
+    private static void checkHeader(final ByteBuffer buffer, final String name) throws IOException
+    {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+        {
+            throw new IOException(name + " is not a TimeSeriesStore file");
+        }
+    }
+
+    /**
+     * Read the Series definitions from the catalog and open it for appending.
+     */
+    private void readCatalog() throws IOException
+    {
+        File file = new File(_directory, "series.dat");
+        long validLength = 0;
+        if (file.exists())
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try
+            {
+                while (true)
+                {
+                    String key = in.readUTF();
+                    String className = in.readUTF();
+                    String name = in.readUTF();
+                    String[] columns = new String[in.readShort()];
+                    for (int i = 0; i < columns.length; i++)
+                    {
+                        columns[i] = in.readUTF();
+                    }
+                    // The length is read before the Series is added so a truncated entry is never registered.
+                    int length = in.readInt(); // The length of the catalog including this entry
+                    addSeries(key, className, name, columns);
+                    validLength = length;
+                }
+            }
+            catch (EOFException eofe)
+            { // A truncated final entry is ignored, it can't be referred to by the index.
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        else if (_readOnly)
+        {
+            throw new IOException("No TimeSeriesStore found in " + _directory);
+        }
+
+        if (!_readOnly)
+        {
+            if (file.exists() && file.length() != validLength)
+            { // Remove a truncated final entry so that new entries can be read.
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try
+                {
+                    raf.setLength(validLength);
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+            _catalog = new FileOutputStream(file, true);
+            _catalogLength = validLength;
+        }
+    }
+
+    /**
+     * Buffer the samples saved in tail.dat by the last flush(). Samples that aren't later than the last block of
+     * their Series have already been written to a block so are skipped. A damaged tail.dat is ignored, as are any
+     * temporary files left by a flush() that didn't complete.
+     */
+    private void readTail() throws IOException
+    {
+        File file = new File(_directory, "tail.dat");
+        if (!_readOnly)
+        {
+            new File(_directory, "tail.tmp").delete();
+        }
+        if (!file.exists())
+        {
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if (in.readInt() != TAIL_MAGIC)
+            {
+                return;
+            }
+
+            int records = in.readInt();
+            for (int r = 0; r < records; r++)
+            {
+                int id = in.readInt();
+                byte[] block = new byte[in.readInt()];
+                in.readFully(block);
+                if (id < 0 || id >= _series.size())
+                {
+                    continue;
+                }
+
+                Series series = _series.get(id);
+                long[][] samples = decodeBlock(ByteBuffer.wrap(block), series._columns.length);
+                long[] timestamps = samples[0];
+                for (int i = 0; i < timestamps.length && series._count < BLOCK_SIZE; i++)
+                {
+                    if (timestamps[i] > series._lastTimestamp)
+                    {
+                        series._timestamps[series._count] = timestamps[i];
+                        for (int c = 0; c < series._columns.length; c++)
+                        {
+                            series._values[c][series._count] = samples[c + 1][i];
+                        }
+                        series._lastTimestamp = timestamps[i];
+                        series._count++;
+                    }
+                }
+            }
+        }
+        catch (IOException ioe)
+        { // A damaged tail.dat, keep whatever samples were read intact.
+        }
+        catch (RuntimeException re)
+        { // A damaged tail.dat may also produce malformed blocks.
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private Series addSeries(final String key, final String className, final String name, final String[] columns)
+    {
+        Series series = new Series(_series.size(), key, className, name, columns);
+        _series.add(series);
+        _seriesByKey.put(key, series);
+        return series;
+    }
+
+    /**
+     * Return the Series with the given key, creating it if it doesn't exist.
+     * @param key the key of the Series, such as the String form of an ObjectId.
+     * @param className the class name of the object the Series records.
+     * @param name the name of the object the Series records.
+     * @param columns the names of the Series' columns.
+     * @return the Series with the given key.
+     */
+    public synchronized Series getSeries(final String key, final String className, final String name,
+                                         final String[] columns) throws IOException
+    {
+        Series series = _seriesByKey.get(key);
+        if (series == null)
+        {
+            if (_readOnly)
+            {
+                throw new IOException("TimeSeriesStore is read only");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream entry = new DataOutputStream(bytes);
+            entry.writeUTF(key);
+            entry.writeUTF(className);
+            entry.writeUTF(name);
+            entry.writeShort(columns.length);
+            for (String column : columns)
+            {
+                entry.writeUTF(column);
+            }
+            _catalogLength += bytes.size() + 4;
+            entry.writeInt((int)_catalogLength); // So that a truncated final entry can be detected
+            _catalog.write(bytes.toByteArray());
+            _catalog.flush();
+            series = addSeries(key, className, name, columns.clone());
+        }
+        return series;
+    }
+
+    /**
+     * Return all of the Series in the store.
+     * @return all of the Series in the store.
+     */
+    public synchronized List<Series> getSeries()
+    {
+        return Collections.unmodifiableList(new ArrayList<Series>(_series));
+    }
+
+    /**
+     * Append a sample to a Series. Samples that aren't later than the previous sample of the Series are ignored.
+     * @param series the Series.
+     * @param timestamp the time of the sample in milliseconds since the epoch.
+     * @param values the values of the sample, one for each of the Series' columns.
+     */
+    public synchronized void append(final Series series, final long timestamp, final long[] values) throws IOException
+    {
+        if (timestamp <= series._lastTimestamp)
+        {
+            return;
+        }
+
+        series._timestamps[series._count] = timestamp;
+        for (int i = 0; i < series._columns.length; i++)
+        {
+            series._values[i][series._count] = (i < values.length) ? values[i] : 0;
+        }
+        series._lastTimestamp = timestamp;
+        series._count++;
+        if (series._count == BLOCK_SIZE)
+        {
+            writeBlock(series);
+        }
+    }
+
+    /**
+     * Force the blocks written so far to disk then save the buffered samples of every Series in tail.dat. The
+     * buffers aren't sealed as blocks, they continue to fill until they hold BLOCK_SIZE samples.
+     */
+    public synchronized void flush() throws IOException
+    {
+        _data.force();
+        _index.force();
+
+        // Write the new tail to a temporary file and rename it, so tail.dat is always either the old or the new tail.
+        File file = new File(_directory, "tail.dat");
+        File temp = new File(_directory, "tail.tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try
+        {
+            int records = 0;
+            for (Series series : _series)
+            {
+                if (series._count > 0)
+                {
+                    records++;
+                }
+            }
+
+            out.writeInt(TAIL_MAGIC);
+            out.writeInt(records);
+            for (Series series : _series)
+            {
+                if (series._count > 0)
+                {
+                    encodeBlock(series);
+                    out.writeInt(series._id);
+                    out.writeInt(_block.size());
+                    _block.writeTo(out);
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        // On some platforms renameTo() fails if the target exists.
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+        {
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+
+    /**
+     * Seal the buffered samples of every Series as blocks, force the files to disk and close them. The tail.dat
+     * saved by flush() is then no longer needed so it is deleted.
+     */
+    public synchronized void close() throws IOException
+    {
+        if (!_readOnly)
+        {
+            for (Series series : _series)
+            {
+                if (series._count > 0)
+                {
+                    writeBlock(series);
+                }
+            }
+            _data.force();
+            _index.force();
+            _catalog.close();
+            new File(_directory, "tail.dat").delete();
+        }
+        _data = null;
+        _index = null;
+        _dataChannel.close();
+        _indexChannel.close();
+    }
+
+    /**
+     * Encode the buffered samples of a Series as a block and write it and its index entry.
+     */
+    private void writeBlock(final Series series) throws IOException
+    {
+        int count = series._count;
+        encodeBlock(series);
+
+        int length = _block.size();
+        _data = ensureCapacity(_dataChannel, _data, _dataLength + length);
+        ByteBuffer data = _data.duplicate();
+        data.position((int)_dataLength);
+        data.put(_block.toByteArray());
+        long offset = _dataLength;
+        _dataLength += length;
+        _data.putLong(8, _dataLength);
+
+        long first = series._timestamps[0];
+        long last = series._timestamps[count - 1];
+        int position = HEADER_SIZE + _indexCount*INDEX_ENTRY_SIZE;
+        _index = ensureCapacity(_indexChannel, _index, position + INDEX_ENTRY_SIZE);
+        _index.putInt(position, series._id);
+        _index.putLong(position + 4, first);
+        _index.putLong(position + 12, last);
+        _index.putLong(position + 20, offset);
+        _index.putInt(position + 28, length);
+        _indexCount++;
+        _index.putLong(8, _indexCount);
+
+        series._blocks.add(new long[] {first, last, offset, length});
+        series._count = 0;
+    }
+
+    /**
+     * Encode the buffered samples of a Series as a block in _block.
+     */
+    private void encodeBlock(final Series series)
+    {
+        int count = series._count;
+        _block.reset();
+        writeVarint(_block, count);
+
+        long previous = series._timestamps[0];
+        long previousDelta = 0;
+        writeVarint(_block, zigzag(previous));
+        for (int i = 1; i < count; i++)
+        {
+            long delta = series._timestamps[i] - previous;
+            writeVarint(_block, zigzag(delta - previousDelta));
+            previousDelta = delta;
+            previous = series._timestamps[i];
+        }
+
+        for (long[] column : series._values)
+        {
+            long last = 0;
+            for (int i = 0; i < count; i++)
+            {
+                writeVarint(_block, zigzag(column[i] - last));
+                last = column[i];
+            }
+        }
+    }
+
+    /**
+     * Decode a block.
+     * @param data the encoded block, positioned at its start.
+     * @param columnCount the number of columns of the block's Series.
+     * @return the timestamps of the block's samples followed by the values of each column.
+     */
+    private static long[][] decodeBlock(final ByteBuffer data, final int columnCount) throws IOException
+    {
+        int count = (int)readVarint(data);
+        long[][] samples = new long[columnCount + 1][count];
+        long timestamp = unzigzag(readVarint(data));
+        long delta = 0;
+        samples[0][0] = timestamp;
+        for (int i = 1; i < count; i++)
+        {
+            delta += unzigzag(readVarint(data));
+            timestamp += delta;
+            samples[0][i] = timestamp;
+        }
+
+        for (int c = 1; c <= columnCount; c++)
+        {
+            long value = 0;
+            for (int i = 0; i < count; i++)
+            {
+                value += unzigzag(readVarint(data));
+                samples[c][i] = value;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Grow a memory mapped file, doubling its size, if it is too small to hold the required number of bytes.
+     */
+    private MappedByteBuffer ensureCapacity(final FileChannel channel, final MappedByteBuffer buffer,
+                                            final long required) throws IOException
+    {
+        if (required <= buffer.capacity())
+        {
+            return buffer;
+        }
+        if (required > Integer.MAX_VALUE)
+        {
+            throw new IOException("TimeSeriesStore file is full");
+        }
+
+        long size = buffer.capacity();
+        while (size < required)
+        {
+            size = Math.min(size*2, Integer.MAX_VALUE);
+        }
+        buffer.force();
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Find the samples of a Series between two times, including any buffered samples that haven't been written yet.
+     * @param series the Series to query.
+     * @param from the start of the time range in milliseconds since the epoch (inclusive).
+     * @param to the end of the time range in milliseconds since the epoch (inclusive).
+     * @param listener the SampleListener that receives the samples.
+     */
+    public synchronized void query(final Series series, final long from, final long to,
+                                   final SampleListener listener) throws IOException
+    {
+        List<long[]> blocks = series._blocks;
+        long[] values = new long[series._columns.length];
+
+        // Binary search for the first block whose last sample is not before the start of the range.
+        int low = 0;
+        int high = blocks.size();
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (blocks.get(mid)[1] < from)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+
+        for (int b = low; b < blocks.size() && blocks.get(b)[0] <= to; b++)
+        {
+            long[] block = blocks.get(b);
+            ByteBuffer data = _data.duplicate();
+            data.position((int)block[2]);
+            data.limit((int)(block[2] + block[3]));
+
+            long[][] samples = decodeBlock(data, values.length);
+            long[] timestamps = samples[0];
+            for (int i = 0; i < timestamps.length; i++)
+            {
+                if (timestamps[i] >= from && timestamps[i] <= to)
+                {
+                    for (int c = 0; c < values.length; c++)
+                    {
+                        values[c] = samples[c + 1][i];
+                    }
+                    listener.onSample(series, timestamps[i], values);
+                }
+            }
+        }
+
+        for (int i = 0; i < series._count; i++)
+        {
+            if (series._timestamps[i] >= from && series._timestamps[i] <= to)
+            {
+                for (int c = 0; c < values.length; c++)
+                {
+                    values[c] = series._values[c][i];
+                }
+                listener.onSample(series, series._timestamps[i], values);
+            }
+        }
+    }
+
+    private static long zigzag(final long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(final long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.write((int)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int)value);
+    }
+
+    private static long readVarint(final ByteBuffer in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            byte b = in.get();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in blocks.dat");
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.tools;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.console.QmfConsoleData;
+
+/**
+ * Unit tests for QueueStatistics.
+ *
+ * @author Fraser Adams
+ */
+public class QueueStatisticsTest extends TestCase
+{
+    private static final double DELTA = 1.0e-9d;
+    private static final long SECOND = 1000000000l;
+
+    private static ObjectId id(final String queue)
+    {
+        return new ObjectId("broker", "org.apache.qpid.broker:queue:" + queue, 1l);
+    }
+
+    /**
+     * Create a queue object as delivered by a queue Subscription.
+     * @param queue the queue used to form the ObjectId.
+     * @param name the value of the name property, null to model a statistics push which has no name.
+     * @param time the update time in nanoseconds.
+     */
+    private static QmfConsoleData record(final String queue, final String name, final long time,
+                                         final long enqueues, final long dequeues, final long depth)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        if (name != null)
+        {
+            values.put("name", name);
+        }
+        values.put("msgTotalEnqueues", enqueues);
+        values.put("msgTotalDequeues", dequeues);
+        values.put("msgDepth", depth);
+
+        Map<String, Object> objectId = new HashMap<String, Object>();
+        objectId.put("_agent_name", "broker");
+        objectId.put("_object_name", "org.apache.qpid.broker:queue:" + queue);
+        objectId.put("_agent_epoch", 1l);
+
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("_values", values);
+        m.put("_object_id", objectId);
+        m.put("_update_ts", time);
+        m.put("_create_ts", 0l);
+        m.put("_delete_ts", 0l);
+        return new QmfConsoleData(m, null);
+    }
+
+    private static QmfConsoleData sample(final String queue, final long seconds, final long enqueues,
+                                         final long dequeues, final long depth)
+    {
+        return record(queue, queue, seconds*SECOND, enqueues, dequeues, depth);
+    }
+
+    private static QmfConsoleData deleted(final String queue)
+    {
+        Map<String, Object> objectId = new HashMap<String, Object>();
+        objectId.put("_agent_name", "broker");
+        objectId.put("_object_name", "org.apache.qpid.broker:queue:" + queue);
+        objectId.put("_agent_epoch", 1l);
+
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("_values", new HashMap<String, Object>());
+        m.put("_object_id", objectId);
+        m.put("_update_ts", 0l);
+        m.put("_create_ts", 0l);
+        m.put("_delete_ts", 1l);
+        return new QmfConsoleData(m, null);
+    }
+
+    private static List<Pattern> noFilter()
+    {
+        return Collections.emptyList();
+    }
+
+    public void testConstructorRejectsBadArguments()
+    {
+        try
+        {
+            new QueueStatistics(noFilter(), 1, QueueStatistics.DEFAULT_TAU);
+            fail("Expected IllegalArgumentException for a capacity of 1");
+        }
+        catch (IllegalArgumentException iae)
+        { // Expected.
+        }
+
+        try
+        {
+            new QueueStatistics(noFilter(), QueueStatistics.DEFAULT_CAPACITY, 0.0d);
+            fail("Expected IllegalArgumentException for a tau of 0");
+        }
+        catch (IllegalArgumentException iae)
+        { // Expected.
+        }
+    }
+
+    public void testSortKeyFromString()
+    {
+        assertEquals(QueueStatistics.SortKey.DEPTH, QueueStatistics.SortKey.fromString("depth"));
+        assertEquals(QueueStatistics.SortKey.ENQUEUE_RATE, QueueStatistics.SortKey.fromString("enqueue"));
+        assertEquals(QueueStatistics.SortKey.DEQUEUE_RATE, QueueStatistics.SortKey.fromString("dequeue"));
+        try
+        {
+            QueueStatistics.SortKey.fromString("rate");
+            fail("Expected IllegalArgumentException for an unknown sort key");
+        }
+        catch (IllegalArgumentException iae)
+        { // Expected.
+        }
+    }
+
+    public void testIntervalRates()
+    {
+        QueueStatistics stats = new QueueStatistics(noFilter());
+        assertNull(stats.update(sample("q1", 100, 1000, 500, 500)));
+
+        QueueStatistics.Series series = stats.getSeries(id("q1"));
+        assertEquals("q1", series.getName());
+        assertEquals(1, series.getSampleCount());
+        assertEquals(0.0d, series.getEnqueueRate(), DELTA);
+        assertEquals(0.0d, series.getInterval(), DELTA);
+        assertEquals(500, series.getDepth());
+
+        assertSame(series, stats.update(sample("q1", 102, 1020, 510, 510)));
+        assertEquals(2, series.getSampleCount());
+        assertEquals(2.0d, series.getInterval(), DELTA);
+        assertEquals(10.0d, series.getEnqueueRate(), DELTA);
+        assertEquals(5.0d, series.getDequeueRate(), DELTA);
+        assertEquals(510, series.getDepth());
+
+        // The first interval seeds the moving averages.
+        assertEquals(10.0d, series.getAverageEnqueueRate(), DELTA);
+        assertEquals(5.0d, series.getAverageDequeueRate(), DELTA);
+    }
+
+    public void testMovingAverage()
+    {
+        double tau = 10.0d;
+        QueueStatistics stats = new QueueStatistics(noFilter(), 10, tau);
+        stats.update(sample("q1", 0, 0, 0, 0));
+        stats.update(sample("q1", 2, 20, 0, 20));
+        QueueStatistics.Series series = stats.update(sample("q1", 6, 140, 40, 100));
+
+        assertEquals(30.0d, series.getEnqueueRate(), DELTA);
+        assertEquals(10.0d, series.getDequeueRate(), DELTA);
+
+        // The weight of an interval depends on its length.
+        double alpha = 1.0d - Math.exp(-4.0d/tau);
+        assertEquals(10.0d + alpha*(30.0d - 10.0d), series.getAverageEnqueueRate(), DELTA);
+        assertEquals(0.0d + alpha*(10.0d - 0.0d), series.getAverageDequeueRate(), DELTA);
+    }
+
+    public void testSamplesTooCloseTogetherOnlyUpdateDepth()
+    {
+        QueueStatistics stats = new QueueStatistics(noFilter());
+        stats.update(sample("q1", 10, 0, 0, 0));
+        stats.update(sample("q1", 12, 20, 0, 20));
+        assertNull(stats.update(record("q1", "q1", 12*SECOND + SECOND/2, 30, 0, 30)));
+
+        QueueStatistics.Series series = stats.getSeries(id("q1"));
+        assertEquals(2, series.getSampleCount());
+        assertEquals(10.0d, series.getEnqueueRate(), DELTA);
+        assertEquals(30, series.getDepth());
+    }
+
+    public void testCountersGoingBackwardsRestarts()
+    {
+        QueueStatistics stats = new QueueStatistics(noFilter());
+        stats.update(sample("q1", 0, 100, 0, 100));
+        stats.update(sample("q1", 2, 120, 0, 120));
+        assertNull(stats.update(sample("q1", 4, 5, 0, 5)));
+
+        QueueStatistics.Series series = stats.getSeries(id("q1"));
+        assertEquals(1, series.getSampleCount());
+        assertEquals(0.0d, series.getEnqueueRate(), DELTA);
+        assertEquals(0.0d, series.getAverageEnqueueRate(), DELTA);
+
+        assertNotNull(stats.update(sample("q1", 6, 25, 0, 25)));
+        assertEquals(10.0d, series.getEnqueueRate(), DELTA);
+        assertEquals(10.0d, series.getAverageEnqueueRate(), DELTA);
+    }
+
+    public void testRingBufferAndPercentiles()
+    {
+        QueueStatistics stats = new QueueStatistics(noFilter(), 3, QueueStatistics.DEFAULT_TAU);
+        long[] enqueues = {0, 2, 6, 12, 20}; // Interval rates of 1, 2, 3 and 4 messages per second.
+        for (int i = 0; i < enqueues.length; i++)
+        {
+            stats.update(sample("q1", 2*i, enqueues[i], 0, 0));
+        }
+
+        // Only the two most recent intervals, with rates 3 and 4, are still held.
+        QueueStatistics.Series series = stats.getSeries(id("q1"));
+        assertEquals(3, series.getSampleCount());
+        assertEquals(4.0d, series.getEnqueueRate(), DELTA);
+        assertEquals(3.0d, series.getEnqueueRatePercentile(0.0d), DELTA);
+        assertEquals(3.0d, series.getEnqueueRatePercentile(50.0d), DELTA);
+        assertEquals(4.0d, series.getEnqueueRatePercentile(51.0d), DELTA);
+        assertEquals(4.0d, series.getEnqueueRatePercentile(100.0d), DELTA);
+        assertEquals(0.0d, series.getDequeueRatePercentile(100.0d), DELTA);
+    }
+
+    public void testFilter()
+    {
+        QueueStatistics stats = new QueueStatistics(Arrays.asList(Pattern.compile("^app")));
+        stats.update(sample("app1", 0, 0, 0, 0));
+        stats.update(sample("other", 0, 0, 0, 0));
+        assertNull(stats.update(sample("other", 2, 10, 0, 10)));
+
+        assertEquals(1, stats.size());
+        assertNotNull(stats.getSeries(id("app1")));
+        assertNull(stats.getSeries(id("other")));
+    }
+
+    public void testDeletedQueueRemoved()
+    {
+        QueueStatistics stats = new QueueStatistics(noFilter());
+        stats.update(sample("q1", 0, 0, 0, 0));
+        stats.update(sample("q2", 0, 0, 0, 0));
+        assertEquals(2, stats.size());
+
+        assertNull(stats.update(deleted("q1")));
+        assertEquals(1, stats.size());
+        assertNull(stats.getSeries(id("q1")));
+
+        stats.clear();
+        assertEquals(0, stats.size());
+    }
+
+    public void testStatisticsPushWithoutName()
+    {
+        QueueStatistics stats = new QueueStatistics(noFilter());
+
+        // The queue is unknown and can't be refreshed without an Agent, so the push is ignored.
+        assertNull(stats.update(record("q1", null, 0, 0, 0, 0)));
+        assertEquals(0, stats.size());
+
+        // Once the properties push has named the queue, statistics pushes are applied.
+        stats.update(record("q1", "q1", 0, 0, 0, 0));
+        assertNotNull(stats.update(record("q1", null, 2*SECOND, 10, 4, 6)));
+        assertEquals(5.0d, stats.getSeries(id("q1")).getEnqueueRate(), DELTA);
+    }
+
+    public void testUpdateList()
+    {
+        QueueStatistics stats = new QueueStatistics(noFilter());
+        List<QmfConsoleData> records = new ArrayList<QmfConsoleData>();
+        records.add(sample("q1", 0, 0, 0, 0));
+        records.add(sample("q2", 0, 0, 0, 0));
+        records.add(sample("q1", 2, 8, 0, 8));
+        stats.update(records);
+
+        assertEquals(2, stats.size());
+        assertEquals(4.0d, stats.getSeries(id("q1")).getEnqueueRate(), DELTA);
+    }
+
+    public void testTopN()
+    {
+        QueueStatistics stats = new QueueStatistics(noFilter());
+        long[] depth = {5, 50, 20, 50, 1};
+        long[] enqueues = {10, 2, 40, 6, 8};
+        for (int i = 0; i < depth.length; i++)
+        {
+            stats.update(sample("q" + i, 0, 0, 0, 0));
+            stats.update(sample("q" + i, 2, enqueues[i], 0, depth[i]));
+        }
+
+        List<QueueStatistics.Series> top = stats.getTopN(3, QueueStatistics.SortKey.DEPTH);
+        assertEquals(3, top.size());
+        assertEquals("q1", top.get(0).getName()); // Equal depths are ordered by name.
+        assertEquals("q3", top.get(1).getName());
+        assertEquals("q2", top.get(2).getName());
+
+        top = stats.getTopN(2, QueueStatistics.SortKey.ENQUEUE_RATE);
+        assertEquals("q2", top.get(0).getName());
+        assertEquals("q0", top.get(1).getName());
+
+        assertEquals(5, stats.getTopN(10, QueueStatistics.SortKey.DEQUEUE_RATE).size());
+        assertTrue(stats.getTopN(0, QueueStatistics.SortKey.DEPTH).isEmpty());
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.tools;
+
+// Misc Imports
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for TimeSeriesStore.
+ *
+ * @author Fraser Adams
+ */
+public class TimeSeriesStoreTest extends TestCase
+{
+    private static final String[] COLUMNS = {"msgDepth", "msgTotalEnqueues"};
+
+    private File _directory;
+    private final List<TimeSeriesStore> _stores = new ArrayList<TimeSeriesStore>();
+
+    /**
+     * Open a store in the test directory, remembering it so that tearDown() can close it.
+     */
+    private TimeSeriesStore open(final boolean readOnly) throws IOException
+    {
+        TimeSeriesStore store = new TimeSeriesStore(_directory, readOnly);
+        _stores.add(store);
+        return store;
+    }
+
+    /**
+     * Close a store opened by open().
+     */
+    private void close(final TimeSeriesStore store) throws IOException
+    {
+        _stores.remove(store);
+        store.close();
+    }
+
+    private static TimeSeriesStore.Series find(final TimeSeriesStore store, final String key)
+    {
+        for (TimeSeriesStore.Series series : store.getSeries())
+        {
+            if (series.getKey().equals(key))
+            {
+                return series;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Query a Series, returning each sample as an array holding its timestamp followed by its values.
+     */
+    private static List<long[]> query(final TimeSeriesStore store, final TimeSeriesStore.Series series,
+                                      final long from, final long to) throws IOException
+    {
+        final List<long[]> samples = new ArrayList<long[]>();
+        store.query(series, from, to, new TimeSeriesStore.SampleListener()
+        {
+            public void onSample(final TimeSeriesStore.Series s, final long timestamp, final long[] values)
+            {
+                long[] sample = new long[values.length + 1];
+                sample[0] = timestamp;
+                System.arraycopy(values, 0, sample, 1, values.length);
+                samples.add(sample);
+            }
+        });
+        return samples;
+    }
+
+    /**
+     * Generate count samples with irregular timestamps and values that go up and down.
+     */
+    private static List<long[]> samples(final int count, final long start)
+    {
+        List<long[]> samples = new ArrayList<long[]>();
+        long timestamp = start;
+        long enqueues = 0;
+        for (int i = 0; i < count; i++)
+        {
+            timestamp += 1000 + (i % 7)*13;
+            enqueues += i % 5;
+            samples.add(new long[] {timestamp, (i % 11) - 5 + (i/3)*100000000000l, enqueues});
+        }
+        return samples;
+    }
+
+    private static void append(final TimeSeriesStore store, final TimeSeriesStore.Series series,
+                               final List<long[]> samples) throws IOException
+    {
+        for (long[] sample : samples)
+        {
+            store.append(series, sample[0], Arrays.copyOfRange(sample, 1, sample.length));
+        }
+    }
+
+    private static void assertSamples(final List<long[]> expected, final List<long[]> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++)
+        {
+            assertTrue("sample " + i, Arrays.equals(expected.get(i), actual.get(i)));
+        }
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        _directory = Files.createTempDirectory("timeseries").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws IOException
+    {
+        for (TimeSeriesStore store : _stores)
+        {
+            store.close();
+        }
+
+        File[] files = _directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        _directory.delete();
+    }
+
+    public void testRoundTrip() throws IOException
+    {
+        List<long[]> q1 = samples(TimeSeriesStore.BLOCK_SIZE*3 + 17, 1400000000000l);
+        List<long[]> q2 = samples(5, 1400000000500l);
+
+        TimeSeriesStore store = open(false);
+        append(store, store.getSeries("id1", "queue", "q1", COLUMNS), q1);
+        append(store, store.getSeries("id2", "queue", "q2", COLUMNS), q2);
+        assertSamples(q1, query(store, find(store, "id1"), Long.MIN_VALUE, Long.MAX_VALUE));
+        close(store);
+
+        store = open(true);
+        assertEquals(2, store.getSeries().size());
+        TimeSeriesStore.Series series = find(store, "id1");
+        assertEquals("queue", series.getClassName());
+        assertEquals("q1", series.getName());
+        assertTrue(Arrays.equals(COLUMNS, series.getColumns()));
+        assertSamples(q1, query(store, series, Long.MIN_VALUE, Long.MAX_VALUE));
+        assertSamples(q2, query(store, find(store, "id2"), Long.MIN_VALUE, Long.MAX_VALUE));
+        assertFalse(new File(_directory, "tail.dat").exists());
+    }
+
+    public void testQueryRange() throws IOException
+    {
+        List<long[]> samples = samples(TimeSeriesStore.BLOCK_SIZE*2 + 40, 0);
+        TimeSeriesStore store = open(false);
+        TimeSeriesStore.Series series = store.getSeries("id", "queue", "q", COLUMNS);
+        append(store, series, samples);
+
+        // A range spanning a block boundary and ending in the buffered samples, with inclusive end points.
+        int first = TimeSeriesStore.BLOCK_SIZE - 10;
+        int last = TimeSeriesStore.BLOCK_SIZE*2 + 20;
+        List<long[]> expected = samples.subList(first, last + 1);
+        assertSamples(expected, query(store, series, samples.get(first)[0], samples.get(last)[0]));
+        assertSamples(expected, query(store, series, samples.get(first - 1)[0] + 1, samples.get(last + 1)[0] - 1));
+
+        assertEquals(0, query(store, series, samples.get(0)[0] + 1, samples.get(1)[0] - 1).size());
+        assertEquals(0, query(store, series, Long.MIN_VALUE, samples.get(0)[0] - 1).size());
+    }
+
+    public void testOutOfOrderSamplesIgnored() throws IOException
+    {
+        TimeSeriesStore store = open(false);
+        TimeSeriesStore.Series series = store.getSeries("id", "queue", "q", COLUMNS);
+        store.append(series, 2000, new long[] {1, 1});
+        store.append(series, 2000, new long[] {2, 2});
+        store.append(series, 1000, new long[] {3, 3});
+        store.append(series, 3000, new long[] {4});
+
+        List<long[]> samples = query(store, series, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(2, samples.size());
+        assertTrue(Arrays.equals(new long[] {2000, 1, 1}, samples.get(0)));
+        assertTrue(Arrays.equals(new long[] {3000, 4, 0}, samples.get(1)));
+    }
+
+    public void testGetSeriesReturnsExistingSeries() throws IOException
+    {
+        TimeSeriesStore store = open(false);
+        TimeSeriesStore.Series series = store.getSeries("id", "queue", "q", COLUMNS);
+        assertSame(series, store.getSeries("id", "queue", "q", COLUMNS));
+        close(store);
+
+        store = open(false);
+        assertSame(find(store, "id"), store.getSeries("id", "queue", "q", COLUMNS));
+        assertEquals(1, store.getSeries().size());
+    }
+
+    public void testFlushedSamplesRecoveredWithoutClose() throws IOException
+    {
+        List<long[]> samples = samples(TimeSeriesStore.BLOCK_SIZE + 10, 1000);
+        TimeSeriesStore store = open(false);
+        TimeSeriesStore.Series series = store.getSeries("id", "queue", "q", COLUMNS);
+        append(store, series, samples);
+        store.flush();
+        store.flush();
+
+        // Samples appended after the last flush are lost if the store isn't closed.
+        store.append(series, samples.get(samples.size() - 1)[0] + 1000, new long[] {0, 0});
+        assertTrue(new File(_directory, "tail.dat").exists());
+
+        TimeSeriesStore recovered = open(false);
+        series = find(recovered, "id");
+        assertSamples(samples, query(recovered, series, Long.MIN_VALUE, Long.MAX_VALUE));
+
+        // The recovered samples are buffered again, so appending continues the Series.
+        List<long[]> more = samples(TimeSeriesStore.BLOCK_SIZE, samples.get(samples.size() - 1)[0]);
+        append(recovered, series, more);
+        close(recovered);
+
+        List<long[]> expected = new ArrayList<long[]>(samples);
+        expected.addAll(more);
+        TimeSeriesStore reopened = open(true);
+        assertSamples(expected, query(reopened, find(reopened, "id"), Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    public void testReadOnlyOpenSeesFlushedSamples() throws IOException
+    {
+        List<long[]> samples = samples(TimeSeriesStore.BLOCK_SIZE + 30, 1000);
+        TimeSeriesStore store = open(false);
+        append(store, store.getSeries("id", "queue", "q", COLUMNS), samples);
+        store.flush();
+
+        TimeSeriesStore reader = open(true);
+        assertSamples(samples, query(reader, find(reader, "id"), Long.MIN_VALUE, Long.MAX_VALUE));
+        try
+        {
+            reader.getSeries("other", "queue", "other", COLUMNS);
+            fail("Expected IOException creating a Series in a read only store");
+        }
+        catch (IOException ioe)
+        { // Expected.
+        }
+        close(reader);
+
+        // Closing a reader mustn't remove the writer's tail.
+        assertTrue(new File(_directory, "tail.dat").exists());
+    }
+}
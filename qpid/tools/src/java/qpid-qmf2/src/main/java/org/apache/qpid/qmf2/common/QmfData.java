@@ -244,8 +244,11 @@ public class QmfData
      *
      * @param name of the property to check.
      * @return true if the property exists otherwise false.
+     * <p>
+     * Subclasses that hold some of their properties outside the underlying Map may override this along with
+     * getValue(), all of the typed accessors and QmfQuery evaluation use these two methods.
      */
-    public final boolean hasValue(final String name)
+    public boolean hasValue(final String name)
     {
         return _values.containsKey(name);
     }
@@ -257,7 +260,7 @@ public class QmfData
      * @return value of property as an Object.
      */
     @SuppressWarnings("unchecked")
-    public final <T> T getValue(final String name)
+    public <T> T getValue(final String name)
     {
         return (T)_values.get(name);
     }
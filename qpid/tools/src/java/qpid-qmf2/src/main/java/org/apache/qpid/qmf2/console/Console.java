@@ -39,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // Misc Imports
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -48,6 +49,10 @@ import java.util.Map;
 import java.util.Timer;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 // QMF2 Imports
 import org.apache.qpid.qmf2.common.AMQPMessage;
@@ -65,8 +70,6 @@ import org.apache.qpid.qmf2.common.QmfQuery;
 import org.apache.qpid.qmf2.common.QmfQueryTarget;
 import org.apache.qpid.qmf2.common.SchemaClass;
 import org.apache.qpid.qmf2.common.SchemaClassId;
-import org.apache.qpid.qmf2.common.SchemaEventClass;
-import org.apache.qpid.qmf2.common.SchemaObjectClass;
 import org.apache.qpid.qmf2.common.WorkItem;
 import org.apache.qpid.qmf2.common.WorkQueue;
 
@@ -110,6 +113,21 @@ import org.apache.qpid.messaging.util.AddressParser;
  * <p>
  * <img alt="" src="doc-files/Subscriptions.png">
  * <p>
+ * <h3>Object Mirrors</h3>
+ * Tools frequently retrieve every object of a class (all queues, all bindings etc.) and then dereference the
+ * ObjectIds held in their reference properties, each of which is a round trip to the Agent. The (non QMF2 API)
+ * enableObjectMirror() method creates an ObjectMirror, an in-memory replica of an Agent's objects that is seeded
+ * with a snapshot of the Agent's objects and kept current by the _data indications received from the Agent.
+ * Once an Agent is mirrored the getObjects() methods are answered locally for that Agent.
+ * <p>
+ * <h3>Schema Discovery</h3>
+ * When an Agent is discovered, or restarted, the Console retrieves the SchemaClassIds of the classes known to the
+ * Agent and their schema. This is done on a background Thread so the MessageListener isn't stalled, and the schema
+ * of all of the classes is requested at once rather than one round trip for each class. Schema is cached by
+ * SchemaClassId, which includes the schema's hash, so only schema with previously unseen hashes is retrieved.
+ * The (non QMF2 API) enableSchemaCache() method, or the System Property "schema_cache_dir", may be used to persist
+ * the cache in a directory so that schema is reused by subsequent Consoles, which is useful for short lived tools.
+ * <p>
  * <h3>Receiving Asynchronous Notifications</h3>
  * This implementation of the QMF2 Console actually supports two independent APIs to enable clients to receive
  * Asynchronous notifications.
@@ -221,6 +239,23 @@ public final class Console implements MessageListener, AgentProxy
      */
     private Map<String, SubscriptionManager> _subscriptionById = new ConcurrentHashMap<String, SubscriptionManager>();
 
+    /**
+     * This Map is used to look up the ObjectMirror (if any) enabled for an Agent by Agent name.
+     */
+    private Map<String, ObjectMirror> _mirrors = new ConcurrentHashMap<String, ObjectMirror>();
+
+    /**
+     * Cache of the schema retrieved from Agents indexed by SchemaClassId. This is only persisted if a directory
+     * is supplied via enableSchemaCache() or the System Property "schema_cache_dir".
+     */
+    private volatile SchemaCache _schemaCache = new SchemaCache(System.getProperty("schema_cache_dir") == null ?
+                                                null : new File(System.getProperty("schema_cache_dir")));
+
+    /**
+     * Single Thread used to discover Agents' schema so that it isn't done on the JMS MessageListener Thread.
+     */
+    private ExecutorService _schemaDiscovery;
+
     /**
      * Used to implement a thread safe queue of WorkItem objects used to implement the Notifier API
      */
@@ -356,6 +391,11 @@ public final class Console implements MessageListener, AgentProxy
                 }
                 agent.deactivate();
                 i.remove();
+                ObjectMirror mirror = _mirrors.remove(agent.getName());
+                if (mirror != null)
+                {
+                    mirror.clear();
+                }
                 _log.info("Agent {} has expired", agent.getName());
                 if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
                 {
@@ -400,10 +440,17 @@ public final class Console implements MessageListener, AgentProxy
                     // If the Epoch has changed it means the Agent has been restarted so we send a notification
                     if (agent.getEpoch() != originalEpoch)
                     {
-                        agent.clearSchemaCache(); // Clear cache to force a lookup
-                        List<SchemaClassId> classes = getClasses(agent);
-                        getSchema(classes, agent); // Discover the schema for this Agent and cache it
+                        discoverSchema(agent, true); // Clear cache to force a lookup
                         _log.info("Agent {} has been restarted", agentName);
+
+                        // If the Agent is mirrored and the mirror hasn't already been reseeded because data from
+                        // the restarted Agent arrived before this heartbeat then reseed it now.
+                        ObjectMirror mirror = _mirrors.get(agentName);
+                        if (mirror != null && mirror.getEpoch() < agent.getEpoch())
+                        {
+                            seedObjectMirror(mirror, agent.getEpoch());
+                        }
+
                         if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
                         {
                             _eventListener.onEvent(new AgentRestartedWorkItem(agent));
@@ -421,8 +468,7 @@ public final class Console implements MessageListener, AgentProxy
                 else
                 { // This block handles Agents that haven't already been registered
                     Agent agent = new Agent(AMQPMessage.getMap(message), this);
-                    List<SchemaClassId> classes = getClasses(agent);
-                    getSchema(classes, agent); // Discover the schema for this Agent and cache it
+                    discoverSchema(agent, false); // Discover the schema for this Agent and cache it
                     _agents.put(agentName, agent);
                     _log.info("Adding Agent {}", agentName);
 
@@ -560,6 +606,12 @@ public final class Console implements MessageListener, AgentProxy
             {
                 if (AMQPMessage.isAMQPList(message))
                 {
+                    ObjectMirror mirror = _mirrors.get(agentName);
+                    if (mirror != null)
+                    { // If the Agent is mirrored apply the data to the mirror, whether or not it's for a Subscription.
+                        updateObjectMirror(mirror, AMQPMessage.getList(message));
+                    }
+
                     String consoleHandle = handle.getCorrelationId();
                     if (consoleHandle != null && _subscriptionByHandle.containsKey(consoleHandle))
                     { // If we have a valid consoleHandle the data has come from a "real" Subscription.
@@ -610,9 +662,7 @@ public final class Console implements MessageListener, AgentProxy
                                     if (objectEpoch > agent.getEpoch())
                                     {
                                         agent.setEpoch(objectEpoch);
-                                        agent.clearSchemaCache(); // Clear cache to force a lookup
-                                        List<SchemaClassId> classes = getClasses(agent);
-                                        getSchema(classes, agent); // Discover the schema for this Agent and cache it
+                                        discoverSchema(agent, true); // Clear cache to force a lookup
                                         _log.info("Agent {} has been restarted", agentName);
                                         if (_discoverAgents && (_agentQuery == null || _agentQuery.evaluate(agent)))
                                         {
@@ -663,21 +713,212 @@ public final class Console implements MessageListener, AgentProxy
         }
     } // end of onMessage() 
 
+    /**
+     * Populate an ObjectMirror with a snapshot of the objects of all of the data classes known to its Agent,
+     * discarding any objects that it previously held.
+     *
+     * @param mirror the ObjectMirror to be seeded.
+     * @param epoch the Agent Epoch of the objects that the mirror is being seeded with.
+     */
+    private void seedObjectMirror(final ObjectMirror mirror, final long epoch)
+    {
+        Agent agent = mirror.getAgent();
+        mirror.clear();
+        mirror.setEpoch(epoch);
+        for (SchemaClassId classId : getClasses(agent))
+        {
+            if (!classId.getType().equals("_event"))
+            {
+                mirror.update(getObjects(agent, classId, null, -1));
+            }
+        }
+        mirror.setSeeded(true);
+        _log.info("ObjectMirror for Agent {} seeded with {} objects", agent.getName(), mirror.size());
+    }
+
+    /**
+     * Apply the objects from a _data indication to an ObjectMirror. If the objects have a more recent Agent Epoch
+     * than the mirrored objects the Agent has been restarted, so the mirror is reseeded before the update is applied.
+     * The broker ManagementAgent pushes data <b>before</b> it pushes heartbeats so this is generally the first
+     * indication that the broker has been restarted.
+     *
+     * @param mirror the ObjectMirror to be updated.
+     * @param list the List of Maps from the _data indication.
+     */
+    private void updateObjectMirror(final ObjectMirror mirror, final List<Map> list)
+    {
+        Agent agent = mirror.getAgent();
+        long objectEpoch = 0;
+        List<QmfConsoleData> objects = new ArrayList<QmfConsoleData>(list.size());
+        for (Map m : list)
+        {
+            QmfConsoleData object = new QmfConsoleData(m, agent);
+            if (object.getObjectId() == null)
+            {
+                continue;
+            }
+            long epoch = object.getObjectId().getAgentEpoch();
+            objectEpoch = (epoch > objectEpoch && !object.isDeleted()) ? epoch : objectEpoch;
+            objects.add(object);
+        }
+
+        if (objectEpoch > mirror.getEpoch() && mirror.getEpoch() != 0)
+        {
+            _log.info("ObjectMirror for Agent {} has stale objects, reseeding", agent.getName());
+            seedObjectMirror(mirror, objectEpoch);
+        }
+        else if (objectEpoch > mirror.getEpoch())
+        {
+            mirror.setEpoch(objectEpoch);
+        }
+        mirror.update(objects);
+    }
+
+    /**
+     * Discover the schema for an Agent and cache it. The discovery is done on the schema discovery Thread as it
+     * makes blocking requests to the Agent, which would otherwise stall the JMS MessageListener Thread. Schema that
+     * has previously been retrieved, from any Agent, is reused so only the schema of classes with unknown hashes is
+     * requested from the Agent. Until discovery has completed getClasses() and getSchema() will simply make their
+     * own requests to the Agent.
+     *
+     * @param agent the Agent whose schema is to be discovered.
+     * @param restarted true if the Agent has been restarted, in which case its cached schema is first cleared.
+     */
+    private void discoverSchema(final Agent agent, final boolean restarted)
+    {
+        if (restarted)
+        {
+            agent.clearSchemaCache();
+        }
+
+        try
+        {
+            _schemaDiscovery.execute(new Runnable()
+            {
+                public void run()
+                {
+                    List<SchemaClassId> classes = getClasses(agent);
+                    List<SchemaClassId> unknown = new ArrayList<SchemaClassId>();
+                    for (SchemaClassId classId : classes)
+                    {
+                        SchemaClass schema = _schemaCache.get(classId);
+                        if (schema == null)
+                        {
+                            unknown.add(classId);
+                        }
+                        else
+                        {
+                            agent.setSchema(classId, Collections.singletonList(schema));
+                        }
+                    }
+
+                    if (unknown.size() > 0)
+                    {
+                        getSchema(unknown, agent);
+                    }
+                    _log.info("Discovered schema for Agent {}, {} classes of which {} were retrieved",
+                              new Object[] {agent.getName(), classes.size(), unknown.size()});
+                }
+            });
+        }
+        catch (RejectedExecutionException ree)
+        { // The connection has been removed so there is no point in discovering the schema.
+        }
+    }
+
     /**
      * Retrieve the schema for a List of classes.
      * This method explicitly retrieves the schema from the remote Agent and is generally used for schema
      * discovery when an Agent is added or updated.
+     * <p>
+     * All of the requests are sent to the Agent before waiting for any of the responses, so the time taken is
+     * roughly that of a single round trip rather than one round trip for each class. Each request has its own
+     * correlation ID so the responses may be received in any order and any stale responses are discarded.
      *
      * @param classes the list of SchemaClassId of the classes who's schema we want to retrieve
      * @param agent the Agent we want to retrieve the schema from
      */
     private List<SchemaClass> getSchema(final List<SchemaClassId> classes, final Agent agent)
     {
+        String agentName = agent.getName();
         List<SchemaClass> results = new ArrayList<SchemaClass>();
-        for (SchemaClassId classId : classes)
+        Map<String, SchemaClassId> pending = new HashMap<String, SchemaClassId>(classes.size());
+        String prefix = UUID.randomUUID().toString() + ":";
+        try
+        {
+            List<MapMessage> requests = new ArrayList<MapMessage>(classes.size());
+            for (SchemaClassId classId : classes)
+            {
+                agent.setSchema(classId, Collections.<SchemaClass>emptyList()); // Clear Agent's schema value for classId
+
+                String correlationId = prefix + requests.size();
+                MapMessage request = _syncSession.createMapMessage();
+                request.setJMSReplyTo(_replyAddress);
+                request.setJMSCorrelationID(correlationId);
+                request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+                request.setStringProperty("method", "request");
+                request.setStringProperty("qmf.opcode", "_query_request");
+                request.setStringProperty("qpid.subject", agentName);
+
+                // Create a QMF Query for an "SCHEMA" target
+                request.setObject("_what", "SCHEMA");
+                request.setObject("_schema_id", classId.mapEncode());
+                requests.add(request);
+                pending.put(correlationId, classId);
+            }
+
+            // Wrap requests & responses in synchronized block in case any other threads invoke a request
+            // it would be somewhat unfortunate if their response got interleaved with ours!!
+            synchronized(this)
+            {
+                for (MapMessage request : requests)
+                {
+                    _requester.send(request);
+                }
+
+                long deadline = System.currentTimeMillis() + _replyTimeout*1000l;
+                while (pending.size() > 0)
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    Message response = (remaining > 0) ? _responder.receive(remaining) : null;
+                    if (response == null)
+                    {
+                        _log.info("No response received for {} classes in getSchema()", pending.size());
+                        break;
+                    }
+
+                    SchemaClassId classId = pending.get(response.getJMSCorrelationID());
+                    if (classId == null)
+                    {
+                        _log.info("getSchema() discarding response with unknown correlation ID");
+                        continue;
+                    }
+
+                    if (!response.propertyExists("partial"))
+                    {
+                        pending.remove(response.getJMSCorrelationID());
+                    }
+
+                    if (AMQPMessage.isAMQPList(response))
+                    {
+                        List<Map> mapResults = AMQPMessage.getList(response);
+                        for (Map content : mapResults)
+                        {
+                            SchemaClass schema = _schemaCache.put(classId, content);
+                            agent.setSchema(classId, Collections.singletonList(schema));
+                            results.add(schema);
+                        }
+                    }
+                    else if (!AMQPMessage.isAMQPMap(response))
+                    { // Error responses are returned as MapMessages, though they are being ignored here.
+                        _log.info("getSchema() Received response message in incorrect format");
+                    }
+                }
+            }
+        }
+        catch (JMSException jmse)
         {
-            agent.setSchema(classId, Collections.<SchemaClass>emptyList()); // Clear Agent's schema value for classId
-            results.addAll(getSchema(classId, agent));
+            _log.info("JMSException {} caught in getSchema()", jmse.getMessage());
         }
         return results;
     }
@@ -767,6 +1008,110 @@ public final class Console implements MessageListener, AgentProxy
         return results;
     }
 
+    /**
+     * Pipelined version of getObjects() that sends all of the queries to the Agent before waiting for any of the
+     * responses, so the total time taken is roughly that of a single round trip rather than one round trip for each
+     * query. Each request has its own correlation ID so responses, including partial responses, may be received in
+     * any order, and any stale responses to earlier requests that timed out are discarded.
+     *
+     * @param agent the Agent to query.
+     * @param queries the SchemaClassIds or ObjectIds we're looking up objects for.
+     * @param timeout the time to wait for all of the replies from the Agent.
+     * @return a List containing a List of QMF Objects for each query, in the same order as the queries.
+     */
+    private List<List<QmfConsoleData>> getObjects(final Agent agent, final List<? extends QmfData> queries,
+                                                  int timeout)
+    {
+        String agentName = agent.getName();
+        timeout = (timeout < 1) ? _replyTimeout : timeout;
+        int count = queries.size();
+        List<List<QmfConsoleData>> results = new ArrayList<List<QmfConsoleData>>(count);
+        Map<String, Integer> pending = new HashMap<String, Integer>(count);
+        String prefix = UUID.randomUUID().toString() + ":";
+        try
+        {
+            List<MapMessage> requests = new ArrayList<MapMessage>(count);
+            for (int i = 0; i < count; i++)
+            {
+                QmfData query = queries.get(i);
+                String correlationId = prefix + i;
+                MapMessage request = _syncSession.createMapMessage();
+                request.setJMSReplyTo(_replyAddress);
+                request.setJMSCorrelationID(correlationId);
+                request.setStringProperty("x-amqp-0-10.app-id", "qmf2");
+                request.setStringProperty("method", "request");
+                request.setStringProperty("qmf.opcode", "_query_request");
+                request.setStringProperty("qpid.subject", agentName);
+
+                // Create a QMF Query for an "OBJECT" target using either a schema ID or object ID
+                String queryType = (query instanceof SchemaClassId) ? "_schema_id" : "_object_id";
+                request.setObject("_what", "OBJECT");
+                request.setObject(queryType, query.mapEncode());
+                requests.add(request);
+                results.add(new ArrayList<QmfConsoleData>());
+                pending.put(correlationId, i);
+            }
+
+            // As with getObjects() the requests and responses are wrapped in a synchronized block so that other
+            // threads' requests can't consume our responses.
+            synchronized(this)
+            {
+                for (MapMessage request : requests)
+                {
+                    _requester.send(request);
+                }
+
+                long deadline = System.currentTimeMillis() + timeout*1000l;
+                while (pending.size() > 0)
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    Message response = (remaining > 0) ? _responder.receive(remaining) : null;
+                    if (response == null)
+                    {
+                        _log.info("No response received for {} queries in getObjects()", pending.size());
+                        break;
+                    }
+
+                    Integer index = pending.get(response.getJMSCorrelationID());
+                    if (index == null)
+                    {
+                        _log.info("getObjects() discarding response with unknown correlation ID");
+                        continue;
+                    }
+
+                    if (!response.propertyExists("partial"))
+                    {
+                        pending.remove(response.getJMSCorrelationID());
+                    }
+
+                    if (AMQPMessage.isAMQPList(response))
+                    {
+                        List<QmfConsoleData> partials = results.get(index);
+                        List<Map> mapResults = AMQPMessage.getList(response);
+                        for (Map content : mapResults)
+                        {
+                            partials.add(new QmfConsoleData(content, agent));
+                        }
+                    }
+                    else if (!AMQPMessage.isAMQPMap(response))
+                    { // Error responses are returned as MapMessages, though they are being ignored here.
+                        _log.info("getObjects() Received response message in incorrect format");
+                    }
+                }
+            }
+        }
+        catch (JMSException jmse)
+        {
+            _log.info("JMSException {} caught in getObjects()", jmse.getMessage());
+        }
+
+        while (results.size() < count)
+        {
+            results.add(new ArrayList<QmfConsoleData>());
+        }
+        return results;
+    }
+
     //                                methods implementing AgentProxy interface
     // ********************************************************************************************************
 
@@ -1099,6 +1444,17 @@ public final class Console implements MessageListener, AgentProxy
 
                 _asyncSession = _connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
 
+                // Schema discovery is done on its own Thread as it makes blocking requests to the Agents.
+                _schemaDiscovery = Executors.newSingleThreadExecutor(new ThreadFactory()
+                {
+                    public Thread newThread(final Runnable r)
+                    {
+                        Thread thread = new Thread(r, "Console schema discovery");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
                 // Set up MessageListener on the Event Address
                 Destination eventAddress = _asyncSession.createQueue(topicBase + "/agent.ind.#" + eventAddressOptions);
                 _eventConsumer = _asyncSession.createConsumer(eventAddress);
@@ -1194,6 +1550,10 @@ public final class Console implements MessageListener, AgentProxy
         try
         {
             _timer.cancel();
+            if (_schemaDiscovery != null)
+            {
+                _schemaDiscovery.shutdownNow();
+            }
             _connection.close(); // Should we close() the connection here or just stop() it ???
         }
         catch (JMSException jmse)
@@ -1339,6 +1699,25 @@ public final class Console implements MessageListener, AgentProxy
         _disableEvents = true;
     }
 
+    /**
+     * Persist the schema retrieved from Agents in the specified directory, which is created if necessary, and reuse
+     * any schema previously persisted there whose SchemaClassId, including its hash, matches a class known to an
+     * Agent. This avoids retrieving schema from the Agents each time a Console is started, so is particularly
+     * useful for short lived tools. The directory may be shared by several Consoles.
+     * <p>
+     * Schema is cached in memory whether or not this method is called. The System Property "schema_cache_dir" may be
+     * set as an alternative to calling this method. Note that enableSchemaCache() should be called <b>before</b>
+     * addConnection() in order for the schema of the Agents discovered when the connection is added to be reused.
+     * <p>
+     * This method is <b>not</b> an official method specified in the QMF2 API.
+     *
+     * @param directory the directory used to persist schema.
+     */
+    public void enableSchemaCache(final String directory)
+    {
+        _schemaCache = new SchemaCache(new File(directory));
+    }
+
     /**
      * Return the count of pending WorkItems that can be retrieved.
      * @return the count of pending WorkItems that can be retrieved.
@@ -1622,6 +2001,15 @@ public final class Console implements MessageListener, AgentProxy
             return results;
         }
 
+        // Then look to see if the schema has previously been retrieved from this or any other Agent.
+        SchemaClass cached = _schemaCache.get(schemaClassId);
+        if (cached != null)
+        {
+            results = Collections.singletonList(cached);
+            agent.setSchema(schemaClassId, results);
+            return results;
+        }
+
         String agentName = agent.getName();
 //System.out.println("getSchema for agent " + agentName);
         results = new ArrayList<SchemaClass>();
@@ -1655,11 +2043,7 @@ public final class Console implements MessageListener, AgentProxy
                     List<Map> mapResults = AMQPMessage.getList(response);
                     for (Map content : mapResults)
                     {
-                        SchemaClass schema = new SchemaObjectClass(content);
-                        if (schema.getClassId().getType().equals("_event"))
-                        {
-                            schema = new SchemaEventClass(content);
-                        }
+                        SchemaClass schema = _schemaCache.put(schemaClassId, content);
 //schema.listValues();
                         results.add(schema);
                     }
@@ -1858,11 +2242,182 @@ public final class Console implements MessageListener, AgentProxy
         List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
         for (Agent agent : agentList)
         {
-            results.addAll(getObjects(agent, query, null, timeout));
+            ObjectMirror mirror = _mirrors.get(agent.getName());
+            if (mirror != null && mirror.isSeeded())
+            { // If the Agent is mirrored answer the query locally.
+                List<QmfConsoleData> objects = mirror.getObjects(query);
+                if (objects.size() == 0 && query instanceof ObjectId)
+                { // The object may have been created since the Agent last pushed updates so look it up on the Agent.
+                    objects = getObjects(agent, query, null, timeout);
+                    mirror.update(objects);
+                }
+                results.addAll(objects);
+            }
+            else
+            {
+                results.addAll(getObjects(agent, query, null, timeout));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Perform a blocking query for the QmfConsoleData objects matching each of several queries. The queries are
+     * pipelined, in other words all of them are sent to an Agent before waiting for any of its responses, so
+     * retrieving several classes, such as queues, bindings and exchanges, takes roughly a single round trip.
+     * This method will block until all known Agents reply, or the timeout expires.
+     * <p>
+     * This method is <b>not</b> an official method specified in the QMF2 API.
+     *
+     * @param queries the SchemaClassIds or ObjectIds we're looking up objects for.
+     * @return a List containing a List of QMF Objects for each query, in the same order as the queries.
+     */
+    public List<List<QmfConsoleData>> getObjects(final List<? extends QmfData> queries)
+    {
+        return getObjects(queries, _replyTimeout, getAgents());
+    }
+
+    /**
+     * Perform a blocking query for the QmfConsoleData objects matching each of several queries. The queries are
+     * pipelined, in other words all of them are sent to an Agent before waiting for any of its responses, so
+     * retrieving several classes, such as queues, bindings and exchanges, takes roughly a single round trip.
+     * This method will block until all the Agents reply, or the timeout expires.
+     * <p>
+     * This method is <b>not</b> an official method specified in the QMF2 API.
+     *
+     * @param queries the SchemaClassIds or ObjectIds we're looking up objects for.
+     * @param timeout overrides the default replyTimeout.
+     * @param agentList the Agents that the queries are sent to.
+     * @return a List containing a List of QMF Objects for each query, in the same order as the queries.
+     */
+    public List<List<QmfConsoleData>> getObjects(final List<? extends QmfData> queries, final int timeout,
+                                                 final List<Agent> agentList)
+    {
+        List<List<QmfConsoleData>> results = new ArrayList<List<QmfConsoleData>>(queries.size());
+        for (int i = 0; i < queries.size(); i++)
+        {
+            results.add(new ArrayList<QmfConsoleData>());
+        }
+
+        for (Agent agent : agentList)
+        {
+            ObjectMirror mirror = _mirrors.get(agent.getName());
+            if (mirror != null && mirror.isSeeded())
+            { // If the Agent is mirrored answer the queries locally.
+                for (int i = 0; i < queries.size(); i++)
+                {
+                    results.get(i).addAll(getObjects(queries.get(i), timeout, Collections.singletonList(agent)));
+                }
+            }
+            else
+            {
+                List<List<QmfConsoleData>> agentResults = getObjects(agent, queries, timeout);
+                for (int i = 0; i < queries.size(); i++)
+                {
+                    results.get(i).addAll(agentResults.get(i));
+                }
+            }
         }
         return results;
     }
 
+    /**
+     * Enables an ObjectMirror for the specified Agent. The mirror is seeded with a snapshot of the objects of every
+     * data class known to the Agent and subsequently kept current by the _data indications received from the Agent.
+     * Once enabled the getObjects() methods are answered from the mirror for that Agent rather than by querying the
+     * Agent. If a mirror is already enabled for the Agent that mirror is returned.
+     * <p>
+     * The broker ManagementAgent periodically pushes updates of any objects that have changed, to keep a mirror of
+     * other Agents current create a Subscription to the Agent. The mirror is reseeded if the Agent is restarted and
+     * is discarded if the Agent expires.
+     * <p>
+     * This method is <b>not</b> an official method specified in the QMF2 API.
+     *
+     * @param agent the Agent whose objects are to be mirrored.
+     * @return the ObjectMirror for the Agent.
+     */
+    public ObjectMirror enableObjectMirror(final Agent agent) throws QmfException
+    {
+        if (agent == null)
+        {
+            throw new QmfException("Called enableObjectMirror() with null agent");
+        }
+        if (!agent.isActive())
+        {
+            throw new QmfException("Called enableObjectMirror() with inactive agent");
+        }
+        if (_disableEvents)
+        {
+            throw new QmfException("Called enableObjectMirror() with events disabled");
+        }
+
+        String agentName = agent.getName();
+        ObjectMirror mirror = _mirrors.get(agentName);
+        if (mirror == null)
+        { // The mirror is registered before it is seeded so that any updates received during seeding are applied.
+            mirror = new ObjectMirror(agent);
+            _mirrors.put(agentName, mirror);
+            seedObjectMirror(mirror, agent.getEpoch());
+        }
+        return mirror;
+    }
+
+    /**
+     * Refreshes the objects of a given class held by the ObjectMirror for the specified Agent with a snapshot
+     * retrieved from the Agent. Agents only push updates periodically so this is useful where an application knows
+     * that objects have been created since the last update was received, for example on receipt of a QMF Event.
+     * <p>
+     * This method is <b>not</b> an official method specified in the QMF2 API.
+     *
+     * @param agent the Agent whose ObjectMirror we wish to refresh.
+     * @param packageName the schema package name of the class to be refreshed.
+     * @param className the schema class name of the class to be refreshed.
+     * @return a List of the refreshed QMF Objects of that class.
+     */
+    public List<QmfConsoleData> refreshObjectMirror(final Agent agent, final String packageName,
+                                                    final String className) throws QmfException
+    {
+        ObjectMirror mirror = getObjectMirror(agent);
+        if (mirror == null)
+        {
+            throw new QmfException("Called refreshObjectMirror() for an Agent that isn't mirrored");
+        }
+        mirror.update(getObjects(agent, new SchemaClassId(packageName, className), null, -1));
+        return mirror.getObjects(packageName, className);
+    }
+
+    /**
+     * Return the ObjectMirror enabled for the specified Agent.
+     * <p>
+     * This method is <b>not</b> an official method specified in the QMF2 API.
+     *
+     * @param agent the Agent whose ObjectMirror we wish to retrieve.
+     * @return the ObjectMirror for the Agent or null if no mirror has been enabled for the Agent.
+     */
+    public ObjectMirror getObjectMirror(final Agent agent)
+    {
+        return (agent == null) ? null : _mirrors.get(agent.getName());
+    }
+
+    /**
+     * Disables the ObjectMirror (if any) for the specified Agent, subsequent getObjects() calls will query the Agent.
+     * <p>
+     * This method is <b>not</b> an official method specified in the QMF2 API.
+     *
+     * @param agent the Agent whose ObjectMirror we wish to disable.
+     */
+    public void disableObjectMirror(final Agent agent)
+    {
+        if (agent != null)
+        {
+            ObjectMirror mirror = _mirrors.remove(agent.getName());
+            if (mirror != null)
+            {
+                mirror.clear();
+            }
+        }
+    }
+
     /**
      * Creates a subscription to the agent using the given Query.
      * <p>
@@ -0,0 +1,396 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfData;
+import org.apache.qpid.qmf2.common.QmfQuery;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+
+/**
+ * An ObjectMirror holds an in-memory replica of the QmfConsoleData objects managed by a given Agent, enabling object
+ * lookups, reference dereferencing and class scans to be performed locally rather than as a round trip to the Agent.
+ * <p>
+ * ObjectMirrors are opt-in and are created by Console.enableObjectMirror(). The Console seeds the mirror with a
+ * snapshot of the objects of every data class known to the Agent and then keeps it current by applying the _data
+ * indications received from the Agent, so both the periodic object updates pushed by the broker ManagementAgent and
+ * the results of any Subscriptions made to the Agent are reflected in the mirror. Objects are removed when an update
+ * with a deletion timestamp is received and the mirror is reseeded if the Agent is restarted. A tombstone is kept
+ * for each deleted object for TOMBSTONE_LIFETIME so that a snapshot taken before the deletion but received after it
+ * can't bring the object back.
+ * <p>
+ * Note that Agents other than the broker ManagementAgent do not generally push unsolicited updates, so to keep a
+ * mirror of such an Agent current the application should create a Subscription to that Agent.
+ * <p>
+ * Once a mirror has been seeded the Console's getObjects() methods are answered from it for the mirrored Agent, so
+ * existing code benefits without modification. The state of the mirrored objects is only as fresh as the most
+ * recent update received from the Agent, QmfConsoleData.refresh() may still be used to explicitly update an object.
+ * <p>
+ * The objects held by the mirror are never modified, updates replace them, so the QmfConsoleData returned by
+ * the methods of this class may safely be retained by the caller. ObjectMirror is thread safe, updates are
+ * applied by the Console's JMS MessageListener thread whereas lookups do not block and may be made from any thread.
+ *
+ * @author Fraser Adams
+ */
+public final class ObjectMirror
+{
+    /**
+     * How long, in nanoseconds, a tombstone is kept after an object's deletion. Snapshots race pushed updates by at
+     * most a few seconds, so ten minutes is ample whilst bounding the memory used by tombstones.
+     */
+    private static final long TOMBSTONE_LIFETIME = 600000000000l;
+
+    /**
+     * The Agent whose objects are being mirrored.
+     */
+    private final Agent _agent;
+
+    /**
+     * The mirrored objects indexed by ObjectId. The String form of the ObjectId is used as the key as ObjectId
+     * equality is itself based on the String form.
+     */
+    private final Map<String, QmfConsoleData> _objects = new ConcurrentHashMap<String, QmfConsoleData>();
+
+    /**
+     * The mirrored objects indexed by class name, used to perform class scans without iterating all objects.
+     */
+    private final Map<String, Map<String, QmfConsoleData>> _classes =
+        new ConcurrentHashMap<String, Map<String, QmfConsoleData>>();
+
+    /**
+     * The tombstones of recently deleted objects, mapping the String form of the ObjectId to the time of the
+     * deletion. Held in deletion order so that expired tombstones can be pruned from the head. Guarded by this.
+     */
+    private final LinkedHashMap<String, Long> _tombstones = new LinkedHashMap<String, Long>();
+
+    /**
+     * Set once the mirror has been populated from a snapshot, until then lookups are made on the Agent.
+     */
+    private volatile boolean _seeded = false;
+
+    /**
+     * The Agent Epoch of the mirrored objects, used to detect that the Agent has been restarted.
+     */
+    private volatile long _epoch = 0;
+
+    /**
+     * Construct an ObjectMirror for the specified Agent. ObjectMirrors are created by Console.enableObjectMirror().
+     *
+     * @param agent the Agent whose objects are to be mirrored.
+     */
+    ObjectMirror(final Agent agent)
+    {
+        _agent = agent;
+    }
+
+    /**
+     * Apply an update of an object to the mirror. If the object is already present the update is merged with it, as
+     * Agents may only send the values that have changed, otherwise it is added. Objects that have been deleted are
+     * removed from the mirror and an update of a deleted object that isn't newer than its deletion is ignored.
+     *
+     * @param object a QmfConsoleData received from the Agent.
+     */
+    synchronized void update(QmfConsoleData object)
+    {
+        ObjectId objectId = object.getObjectId();
+        if (objectId == null)
+        {
+            return;
+        }
+
+        String key = objectId.toString();
+        String className = object.getSchemaClassId().getClassName();
+        Long deleted = _tombstones.get(key);
+        if (deleted != null)
+        {
+            if (object.isDeleted() || object.getUpdateTime() <= deleted)
+            { // A stale copy of an object that we've already removed.
+                return;
+            }
+            _tombstones.remove(key);
+        }
+
+        QmfConsoleData current = _objects.get(key);
+        if (current != null)
+        {
+            if (!object.isDeleted() && object.getUpdateTime() < current.getUpdateTime())
+            { // An older update, for example a snapshot racing a pushed update, so just fill in any missing values.
+                QmfConsoleData merged = current.merge(object);
+                _objects.put(key, merged);
+                index(className).put(key, merged);
+                return;
+            }
+            object = current.merge(object);
+        }
+
+        if (object.isDeleted())
+        {
+            _objects.remove(key);
+            Map<String, QmfConsoleData> objects = _classes.get(className);
+            if (objects != null)
+            {
+                objects.remove(key);
+            }
+            addTombstone(key, Math.max(object.getDeleteTime(), object.getUpdateTime()));
+        }
+        else
+        {
+            _objects.put(key, object);
+            index(className).put(key, object);
+        }
+    }
+
+    /**
+     * Record the tombstone of a deleted object and discard any tombstones that have outlived TOMBSTONE_LIFETIME.
+     *
+     * @param key the String form of the deleted object's ObjectId.
+     * @param time the time of the deletion in nanoseconds since the epoch.
+     */
+    private void addTombstone(final String key, final long time)
+    {
+        _tombstones.put(key, time);
+        Iterator<Long> i = _tombstones.values().iterator();
+        while (i.hasNext() && i.next() < time - TOMBSTONE_LIFETIME)
+        {
+            i.remove();
+        }
+    }
+
+    /**
+     * Apply a List of object updates to the mirror.
+     *
+     * @param objects the List of QmfConsoleData received from the Agent.
+     */
+    void update(final List<QmfConsoleData> objects)
+    {
+        for (QmfConsoleData object : objects)
+        {
+            update(object);
+        }
+    }
+
+    /**
+     * Discard all mirrored objects, for example because the Agent has been restarted. The mirror will not be used
+     * to answer Console.getObjects() until it has been seeded again.
+     */
+    synchronized void clear()
+    {
+        _seeded = false;
+        _objects.clear();
+        _classes.clear();
+        _tombstones.clear();
+    }
+
+    /**
+     * Record whether the mirror has been populated from a snapshot of the Agent's objects.
+     *
+     * @param seeded true if the mirror has been populated from a snapshot of the Agent's objects.
+     */
+    void setSeeded(final boolean seeded)
+    {
+        _seeded = seeded;
+    }
+
+    /**
+     * Return the Agent Epoch of the mirrored objects.
+     * @return the Agent Epoch of the mirrored objects.
+     */
+    long getEpoch()
+    {
+        return _epoch;
+    }
+
+    /**
+     * Record the Agent Epoch of the mirrored objects.
+     *
+     * @param epoch the Agent Epoch of the mirrored objects.
+     */
+    void setEpoch(final long epoch)
+    {
+        _epoch = epoch;
+    }
+
+    /**
+     * Return the class index for a given class name, creating it if necessary.
+     *
+     * @param className the class name.
+     * @return the Map of ObjectId to QmfConsoleData for the class.
+     */
+    private Map<String, QmfConsoleData> index(final String className)
+    {
+        Map<String, QmfConsoleData> objects = _classes.get(className);
+        if (objects == null)
+        {
+            objects = new ConcurrentHashMap<String, QmfConsoleData>();
+            _classes.put(className, objects);
+        }
+        return objects;
+    }
+
+    /**
+     * Return the Agent whose objects are being mirrored.
+     * @return the Agent whose objects are being mirrored.
+     */
+    public Agent getAgent()
+    {
+        return _agent;
+    }
+
+    /**
+     * Return true if the mirror has been populated from a snapshot of the Agent's objects.
+     * @return true if the mirror has been populated from a snapshot of the Agent's objects.
+     */
+    public boolean isSeeded()
+    {
+        return _seeded;
+    }
+
+    /**
+     * Return the number of objects currently held by the mirror.
+     * @return the number of objects currently held by the mirror.
+     */
+    public int size()
+    {
+        return _objects.size();
+    }
+
+    /**
+     * Look up an object by ObjectId, typically used to dereference a reference property.
+     *
+     * @param objectId the ObjectId of the object to look up.
+     * @return the QmfConsoleData with the specified ObjectId or null if the mirror doesn't hold it.
+     */
+    public QmfConsoleData getObject(final ObjectId objectId)
+    {
+        return (objectId == null) ? null : _objects.get(objectId.toString());
+    }
+
+    /**
+     * Return all of the mirrored objects of a given class.
+     *
+     * @param className the schema class name we're looking up objects for.
+     * @return a List of QMF Objects of that class.
+     */
+    public List<QmfConsoleData> getObjects(final String className)
+    {
+        return getObjects(null, className);
+    }
+
+    /**
+     * Return all of the mirrored objects of a given class. If the package name is null or empty then objects of the
+     * class are returned regardless of the package.
+     *
+     * @param packageName the schema package name we're looking up objects for.
+     * @param className the schema class name we're looking up objects for.
+     * @return a List of QMF Objects of that class.
+     */
+    public List<QmfConsoleData> getObjects(final String packageName, final String className)
+    {
+        Map<String, QmfConsoleData> objects = _classes.get(className);
+        if (objects == null)
+        {
+            return Collections.emptyList();
+        }
+
+        List<QmfConsoleData> results = new ArrayList<QmfConsoleData>(objects.size());
+        for (QmfConsoleData object : objects.values())
+        {
+            if (packageName == null || packageName.length() == 0 ||
+                packageName.equals(object.getSchemaClassId().getPackageName()))
+            {
+                results.add(object);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Return the mirrored objects matching a SchemaClassId or ObjectId, as used by Console.getObjects().
+     *
+     * @param query the SchemaClassId or ObjectId we're looking up objects for.
+     * @return a List of QMF Objects matching the query.
+     */
+    public List<QmfConsoleData> getObjects(final QmfData query)
+    {
+        if (query instanceof SchemaClassId)
+        {
+            SchemaClassId classId = (SchemaClassId)query;
+            return getObjects(classId.getPackageName(), classId.getClassName());
+        }
+        else if (query instanceof ObjectId)
+        {
+            QmfConsoleData object = getObject((ObjectId)query);
+            if (object != null)
+            {
+                return Collections.singletonList(object);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Return the mirrored objects matching a QmfQuery. If the query is an ID query on a class only the objects of
+     * that class are evaluated, otherwise the query is evaluated against every mirrored object.
+     *
+     * @param query the QmfQuery to evaluate.
+     * @return a List of QMF Objects matching the query.
+     */
+    public List<QmfConsoleData> getObjects(final QmfQuery query)
+    {
+        if (query.getObjectId() != null)
+        {
+            return getObjects(query.getObjectId());
+        }
+
+        Collection<QmfConsoleData> candidates = _objects.values();
+        SchemaClassId classId = query.getSchemaClassId();
+        if (classId != null && classId.getClassName().length() > 0)
+        {
+            Map<String, QmfConsoleData> objects = _classes.get(classId.getClassName());
+            if (objects == null)
+            {
+                return Collections.emptyList();
+            }
+            candidates = objects.values();
+        }
+
+        List<QmfConsoleData> results = new ArrayList<QmfConsoleData>();
+        for (QmfConsoleData object : candidates)
+        {
+            if (query.evaluate(object))
+            {
+                results.add(object);
+            }
+        }
+        return results;
+    }
+}
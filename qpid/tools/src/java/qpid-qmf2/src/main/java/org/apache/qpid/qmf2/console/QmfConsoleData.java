@@ -71,6 +71,16 @@ public class QmfConsoleData extends QmfManaged
         _agent = a;
     }
 
+    /**
+     * Constructor used by merge() to create an initially empty QmfConsoleData managed by a given Agent.
+     *
+     * @param a the Agent that manages this object.
+     */
+    private QmfConsoleData(final Agent a)
+    {
+        _agent = a;
+    }
+
     /**
      * Sets the state of the QmfConsoleData, used as an assignment operator.
      * 
@@ -163,6 +173,41 @@ public class QmfConsoleData extends QmfManaged
         return getDeleteTime() != 0;
     }
 
+    /**
+     * Returns a new QmfConsoleData combining the state of this object with that of another update of the same object.
+     * <p>
+     * Agents such as the broker ManagementAgent only push the property or statistic values that have changed, so any
+     * values absent from the more recent of the two objects are taken from the older one. The timestamps are those
+     * of the more recent object. Neither this object nor rhs is modified.
+     *
+     * @param rhs another update of the object represented by this QmfConsoleData.
+     * @return a new QmfConsoleData combining the state of this object with that of rhs.
+     */
+    QmfConsoleData merge(final QmfConsoleData rhs)
+    {
+        QmfConsoleData newer = (rhs._updateTimestamp >= _updateTimestamp) ? rhs : this;
+        QmfConsoleData older = (newer == rhs) ? this : rhs;
+
+        QmfConsoleData result = new QmfConsoleData(_agent);
+        result.initialise(newer);
+
+        Map<String, Object> values = new HashMap<String, Object>(older._values);
+        values.putAll(newer._values);
+        result._values = values;
+
+        if (older._subtypes != null && newer._subtypes != null)
+        {
+            Map<String, String> subtypes = new HashMap<String, String>(older._subtypes);
+            subtypes.putAll(newer._subtypes);
+            result._subtypes = subtypes;
+        }
+        else if (newer._subtypes == null)
+        {
+            result._subtypes = older._subtypes;
+        }
+        return result;
+    }
+
     /**
      * Request that the Agent updates the value of this object's contents.
      */    
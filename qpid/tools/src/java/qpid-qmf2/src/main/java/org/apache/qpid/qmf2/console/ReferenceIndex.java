@@ -0,0 +1,328 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Misc Imports
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+import org.apache.qpid.qmf2.common.QmfData;
+
+/**
+ * A ReferenceIndex indexes a set of QmfConsoleData objects so that the references between them may be followed in
+ * either direction in constant time.
+ * <p>
+ * Many QMF Objects contain reference properties, for example a broker binding has exchangeRef and queueRef
+ * properties holding the ObjectIds of its exchange and queue. Following these by iterating through Lists of objects
+ * makes joins such as "the bindings of each queue" O(n*m), which is slow on brokers with many queues and bindings.
+ * The ReferenceIndex maps each ObjectId to its object, which allows references to be dereferenced, and lazily builds
+ * a reverse index from (class name, reference property, target ObjectId) to the objects holding that reference, which
+ * allows the referencing objects to be retrieved. The reverse index for a given class and reference property is
+ * built in a single pass the first time it is used, so these joins take linear time overall.
+ * <pre>
+ * ReferenceIndex index = new ReferenceIndex();
+ * index.addAll(console.getObjects("org.apache.qpid.broker", "queue"));
+ * index.addAll(console.getObjects("org.apache.qpid.broker", "binding"));
+ * index.addAll(console.getObjects("org.apache.qpid.broker", "exchange"));
+ *
+ * for (QmfConsoleData binding : index.getReferrers("binding", "queueRef", queue.getObjectId()))
+ * {
+ *     QmfConsoleData exchange = index.dereference(binding, "exchangeRef");
+ * }
+ * </pre>
+ * The ReferenceIndex is a snapshot of the objects added to it and is not thread safe, it is intended to be populated
+ * and then used by a single thread. Objects added after a reverse index has been built are added to that index too.
+ *
+ * @author Fraser Adams
+ */
+public final class ReferenceIndex
+{
+    /**
+     * The indexed objects indexed by the String form of their ObjectId, as ObjectId equality is based on that.
+     */
+    private final Map<String, QmfConsoleData> _objects = new HashMap<String, QmfConsoleData>();
+
+    /**
+     * The indexed objects grouped by class name.
+     */
+    private final Map<String, List<QmfConsoleData>> _classes = new HashMap<String, List<QmfConsoleData>>();
+
+    /**
+     * The reverse indexes that have been built, keyed by "className.refProperty". Each maps the String form of a
+     * target ObjectId to the List of objects of that class whose refProperty references the target.
+     */
+    private final Map<String, Map<String, List<QmfConsoleData>>> _referrers =
+        new HashMap<String, Map<String, List<QmfConsoleData>>>();
+
+    /**
+     * Construct an empty ReferenceIndex.
+     */
+    public ReferenceIndex()
+    {
+    }
+
+    /**
+     * Construct a ReferenceIndex containing the supplied objects.
+     *
+     * @param objects the objects to be indexed.
+     */
+    public ReferenceIndex(final Collection<QmfConsoleData> objects)
+    {
+        addAll(objects);
+    }
+
+    /**
+     * Add an object to the index. If an object with the same ObjectId has already been added it is replaced, both in
+     * the ObjectId index and in the class and reverse indexes, so the index never holds two versions of an object.
+     *
+     * @param object the object to be indexed.
+     */
+    public void add(final QmfConsoleData object)
+    {
+        ObjectId objectId = object.getObjectId();
+        if (objectId == null)
+        {
+            return;
+        }
+
+        String className = object.getSchemaClassId().getClassName();
+        QmfConsoleData previous = _objects.put(objectId.toString(), object);
+        if (previous != null)
+        {
+            String previousClassName = previous.getSchemaClassId().getClassName();
+            removeReferrers(previous, previousClassName);
+            List<QmfConsoleData> objects = _classes.get(previousClassName);
+            int index = indexOf(objects, previous);
+            if (previousClassName.equals(className))
+            { // Replace the previous version in place so the class List keeps the order in which objects were added.
+                objects.set(index, object);
+                addReferrers(object, className);
+                return;
+            }
+            objects.remove(index);
+        }
+
+        List<QmfConsoleData> objects = _classes.get(className);
+        if (objects == null)
+        {
+            objects = new ArrayList<QmfConsoleData>();
+            _classes.put(className, objects);
+        }
+        objects.add(object);
+        addReferrers(object, className);
+    }
+
+    /**
+     * Return the position of an object in a List, comparing by identity.
+     *
+     * @param objects the List to search.
+     * @param object the object to find.
+     * @return the position of the object, or -1 if it isn't in the List.
+     */
+    private static int indexOf(final List<QmfConsoleData> objects, final QmfConsoleData object)
+    {
+        for (int i = 0; i < objects.size(); i++)
+        {
+            if (objects.get(i) == object)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add an object to any reverse indexes that have already been built for its class.
+     *
+     * @param object the object to be added.
+     * @param className the schema class name of the object.
+     */
+    private void addReferrers(final QmfConsoleData object, final String className)
+    {
+        String prefix = className + ".";
+        for (Map.Entry<String, Map<String, List<QmfConsoleData>>> entry : _referrers.entrySet())
+        {
+            String key = entry.getKey();
+            if (key.startsWith(prefix))
+            {
+                addReferrer(entry.getValue(), object, key.substring(prefix.length()));
+            }
+        }
+    }
+
+    /**
+     * Remove an object from any reverse indexes that have already been built for its class.
+     *
+     * @param object the object to be removed.
+     * @param className the schema class name of the object.
+     */
+    private void removeReferrers(final QmfConsoleData object, final String className)
+    {
+        String prefix = className + ".";
+        for (Map.Entry<String, Map<String, List<QmfConsoleData>>> entry : _referrers.entrySet())
+        {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix))
+            {
+                continue;
+            }
+
+            String refProperty = key.substring(prefix.length());
+            if (object.hasValue(refProperty) && object.getValue(refProperty) instanceof Map)
+            {
+                String target = object.getRefValue(refProperty).toString();
+                List<QmfConsoleData> referrers = entry.getValue().get(target);
+                int index = (referrers == null) ? -1 : indexOf(referrers, object);
+                if (index >= 0)
+                {
+                    referrers.remove(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a Collection of objects to the index.
+     *
+     * @param objects the objects to be indexed.
+     */
+    public void addAll(final Collection<QmfConsoleData> objects)
+    {
+        for (QmfConsoleData object : objects)
+        {
+            add(object);
+        }
+    }
+
+    /**
+     * Add an object to a reverse index under the ObjectId held in its reference property, if it has one.
+     *
+     * @param index the reverse index.
+     * @param object the object to be added.
+     * @param refProperty the name of the reference property.
+     */
+    private void addReferrer(final Map<String, List<QmfConsoleData>> index, final QmfConsoleData object,
+                             final String refProperty)
+    {
+        if (!object.hasValue(refProperty) || !(object.getValue(refProperty) instanceof Map))
+        {
+            return;
+        }
+
+        String target = object.getRefValue(refProperty).toString();
+        List<QmfConsoleData> referrers = index.get(target);
+        if (referrers == null)
+        {
+            referrers = new ArrayList<QmfConsoleData>(1);
+            index.put(target, referrers);
+        }
+        referrers.add(object);
+    }
+
+    /**
+     * Return the number of objects in the index.
+     * @return the number of objects in the index.
+     */
+    public int size()
+    {
+        return _objects.size();
+    }
+
+    /**
+     * Look up an object by ObjectId.
+     *
+     * @param objectId the ObjectId of the object to look up.
+     * @return the object with the specified ObjectId or null if it isn't in the index.
+     */
+    public QmfConsoleData get(final ObjectId objectId)
+    {
+        return (objectId == null) ? null : _objects.get(objectId.toString());
+    }
+
+    /**
+     * Dereference a reference property of an object.
+     *
+     * @param object the object holding the reference.
+     * @param refProperty the name of the reference property, e.g. "queueRef".
+     * @return the referenced object or null if the object has no such property or the target isn't in the index.
+     */
+    public QmfConsoleData dereference(final QmfData object, final String refProperty)
+    {
+        if (!object.hasValue(refProperty) || !(object.getValue(refProperty) instanceof Map))
+        {
+            return null;
+        }
+        return get(object.getRefValue(refProperty));
+    }
+
+    /**
+     * Return all of the indexed objects of a given class.
+     *
+     * @param className the schema class name, e.g. "queue".
+     * @return the List of indexed objects of that class.
+     */
+    public List<QmfConsoleData> getObjects(final String className)
+    {
+        List<QmfConsoleData> objects = _classes.get(className);
+        if (objects == null)
+        {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(objects);
+    }
+
+    /**
+     * Return the indexed objects of a given class whose reference property references the specified target, for
+     * example getReferrers("binding", "queueRef", queueId) returns the bindings of a queue.
+     *
+     * @param className the schema class name of the referencing objects, e.g. "binding".
+     * @param refProperty the name of the reference property, e.g. "queueRef".
+     * @param target the ObjectId of the referenced object.
+     * @return the List of objects referencing the target, which is empty if there are none.
+     */
+    public List<QmfConsoleData> getReferrers(final String className, final String refProperty, final ObjectId target)
+    {
+        String key = className + "." + refProperty;
+        Map<String, List<QmfConsoleData>> index = _referrers.get(key);
+        if (index == null)
+        { // Build the reverse index for this class and reference property in a single pass.
+            index = new HashMap<String, List<QmfConsoleData>>();
+            for (QmfConsoleData object : getObjects(className))
+            {
+                addReferrer(index, object, refProperty);
+            }
+            _referrers.put(key, index);
+        }
+
+        List<QmfConsoleData> referrers = (target == null) ? null : index.get(target.toString());
+        if (referrers == null)
+        {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(referrers);
+    }
+}
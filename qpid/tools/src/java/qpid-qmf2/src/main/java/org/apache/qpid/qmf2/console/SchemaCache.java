@@ -0,0 +1,476 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Simple Logging Facade 4 Java
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Misc Imports
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.SchemaClass;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.SchemaEventClass;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+
+/**
+ * A SchemaCache holds the schema retrieved from Agents so that it may be reused rather than retrieved again.
+ * <p>
+ * Schema is keyed by SchemaClassId, which includes the MD5 hash of the schema, so a cached schema is only ever
+ * reused for a class whose hash is identical to the hash of the schema that was originally retrieved. If an Agent
+ * changes the schema of a class its hash changes too and the new schema is retrieved and cached alongside the old.
+ * <p>
+ * If the SchemaCache is given a directory each schema is also persisted there, one file per SchemaClassId, so that
+ * the schema retrieved by one Console may be reused by subsequent Consoles, which is particularly useful for short
+ * lived tools. Files are written to a temporary file and then renamed so concurrent Consoles sharing the directory
+ * never see partially written files, and the SchemaClassId is stored with the schema and checked when a file is
+ * read. Files that can't be read are removed so the schema will be retrieved from the Agent and written again.
+ * <p>
+ * As the directory may be shared the files are not written using Java serialisation, which would allow anyone able
+ * to write to the directory to have arbitrary classes instantiated by the Console. Instead they use a simple tagged
+ * encoding that can only represent the Maps, Lists, Strings, numbers, booleans, byte arrays and UUIDs that make up
+ * the Map representation of a schema, and lengths are checked against the size of the file when it is read.
+ * <p>
+ * SchemaCache is thread safe.
+ *
+ * @author Fraser Adams
+ */
+final class SchemaCache
+{
+    private static final Logger _log = LoggerFactory.getLogger(SchemaCache.class);
+
+    /**
+     * Written at the start of each file to identify the format, which should be changed if the format changes.
+     */
+    private static final int MAGIC = 0x514d4631; // "QMF1"
+
+    /**
+     * The directory that schema is persisted in, or null if the schema is only cached in memory.
+     */
+    private final File _directory;
+
+    /**
+     * The schema cached in memory, indexed by SchemaClassId.
+     */
+    private final Map<SchemaClassId, SchemaClass> _schema = new ConcurrentHashMap<SchemaClassId, SchemaClass>();
+
+    /**
+     * Construct a SchemaCache that persists the schema it holds to the specified directory, which is created if it
+     * doesn't already exist.
+     *
+     * @param directory the directory that the schema is persisted in, if null schema is only cached in memory.
+     */
+    SchemaCache(final File directory)
+    {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+        {
+            _log.info("Unable to create schema cache directory {}, schema will not be persisted", directory);
+            _directory = null;
+        }
+        else
+        {
+            _directory = directory;
+        }
+    }
+
+    /**
+     * Create a SchemaClass from the Map representation of a schema as returned by an Agent. The type of SchemaClass
+     * created is either SchemaObjectClass or SchemaEventClass depending on the type encoded in its SchemaClassId.
+     *
+     * @param content the Map representation of the schema.
+     * @return the SchemaClass created from the Map.
+     */
+    static SchemaClass createSchema(final Map content)
+    {
+        SchemaClass schema = new SchemaObjectClass(content);
+        if ("_event".equals(schema.getClassId().getType()))
+        {
+            schema = new SchemaEventClass(content);
+        }
+        return schema;
+    }
+
+    /**
+     * Return the cached schema for the specified SchemaClassId, reading it from the cache directory if it isn't
+     * already held in memory.
+     *
+     * @param classId the SchemaClassId of the schema to look up.
+     * @return the cached schema or null if there is no schema cached for the SchemaClassId. Null is always
+     *         returned if the SchemaClassId has no hash as the schema couldn't then be validated.
+     */
+    SchemaClass get(final SchemaClassId classId)
+    {
+        if (classId.getHashString() == null)
+        {
+            return null;
+        }
+
+        SchemaClass schema = _schema.get(classId);
+        if (schema == null && _directory != null)
+        {
+            schema = load(classId);
+            if (schema != null)
+            {
+                _schema.put(classId, schema);
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Add the schema for the specified SchemaClassId to the cache, persisting it if the cache has a directory.
+     *
+     * @param classId the SchemaClassId that was used to retrieve the schema.
+     * @param content the Map representation of the schema as returned by the Agent.
+     * @return the SchemaClass created from the Map.
+     */
+    SchemaClass put(final SchemaClassId classId, final Map content)
+    {
+        SchemaClass schema = createSchema(content);
+        if (classId.getHashString() != null)
+        {
+            _schema.put(classId, schema);
+            if (_directory != null)
+            {
+                store(classId, content);
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Return the file used to persist the schema for the specified SchemaClassId. The package and class names are
+     * included to make the cache directory easier to browse, but it is the hash that makes the name unique.
+     *
+     * @param classId the SchemaClassId of the schema.
+     * @return the file used to persist the schema for the specified SchemaClassId.
+     */
+    private File getFile(final SchemaClassId classId)
+    {
+        String name = classId.getPackageName() + "." + classId.getClassName();
+        name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(_directory, name + "-" + classId.getHashString() + ".schema");
+    }
+
+    /**
+     * Read the schema for the specified SchemaClassId from the cache directory.
+     *
+     * @param classId the SchemaClassId of the schema.
+     * @return the schema or null if there is no valid schema persisted for the SchemaClassId.
+     */
+    private SchemaClass load(final SchemaClassId classId)
+    {
+        File file = getFile(classId);
+        if (!file.isFile())
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            long limit = file.length();
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException("unknown format");
+            }
+
+            SchemaClassId storedId = new SchemaClassId((Map)readValue(in, limit));
+            if (storedId.equals(classId))
+            {
+                return createSchema((Map)readValue(in, limit));
+            }
+            _log.info("Schema cache file {} does not match {}", file, classId.getClassName());
+        }
+        catch (IOException ioe)
+        {
+            _log.info("IOException {} caught reading schema cache file {}", ioe.getMessage(), file);
+        }
+        catch (ClassCastException cce)
+        {
+            _log.info("Schema cache file {} is in an incorrect format", file);
+        }
+        finally
+        {
+            close(in);
+        }
+
+        file.delete();
+        return null;
+    }
+
+    /**
+     * Write the schema for the specified SchemaClassId to the cache directory. Failure to persist the schema isn't
+     * fatal, the schema will simply be retrieved from the Agent again by the next Console that needs it.
+     *
+     * @param classId the SchemaClassId of the schema.
+     * @param content the Map representation of the schema as returned by the Agent.
+     */
+    private void store(final SchemaClassId classId, final Map content)
+    {
+        File file = getFile(classId);
+        File temp = null;
+        DataOutputStream out = null;
+        try
+        {
+            temp = File.createTempFile(file.getName(), ".tmp", _directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            writeValue(out, classId.mapEncode());
+            writeValue(out, content);
+            out.close();
+            out = null;
+
+            // On some platforms renameTo() fails if the target exists, in which case another Console has already
+            // written the same schema so we can simply discard ours.
+            if (temp.renameTo(file))
+            {
+                temp = null;
+            }
+        }
+        catch (IOException ioe)
+        {
+            _log.info("IOException {} caught writing schema cache file {}", ioe.getMessage(), file);
+        }
+        finally
+        {
+            close(out);
+            if (temp != null)
+            {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Write a value of one of the types that make up the Map representation of a schema, preceded by a tag byte
+     * identifying its type. Maps and Lists are written recursively.
+     *
+     * @param out the stream to write to.
+     * @param value the value to write.
+     * @throws IOException if the value is of a type that can't be written.
+     */
+    private static void writeValue(final DataOutputStream out, final Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte('N');
+        }
+        else if (value instanceof String)
+        {
+            byte[] bytes = ((String)value).getBytes("UTF-8");
+            out.writeByte('S');
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (value instanceof Boolean)
+        {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean)value);
+        }
+        else if (value instanceof Byte)
+        {
+            out.writeByte('B');
+            out.writeByte((Byte)value);
+        }
+        else if (value instanceof Short)
+        {
+            out.writeByte('H');
+            out.writeShort((Short)value);
+        }
+        else if (value instanceof Integer)
+        {
+            out.writeByte('I');
+            out.writeInt((Integer)value);
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte('L');
+            out.writeLong((Long)value);
+        }
+        else if (value instanceof Float)
+        {
+            out.writeByte('F');
+            out.writeFloat((Float)value);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte('D');
+            out.writeDouble((Double)value);
+        }
+        else if (value instanceof UUID)
+        {
+            UUID uuid = (UUID)value;
+            out.writeByte('U');
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+        else if (value instanceof byte[])
+        {
+            byte[] bytes = (byte[])value;
+            out.writeByte('A');
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        else if (value instanceof Map)
+        {
+            Map<?, ?> map = (Map<?, ?>)value;
+            out.writeByte('M');
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+        else if (value instanceof List)
+        {
+            List<?> list = (List<?>)value;
+            out.writeByte('T');
+            out.writeInt(list.size());
+            for (Object element : list)
+            {
+                writeValue(out, element);
+            }
+        }
+        else
+        {
+            throw new IOException("unsupported type " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Read a value written by writeValue(). Only Maps (as HashMap), Lists (as ArrayList), Strings, numbers,
+     * booleans, byte arrays and UUIDs are ever created.
+     *
+     * @param in the stream to read from.
+     * @param limit the length of the file, no length read from the file may exceed this.
+     * @return the value read.
+     * @throws IOException if the file is truncated or corrupt.
+     */
+    private static Object readValue(final DataInputStream in, final long limit) throws IOException
+    {
+        int tag = in.readByte();
+        switch (tag)
+        {
+            case 'N':
+                return null;
+            case 'S':
+                byte[] string = new byte[readLength(in, limit)];
+                in.readFully(string);
+                return new String(string, "UTF-8");
+            case 'Z':
+                return in.readBoolean();
+            case 'B':
+                return in.readByte();
+            case 'H':
+                return in.readShort();
+            case 'I':
+                return in.readInt();
+            case 'L':
+                return in.readLong();
+            case 'F':
+                return in.readFloat();
+            case 'D':
+                return in.readDouble();
+            case 'U':
+                return new UUID(in.readLong(), in.readLong());
+            case 'A':
+                byte[] bytes = new byte[readLength(in, limit)];
+                in.readFully(bytes);
+                return bytes;
+            case 'M':
+                int size = readLength(in, limit);
+                Map<Object, Object> map = new HashMap<Object, Object>();
+                for (int i = 0; i < size; i++)
+                {
+                    Object key = readValue(in, limit);
+                    map.put(key, readValue(in, limit));
+                }
+                return map;
+            case 'T':
+                int count = readLength(in, limit);
+                List<Object> list = new ArrayList<Object>();
+                for (int i = 0; i < count; i++)
+                {
+                    list.add(readValue(in, limit));
+                }
+                return list;
+            default:
+                throw new IOException("unknown type tag " + tag);
+        }
+    }
+
+    /**
+     * Read a length or element count, checking that it is plausible for a file of the given length.
+     *
+     * @param in the stream to read from.
+     * @param limit the length of the file.
+     * @return the length read.
+     * @throws IOException if the length is negative or longer than the file.
+     */
+    private static int readLength(final DataInputStream in, final long limit) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0 || length > limit)
+        {
+            throw new IOException("invalid length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Quietly close a stream.
+     *
+     * @param stream the stream to close, may be null.
+     */
+    private static void close(final Closeable stream)
+    {
+        if (stream != null)
+        {
+            try
+            {
+                stream.close();
+            }
+            catch (IOException ioe)
+            {
+                // Ignore, there is nothing useful we can do.
+            }
+        }
+    }
+}
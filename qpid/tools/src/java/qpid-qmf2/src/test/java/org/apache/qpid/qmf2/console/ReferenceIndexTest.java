@@ -0,0 +1,224 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Misc Imports
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.ObjectId;
+
+/**
+ * Unit tests for ReferenceIndex.
+ *
+ * @author Fraser Adams
+ */
+public class ReferenceIndexTest extends TestCase
+{
+    private static Map<String, Object> objectId(final String className, final String name)
+    {
+        Map<String, Object> objectId = new HashMap<String, Object>();
+        objectId.put("_agent_name", "broker");
+        objectId.put("_object_name", "org.apache.qpid.broker:" + className + ":" + name);
+        objectId.put("_agent_epoch", 1l);
+        return objectId;
+    }
+
+    /**
+     * Create an object of the specified class whose refProperty, if not null, references the targetClass object
+     * called target.
+     */
+    private static QmfConsoleData object(final String className, final String name, final String refProperty,
+                                         final String targetClass, final String target)
+    {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", name);
+        if (refProperty != null)
+        {
+            values.put(refProperty, objectId(targetClass, target));
+        }
+
+        Map<String, Object> schemaId = new HashMap<String, Object>();
+        schemaId.put("_package_name", "org.apache.qpid.broker");
+        schemaId.put("_class_name", className);
+
+        Map<String, Object> m = new HashMap<String, Object>();
+        m.put("_values", values);
+        m.put("_schema_id", schemaId);
+        m.put("_object_id", objectId(className, name));
+        m.put("_update_ts", 1l);
+        m.put("_create_ts", 1l);
+        m.put("_delete_ts", 0l);
+        return new QmfConsoleData(m, null);
+    }
+
+    private static QmfConsoleData queue(final String name)
+    {
+        return object("queue", name, null, null, null);
+    }
+
+    private static QmfConsoleData binding(final String name, final String queue)
+    {
+        return object("binding", name, "queueRef", "queue", queue);
+    }
+
+    private static ObjectId queueId(final String name)
+    {
+        return new ObjectId("broker", "org.apache.qpid.broker:queue:" + name, 1l);
+    }
+
+    public void testEmpty()
+    {
+        ReferenceIndex index = new ReferenceIndex();
+        assertEquals(0, index.size());
+        assertNull(index.get(queueId("q1")));
+        assertNull(index.get(null));
+        assertTrue(index.getObjects("queue").isEmpty());
+        assertTrue(index.getReferrers("binding", "queueRef", queueId("q1")).isEmpty());
+    }
+
+    public void testGetAndGetObjects()
+    {
+        QmfConsoleData q1 = queue("q1");
+        QmfConsoleData q2 = queue("q2");
+        QmfConsoleData b1 = binding("b1", "q1");
+        ReferenceIndex index = new ReferenceIndex(Arrays.asList(q1, q2, b1));
+
+        assertEquals(3, index.size());
+        assertSame(q1, index.get(queueId("q1")));
+        assertSame(q2, index.get(q2.getObjectId()));
+        assertEquals(Arrays.asList(q1, q2), index.getObjects("queue"));
+        assertEquals(Arrays.asList(b1), index.getObjects("binding"));
+        assertTrue(index.getObjects("exchange").isEmpty());
+    }
+
+    public void testDereference()
+    {
+        QmfConsoleData q1 = queue("q1");
+        QmfConsoleData b1 = binding("b1", "q1");
+        QmfConsoleData b2 = binding("b2", "missing");
+        ReferenceIndex index = new ReferenceIndex(Arrays.asList(q1, b1, b2));
+
+        assertSame(q1, index.dereference(b1, "queueRef"));
+        assertNull(index.dereference(b2, "queueRef"));
+        assertNull(index.dereference(b1, "exchangeRef"));
+        assertNull(index.dereference(b1, "name"));
+    }
+
+    public void testGetReferrers()
+    {
+        QmfConsoleData b1 = binding("b1", "q1");
+        QmfConsoleData b2 = binding("b2", "q2");
+        QmfConsoleData b3 = binding("b3", "q1");
+        ReferenceIndex index = new ReferenceIndex(Arrays.asList(queue("q1"), queue("q2"), b1, b2, b3));
+
+        assertEquals(Arrays.asList(b1, b3), index.getReferrers("binding", "queueRef", queueId("q1")));
+        assertEquals(Arrays.asList(b2), index.getReferrers("binding", "queueRef", queueId("q2")));
+        assertTrue(index.getReferrers("binding", "queueRef", queueId("q3")).isEmpty());
+        assertTrue(index.getReferrers("binding", "queueRef", null).isEmpty());
+        assertTrue(index.getReferrers("queue", "queueRef", queueId("q1")).isEmpty());
+    }
+
+    public void testAddAfterReverseIndexBuilt()
+    {
+        ReferenceIndex index = new ReferenceIndex(Arrays.asList(queue("q1"), binding("b1", "q1")));
+        assertEquals(1, index.getReferrers("binding", "queueRef", queueId("q1")).size());
+
+        QmfConsoleData b2 = binding("b2", "q1");
+        index.add(b2);
+        List<QmfConsoleData> referrers = index.getReferrers("binding", "queueRef", queueId("q1"));
+        assertEquals(2, referrers.size());
+        assertSame(b2, referrers.get(1));
+    }
+
+    public void testReplaceKeepsOrderAndDropsPreviousVersion()
+    {
+        ReferenceIndex index = new ReferenceIndex(Arrays.asList(queue("q1"), queue("q2"), queue("q3")));
+        QmfConsoleData q2 = queue("q2");
+        index.add(q2);
+
+        assertEquals(3, index.size());
+        assertEquals(3, index.getObjects("queue").size());
+        assertSame(q2, index.getObjects("queue").get(1));
+        assertSame(q2, index.get(queueId("q2")));
+    }
+
+    public void testReplaceMovesReferrer()
+    {
+        ReferenceIndex index = new ReferenceIndex(Arrays.asList(queue("q1"), queue("q2"), binding("b1", "q1")));
+        assertEquals(1, index.getReferrers("binding", "queueRef", queueId("q1")).size());
+
+        QmfConsoleData b1 = binding("b1", "q2");
+        index.add(b1);
+        assertEquals(1, index.getObjects("binding").size());
+        assertTrue(index.getReferrers("binding", "queueRef", queueId("q1")).isEmpty());
+        assertEquals(Arrays.asList(b1), index.getReferrers("binding", "queueRef", queueId("q2")));
+        assertSame(index.get(queueId("q2")), index.dereference(b1, "queueRef"));
+    }
+
+    public void testReplaceWithUnchangedReference()
+    {
+        ReferenceIndex index = new ReferenceIndex(Arrays.asList(queue("q1"), binding("b1", "q1")));
+        index.getReferrers("binding", "queueRef", queueId("q1"));
+
+        QmfConsoleData b1 = binding("b1", "q1");
+        index.add(b1);
+        assertEquals(Arrays.asList(b1), index.getReferrers("binding", "queueRef", queueId("q1")));
+    }
+
+    public void testObjectsWithoutObjectIdIgnored()
+    {
+        QmfConsoleData q1 = queue("q1");
+        q1.setObjectId(null);
+        ReferenceIndex index = new ReferenceIndex();
+        index.add(q1);
+        assertEquals(0, index.size());
+    }
+
+    public void testReturnedListsAreUnmodifiable()
+    {
+        ReferenceIndex index = new ReferenceIndex(Arrays.asList(queue("q1"), binding("b1", "q1")));
+        try
+        {
+            index.getObjects("queue").clear();
+            fail("Expected UnsupportedOperationException");
+        }
+        catch (UnsupportedOperationException uoe)
+        { // Expected.
+        }
+
+        try
+        {
+            index.getReferrers("binding", "queueRef", queueId("q1")).clear();
+            fail("Expected UnsupportedOperationException");
+        }
+        catch (UnsupportedOperationException uoe)
+        { // Expected.
+        }
+        assertEquals(1, index.getObjects("queue").size());
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.qpid.qmf2.console;
+
+// Misc Imports
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.UUID;
+
+// JUnit Imports
+import junit.framework.TestCase;
+
+// QMF2 Imports
+import org.apache.qpid.qmf2.common.QmfException;
+import org.apache.qpid.qmf2.common.QmfType;
+import org.apache.qpid.qmf2.common.SchemaClass;
+import org.apache.qpid.qmf2.common.SchemaClassId;
+import org.apache.qpid.qmf2.common.SchemaEventClass;
+import org.apache.qpid.qmf2.common.SchemaObjectClass;
+import org.apache.qpid.qmf2.common.SchemaProperty;
+
+/**
+ * Unit tests for SchemaCache.
+ *
+ * @author Fraser Adams
+ */
+public class SchemaCacheTest extends TestCase
+{
+    private File _directory;
+    private SchemaObjectClass _queue;
+    private SchemaEventClass _event;
+
+    private File[] files()
+    {
+        File[] files = _directory.listFiles();
+        return (files == null) ? new File[0] : files;
+    }
+
+    /**
+     * Return the single file in the cache directory.
+     */
+    private File file()
+    {
+        File[] files = files();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static void write(final File file, final byte[] content) throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(content);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Check that a corrupt cache file is rejected and removed.
+     */
+    private void assertRejected() throws IOException
+    {
+        assertNull(new SchemaCache(_directory).get(_queue.getClassId()));
+        assertEquals(0, files().length);
+    }
+
+    @Override
+    protected void setUp() throws IOException, QmfException
+    {
+        _directory = new File(Files.createTempDirectory("schemacache").toFile(), "cache");
+
+        _queue = new SchemaObjectClass("org.apache.qpid.broker", "queue");
+        _queue.addProperty(new SchemaProperty("name", QmfType.TYPE_STRING));
+        _queue.addProperty(new SchemaProperty("msgDepth", QmfType.TYPE_INT));
+        _queue.generateHash();
+
+        _event = new SchemaEventClass("org.apache.qpid.broker", "queueDeclare");
+        _event.addProperty(new SchemaProperty("qName", QmfType.TYPE_STRING));
+        _event.generateHash();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File file : files())
+        {
+            file.delete();
+        }
+        _directory.delete();
+        _directory.getParentFile().delete();
+    }
+
+    public void testMemoryOnly()
+    {
+        SchemaCache cache = new SchemaCache(null);
+        SchemaClass schema = cache.put(_queue.getClassId(), _queue.mapEncode());
+        assertTrue(schema instanceof SchemaObjectClass);
+        assertSame(schema, cache.get(_queue.getClassId()));
+        assertNull(new SchemaCache(null).get(_queue.getClassId()));
+    }
+
+    public void testPersistenceRoundTrip()
+    {
+        SchemaCache cache = new SchemaCache(_directory);
+        assertTrue(_directory.isDirectory());
+        assertNull(cache.get(_queue.getClassId()));
+
+        cache.put(_queue.getClassId(), _queue.mapEncode());
+        cache.put(_event.getClassId(), _event.mapEncode());
+        assertEquals(2, files().length);
+        for (File file : files())
+        {
+            assertTrue(file.getName(), file.getName().endsWith(".schema"));
+        }
+
+        SchemaCache reloaded = new SchemaCache(_directory);
+        SchemaClass queue = reloaded.get(_queue.getClassId());
+        assertTrue(queue instanceof SchemaObjectClass);
+        assertEquals(_queue.getClassId(), queue.getClassId());
+        assertEquals(2, ((SchemaObjectClass)queue).getPropertyCount());
+        assertEquals(QmfType.TYPE_INT, ((SchemaObjectClass)queue).getProperty("msgDepth").getType());
+        assertSame(queue, reloaded.get(_queue.getClassId()));
+
+        SchemaClass event = reloaded.get(_event.getClassId());
+        assertTrue(event instanceof SchemaEventClass);
+        assertEquals(1, ((SchemaEventClass)event).getPropertyCount());
+    }
+
+    public void testDifferentHashNotReused()
+    {
+        new SchemaCache(_directory).put(_queue.getClassId(), _queue.mapEncode());
+        SchemaClassId changed = new SchemaClassId("org.apache.qpid.broker", "queue", "_data", UUID.randomUUID());
+        assertNull(new SchemaCache(_directory).get(changed));
+        assertEquals(1, files().length);
+    }
+
+    public void testSchemaWithoutHashNotCached()
+    {
+        SchemaClassId noHash = new SchemaClassId("org.apache.qpid.broker", "queue", "_data");
+        SchemaCache cache = new SchemaCache(_directory);
+        assertNotNull(cache.put(noHash, _queue.mapEncode()));
+        assertNull(cache.get(noHash));
+        assertEquals(0, files().length);
+    }
+
+    public void testBadMagicRejected() throws IOException
+    {
+        new SchemaCache(_directory).put(_queue.getClassId(), _queue.mapEncode());
+        RandomAccessFile file = new RandomAccessFile(file(), "rw");
+        try
+        {
+            file.writeInt(0xcafebabe);
+        }
+        finally
+        {
+            file.close();
+        }
+        assertRejected();
+    }
+
+    public void testTruncatedFileRejected() throws IOException
+    {
+        new SchemaCache(_directory).put(_queue.getClassId(), _queue.mapEncode());
+        RandomAccessFile file = new RandomAccessFile(file(), "rw");
+        try
+        {
+            file.setLength(file.length() - 10);
+        }
+        finally
+        {
+            file.close();
+        }
+        assertRejected();
+    }
+
+    public void testImplausibleLengthRejected() throws IOException
+    {
+        new SchemaCache(_directory).put(_queue.getClassId(), _queue.mapEncode());
+        File file = file();
+
+        // A Map claiming more entries than the file could possibly hold.
+        FileOutputStream stream = new FileOutputStream(file);
+        DataOutputStream out = new DataOutputStream(stream);
+        try
+        {
+            out.writeInt(0x514d4631);
+            out.writeByte('M');
+            out.writeInt(Integer.MAX_VALUE);
+        }
+        finally
+        {
+            out.close();
+        }
+        assertRejected();
+    }
+
+    public void testUnknownTagRejected() throws IOException
+    {
+        new SchemaCache(_directory).put(_queue.getClassId(), _queue.mapEncode());
+        write(file(), new byte[] {0x51, 0x4d, 0x46, 0x31, 'X'});
+        assertRejected();
+    }
+
+    public void testWrongTypeRejected() throws IOException
+    {
+        new SchemaCache(_directory).put(_queue.getClassId(), _queue.mapEncode());
+        write(file(), new byte[] {0x51, 0x4d, 0x46, 0x31, 'I', 0, 0, 0, 1});
+        assertRejected();
+    }
+
+    public void testMismatchedSchemaClassIdRejected() throws IOException
+    {
+        // Persist the event schema, then move its file to the name used for the queue schema.
+        SchemaCache cache = new SchemaCache(_directory);
+        cache.put(_queue.getClassId(), _queue.mapEncode());
+        File queueFile = file();
+        assertTrue(queueFile.delete());
+        cache.put(_event.getClassId(), _event.mapEncode());
+        assertTrue(file().renameTo(queueFile));
+
+        assertRejected();
+    }
+
+    public void testUnsupportedValueNotPersisted()
+    {
+        Map<String, Object> content = _queue.mapEncode();
+        content.put("unsupported", new Object());
+        SchemaCache cache = new SchemaCache(_directory);
+        assertNotNull(cache.put(_queue.getClassId(), content));
+        assertNotNull(cache.get(_queue.getClassId()));
+        assertEquals(0, files().length);
+    }
+}